@@ -0,0 +1,53 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.capabilities.core.apianalysis;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares cold and warm API capability analysis times on the
+ * project of {@link APICapabilitiesAnalyzerTest}. Needs a workspace,
+ * so it is run as a JUnit plug-in test; it only reports its timings,
+ * since they are too noisy to assert on.
+ */
+public class APICapabilitiesAnalyzerBenchmark {
+
+	private static final int ITERATIONS = 5;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		APICapabilitiesAnalyzerTest.setUp();
+	}
+
+	@Test
+	public void coldAndWarm() throws Exception {
+		long coldTime = 0, warmTime = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			APICapabilitiesAnalyzer analyzer = new APICapabilitiesAnalyzer();
+			APICapabilitiesAnalyzer.clearCache(APICapabilitiesAnalyzerTest.project);
+
+			long start = System.currentTimeMillis();
+			analyzer.analyze(APICapabilitiesAnalyzerTest.project, new NullProgressMonitor());
+			coldTime += System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			analyzer.analyze(APICapabilitiesAnalyzerTest.project, new NullProgressMonitor());
+			warmTime += System.currentTimeMillis() - start;
+		}
+		System.out.println((APICapabilitiesAnalyzerTest.FILE_COUNT + 1) + " translation units; cold analysis: " +
+				coldTime / ITERATIONS + " ms; warm analysis: " + warmTime / ITERATIONS + " ms");
+	}
+}
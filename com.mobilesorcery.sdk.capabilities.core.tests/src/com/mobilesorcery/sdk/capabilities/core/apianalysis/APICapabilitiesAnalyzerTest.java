@@ -0,0 +1,119 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.capabilities.core.apianalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.core.index.IIndexManager;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.ICapabilities;
+import com.mobilesorcery.sdk.core.MoSyncNature;
+
+public class APICapabilitiesAnalyzerTest {
+
+	static final int FILE_COUNT = 400;
+
+	private static final int CAMERA_USER_INTERVAL = 50;
+
+	static IProject project;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		project = ResourcesPlugin.getWorkspace().getRoot().getProject("apianalysis");
+		if (project.exists()) {
+			project.delete(true, new NullProgressMonitor());
+		}
+		project.create(null);
+		MoSyncNature.addNatureToProject(project, true);
+
+		IFolder api = project.getFolder("api");
+		api.create(true, true, null);
+		write(api.getFile("api.h"), "#ifndef API_H\n#define API_H\nvoid useCamera();\nvoid useNothing();\n#endif\n");
+		write(api.getFile("api.cpp"), "#include \"api.h\"\nvoid useCamera() { }\nvoid useNothing() { }\n");
+		write(api.getFile("capabilities.map"), "[Camera]\napi.cpp::useCamera\n");
+
+		for (int i = 0; i < FILE_COUNT; i++) {
+			write(project.getFile("file" + i + ".cpp"), createSource(i, i % CAMERA_USER_INTERVAL == 0));
+		}
+		joinIndexer();
+	}
+
+	@Test
+	public void incremental() throws Exception {
+		APICapabilitiesAnalyzer analyzer = new APICapabilitiesAnalyzer();
+		APICapabilitiesAnalyzer.clearCache(project);
+
+		ICapabilities cold = analyzer.analyze(project, new NullProgressMonitor());
+		int coldCount = analyzer.getAnalyzedCount();
+
+		ICapabilities warm = analyzer.analyze(project, new NullProgressMonitor());
+
+		assertEquals(FILE_COUNT + 1, coldCount);
+		assertEquals(0, analyzer.getAnalyzedCount());
+		assertTrue(cold.hasCapability("Camera"));
+		assertEquals(cold.listCapabilities(), warm.listCapabilities());
+
+		// Remove all camera users but one
+		for (int i = CAMERA_USER_INTERVAL; i < FILE_COUNT; i += CAMERA_USER_INTERVAL) {
+			write(project.getFile("file" + i + ".cpp"), createSource(i, false));
+		}
+		joinIndexer();
+		assertTrue(analyzer.analyze(project, new NullProgressMonitor()).hasCapability("Camera"));
+		assertEquals(FILE_COUNT / CAMERA_USER_INTERVAL - 1, analyzer.getAnalyzedCount());
+
+		write(project.getFile("file0.cpp"), createSource(0, false));
+		joinIndexer();
+		assertFalse(analyzer.analyze(project, new NullProgressMonitor()).hasCapability("Camera"));
+		assertEquals(1, analyzer.getAnalyzedCount());
+	}
+
+	private static String createSource(int index, boolean useCamera) {
+		StringBuffer source = new StringBuffer();
+		source.append("#include \"api/api.h\"\n\n");
+		source.append("static int helper" + index + "(int x) {\n\treturn x * " + index + ";\n}\n\n");
+		source.append("int function" + index + "() {\n");
+		source.append("\tuseNothing();\n");
+		if (useCamera) {
+			source.append("\tuseCamera();\n");
+		}
+		source.append("\treturn helper" + index + "(" + index + ");\n}\n");
+		return source.toString();
+	}
+
+	private static void write(IFile file, String contents) throws CoreException {
+		ByteArrayInputStream input = new ByteArrayInputStream(contents.getBytes());
+		if (file.exists()) {
+			file.setContents(input, true, false, null);
+		} else {
+			file.create(input, true, null);
+		}
+	}
+
+	private static void joinIndexer() {
+		CCorePlugin.getIndexManager().joinIndexer(IIndexManager.FOREVER, new NullProgressMonitor());
+	}
+}
@@ -1,7 +1,9 @@
 package com.mobilesorcery.sdk.capabilities.core.apianalysis;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.Set;
+import java.util.HashMap;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
@@ -16,18 +18,23 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 
+import com.mobilesorcery.sdk.capabilities.core.CapabilitiesPlugin;
 import com.mobilesorcery.sdk.capabilities.core.ICapabilitiesAnalyzer;
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.ICapabilities;
 
 public class APICapabilitiesAnalyzer implements ICapabilitiesAnalyzer {
 
+	private static final HashMap<IProject, APICapabilitiesCache> caches = new HashMap<IProject, APICapabilitiesCache>();
+
+	private int analyzedCount;
+
 	public APICapabilitiesAnalyzer() {
 		
 	}
 	
 	public ICapabilities analyze(IProject project, IProgressMonitor monitor) throws CoreException {
-			ICProject cProject = CoreModel.getDefault().create(project);
+		ICProject cProject = CoreModel.getDefault().create(project);
 		monitor.beginTask(MessageFormat.format("Analyzing {0}", project.getName()), 1);
 		monitor.worked(1);
 		IIndex index = CCorePlugin.getIndexManager().getIndex(cProject);
@@ -38,14 +45,74 @@ public class APICapabilitiesAnalyzer implements ICapabilitiesAnalyzer {
 		}
 		
 		try {
+			APICapabilitiesCache cache = getCache(project);
 			APICapabilitiesAnalyzerASTVisitor astVisitor = new APICapabilitiesAnalyzerASTVisitor(project, APICapabilitiesMap.getInstance());
 			astVisitor.setProgressMonitor(monitor);
 			astVisitor.setIndex(index);
+			astVisitor.setCache(cache);
 			cProject.accept(astVisitor);
+			analyzedCount = astVisitor.getAnalyzedCount();
+			if (!monitor.isCanceled()) {
+				cache.retain(astVisitor.getVisitedPaths());
+				cache.setCapabilitiesFiles(APICapabilitiesMap.getInstance().getCapabilitiesFiles());
+				saveCache(project, cache);
+			}
 			return astVisitor.getCapabilities();
 		} finally {
 			index.releaseReadLock();
 			monitor.done();
 		}
 	}
+
+	/**
+	 * Returns the number of translation units that had
+	 * to be parsed during the last analysis.
+	 * @return
+	 */
+	public int getAnalyzedCount() {
+		return analyzedCount;
+	}
+
+	/**
+	 * Removes all cached results of a project.
+	 * @param project
+	 */
+	public static void clearCache(IProject project) {
+		synchronized (caches) {
+			caches.remove(project);
+			getCacheFile(project).delete();
+		}
+	}
+
+	private static APICapabilitiesCache getCache(IProject project) {
+		synchronized (caches) {
+			APICapabilitiesCache cache = caches.get(project);
+			if (cache == null) {
+				try {
+					cache = APICapabilitiesCache.read(getCacheFile(project));
+				} catch (IOException e) {
+					// Corrupt; just start over.
+					CoreMoSyncPlugin.getDefault().log(e);
+					cache = new APICapabilitiesCache();
+				}
+				caches.put(project, cache);
+			}
+			cache.validate();
+			return cache;
+		}
+	}
+
+	private static void saveCache(IProject project, APICapabilitiesCache cache) {
+		if (cache.isDirty()) {
+			try {
+				cache.write(getCacheFile(project));
+			} catch (IOException e) {
+				CoreMoSyncPlugin.getDefault().log(e);
+			}
+		}
+	}
+
+	private static File getCacheFile(IProject project) {
+		return CapabilitiesPlugin.getDefault().getStateLocation().append("apianalysis").append(project.getName() + ".cache").toFile();
+	}
 }
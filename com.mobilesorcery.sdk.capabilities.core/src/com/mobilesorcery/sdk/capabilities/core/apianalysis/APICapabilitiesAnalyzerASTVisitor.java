@@ -1,7 +1,11 @@
 package com.mobilesorcery.sdk.capabilities.core.apianalysis;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.eclipse.cdt.core.dom.ast.ASTVisitor;
 import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
@@ -12,7 +16,9 @@ import org.eclipse.cdt.core.dom.ast.IBinding;
 import org.eclipse.cdt.core.index.IIndex;
 import org.eclipse.cdt.core.index.IIndexFile;
 import org.eclipse.cdt.core.index.IIndexFileLocation;
+import org.eclipse.cdt.core.index.IIndexInclude;
 import org.eclipse.cdt.core.index.IIndexName;
+import org.eclipse.cdt.core.index.IndexLocationFactory;
 import org.eclipse.cdt.core.model.ICContainer;
 import org.eclipse.cdt.core.model.ICElement;
 import org.eclipse.cdt.core.model.ICElementVisitor;
@@ -29,15 +35,20 @@ import com.mobilesorcery.sdk.core.Capabilities;
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.ICapabilities;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
+import com.mobilesorcery.sdk.core.Util;
 
 public class APICapabilitiesAnalyzerASTVisitor extends ASTVisitor implements
 		ICElementVisitor {
 
 	private IIndex index;
 	private final Capabilities requiredCapabilites = new Capabilities();
+	private Capabilities translationUnitCapabilities;
 	private final IProject project;
 	private final APICapabilitiesMap capabilitesMap;
 	private IProgressMonitor monitor;
+	private APICapabilitiesCache cache;
+	private final HashSet<String> visitedPaths = new HashSet<String>();
+	private int analyzedCount = 0;
 
 	public APICapabilitiesAnalyzerASTVisitor(IProject project, APICapabilitiesMap capabilitiesMap) {
 		super(true);
@@ -49,6 +60,15 @@ public class APICapabilitiesAnalyzerASTVisitor extends ASTVisitor implements
 		this.index = index;
 	}
 
+	/**
+	 * Sets the cache to use for translation units that have not
+	 * changed since they were last analyzed.
+	 * @param cache
+	 */
+	public void setCache(APICapabilitiesCache cache) {
+		this.cache = cache;
+	}
+
 	@Override
 	public int visit(IASTName name) {
 		IBinding binding = name.resolveBinding();
@@ -74,7 +94,7 @@ public class APICapabilitiesAnalyzerASTVisitor extends ASTVisitor implements
 								location.getURI(), new String(id));
 						if (capabilites != null) {
 							// dump(name, 0);
-							requiredCapabilites.copyMerge(capabilites);
+							translationUnitCapabilities.copyMerge(capabilites);
 						}
 						// }
 					}
@@ -111,6 +131,23 @@ public class APICapabilitiesAnalyzerASTVisitor extends ASTVisitor implements
 		return requiredCapabilites;
 	}
 
+	/**
+	 * Returns the workspace paths of all translation units visited.
+	 * @return
+	 */
+	public Set<String> getVisitedPaths() {
+		return visitedPaths;
+	}
+
+	/**
+	 * Returns the number of translation units that
+	 * were actually parsed, ie not found in the cache.
+	 * @return
+	 */
+	public int getAnalyzedCount() {
+		return analyzedCount;
+	}
+
 	private ICapabilities getCapabilites(URI location, String refid) {
 		return capabilitesMap.get(location, refid);
 	}
@@ -124,20 +161,92 @@ public class APICapabilitiesAnalyzerASTVisitor extends ASTVisitor implements
 			ITranslationUnit tu = (ITranslationUnit) element;
 			boolean shouldVisit = shouldVisit(tu.getResource());
 			if (shouldVisit) {
-				IASTTranslationUnit ast = tu.getAST(index, ITranslationUnit.AST_SKIP_ALL_HEADERS);
-				if (CoreMoSyncPlugin.getDefault().isDebugging()) {
-					CoreMoSyncPlugin.trace("Parsing translation unit {0}", ast.getFilePath());
-				}
-
-				if (ast != null) {
-					ast.accept(this);
-				}
+				analyze(tu);
 			}
 			return !isCancelled() && shouldVisit;
 		}
 		return !isCancelled();
 	}
 
+	private void analyze(ITranslationUnit tu) throws CoreException {
+		IResource resource = tu.getResource();
+		String path = resource.getFullPath().toPortableString();
+		visitedPaths.add(path);
+
+		Long contentHash = cache == null ? null : computeContentHash(resource);
+		long includesStamp = contentHash == null ? 0 : computeIncludesStamp(tu);
+		APICapabilitiesCache.Entry entry = contentHash == null ? null : cache.get(path, contentHash, includesStamp);
+		if (entry == null) {
+			translationUnitCapabilities = new Capabilities();
+			IASTTranslationUnit ast = tu.getAST(index, ITranslationUnit.AST_SKIP_ALL_HEADERS);
+			if (CoreMoSyncPlugin.getDefault().isDebugging()) {
+				CoreMoSyncPlugin.trace("Parsing translation unit {0}", tu.getPath());
+			}
+
+			if (ast != null) {
+				ast.accept(this);
+			}
+			analyzedCount++;
+			if (isCancelled()) {
+				// Never cache partial results
+				return;
+			}
+			entry = new APICapabilitiesCache.Entry(contentHash == null ? 0 : contentHash, includesStamp, translationUnitCapabilities);
+			if (contentHash != null) {
+				cache.put(path, entry);
+			}
+		}
+		requiredCapabilites.copyMerge(entry.getCapabilities());
+	}
+
+	/**
+	 * Returns the content hash of a translation unit.
+	 * @return <code>null</code> if the file could not be read
+	 */
+	private Long computeContentHash(IResource resource) {
+		IPath location = resource.getLocation();
+		if (location == null) {
+			return null;
+		}
+		try {
+			return Util.hashContents(location.toFile());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Combines the index timestamps of a translation unit and
+	 * all the files it includes, directly or indirectly.
+	 */
+	private long computeIncludesStamp(ITranslationUnit tu) throws CoreException {
+		TreeMap<String, Long> timestamps = new TreeMap<String, Long>();
+		IIndexFileLocation location = IndexLocationFactory.getIFL(tu);
+		IIndexFile[] files = location == null ? new IIndexFile[0] : index.getFiles(location);
+		for (int i = 0; i < files.length; i++) {
+			addTimestamp(timestamps, files[i]);
+			IIndexInclude[] includes = index.findIncludes(files[i], IIndex.DEPTH_INFINITE);
+			for (int j = 0; j < includes.length; j++) {
+				IIndexFile included = index.resolveInclude(includes[j]);
+				if (included != null) {
+					addTimestamp(timestamps, included);
+				} else {
+					// Unresolved includes may be resolved later on
+					timestamps.put(includes[j].getIncludedByLocation().getURI() + ":" + includes[j].getName(), -1L);
+				}
+			}
+		}
+		return APICapabilitiesCache.computeIncludesStamp(timestamps);
+	}
+
+	private void addTimestamp(TreeMap<String, Long> timestamps, IIndexFile file) throws CoreException {
+		String key = file.getLocation().getURI().toString();
+		Long previous = timestamps.get(key);
+		// The same file may be indexed more than once, eg with different macros
+		long timestamp = previous == null ? file.getTimestamp() : 31 * previous + file.getTimestamp();
+		timestamps.put(key, timestamp);
+	}
+
 	private boolean shouldVisit(IIndexFileLocation location) {
 		String path = location.getFullPath();
 		if (path != null) {
@@ -0,0 +1,239 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.capabilities.core.apianalysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.mobilesorcery.sdk.core.Capabilities;
+import com.mobilesorcery.sdk.core.Capability;
+import com.mobilesorcery.sdk.core.CapabilityState;
+import com.mobilesorcery.sdk.core.ICapabilities;
+import com.mobilesorcery.sdk.core.ICapability;
+import com.mobilesorcery.sdk.core.Util;
+
+/**
+ * <p>The API capabilities of each translation unit of a project,
+ * as found by the last analysis.</p>
+ * <p>The result for a translation unit is valid as long as the
+ * contents of the translation unit, the index timestamps of the
+ * files it includes and the <code>capabilities.map</code> files
+ * are unchanged.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class APICapabilitiesCache {
+
+	public static class Entry {
+		final long contentHash;
+		final long includesStamp;
+		final ICapabilities capabilities;
+
+		public Entry(long contentHash, long includesStamp, ICapabilities capabilities) {
+			this.contentHash = contentHash;
+			this.includesStamp = includesStamp;
+			this.capabilities = capabilities;
+		}
+
+		public long getContentHash() {
+			return contentHash;
+		}
+
+		public ICapabilities getCapabilities() {
+			return capabilities;
+		}
+	}
+
+	private static final int MAGIC = 0x41434331;
+
+	private static final int VERSION = 1;
+
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final HashMap<String, Long> capabilitiesFiles = new HashMap<String, Long>();
+
+	private boolean dirty = false;
+
+	/**
+	 * Returns the cached result of a translation unit.
+	 * @param path
+	 * @param contentHash
+	 * @param includesStamp
+	 * @return <code>null</code> if there is no valid result
+	 */
+	public synchronized Entry get(String path, long contentHash, long includesStamp) {
+		Entry entry = entries.get(path);
+		if (entry != null && entry.contentHash == contentHash && entry.includesStamp == includesStamp) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cached result of a translation unit, regardless of
+	 * whether it is still valid.
+	 * @param path
+	 * @return
+	 */
+	public synchronized Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public synchronized void put(String path, Entry entry) {
+		entries.put(path, entry);
+		dirty = true;
+	}
+
+	/**
+	 * Removes the results of all translation units except the given ones.
+	 * @param paths
+	 */
+	public synchronized void retain(Collection<String> paths) {
+		dirty |= entries.keySet().retainAll(paths);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Records the <code>capabilities.map</code> files used to
+	 * produce the results of this cache.
+	 * @param files
+	 */
+	public synchronized void setCapabilitiesFiles(Collection<File> files) {
+		for (File file : files) {
+			Long lastModified = file.lastModified();
+			if (!lastModified.equals(capabilitiesFiles.put(file.getAbsolutePath(), lastModified))) {
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Removes all results if any of the <code>capabilities.map</code>
+	 * files has been changed, added or removed.
+	 */
+	public synchronized void validate() {
+		for (Map.Entry<String, Long> capabilitiesFile : capabilitiesFiles.entrySet()) {
+			if (new File(capabilitiesFile.getKey()).lastModified() != capabilitiesFile.getValue()) {
+				entries.clear();
+				capabilitiesFiles.clear();
+				dirty = true;
+				return;
+			}
+		}
+	}
+
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	public static APICapabilitiesCache read(File file) throws IOException {
+		APICapabilitiesCache cache = new APICapabilitiesCache();
+		if (file == null || !file.exists()) {
+			return cache;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				return cache;
+			}
+			int capabilitiesFileCount = input.readInt();
+			for (int i = 0; i < capabilitiesFileCount; i++) {
+				cache.capabilitiesFiles.put(input.readUTF(), input.readLong());
+			}
+			int entryCount = input.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				String path = input.readUTF();
+				long contentHash = input.readLong();
+				long includesStamp = input.readLong();
+				int capabilityCount = input.readInt();
+				Capabilities capabilities = new Capabilities();
+				for (int j = 0; j < capabilityCount; j++) {
+					String name = input.readUTF();
+					CapabilityState state = CapabilityState.valueOf(input.readUTF());
+					capabilities.setCapability(new Capability(name, state));
+				}
+				cache.entries.put(path, new Entry(contentHash, includesStamp, capabilities));
+			}
+		} catch (IllegalArgumentException e) {
+			// Unknown capability state
+			throw new IOException(e.getMessage());
+		} finally {
+			Util.safeClose(input);
+		}
+		return cache;
+	}
+
+	public synchronized void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(capabilitiesFiles.size());
+			for (Map.Entry<String, Long> capabilitiesFile : capabilitiesFiles.entrySet()) {
+				output.writeUTF(capabilitiesFile.getKey());
+				output.writeLong(capabilitiesFile.getValue());
+			}
+			output.writeInt(entries.size());
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue().contentHash);
+				output.writeLong(entry.getValue().includesStamp);
+				Set<ICapability> capabilities = entry.getValue().capabilities.listCapabilities();
+				output.writeInt(capabilities.size());
+				for (ICapability capability : capabilities) {
+					output.writeUTF(capability.getName());
+					output.writeUTF(capability.getState().name());
+				}
+			}
+		} finally {
+			Util.safeClose(output);
+		}
+		file.delete();
+		if (!tmpFile.renameTo(file)) {
+			tmpFile.delete();
+			throw new IOException("Could not write " + file);
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Combines the index timestamps of a set of files into one stamp.
+	 * @param timestamps The timestamps, in a map with a stable iteration order
+	 * @return
+	 */
+	public static long computeIncludesStamp(Map<String, Long> timestamps) {
+		long stamp = Util.FNV_OFFSET_BASIS;
+		for (Map.Entry<String, Long> timestamp : timestamps.entrySet()) {
+			stamp = (stamp ^ timestamp.getKey().hashCode()) * Util.FNV_PRIME;
+			stamp = (stamp ^ timestamp.getValue()) * Util.FNV_PRIME;
+		}
+		return stamp;
+	}
+}
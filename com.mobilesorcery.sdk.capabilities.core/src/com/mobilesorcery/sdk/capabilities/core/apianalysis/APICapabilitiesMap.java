@@ -98,7 +98,16 @@ public class APICapabilitiesMap {
 		}
 	}
 
-	public ICapabilities get(URI location, String refid) {
+	/**
+	 * Returns the <code>capabilities.map</code> files that have
+	 * been looked for so far, whether they exist or not.
+	 * @return
+	 */
+	public synchronized Set<File> getCapabilitiesFiles() {
+		return new HashSet<File>(initedDirectories);
+	}
+
+	public synchronized ICapabilities get(URI location, String refid) {
 		File file = new File(location);
 		File parent = file.getParentFile();
 		initCapabilitesMapForDirectory(parent);
@@ -18,7 +18,7 @@ import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.ICapabilities;
 import com.mobilesorcery.sdk.core.MergeCapabilities;
 import com.mobilesorcery.sdk.core.MoSyncTool;
-import com.mobilesorcery.sdk.core.Pair;
+import com.mobilesorcery.sdk.core.PatternTable;
 import com.mobilesorcery.sdk.core.SectionedPropertiesFile;
 import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section;
 import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section.Entry;
@@ -30,18 +30,18 @@ public class DeviceCapabilitiesParser {
 
 	class CapabilitiesMap {
 
-		List<Pair<Pattern, Capabilities>> runtimes = new ArrayList<Pair<Pattern,Capabilities>>();
-		List<Pair<Pattern, Capabilities>> profiles = new ArrayList<Pair<Pattern,Capabilities>>();
+		PatternTable<Capabilities> runtimes = new PatternTable<Capabilities>();
+		PatternTable<Capabilities> profiles = new PatternTable<Capabilities>();
 
 		public void addRuntimeCapability(Pattern pattern, Capabilities capabilites) {
 			if (pattern != null && capabilites != null) {
-				runtimes.add(new Pair<Pattern, Capabilities>(pattern, capabilites));
+				runtimes.add(pattern, capabilites);
 			}
 		}
 
 		public void addProfileCapability(Pattern pattern, Capabilities capabilites) {
 			if (pattern != null && capabilites != null) {
-				profiles.add(new Pair<Pattern, Capabilities>(pattern, capabilites));
+				profiles.add(pattern, capabilites);
 			}
 		}
 
@@ -50,18 +50,8 @@ public class DeviceCapabilitiesParser {
 			String runtimeName = Profile.getAbbreviatedPlatform(requestProfile);
 
 			ArrayList<Capabilities> result = new ArrayList<Capabilities>();
-
-			for (Pair<Pattern, Capabilities> runtime : runtimes) {
-				if (runtime.first.matcher(runtimeName).matches()) {
-					result.add(runtime.second);
-				}
-			}
-
-			for (Pair<Pattern, Capabilities> profile : profiles) {
-				if (profile.first.matcher(profileName).matches()) {
-					result.add(profile.second);
-				}
-			}
+			result.addAll(runtimes.matchAll(runtimeName));
+			result.addAll(profiles.matchAll(profileName));
 
 			// Correct inheritance
 			Collections.reverse(result);
@@ -80,6 +70,7 @@ public class DeviceCapabilitiesParser {
 	private final HashMap<IProfile, CapabilitiesMap> profileCapabilities = new HashMap<IProfile, CapabilitiesMap>();
 	private final HashMap<String, CapabilitiesMap> runtimeCapabilities = new HashMap<String, CapabilitiesMap>();
 	private CapabilitiesMap defaultCapabilities;
+	private boolean defaultCapabilitiesInited = false;
 
 	public DeviceCapabilitiesParser() {
 
@@ -146,7 +137,7 @@ public class DeviceCapabilitiesParser {
 		}
 	}
 
-	public ICapabilities getCapabilitiesForProfile(IProfile profile) {
+	public synchronized ICapabilities getCapabilitiesForProfile(IProfile profile) {
 		if (capabilities.get(profile) == null) {
 			try {
 				capabilities.put(profile, createCapabilities(profile));
@@ -179,22 +170,25 @@ public class DeviceCapabilitiesParser {
 	}
 
 	private CapabilitiesMap getCapabilitiesMapForProfile(IProfile profile) throws IOException {
-		if (profileCapabilities.get(profile) == null) {
+		// Most profiles and runtimes do not have a capabilities file;
+		// remember that too.
+		if (!profileCapabilities.containsKey(profile)) {
 			profileCapabilities.put(profile, createCapabilitiesMap(profile));
 		}
 		return profileCapabilities.get(profile);
 	}
 
 	private CapabilitiesMap getCapabilitiesMapForRuntime(String platform) throws IOException {
-		if (runtimeCapabilities.get(platform) == null) {
+		if (!runtimeCapabilities.containsKey(platform)) {
 			runtimeCapabilities.put(platform, createCapabilitiesMap(platform));
 		}
 		return runtimeCapabilities.get(platform);
 	}
 
 	private CapabilitiesMap getDefaultCapabilitiesMap() throws IOException {
-		if (defaultCapabilities == null) {
+		if (!defaultCapabilitiesInited) {
 			defaultCapabilities = createDefaultCapabilitiesMap();
+			defaultCapabilitiesInited = true;
 		}
 		return defaultCapabilities;
 	}
@@ -0,0 +1,237 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DemanglerTest {
+
+	private static final int SYMBOL_COUNT = 1000;
+
+	private File directory;
+
+	private File script;
+
+	private File log;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("demangler", "");
+		directory.delete();
+		directory.mkdirs();
+		log = new File(directory, "log");
+		script = new File(directory, "c++filt.sh");
+		// A fake c++filt; logs each start and each symbol, and
+		// 'demangles' by adding brackets.
+		FileWriter writer = new FileWriter(script);
+		try {
+			writer.write("echo start >> '" + log.getAbsolutePath() + "'\n");
+			writer.write("while read symbol; do\n");
+			writer.write("  echo \"$symbol\" >> '" + log.getAbsolutePath() + "'\n");
+			writer.write("  echo \"[$symbol]\"\n");
+			writer.write("done\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void simple() {
+		assertEquals("main", Demangler.demangleSimple("main"));
+		assertEquals("foo", Demangler.demangleSimple("_Z3foo"));
+		assertEquals("foo()", Demangler.demangleSimple("_Z3foov"));
+		assertEquals("foo(int, char const*)", Demangler.demangleSimple("_Z3fooiPKc"));
+		assertEquals("Foo::bar(int&, unsigned char**)", Demangler.demangleSimple("_ZN3Foo3barERiPPh"));
+		assertEquals("Foo::bar() const", Demangler.demangleSimple("_ZNK3Foo3barEv"));
+		assertEquals("f(MAPoint2d const&)", Demangler.demangleSimple("_Z1fRK9MAPoint2d"));
+		// Templates, constructors, operators, substitutions
+		// and anonymous namespaces are left to c++filt
+		assertNull(Demangler.demangleSimple("_Z3maxIiET_S0_S0_"));
+		assertNull(Demangler.demangleSimple("_ZN3FooC1Ev"));
+		assertNull(Demangler.demangleSimple("_ZN3FooplERKS_"));
+		assertNull(Demangler.demangleSimple("_ZN12_GLOBAL__N_13fooEv"));
+		assertNull(Demangler.demangleSimple("_ZL3foov"));
+		assertNull(Demangler.demangleSimple("_ZN2ns1fERKNS_5PointE"));
+	}
+
+	@Test
+	public void batching() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		File cacheFile = new File(directory, "cache");
+		Demangler demangler = new Demangler(new String[] { "sh", script.getAbsolutePath() }, cacheFile);
+		String[] symbols = new String[SYMBOL_COUNT];
+		for (int i = 0; i < symbols.length; i++) {
+			// A mix of symbols needing c++filt, simple ones and unmangled ones
+			if (i % 3 == 0) {
+				symbols[i] = "_Z3maxIiET_S0_S0_" + i;
+			} else if (i % 3 == 1) {
+				symbols[i] = "_Z4funcv";
+			} else {
+				symbols[i] = "symbol" + i;
+			}
+		}
+		String[] result = demangler.demangle(symbols);
+		assertOrder(symbols, result);
+
+		List<String> sent = readLog();
+		// One process, and only the symbols c++filt is needed for.
+		assertEquals("start", sent.get(0));
+		assertEquals((SYMBOL_COUNT + 2) / 3 + 1, sent.size());
+		for (int i = 1; i < sent.size(); i++) {
+			assertEquals("_Z3maxIiET_S0_S0_" + (i - 1) * 3, sent.get(i));
+		}
+		// Not one round trip per symbol
+		int batchCount = demangler.getBatchCount();
+		assertTrue(batchCount > 0 && batchCount < sent.size() - 1);
+
+		// From the session cache
+		assertOrder(symbols, demangler.demangle(symbols));
+		assertEquals(sent.size(), readLog().size());
+		demangler.dispose();
+
+		// From the persistent cache
+		Demangler restarted = new Demangler(new String[] { "sh", script.getAbsolutePath() }, cacheFile);
+		assertOrder(symbols, restarted.demangle(symbols));
+		assertEquals(sent.size(), readLog().size());
+		assertEquals(0, restarted.getBatchCount());
+		restarted.dispose();
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		// Consumes symbols, but never answers
+		File silent = new File(directory, "silent.sh");
+		FileWriter writer = new FileWriter(silent);
+		try {
+			writer.write("while read symbol; do :; done\n");
+		} finally {
+			writer.close();
+		}
+		Demangler demangler = new Demangler(new String[] { "sh", silent.getAbsolutePath() }, null);
+		demangler.setTimeout(500);
+		assertEquals("_Z3maxIiET_S0_S0_", demangler.demangle("_Z3maxIiET_S0_S0_"));
+		assertEquals("foo()", demangler.demangle("_Z3foov"));
+		assertEquals(0, demangler.getBatchCount());
+		demangler.dispose();
+	}
+
+	@Test
+	public void retry() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		// Fails the first time it is started
+		File marker = new File(directory, "started");
+		File flaky = new File(directory, "flaky.sh");
+		FileWriter writer = new FileWriter(flaky);
+		try {
+			writer.write("if [ ! -f '" + marker.getAbsolutePath() + "' ]; then touch '" + marker.getAbsolutePath() + "'; exit 1; fi\n");
+			writer.write("exec sh '" + script.getAbsolutePath() + "'\n");
+		} finally {
+			writer.close();
+		}
+		Demangler demangler = new Demangler(new String[] { "sh", flaky.getAbsolutePath() }, null);
+		demangler.setRetryDelay(200);
+		assertEquals("_Z3maxIiET_S0_S0_", demangler.demangle("_Z3maxIiET_S0_S0_"));
+		// Not retried until the delay has passed
+		assertEquals("_Z3minIiET_S0_S0_", demangler.demangle("_Z3minIiET_S0_S0_"));
+		Thread.sleep(300);
+		assertEquals("[_Z3maxIiET_S0_S0_]", demangler.demangle("_Z3maxIiET_S0_S0_"));
+		assertEquals(1, demangler.getBatchCount());
+		demangler.dispose();
+	}
+
+	@Test
+	public void longSymbol() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		// Longer than writeUTF can handle
+		StringBuffer symbol = new StringBuffer("_Z3maxIiET_S0_S0_");
+		while (symbol.length() < 70000) {
+			symbol.append("x");
+		}
+		File cacheFile = new File(directory, "cache");
+		Demangler demangler = new Demangler(new String[] { "sh", script.getAbsolutePath() }, cacheFile);
+		assertEquals("[" + symbol + "]", demangler.demangle(symbol.toString()));
+		demangler.dispose();
+
+		Demangler restarted = new Demangler(new String[] { "sh", script.getAbsolutePath() }, cacheFile);
+		assertEquals("[" + symbol + "]", restarted.demangle(symbol.toString()));
+		assertEquals(0, restarted.getBatchCount());
+		restarted.dispose();
+	}
+
+	@Test
+	public void failure() {
+		Demangler demangler = new Demangler(new String[] { new File(directory, "missing").getAbsolutePath() }, null);
+		assertEquals("_Z3maxIiET_S0_S0_", demangler.demangle("_Z3maxIiET_S0_S0_"));
+		assertEquals("foo()", demangler.demangle("_Z3foov"));
+		demangler.dispose();
+	}
+
+	private void assertOrder(String[] symbols, String[] result) {
+		assertEquals(symbols.length, result.length);
+		for (int i = 0; i < symbols.length; i++) {
+			if (i % 3 == 0) {
+				assertEquals("[" + symbols[i] + "]", result[i]);
+			} else if (i % 3 == 1) {
+				assertEquals("func()", result[i]);
+			} else {
+				assertEquals(symbols[i], result[i]);
+			}
+		}
+	}
+
+	private List<String> readLog() throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (String line : Util.readFile(log.getAbsolutePath()).split("\n")) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static boolean hasShell() {
+		// The test scripts need a POSIX shell.
+		return !System.getProperty("os.name").toLowerCase().contains("win");
+	}
+}
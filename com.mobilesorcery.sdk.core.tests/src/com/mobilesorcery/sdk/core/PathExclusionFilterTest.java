@@ -18,19 +18,29 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.mobilesorcery.sdk.internal.StringMatcher;
+
 public class PathExclusionFilterTest {
 
+	private static final int FOLDER_COUNT = 200;
+
+	private static final int FILES_PER_FOLDER = 100;
+
 	private static IProject project;
 
 	@BeforeClass
@@ -90,6 +100,74 @@ public class PathExclusionFilterTest {
 		assertEquals("a/a.h should not be added if a already added", 1, added);
 	}
 	
+	@Test
+	public void testDirectoryExclude() throws CoreException {
+		createFolder("excluded").create(true, true, null);
+		PathExclusionFilter filter = PathExclusionFilter.parse(new String[] { "excluded", "+excluded/kept.c" });
+		IFilter<IResource> cachingFilter = filter.createCachingFilter();
+		for (IFilter<IResource> f : Arrays.asList(filter, cachingFilter)) {
+			assertFalse(f.accept(createResource("excluded/sub/a.c")));
+			assertFalse(f.accept(createResource("EXCLUDED/a.c")));
+			assertTrue(f.accept(createResource("excluded/kept.c")));
+			assertTrue(f.accept(createResource("excludedfile.c")));
+		}
+	}
+
+	@Test
+	public void sameAsLegacyEvaluation() throws CoreException {
+		createFolder("generated").create(true, true, null);
+		createFolder("tests").create(true, true, null);
+		String[] filespecs = new String[] { "*.bak", "generated", "module1?/*.tmp", "+generated/keep*.c", "tests", "module7/file3.c", "+tests/module7" };
+		List<IResource> resources = new ArrayList<IResource>();
+		String[] folders = new String[] { "", "generated/", "tests/" };
+		for (int i = 0; i < FOLDER_COUNT; i++) {
+			for (int j = 0; j < FILES_PER_FOLDER; j++) {
+				String ext = j % 10 == 0 ? ".bak" : (j % 10 == 1 ? ".tmp" : ".c");
+				String name = j % 7 == 0 ? "keep" + j : "file" + j;
+				resources.add(createResource(folders[(i + j) % folders.length] + "module" + i + "/" + name + ext));
+			}
+		}
+
+		PathExclusionFilter filter = PathExclusionFilter.parse(filespecs);
+		IFilter<IResource> cachingFilter = filter.createCachingFilter();
+		for (int pass = 0; pass < 2; pass++) {
+			for (IResource resource : resources) {
+				boolean expected = legacyAccept(filter, resource);
+				assertEquals(resource.toString(), expected, filter.accept(resource));
+				assertEquals(resource.toString(), expected, cachingFilter.accept(resource));
+			}
+		}
+	}
+
+	/**
+	 * The filter evaluation as it was before filters were compiled.
+	 */
+	private static boolean legacyAccept(PathExclusionFilter filter, IResource resource) {
+		boolean exclude = false;
+		for (String filespec : filter.getFileSpecs()) {
+			boolean include = filespec.startsWith("+");
+			String path = include ? filespec.substring(1) : filespec;
+			if (legacyMatch(path, resource)) {
+				exclude = !include;
+			}
+		}
+		return !exclude;
+	}
+
+	private static boolean legacyMatch(String filespec, IResource resource) {
+		IResource directoryLocation = resource.getProject().findMember(new Path(filespec));
+		boolean isDirectoryFilter = directoryLocation != null && directoryLocation.getLocation().toFile().isDirectory();
+		StringMatcher matcher = new StringMatcher(new Path(filespec).toPortableString(), true, false);
+		for (IPath path = resource.getProjectRelativePath(); ; path = path.removeLastSegments(1)) {
+			if (matcher.match(path.toPortableString())) {
+				return true;
+			}
+			if (!isDirectoryFilter || path.segmentCount() == 0) {
+				return false;
+			}
+		}
+	}
+
 	private IResource createResource(String path) {
 		return project.getFile(path);
 	}
@@ -0,0 +1,106 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PatternTableTest {
+
+	private static final String[] PATTERNS = new String[] {
+		"android_[0-9]+", "android_3", "android_.*", "android_(3|4)", "android_1?0",
+		"Android/.*", "Android/2\\.3", "Android/2.*|iOS/.*", "(?i)ANDROID_3",
+		"iOS/iPhone.*", "iOS/iPhone 4", "iOS/iPad", "ios_.*", ".*", ".*_3", "[a-z]+_[0-9]",
+		"wp7_.*", "WP/.*", "moblin_1", "s60v[35]_.*", "s60v3_.+", "JavaME/.*", "j2me_cldc(10|11)",
+		"\\Qandroid_|\\E", "bb_?[0-9]", "sym{2}bian", "^android_4$"
+	};
+
+	private static final String[] INPUTS = new String[] {
+		"android_3", "android_4", "android_10", "android_0", "android_", "ANDROID_3",
+		"Android/2.3", "Android/2.2", "Android/1.5", "iOS/iPhone 4", "iOS/iPad", "ios_1",
+		"wp7_1", "WP/Nokia", "moblin_1", "s60v3_1", "s60v5_2", "JavaME/Nokia 6600",
+		"j2me_cldc10", "android_|", "bb7", "b_7", "symmbian", "", "x"
+	};
+
+	@Test
+	public void literalPrefixes() {
+		assertEquals("android_", PatternTable.getLiteralPrefix(Pattern.compile("android_[0-9]+")));
+		assertEquals("android_", PatternTable.getLiteralPrefix(Pattern.compile("android_(3|4)")));
+		assertEquals("Android/2", PatternTable.getLiteralPrefix(Pattern.compile("Android/2\\.3")));
+		assertEquals("android_", PatternTable.getLiteralPrefix(Pattern.compile("android_1?0")));
+		assertEquals("sy", PatternTable.getLiteralPrefix(Pattern.compile("sym{2}bian")));
+		assertEquals("", PatternTable.getLiteralPrefix(Pattern.compile("Android/2.*|iOS/.*")));
+		assertEquals("", PatternTable.getLiteralPrefix(Pattern.compile("(?i)ANDROID_3")));
+		assertEquals("", PatternTable.getLiteralPrefix(Pattern.compile("android_3", Pattern.CASE_INSENSITIVE)));
+		assertEquals("", PatternTable.getLiteralPrefix(Pattern.compile("^android_4$")));
+	}
+
+	@Test
+	public void equivalence() {
+		PatternTable<Integer> table = new PatternTable<Integer>();
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (int i = 0; i < PATTERNS.length; i++) {
+			Pattern pattern = Pattern.compile(PATTERNS[i]);
+			patterns.add(pattern);
+			table.add(pattern, i);
+		}
+		for (String input : INPUTS) {
+			assertEquals(input, matchLinearly(patterns, input), table.matchAll(input));
+			// Once more, from the cache
+			assertEquals(input, matchLinearly(patterns, input), table.matchAll(input));
+		}
+
+		// Adding patterns must invalidate cached results
+		Pattern late = Pattern.compile("android_3");
+		patterns.add(late);
+		table.add(late, patterns.size() - 1);
+		assertEquals(matchLinearly(patterns, "android_3"), table.matchAll("android_3"));
+	}
+
+	@Test
+	public void manyPatterns() {
+		Random random = new Random(4711);
+		PatternTable<Integer> table = new PatternTable<Integer>();
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		String[] inputs = new String[2000];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = "Vendor" + random.nextInt(100) + "/Profile" + i;
+		}
+		for (int i = 0; i < 200; i++) {
+			Pattern pattern = Pattern.compile("Vendor" + i + "/Profile[0-9]*" + random.nextInt(10));
+			patterns.add(pattern);
+			table.add(pattern, i);
+		}
+
+		for (String input : inputs) {
+			assertEquals(matchLinearly(patterns, input), table.matchAll(input));
+		}
+	}
+
+	private List<Integer> matchLinearly(List<Pattern> patterns, String input) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		for (int i = 0; i < patterns.size(); i++) {
+			if (patterns.get(i).matcher(input).matches()) {
+				result.add(i);
+			}
+		}
+		return result;
+	}
+}
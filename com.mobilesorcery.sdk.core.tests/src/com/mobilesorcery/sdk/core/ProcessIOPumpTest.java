@@ -0,0 +1,207 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.LineReader.LineAdapter;
+
+public class ProcessIOPumpTest {
+
+	private static final int PROCESS_COUNT = 200;
+
+	private static final int CONCURRENT_PROCESSES = 20;
+
+	private static final int LINE_COUNT = 200;
+
+	private static class Collector extends LineAdapter {
+		private final List<String> lines = new ArrayList<String>();
+		private final CountDownLatch stopped;
+		private IOException exception;
+
+		Collector(CountDownLatch stopped) {
+			this.stopped = stopped;
+		}
+
+		@Override
+		public void newLine(String line) {
+			lines.add(line);
+		}
+
+		@Override
+		public void stop(IOException e) {
+			exception = e;
+			stopped.countDown();
+		}
+	}
+
+	@Test
+	public void lineEndings() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		List<String> lines = run(new ProcessIOPump(1), "printf 'a\\nb\\r\\nc\\rd\\n\\ne'", 1).get(0).lines;
+		assertEquals(6, lines.size());
+		assertEquals("a", lines.get(0));
+		assertEquals("b", lines.get(1));
+		assertEquals("c", lines.get(2));
+		assertEquals("d", lines.get(3));
+		assertEquals("", lines.get(4));
+		assertEquals("e", lines.get(5));
+	}
+
+	@Test
+	public void stress() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		String script = "i=0; while [ $i -lt " + LINE_COUNT + " ]; do echo out$i; echo err$i >&2; i=$((i+1)); done";
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		long started = threads.getTotalStartedThreadCount();
+		for (int i = 0; i < PROCESS_COUNT / CONCURRENT_PROCESSES; i++) {
+			runWithLineReaders(script);
+		}
+		long lineReaderStarted = threads.getTotalStartedThreadCount() - started;
+
+		ProcessIOPump pump = new ProcessIOPump(ProcessIOPump.DEFAULT_PUMP_COUNT);
+		started = threads.getTotalStartedThreadCount();
+		for (int i = 0; i < PROCESS_COUNT / CONCURRENT_PROCESSES; i++) {
+			List<Collector> collectors = run(pump, script, CONCURRENT_PROCESSES);
+			for (int j = 0; j < collectors.size(); j++) {
+				Collector collector = collectors.get(j);
+				assertNull(collector.exception);
+				assertEquals(LINE_COUNT, collector.lines.size());
+				String prefix = j % 2 == 0 ? "out" : "err";
+				for (int k = 0; k < LINE_COUNT; k++) {
+					assertEquals(prefix + k, collector.lines.get(k));
+				}
+			}
+		}
+		long pumpStarted = threads.getTotalStartedThreadCount() - started;
+
+		assertTrue(pump.getThreadCount() <= ProcessIOPump.DEFAULT_PUMP_COUNT);
+		// The line readers start two threads per process
+		assertTrue(pumpStarted < lineReaderStarted - PROCESS_COUNT);
+	}
+
+	@Test
+	public void failingAndBlockingHandlers() throws Exception {
+		if (!hasShell()) {
+			return;
+		}
+		ProcessIOPump pump = new ProcessIOPump(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch blockingStopped = new CountDownLatch(2);
+		Collector blocking = new Collector(blockingStopped) {
+			@Override
+			public void newLine(String line) {
+				super.newLine(line);
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		Process blockingProcess = start("echo a; echo b");
+		pump.attach(blockingProcess, blocking, new Collector(blockingStopped));
+		blocked.await();
+
+		// The same pump thread, but this process is not held up
+		CountDownLatch failingStopped = new CountDownLatch(2);
+		Collector failing = new Collector(failingStopped) {
+			@Override
+			public void newLine(String line) {
+				super.newLine(line);
+				if (line.equals("b")) {
+					throw new IllegalStateException();
+				}
+			}
+		};
+		Process failingProcess = start("echo a; echo b; echo c");
+		pump.attach(failingProcess, failing, new Collector(failingStopped));
+		failingProcess.waitFor();
+		failingStopped.await();
+		assertEquals(3, failing.lines.size());
+		assertEquals("c", failing.lines.get(2));
+		assertEquals(1, blocking.lines.size());
+
+		release.countDown();
+		blockingProcess.waitFor();
+		blockingStopped.await();
+		assertEquals(2, blocking.lines.size());
+	}
+
+	/**
+	 * Returns a stdout and a stderr collector per process.
+	 */
+	private List<Collector> run(ProcessIOPump pump, String script, int processCount) throws Exception {
+		CountDownLatch stopped = new CountDownLatch(2 * processCount);
+		ArrayList<Collector> collectors = new ArrayList<Collector>();
+		ArrayList<Process> processes = new ArrayList<Process>();
+		for (int i = 0; i < processCount; i++) {
+			Process process = start(script);
+			Collector stdout = new Collector(stopped);
+			Collector stderr = new Collector(stopped);
+			collectors.add(stdout);
+			collectors.add(stderr);
+			processes.add(process);
+			pump.attach(process, stdout, stderr);
+		}
+		for (Process process : processes) {
+			process.waitFor();
+		}
+		stopped.await();
+		return collectors;
+	}
+
+	private void runWithLineReaders(String script) throws Exception {
+		CountDownLatch stopped = new CountDownLatch(2 * CONCURRENT_PROCESSES);
+		ArrayList<Process> processes = new ArrayList<Process>();
+		for (int i = 0; i < CONCURRENT_PROCESSES; i++) {
+			Process process = start(script);
+			processes.add(process);
+			new LineReader(new InputStreamReader(process.getInputStream()), new Collector(stopped)).start();
+			new LineReader(new InputStreamReader(process.getErrorStream()), new Collector(stopped)).start();
+		}
+		for (Process process : processes) {
+			process.waitFor();
+		}
+		stopped.await();
+	}
+
+	private static boolean hasShell() {
+		// The test scripts need a POSIX shell.
+		return !System.getProperty("os.name").toLowerCase().contains("win");
+	}
+
+	private Process start(String script) throws IOException {
+		return new ProcessBuilder("sh", "-c", script).start();
+	}
+}
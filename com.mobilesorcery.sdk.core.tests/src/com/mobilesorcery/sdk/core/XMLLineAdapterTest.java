@@ -0,0 +1,114 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+
+import com.mobilesorcery.sdk.core.LineReader.XMLLineAdapter;
+
+public class XMLLineAdapterTest {
+
+	private static final int ELEMENT_COUNT = 200000;
+
+	private static class CountingAdapter extends XMLLineAdapter {
+		private volatile int elements;
+		private volatile boolean stopped;
+		private volatile Exception exception;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			if ("capability".equals(qName)) {
+				assertEquals(Integer.toString(elements), atts.getValue("value"));
+				elements++;
+			}
+		}
+
+		@Override
+		protected void doStop(Exception e) {
+			exception = e;
+			stopped = true;
+			done.countDown();
+		}
+
+		void awaitStop() throws InterruptedException {
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void streaming() throws Exception {
+		CountingAdapter adapter = new CountingAdapter();
+		long outputSize = 0;
+		boolean incremental = false;
+
+		adapter.newLine("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		adapter.newLine("<db>");
+		for (int i = 0; i < ELEMENT_COUNT; i++) {
+			String line = "  <capability name=\"Capability/With/A/Fairly/Long/Name\" type=\"property\" state=\"SUPPORTED\" value=\"" + i + "\"/>";
+			adapter.newLine(line);
+			outputSize += line.length() + 1;
+			if (i % 20000 == 19999) {
+				incremental |= adapter.elements > 0;
+			}
+		}
+		adapter.newLine("</db>");
+		adapter.stop(null);
+		adapter.awaitStop();
+
+		assertTrue(adapter.stopped);
+		assertNull(adapter.exception);
+		assertEquals(ELEMENT_COUNT, adapter.elements);
+		// Elements are parsed while output is still arriving
+		assertTrue(incremental);
+		// ...and at most a small, fixed part of it is held in memory
+		assertTrue(outputSize > 100 * XMLLineAdapter.PIPE_CAPACITY);
+		assertTrue(adapter.getMaxBuffered() > 0);
+		assertTrue(adapter.getMaxBuffered() <= XMLLineAdapter.PIPE_CAPACITY);
+	}
+
+	@Test
+	public void malformed() throws Exception {
+		CountingAdapter adapter = new CountingAdapter();
+		adapter.newLine("<db><capability value=\"0\"/>");
+		adapter.newLine("</notdb>");
+		// More output than the pipe can hold must not block
+		for (int i = 0; i < 100000; i++) {
+			adapter.newLine("<capability value=\"x\"/>");
+		}
+		adapter.stop(null);
+		adapter.awaitStop();
+		assertTrue(adapter.exception != null);
+		assertEquals(1, adapter.elements);
+	}
+
+	@Test
+	public void ioException() throws Exception {
+		CountingAdapter adapter = new CountingAdapter();
+		adapter.newLine("<db>");
+		IOException ioe = new IOException();
+		adapter.stop(ioe);
+		adapter.awaitStop();
+		assertTrue(adapter.exception == ioe);
+	}
+}
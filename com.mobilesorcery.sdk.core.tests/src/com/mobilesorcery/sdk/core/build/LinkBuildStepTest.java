@@ -0,0 +1,115 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.core.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkBuildStepTest {
+
+	private File directory;
+
+	private File pipeTool;
+
+	private File library;
+
+	private File objectFile;
+
+	private File program;
+
+	private File linkStateFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("link", "");
+		directory.delete();
+		directory.mkdirs();
+		pipeTool = write("pipe-tool", "pipe-tool");
+		library = write("mastd.lib", "library");
+		objectFile = write("main.s", "object");
+		program = new File(directory, "program");
+		linkStateFile = new File(directory, "link.state");
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void unchangedAcrossSessions() throws IOException {
+		// Every build session has its own app code
+		assertFalse(link("AAAA"));
+		assertTrue(link("BBBB"));
+		assertEquals("AAAA", LinkBuildStep.getLinkedAppCode(LinkBuildStep.loadLinkState(linkStateFile)));
+	}
+
+	@Test
+	public void changedInput() throws IOException {
+		assertFalse(link("AAAA"));
+		write("main.s", "changed object");
+		assertFalse(link("BBBB"));
+		assertEquals("BBBB", LinkBuildStep.getLinkedAppCode(LinkBuildStep.loadLinkState(linkStateFile)));
+		assertTrue(link("CCCC"));
+
+		program.delete();
+		assertFalse(link("DDDD"));
+	}
+
+	/**
+	 * Does what the link step of one build session does
+	 * with the link state.
+	 * @return <code>true</code> if the link was skipped
+	 */
+	private boolean link(String appCode) throws IOException {
+		String[] commandLine = new String[] { pipeTool.getAbsolutePath(), "-appcode=" + appCode, "-B", program.getAbsolutePath() };
+		Properties linkState = LinkBuildStep.loadLinkState(linkStateFile);
+		String linkKey = LinkBuildStep.computeLinkKey(commandLine, pipeTool, new File[] { library },
+				new String[] { objectFile.getAbsolutePath() });
+		if (LinkBuildStep.isLinkUpToDate(linkState, linkKey, program)) {
+			return true;
+		}
+		write(program.getName(), appCode);
+		LinkBuildStep.setLinked(linkState, linkKey, appCode, false);
+		LinkBuildStep.saveLinkState(linkStateFile, linkState);
+		return false;
+	}
+
+	private File write(String name, String contents) throws IOException {
+		File file = new File(directory, name);
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,137 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.IFileTreeDiff;
+
+public class BuildStateDiffTest {
+
+	private static final int FOLDER_COUNT = 100;
+
+	private static final int FILES_PER_FOLDER = 100;
+
+	private static IProject project;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		final IWorkspace ws = ResourcesPlugin.getWorkspace();
+		project = ws.getRoot().getProject("buildstatediff");
+		if (project.exists()) {
+			project.delete(true, new NullProgressMonitor());
+		}
+		ws.run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				project.create(null);
+				project.open(null);
+				for (int i = 0; i < FOLDER_COUNT; i++) {
+					IFolder folder = project.getFolder("folder" + i);
+					folder.create(true, true, null);
+					for (int j = 0; j < FILES_PER_FOLDER; j++) {
+						folder.getFile("file" + j + ".c").create(new ByteArrayInputStream(new byte[0]), true, null);
+					}
+				}
+			}
+		}, new NullProgressMonitor());
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		project.delete(true, new NullProgressMonitor());
+	}
+
+	@Test
+	public void compareDiffs() throws Exception {
+		final IFile changedFile = project.getFolder("folder7").getFile("file42.c");
+
+		BuildState.FileInfoTree before = new BuildState.FileInfoTree(project);
+		project.accept(before);
+
+		final IFileTreeDiff[] deltaDiff = new IFileTreeDiff[1];
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			@Override
+			public void resourceChanged(IResourceChangeEvent event) {
+				IResourceDelta projectDelta = event.getDelta().findMember(project.getFullPath());
+				if (projectDelta != null) {
+					try {
+						deltaDiff[0] = BuildState.createDiff(projectDelta);
+					} catch (CoreException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		};
+
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		try {
+			// Make sure the timestamp actually changes.
+			Thread.sleep(1100);
+			changedFile.setContents(new ByteArrayInputStream("int x;".getBytes()), true, false, null);
+		} finally {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(listener);
+		}
+
+		BuildState.FileInfoTree after = new BuildState.FileInfoTree(project);
+		project.accept(after);
+		IFileTreeDiff scanDiff = after.computeDiff(before);
+
+		assertTrue(scanDiff.getChanged().contains(changedFile.getProjectRelativePath()));
+		assertEquals(scanDiff.getAdded(), deltaDiff[0].getAdded());
+		assertEquals(scanDiff.getChanged(), deltaDiff[0].getChanged());
+		assertEquals(scanDiff.getRemoved(), deltaDiff[0].getRemoved());
+	}
+
+	@Test
+	public void touchedFileWithContentHashes() throws Exception {
+		IFile touchedFile = project.getFolder("folder3").getFile("file17.c");
+		touchedFile.setContents(new ByteArrayInputStream("int y;".getBytes()), true, false, null);
+
+		BuildState.FileInfoTree before = new BuildState.FileInfoTree(project);
+		before.setUseContentHashes(true);
+		project.accept(before);
+		BuildState.FileInfoTree beforeWithoutHashes = new BuildState.FileInfoTree(project);
+		project.accept(beforeWithoutHashes);
+
+		// Same contents, new timestamp
+		Thread.sleep(1100);
+		touchedFile.setContents(new ByteArrayInputStream("int y;".getBytes()), true, false, null);
+
+		BuildState.FileInfoTree after = new BuildState.FileInfoTree(project);
+		project.accept(after);
+		assertTrue(after.computeDiff(beforeWithoutHashes).getChanged().contains(touchedFile.getProjectRelativePath()));
+		assertFalse(after.computeDiff(before).getChanged().contains(touchedFile.getProjectRelativePath()));
+	}
+}
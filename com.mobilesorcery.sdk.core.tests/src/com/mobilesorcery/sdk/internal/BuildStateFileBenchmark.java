@@ -0,0 +1,64 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares the save and load times of the text and binary build
+ * state formats. Not a test; run it as a Java application, since
+ * timings are too noisy to assert on.
+ */
+public class BuildStateFileBenchmark {
+
+	private static final int ITERATIONS = 10;
+
+	public static void main(String[] args) throws IOException {
+		BuildStateFile buildState = BuildStateFileTest.createBuildState(BuildStateFileTest.FILE_COUNT);
+		File textFile = File.createTempFile("buildstate", ".txt");
+		File binaryFile = File.createTempFile("buildstate", ".bin");
+		try {
+			long textSave = 0, textLoad = 0, binarySave = 0, binaryLoad = 0;
+			for (int i = 0; i < ITERATIONS; i++) {
+				long start = System.nanoTime();
+				buildState.writeText(textFile);
+				textSave += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				BuildStateFile.readText(textFile);
+				textLoad += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				buildState.write(binaryFile);
+				binarySave += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				BuildStateFile.readBinary(binaryFile);
+				binaryLoad += System.nanoTime() - start;
+			}
+			System.out.println("Build state, " + BuildStateFileTest.FILE_COUNT + " files, " +
+					BuildStateFileTest.FILE_COUNT * BuildStateFileTest.DEPENDENCIES_PER_FILE + " dependencies:");
+			System.out.println("Text:   save " + toMillis(textSave) + " ms, load " + toMillis(textLoad) + " ms, size " + textFile.length() + " bytes");
+			System.out.println("Binary: save " + toMillis(binarySave) + " ms, load " + toMillis(binaryLoad) + " ms, size " + binaryFile.length() + " bytes");
+		} finally {
+			textFile.delete();
+			binaryFile.delete();
+		}
+	}
+
+	private static long toMillis(long totalNanos) {
+		return totalNanos / ITERATIONS / 1000000;
+	}
+}
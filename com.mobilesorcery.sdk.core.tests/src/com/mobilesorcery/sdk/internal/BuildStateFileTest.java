@@ -0,0 +1,136 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class BuildStateFileTest {
+
+	static final int FILE_COUNT = 5000;
+
+	static final int DEPENDENCIES_PER_FILE = 20;
+
+	@Test
+	public void roundtrip() throws IOException {
+		BuildStateFile original = createBuildState(100);
+		File file = File.createTempFile("buildstate", ".bin");
+		try {
+			original.write(file);
+			assertTrue(BuildStateFile.isBinary(file));
+			BuildStateFile copy = BuildStateFile.read(file);
+			assertSameState(original, copy);
+			assertEquals(hashes(original), hashes(copy));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void migrate() throws IOException {
+		BuildStateFile original = createBuildState(100);
+		File file = File.createTempFile("buildstate", ".txt");
+		try {
+			original.writeText(file);
+			assertFalse(BuildStateFile.isBinary(file));
+			assertSameState(original, BuildStateFile.read(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void large() throws IOException {
+		BuildStateFile buildState = createBuildState(FILE_COUNT);
+		File textFile = File.createTempFile("buildstate", ".txt");
+		File binaryFile = File.createTempFile("buildstate", ".bin");
+		try {
+			buildState.writeText(textFile);
+			buildState.write(binaryFile);
+			assertSameState(buildState, BuildStateFile.readText(textFile));
+			assertSameState(buildState, BuildStateFile.readBinary(binaryFile));
+			assertTrue(binaryFile.length() < textFile.length());
+		} finally {
+			textFile.delete();
+			binaryFile.delete();
+		}
+	}
+
+	static BuildStateFile createBuildState(int fileCount) {
+		BuildStateFile result = new BuildStateFile();
+		result.getResult().put("rebuild-needed", "false");
+		result.getResult().put("success", "true");
+		result.getBuildProperties().put("build.prefs:gcc.switches", "-O2 -DPLATFORM_x");
+		for (int i = 0; i < fileCount; i++) {
+			long hash = i % 2 == 0 ? BuildStateFile.NO_HASH : 31L * i;
+			result.addFile("src/module" + i / 100 + "/file" + i + ".cpp", 1300000000000L + i, hash);
+		}
+		for (int i = 0; i < fileCount; i++) {
+			ArrayList<String> dependencies = new ArrayList<String>();
+			for (int j = 0; j < DEPENDENCIES_PER_FILE; j++) {
+				dependencies.add("/project/include/header" + (i + j) % 200 + ".h");
+			}
+			result.addDependencies("/project/src/module" + i / 100 + "/file" + i + ".cpp", dependencies);
+		}
+		return result;
+	}
+
+	private void assertSameState(BuildStateFile expected, BuildStateFile actual) {
+		assertEquals(expected.getResult(), actual.getResult());
+		assertEquals(expected.getBuildProperties(), actual.getBuildProperties());
+		assertEquals(files(expected), files(actual));
+		assertEquals(dependencies(expected), dependencies(actual));
+	}
+
+	private Map<String, Long> files(BuildStateFile file) {
+		HashMap<String, Long> result = new HashMap<String, Long>();
+		for (int i = 0; i < file.getFileCount(); i++) {
+			result.put(file.getPath(file.getFilePath(i)), file.getFileTimestamp(i));
+		}
+		return result;
+	}
+
+	private Map<String, Long> hashes(BuildStateFile file) {
+		HashMap<String, Long> result = new HashMap<String, Long>();
+		for (int i = 0; i < file.getFileCount(); i++) {
+			result.put(file.getPath(file.getFilePath(i)), file.getFileHash(i));
+		}
+		return result;
+	}
+
+	private Map<String, Set<String>> dependencies(BuildStateFile file) {
+		HashMap<String, Set<String>> result = new HashMap<String, Set<String>>();
+		List<int[]> dependencies = file.getDependencies();
+		for (int[] edges : dependencies) {
+			HashSet<String> to = new HashSet<String>();
+			for (int j = 1; j < edges.length; j++) {
+				to.add(file.getPath(edges[j]));
+			}
+			result.put(file.getPath(edges[0]), to);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,70 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal;
+
+import java.util.Random;
+
+/**
+ * Compares the heap use and lookup times of {@link SLDInfoImpl}
+ * with those of the tree maps it replaced. Not a test; run it
+ * as a Java application, since heap use and timings are too
+ * noisy to assert on.
+ */
+public class SLDInfoImplBenchmark {
+
+	public static void main(String[] args) {
+		Runtime runtime = Runtime.getRuntime();
+		long baseline = usedMemory(runtime);
+		SLDInfoImplTest.TreeMapSLD reference = new SLDInfoImplTest.TreeMapSLD();
+		SLDInfoImplTest.populate(reference, null);
+		long referenceMemory = usedMemory(runtime) - baseline;
+
+		baseline = usedMemory(runtime);
+		SLDInfoImpl sld = new SLDInfoImpl(null);
+		SLDInfoImplTest.populate(null, sld);
+		sld.compact();
+		long sldMemory = usedMemory(runtime) - baseline;
+
+		int[] addrs = new int[SLDInfoImplTest.LOOKUP_COUNT];
+		Random random = new Random(42);
+		for (int i = 0; i < addrs.length; i++) {
+			addrs[i] = random.nextInt(SLDInfoImplTest.LOCATION_COUNT * 16);
+		}
+
+		// Warm up
+		SLDInfoImplTest.lookupReference(reference, addrs);
+		SLDInfoImplTest.lookupSLD(sld, addrs);
+
+		long start = System.nanoTime();
+		int referenceChecksum = SLDInfoImplTest.lookupReference(reference, addrs);
+		long referenceTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		int sldChecksum = SLDInfoImplTest.lookupSLD(sld, addrs);
+		long sldTime = System.nanoTime() - start;
+
+		System.out.println("SLD with " + SLDInfoImplTest.LOCATION_COUNT + " locations, " +
+				SLDInfoImplTest.FUNCTION_COUNT + " functions, " + SLDInfoImplTest.LOOKUP_COUNT + " lookups:");
+		System.out.println("Tree maps: " + referenceMemory / 1024 + " kB, " + referenceTime / 1000000 + " ms");
+		System.out.println("Packed:    " + sldMemory / 1024 + " kB, " + sldTime / 1000000 + " ms");
+		if (referenceChecksum != sldChecksum) {
+			System.out.println("Lookup results differ!");
+		}
+	}
+
+	private static long usedMemory(Runtime runtime) {
+		System.gc();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
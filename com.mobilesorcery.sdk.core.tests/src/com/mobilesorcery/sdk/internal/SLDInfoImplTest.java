@@ -0,0 +1,330 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.ISLDInfo;
+
+public class SLDInfoImplTest {
+
+	static final int LOCATION_COUNT = 300000;
+
+	static final int FUNCTION_COUNT = 30000;
+
+	static final int LOOKUP_COUNT = 1000000;
+
+	private File directory;
+
+	/**
+	 * The maps previously used by {@link SLDInfoImpl}, used
+	 * as a reference.
+	 */
+	static class TreeMapSLD {
+		TreeMap<Integer, String> fileTable = new TreeMap<Integer, String>();
+		TreeMap<Integer, Integer> addrToFile = new TreeMap<Integer, Integer>();
+		TreeMap<Integer, Integer> addrToLine = new TreeMap<Integer, Integer>();
+		TreeMap<AddressRange, String> startAddrForFunc = new TreeMap<AddressRange, String>(AddressRange.START_COMPARATOR);
+
+		void addLocationForAddress(int addr, int lineInFile, int fileId) {
+			addrToLine.put(addr, lineInFile);
+			addrToFile.put(addr, fileId);
+		}
+
+		void addRangeForFunction(String functionName, AddressRange addrRange) {
+			startAddrForFunc.remove(addrRange);
+			startAddrForFunc.put(addrRange, functionName);
+		}
+
+		String getFileName(int addr) {
+			Entry<Integer, Integer> entry = addrToFile.floorEntry(addr);
+			return entry == null ? null : fileTable.get(entry.getValue());
+		}
+
+		int getLine(int addr) {
+			Entry<Integer, Integer> entry = addrToLine.floorEntry(addr - 1);
+			return entry == null ? ISLDInfo.UNKNOWN_LINE : entry.getValue();
+		}
+
+		String getFunction(int addr) {
+			Entry<AddressRange, String> entry = startAddrForFunc.floorEntry(new AddressRange(addr, addr));
+			return entry != null && entry.getKey().inRange(addr) ? entry.getValue() : null;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("sld", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void lookups() throws Exception {
+		SLDInfoImpl sld = new SLDInfoImpl(null);
+		sld.addFile(1, "a.c");
+		sld.addFile(2, "b.c");
+		// Out of order and with a duplicate
+		sld.addLocationForAddress(0x200, 20, 2);
+		sld.addLocationForAddress(0x100, 10, 1);
+		sld.addLocationForAddress(0x200, 21, 2);
+		sld.addRangeForFunction("g", new AddressRange(0x200, 0x2ff));
+		sld.addRangeForFunction("f", new AddressRange(0x100, 0x17f));
+		sld.addRangeForFunction("f", new AddressRange(0x300, 0x3ff));
+
+		assertNull(sld.getFileName(0x50));
+		assertEquals("a.c", sld.getFileName(0x100));
+		assertEquals("b.c", sld.getFileName(0x250));
+		assertEquals(ISLDInfo.UNKNOWN_LINE, sld.getLine(0x100));
+		assertEquals(10, sld.getLine(0x101));
+		assertEquals(21, sld.getLine(0x201));
+
+		assertNull(sld.getFunction(0x50));
+		assertEquals("f", sld.getFunction(0x100));
+		assertNull(sld.getFunction(0x180));
+		assertEquals("g", sld.getFunction(0x2ff));
+		assertEquals("f", sld.getFunction(0x300));
+		assertEquals(3, sld.getAllFunctions().size());
+
+		StringWriter output = new StringWriter();
+		sld.write(output);
+		assertEquals("Files\n1:a.c\n2:b.c\nSLD\n100:10:1\n200:21:2\n", output.toString());
+	}
+
+	@Test
+	public void addAfterCompact() {
+		SLDInfoImpl sld = new SLDInfoImpl(null);
+		sld.addFile(1, "a.c");
+		// Compacting an empty SLD leaves no spare capacity
+		sld.compact();
+		sld.addLocationForAddress(0x100, 10, 1);
+		sld.addRangeForFunction("f", new AddressRange(0x100, 0x1ff));
+		assertEquals("f", sld.getFunction(0x180));
+		assertEquals(10, sld.getLine(0x101));
+	}
+
+	@Test
+	public void equivalence() {
+		Random random = new Random(23);
+		SLDInfoImpl sld = new SLDInfoImpl(null);
+		TreeMapSLD reference = new TreeMapSLD();
+		for (int i = 0; i < 10000; i++) {
+			int addr = 0x1000 + random.nextInt(0x10000);
+			int line = random.nextInt(1000);
+			int file = random.nextInt(10);
+			sld.addLocationForAddress(addr, line, file);
+			reference.addLocationForAddress(addr, line, file);
+		}
+		for (int i = 0; i < 1000; i++) {
+			int start = 0x1000 + random.nextInt(0x10000);
+			AddressRange range = new AddressRange(start, start + random.nextInt(0x40));
+			String name = "func" + random.nextInt(500);
+			sld.addRangeForFunction(name, range);
+			reference.addRangeForFunction(name, range);
+		}
+		for (int i = 0; i < 10; i++) {
+			sld.addFile(i, "file" + i + ".c");
+			reference.fileTable.put(i, "file" + i + ".c");
+		}
+
+		for (int addr = 0; addr < 0x12000; addr++) {
+			assertEquals(reference.getFileName(addr), sld.getFileName(addr));
+			assertEquals(reference.getLine(addr), sld.getLine(addr));
+			assertEquals(reference.getFunction(addr), sld.getFunction(addr));
+		}
+	}
+
+	@Test
+	public void large() {
+		TreeMapSLD reference = new TreeMapSLD();
+		populate(reference, null);
+		SLDInfoImpl sld = new SLDInfoImpl(null);
+		populate(null, sld);
+		sld.compact();
+
+		int[] addrs = new int[LOOKUP_COUNT];
+		Random random = new Random(42);
+		for (int i = 0; i < addrs.length; i++) {
+			addrs[i] = random.nextInt(LOCATION_COUNT * 16);
+		}
+		assertEquals(lookupReference(reference, addrs), lookupSLD(sld, addrs));
+	}
+
+	@Test
+	public void binary() throws Exception {
+		File sldFile = new File(directory, "program.sld");
+		File binFile = new File(directory, "program.sld.bin");
+		SLDInfoImpl sld = new SLDInfoImpl(sldFile);
+		populate(null, sld);
+		// Without functions; the text SLD parser would need c++filt for those
+		FileWriter writer = new FileWriter(sldFile);
+		try {
+			sld.write(writer);
+		} finally {
+			writer.close();
+		}
+		sld.setFileStamp(sldFile.length(), sldFile.lastModified());
+		sld.writeBinary(binFile);
+
+		SLDParser parser = new SLDParser();
+		parser.parse(sldFile);
+		SLDInfoImpl read = SLDInfoImpl.readBinary(binFile, sldFile);
+
+		Random random = new Random(4711);
+		for (int i = 0; i < 100000; i++) {
+			int addr = random.nextInt(LOCATION_COUNT * 16 + 32) - 32;
+			assertEquals(sld.getFileName(addr), read.getFileName(addr));
+			assertEquals(sld.getLine(addr), read.getLine(addr));
+			assertEquals(sld.getFunction(addr), read.getFunction(addr));
+			assertEquals(sld.getLine(addr), parser.getSLD().getLine(addr));
+		}
+		assertEquals(new ArrayList<String>(sld.getAllFunctions()), new ArrayList<String>(read.getAllFunctions()));
+		assertEquals(new ArrayList<String>(sld.getAllFilenames()), new ArrayList<String>(read.getAllFilenames()));
+		assertEquals(sldFile, read.getSLDFile());
+
+		// Out of date
+		sldFile.setLastModified(sldFile.lastModified() - 10000);
+		assertNull(SLDInfoImpl.readBinary(binFile, sldFile));
+		assertNull(SLDInfoImpl.readBinary(new File(directory, "missing"), sldFile));
+	}
+
+	@Test
+	public void changedAfterParsing() throws Exception {
+		File sldFile = new File(directory, "program.sld");
+		File binFile = new File(directory, "program.sld.bin");
+		FileWriter writer = new FileWriter(sldFile);
+		try {
+			writer.write("Files\n1:a.c\nSLD\n100:10:1\n");
+		} finally {
+			writer.close();
+		}
+		SLDParser parser = new SLDParser();
+		parser.parse(sldFile);
+
+		// A new build writes the SLD file before the parsed one is cached
+		writer = new FileWriter(sldFile, true);
+		try {
+			writer.write("200:20:1\n");
+		} finally {
+			writer.close();
+		}
+		parser.getSLD().writeBinary(binFile);
+		assertNull(SLDInfoImpl.readBinary(binFile, sldFile));
+	}
+
+	@Test
+	public void corruptBinary() throws Exception {
+		File sldFile = new File(directory, "program.sld");
+		sldFile.createNewFile();
+		File binFile = new File(directory, "program.sld.bin");
+		SLDInfoImpl sld = new SLDInfoImpl(sldFile);
+		populate(null, sld);
+		sld.setFileStamp(sldFile.length(), sldFile.lastModified());
+		sld.writeBinary(binFile);
+		RandomAccessFile truncated = new RandomAccessFile(binFile, "rw");
+		try {
+			truncated.setLength(binFile.length() / 2);
+		} finally {
+			truncated.close();
+		}
+		boolean failed = false;
+		try {
+			SLDInfoImpl.readBinary(binFile, sldFile);
+		} catch (IOException e) {
+			failed = true;
+		}
+		assertTrue(failed);
+		assertFalse(new File(directory, "program.sld.bin.tmp").exists());
+	}
+
+	static void populate(TreeMapSLD reference, SLDInfoImpl sld) {
+		// Long, C++ style names, like the ones of a real binary
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < FUNCTION_COUNT; i++) {
+			names.add("Namespace::Class::function" + i + "(int, char const*)");
+		}
+		for (int i = 0; i < 100; i++) {
+			if (reference != null) {
+				reference.fileTable.put(i, "file" + i + ".c");
+			} else {
+				sld.addFile(i, "file" + i + ".c");
+			}
+		}
+		for (int i = 0; i < LOCATION_COUNT; i++) {
+			int addr = i * 16;
+			if (reference != null) {
+				reference.addLocationForAddress(addr, i % 5000, i % 100);
+			} else {
+				sld.addLocationForAddress(addr, i % 5000, i % 100);
+			}
+		}
+		int functionSize = LOCATION_COUNT * 16 / FUNCTION_COUNT;
+		for (int i = 0; i < FUNCTION_COUNT; i++) {
+			AddressRange range = new AddressRange(i * functionSize, i * functionSize + functionSize / 2);
+			if (reference != null) {
+				reference.addRangeForFunction(names.get(i), range);
+			} else {
+				sld.addRangeForFunction(names.get(i), range);
+			}
+		}
+	}
+
+	static int lookupReference(TreeMapSLD reference, int[] addrs) {
+		int checksum = 0;
+		for (int addr : addrs) {
+			checksum += reference.getLine(addr) + reference.getFileName(addr).length();
+			String function = reference.getFunction(addr);
+			checksum += function == null ? 0 : function.length();
+		}
+		return checksum;
+	}
+
+	static int lookupSLD(SLDInfoImpl sld, int[] addrs) {
+		int checksum = 0;
+		for (int addr : addrs) {
+			checksum += sld.getLine(addr) + sld.getFileName(addr).length();
+			String function = sld.getFunction(addr);
+			checksum += function == null ? 0 : function.length();
+		}
+		return checksum;
+	}
+}
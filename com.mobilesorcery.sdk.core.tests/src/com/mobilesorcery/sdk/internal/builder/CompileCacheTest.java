@@ -0,0 +1,108 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.Util;
+
+public class CompileCacheTest {
+
+	private File directory;
+
+	private File compiler;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("compilecache", "");
+		directory.delete();
+		directory.mkdirs();
+		compiler = new File(directory, "xgcc");
+		Util.writeToFile(compiler, "compiler");
+	}
+
+	@After
+	public void tearDown() {
+		Util.deleteFiles(directory, null, Util.INFINITE_DEPTH, new NullProgressMonitor());
+		directory.delete();
+	}
+
+	@Test
+	public void keys() throws IOException {
+		String key = key("int x;", "-O2");
+		assertEquals(key, key("int x;", "-O2"));
+		assertFalse(key.equals(key("int y;", "-O2")));
+		assertFalse(key.equals(key("int x;", "-O0")));
+	}
+
+	@Test
+	public void roundtrip() throws IOException {
+		CompileCache cache = new CompileCache(new File(directory, "cache"));
+		File output = new File(directory, "output.s");
+		Util.writeToFile(output, "\t.text\n");
+		String key = key("int x;", "-O2");
+		assertFalse(cache.fetch(key, output, new ArrayList<String>(), new ArrayList<String>()));
+
+		cache.store(key, output, Arrays.asList("out"), Arrays.asList("warning: x", "warning: y"));
+		output.delete();
+
+		ArrayList<String> stdout = new ArrayList<String>();
+		ArrayList<String> stderr = new ArrayList<String>();
+		assertTrue(cache.fetch(key, output, stdout, stderr));
+		assertEquals("\t.text\n", Util.readFile(output.getAbsolutePath()));
+		assertEquals(Arrays.asList("out"), stdout);
+		assertEquals(Arrays.asList("warning: x", "warning: y"), stderr);
+	}
+
+	@Test
+	public void eviction() throws Exception {
+		CompileCache cache = new CompileCache(new File(directory, "cache"));
+		File output = new File(directory, "output.s");
+		Util.writeToFile(output, Util.fill('x', 1000));
+		ArrayList<String> none = new ArrayList<String>();
+		cache.setMaxSize(3500);
+		for (int i = 0; i < 3; i++) {
+			cache.store(key("int x" + i + ";", ""), output, none, none);
+		}
+		// Make sure the least recently used one is well defined.
+		File entryDirectory = new File(directory, "cache");
+		for (File entry : entryDirectory.listFiles()) {
+			entry.setLastModified(System.currentTimeMillis() - 10000);
+		}
+		assertTrue(cache.fetch(key("int x0;", ""), output, none, none));
+		cache.store(key("int x3;", ""), output, none, none);
+
+		assertTrue(cache.fetch(key("int x0;", ""), output, none, none));
+		assertTrue(cache.fetch(key("int x3;", ""), output, none, none));
+		int remaining = entryDirectory.listFiles().length;
+		assertTrue(remaining < 4);
+	}
+
+	private String key(String source, String args) throws IOException {
+		return CompileCache.computeKey(compiler, new String[] { args }, new ByteArrayInputStream(source.getBytes()));
+	}
+}
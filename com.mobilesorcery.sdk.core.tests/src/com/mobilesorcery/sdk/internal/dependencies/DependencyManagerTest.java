@@ -14,10 +14,14 @@
 package com.mobilesorcery.sdk.internal.dependencies;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -90,4 +94,111 @@ public class DependencyManagerTest {
 		assertEquals(new HashSet(Arrays.asList(new Object[] { level1, level3, level4 })), reverseDependencies);		
 	}
 			
+	@Test
+	public void snapshots() {
+		DependencyManager<String> dependencies = new DependencyManager<String>();
+		dependencies.addDependency("a", "b");
+		dependencies.addDependency("a", "c");
+		Set<String> before = dependencies.getDependenciesOf("a");
+		dependencies.addDependency("a", "d");
+		dependencies.removeDependency("a", "b");
+		assertEquals(new HashSet<String>(Arrays.asList("b", "c")), before);
+		assertEquals(new HashSet<String>(Arrays.asList("c", "d")), dependencies.getDependenciesOf("a"));
+	}
+
+	@Test
+	public void snapshotsAcrossClear() {
+		DependencyManager<String> dependencies = new DependencyManager<String>();
+		dependencies.addDependency("a", "b");
+		dependencies.addDependency("c", "b");
+		Set<String> before = dependencies.getDependenciesOf("a");
+		Set<String> reverseBefore = dependencies.getReverseDependenciesOf("b");
+
+		// Releases the ids of a; clearing everything releases all ids
+		dependencies.clearDependencies("a");
+		dependencies.addDependency("x", "y");
+		assertEquals(new HashSet<String>(Arrays.asList("x", "c")), dependencies.getAllDependees());
+		dependencies.clear();
+		dependencies.addDependency("y", "z");
+		dependencies.addDependency("z", "y");
+
+		assertEquals(new HashSet<String>(Arrays.asList("b")), before);
+		assertTrue(before.contains("b"));
+		assertFalse(before.contains("y"));
+		assertEquals(new HashSet<String>(Arrays.asList("a", "c")), reverseBefore);
+		assertTrue(dependencies.getDependenciesOf("a").isEmpty());
+		assertEquals(new HashSet<String>(Arrays.asList("z")), dependencies.getReverseDependenciesOf("y"));
+	}
+
+	@Test
+	public void sameAsLegacyImplementation() {
+		Random random = new Random(4711);
+		DependencyManager<String> dependencies = new DependencyManager<String>();
+		LegacyDependencyManager<String> legacy = new LegacyDependencyManager<String>();
+		for (int i = 0; i < 20000; i++) {
+			String from = "file" + random.nextInt(300);
+			String to = "file" + random.nextInt(300);
+			int op = random.nextInt(10);
+			if (op < 7) {
+				dependencies.addDependency(from, to);
+				legacy.addDependency(from, to);
+			} else if (op < 9) {
+				dependencies.removeDependency(from, to);
+				legacy.removeDependency(from, to);
+			} else {
+				dependencies.clearDependencies(from);
+				legacy.clearDependencies(from);
+			}
+		}
+
+		assertEquals(legacy.getAllDependees(), dependencies.getAllDependees());
+		for (int i = 0; i < 300; i++) {
+			String obj = "file" + i;
+			assertEquals(legacy.getDependenciesOf(obj), dependencies.getDependenciesOf(obj));
+			assertEquals(legacy.getReverseDependenciesOf(obj), dependencies.getReverseDependenciesOf(obj));
+			List<String> objs = Arrays.asList(obj, "file" + (i + 1) % 300);
+			assertEquals(legacy.getReverseDependenciesOf(objs, DependencyManager.DEPTH_INFINITE),
+					dependencies.getReverseDependenciesOf(objs, DependencyManager.DEPTH_INFINITE));
+			assertEquals(legacy.getDependenciesOf(objs), dependencies.getDependenciesOf(objs));
+		}
+	}
+
+	@Test
+	public void largeGraph() {
+		final int sourceCount = 3000;
+		final int headerCount = 2000;
+		Random random = new Random(4711);
+		DependencyManager<String> dependencies = new DependencyManager<String>();
+		LegacyDependencyManager<String> legacy = new LegacyDependencyManager<String>();
+
+		for (int i = 0; i < sourceCount; i++) {
+			for (String header : includes(random, headerCount)) {
+				dependencies.addDependency("src" + i + ".cpp", header);
+				legacy.addDependency("src" + i + ".cpp", header);
+			}
+		}
+
+		// Headers also include each other
+		for (int i = 1; i < headerCount; i++) {
+			dependencies.addDependency("header" + i + ".h", "header" + (i / 2) + ".h");
+			legacy.addDependency("header" + i + ".h", "header" + (i / 2) + ".h");
+		}
+
+		List<String> changeSet = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			changeSet.add("header" + i * 37 % headerCount + ".h");
+		}
+
+		assertEquals(legacy.getReverseDependenciesOf(changeSet, DependencyManager.DEPTH_INFINITE),
+				dependencies.getReverseDependenciesOf(changeSet, DependencyManager.DEPTH_INFINITE));
+	}
+
+	private static List<String> includes(Random random, int headerCount) {
+		ArrayList<String> result = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			result.add("header" + random.nextInt(headerCount) + ".h");
+		}
+		return result;
+	}
+
 }
@@ -18,6 +18,7 @@ import static org.junit.Assert.assertEquals;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.eclipse.core.resources.IFile;
@@ -46,10 +47,29 @@ public class GCCDependencyFileParserTest {
 		GCCDependencyFileParser parser = createParser();
 		parser.parse("", createTestLine(f1, f2, f3withEscapedSpace, f4, f5withEscapedSpace));
 		Map<IResource, Collection<IResource>> deps = parser.getDependencies();
-		System.err.println(deps);
 		assertEquals(4, deps.entrySet().iterator().next().getValue().size());
 	}
 
+	@Test
+	public void sharedLocationCache() throws Exception {
+		IFile s1 = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("project/s1.s"));
+		IFile c1 = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("project/c1.c"));
+		IFile s2 = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("project/s2.s"));
+		IFile c2 = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("project/c2.c"));
+		IFile header = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("project/h.h"));
+		HashMap<String, IResource> locationCache = new HashMap<String, IResource>();
+
+		GCCDependencyFileParser parser = new GCCDependencyFileParser(locationCache);
+		parser.parse("", createTestLine(s1, c1, header));
+		parser = new GCCDependencyFileParser(locationCache);
+		// Windows line endings
+		parser.parse("", createTestFile(s2.getLocation().toOSString() + ": \\\r\n " + c2.getLocation().toOSString() + " \\\r\n " + header.getLocation().toOSString() + "\r\n"));
+
+		assertEquals(2, parser.getDependencies().get(s2).size());
+		// Every unique path is looked up exactly once
+		assertEquals(5, locationCache.size());
+	}
+
 	private InputStream createTestLine(IFile depFrom, IFile... depsTo) {
 		StringBuffer str = new StringBuffer(depFrom.getLocation().toOSString());
 		str.append(": ");
@@ -0,0 +1,121 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal.dependencies;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The previous, hash set based {@link DependencyManager}; kept
+ * as a reference for equivalence tests and benchmarks.
+ */
+class LegacyDependencyManager<T> {
+
+	private final HashMap<T, HashSet<T>> dependencyMap = new HashMap<T, HashSet<T>>();
+
+	private final HashMap<T, HashSet<T>> reverseDependencyMap = new HashMap<T, HashSet<T>>();
+
+	private final Set<T> emptySet = Collections.unmodifiableSet(new HashSet<T>());
+
+	public Set<T> getAllDependees() {
+		return dependencyMap.keySet();
+	}
+
+	public Set<T> getDependenciesOf(T obj) {
+		Set<T> result = dependencyMap.get(obj);
+		result = result == null ? emptySet : result;
+		return new HashSet<T>(result);
+	}
+
+	public Set<T> getDependenciesOf(Collection<T> list) {
+		HashSet<T> result = new HashSet<T>();
+		for (T obj : list) {
+			HashSet<T> intermediateResult = dependencyMap.get(obj);
+			if (intermediateResult != null) {
+				result.addAll(intermediateResult);
+			}
+		}
+		return result;
+	}
+
+	public Set<T> getReverseDependenciesOf(T obj) {
+		HashSet<T> result = reverseDependencyMap.get(obj);
+		return result == null ? emptySet : result;
+	}
+
+	public void addDependency(T from, T to) {
+		if (from != null && to != null) {
+			lazyInit(dependencyMap, from).add(to);
+			lazyInit(reverseDependencyMap, to).add(from);
+		}
+	}
+
+	public void addDependencies(T from, Collection<T> toList) {
+		for (T to : toList) {
+			addDependency(from, to);
+		}
+	}
+
+	public void removeDependency(T from, T to) {
+		lazyInit(dependencyMap, from).remove(to);
+		lazyInit(reverseDependencyMap, to).remove(from);
+	}
+
+	public void clearDependencies(T obj) {
+		for (T dependency : new HashSet<T>(getDependenciesOf(obj))) {
+			removeDependency(obj, dependency);
+		}
+		dependencyMap.remove(obj);
+	}
+
+	public void setDependencies(T from, Collection<T> toList) {
+		clearDependencies(from);
+		addDependencies(from, toList);
+	}
+
+	private HashSet<T> lazyInit(HashMap<T, HashSet<T>> map, T key) {
+		HashSet<T> value = map.get(key);
+		if (value == null) {
+			value = new HashSet<T>();
+			map.put(key, value);
+		}
+		return value;
+	}
+
+	public Set<T> getReverseDependenciesOf(List<T> objs, int depth) {
+		HashSet<T> result = new HashSet<T>();
+		for (T obj : objs) {
+			innerGetReverseDependenciesOf(obj, depth, result, new HashSet<T>());
+		}
+		return result;
+	}
+
+	private void innerGetReverseDependenciesOf(T obj, int depth, Set<T> result, Set<T> alreadyProcessed) {
+		if (depth <= 0) {
+			return;
+		}
+		Set<T> reverseDependencies = new HashSet<T>(getReverseDependenciesOf(obj));
+		result.addAll(reverseDependencies);
+		for (T reverseDependency : reverseDependencies) {
+			if (!alreadyProcessed.contains(reverseDependency)) {
+				alreadyProcessed.add(reverseDependency);
+				innerGetReverseDependenciesOf(reverseDependency, depth - 1, result, alreadyProcessed);
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.internal.dependencies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LibraryLookupTest {
+
+	private File directory;
+
+	private File dir1;
+
+	private File dir2;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("librarylookup", "");
+		directory.delete();
+		dir1 = new File(directory, "dir1");
+		dir2 = new File(directory, "dir2");
+		dir1.mkdirs();
+		dir2.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void resolveAndTrackChanges() throws Exception {
+		File a = createLibrary(dir2, "a.lib", 1000000000000L);
+		File b = createLibrary(dir1, "b.lib", 1100000000000L);
+		LibraryLookup lookup = new LibraryLookup(paths(dir1, dir2), new IPath[] { new Path("a.lib"), new Path("b.lib"), new Path("c.lib") });
+		assertEquals(new HashSet<File>(Arrays.asList(a, b)), new HashSet<File>(Arrays.asList(lookup.resolveLibraryLocations())));
+		assertEquals(1100000000000L, lookup.getLastTouched());
+
+		// A rebuilt library
+		a.setLastModified(1200000000000L);
+		assertEquals(1200000000000L, lookup.getLastTouched());
+
+		// A library that shadows another one in a later directory
+		File shadowingA = createLibrary(dir1, "a.lib", 1300000000000L);
+		dir1.setLastModified(dir1.lastModified() + 2000);
+		assertTrue(Arrays.asList(lookup.resolveLibraryLocations()).contains(shadowingA));
+		assertEquals(1300000000000L, lookup.getLastTouched());
+	}
+
+	@Test
+	public void trackSubdirectories() throws Exception {
+		File sub1 = new File(dir1, "sub");
+		File sub2 = new File(dir2, "sub");
+		sub1.mkdirs();
+		sub2.mkdirs();
+		File x = createLibrary(sub2, "x.lib", 1000000000000L);
+		LibraryLookup lookup = new LibraryLookup(paths(dir1, dir2), new IPath[] { new Path("sub/x.lib") });
+		assertEquals(Arrays.asList(x), Arrays.asList(lookup.resolveLibraryLocations()));
+
+		// Only the subdirectory changes, not the library directory itself
+		long dir1Timestamp = dir1.lastModified();
+		File shadowingX = createLibrary(sub1, "x.lib", 1100000000000L);
+		sub1.setLastModified(sub1.lastModified() + 2000);
+		dir1.setLastModified(dir1Timestamp);
+		assertEquals(Arrays.asList(shadowingX), Arrays.asList(lookup.resolveLibraryLocations()));
+		assertEquals(1100000000000L, lookup.getLastTouched());
+	}
+
+	@Test
+	public void noLibraries() {
+		LibraryLookup lookup = new LibraryLookup(paths(dir1), new IPath[0]);
+		assertEquals(0, lookup.resolveLibraryLocations().length);
+		assertEquals(LibraryLookup.NO_LIBRARY_LOCATIONS, lookup.getLastTouched());
+	}
+
+	private File createLibrary(File dir, String name, long timestamp) throws IOException {
+		File library = new File(dir, name);
+		library.createNewFile();
+		library.setLastModified(timestamp);
+		return library;
+	}
+
+	private IPath[] paths(File... dirs) {
+		IPath[] result = new IPath[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			result[i] = new Path(dirs[i].getAbsolutePath());
+		}
+		return result;
+	}
+}
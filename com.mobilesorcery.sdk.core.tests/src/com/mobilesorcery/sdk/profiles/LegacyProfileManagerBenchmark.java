@@ -0,0 +1,63 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.profiles;
+
+import java.io.File;
+
+/**
+ * Compares sequential parsing of the legacy profiles with cold
+ * and warm starts of {@link LegacyProfileManager}, on the profiles
+ * of {@link LegacyProfileManagerTest}. Not a test; run it as a Java
+ * application, since timings are too noisy to assert on.
+ */
+public class LegacyProfileManagerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		LegacyProfileManagerTest fixture = new LegacyProfileManagerTest();
+		fixture.setUp();
+		try {
+			long start = System.currentTimeMillis();
+			ProfileParser parser = new ProfileParser();
+			for (File vendorDir : fixture.vendorsDir.listFiles()) {
+				Vendor vendor = new Vendor(vendorDir.getName(), null);
+				for (File profileDir : vendorDir.listFiles()) {
+					parser.parseInfoFile(vendor, profileDir.getName(), new File(profileDir, "maprofile.h"), new File(profileDir, "runtime.txt"));
+				}
+			}
+			long sequentialTime = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			LegacyProfileManager cold = new LegacyProfileManager(fixture.vendorsDir, fixture.cacheFile);
+			cold.init();
+			long coldInitTime = System.currentTimeMillis() - start;
+			cold.awaitProfiles();
+			long coldTime = System.currentTimeMillis() - start;
+			fixture.awaitCache();
+
+			start = System.currentTimeMillis();
+			LegacyProfileManager warm = new LegacyProfileManager(fixture.vendorsDir, fixture.cacheFile);
+			warm.init();
+			long warmInitTime = System.currentTimeMillis() - start;
+			warm.awaitProfiles();
+			long warmTime = System.currentTimeMillis() - start;
+
+			System.out.println(LegacyProfileManagerTest.VENDOR_COUNT * LegacyProfileManagerTest.PROFILES_PER_VENDOR + " profiles:");
+			System.out.println("Sequential parsing: " + sequentialTime + " ms");
+			System.out.println("Cold start: " + coldTime + " ms, " + coldInitTime + " ms until ready, " + cold.getParsedCount() + " profiles parsed");
+			System.out.println("Warm start: " + warmTime + " ms, " + warmInitTime + " ms until ready, " + warm.getParsedCount() + " profiles parsed");
+		} finally {
+			fixture.tearDown();
+		}
+	}
+}
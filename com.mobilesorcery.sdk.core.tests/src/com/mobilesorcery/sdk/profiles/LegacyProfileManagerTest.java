@@ -0,0 +1,179 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.profiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LegacyProfileManagerTest {
+
+	static final int VENDOR_COUNT = 50;
+
+	static final int PROFILES_PER_VENDOR = 100;
+
+	private static final int DEFINES_PER_PROFILE = 40;
+
+	private File directory;
+
+	File vendorsDir;
+
+	File cacheFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("legacyprofiles", "");
+		directory.delete();
+		vendorsDir = new File(directory, "vendors");
+		cacheFile = new File(directory, "legacyprofiles.cache");
+		for (int i = 0; i < VENDOR_COUNT; i++) {
+			for (int j = 0; j < PROFILES_PER_VENDOR; j++) {
+				File profileDir = new File(vendorsDir, "Vendor" + i + "/Profile" + j);
+				profileDir.mkdirs();
+				StringBuffer maprofile = new StringBuffer();
+				for (int k = 0; k < DEFINES_PER_PROFILE; k++) {
+					maprofile.append("#define MA_PROF_CONST_" + k + " " + (k % 2 == 0 ? Integer.toString(i * j + k) : "\"value " + k + "\"") + "\n");
+				}
+				maprofile.append("#define MA_PROF_SUPPORT_" + j + "\n");
+				write(new File(profileDir, "maprofile.h"), maprofile.toString());
+				write(new File(profileDir, "runtime.txt"), "profiles/runtimes/runtime" + (j % 10) + "\n");
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void coldAndWarm() throws Exception {
+		ProfileParser parser = new ProfileParser();
+		int parsed = 0;
+		for (File vendorDir : vendorsDir.listFiles()) {
+			Vendor vendor = new Vendor(vendorDir.getName(), null);
+			for (File profileDir : vendorDir.listFiles()) {
+				parser.parseInfoFile(vendor, profileDir.getName(), new File(profileDir, "maprofile.h"), new File(profileDir, "runtime.txt"));
+				parsed++;
+			}
+		}
+
+		LegacyProfileManager cold = new LegacyProfileManager(vendorsDir, cacheFile);
+		cold.init();
+		cold.awaitProfiles();
+		awaitCache();
+
+		LegacyProfileManager warm = new LegacyProfileManager(vendorsDir, cacheFile);
+		warm.init();
+		warm.awaitProfiles();
+
+		assertEquals(VENDOR_COUNT * PROFILES_PER_VENDOR, parsed);
+		assertEquals(parsed, cold.getParsedCount());
+		// Everything comes from the cache
+		assertEquals(0, warm.getParsedCount());
+		assertSameProfiles(cold, warm);
+	}
+
+	@Test
+	public void invalidation() throws Exception {
+		LegacyProfileManager cold = new LegacyProfileManager(vendorsDir, cacheFile);
+		cold.init();
+		cold.awaitProfiles();
+		awaitCache();
+
+		File profileDir = new File(vendorsDir, "Vendor3/Profile7");
+		File maprofile = new File(profileDir, "maprofile.h");
+		write(maprofile, "#define MA_PROF_CHANGED 4711\n");
+		maprofile.setLastModified(maprofile.lastModified() + 2000);
+		File addedDir = new File(vendorsDir, "Vendor4/Added");
+		addedDir.mkdirs();
+		write(new File(addedDir, "maprofile.h"), "#define MA_PROF_ADDED\n");
+		write(new File(addedDir, "runtime.txt"), "profiles/runtimes/added\n");
+		File vendor4 = addedDir.getParentFile();
+		vendor4.setLastModified(vendor4.lastModified() + 2000);
+
+		LegacyProfileManager warm = new LegacyProfileManager(vendorsDir, cacheFile);
+		warm.init();
+		IProfile changed = warm.getVendor("Vendor3").getProfile("Profile7");
+		assertEquals(1, changed.getProperties().size());
+		assertEquals(4711L, changed.getProperties().get("MA_PROF_CHANGED"));
+		IProfile added = warm.getVendor("Vendor4").getProfile("Added");
+		assertEquals(Boolean.TRUE, added.getProperties().get("MA_PROF_ADDED"));
+		assertEquals(PROFILES_PER_VENDOR + 1, warm.getVendor("Vendor4").getProfiles().length);
+		List<IProfile> addedRuntime = warm.getProfilesForRuntime("profiles/runtimes/added");
+		assertEquals(1, addedRuntime.size());
+		assertEquals(added, addedRuntime.get(0));
+		// Only the changed and the added profile are parsed again
+		warm.awaitProfiles();
+		assertEquals(2, warm.getParsedCount());
+	}
+
+	private void assertSameProfiles(LegacyProfileManager expected, LegacyProfileManager actual) {
+		IVendor[] expectedVendors = expected.getVendors();
+		IVendor[] actualVendors = actual.getVendors();
+		assertEquals(VENDOR_COUNT, expectedVendors.length);
+		assertEquals(expectedVendors.length, actualVendors.length);
+		for (int i = 0; i < expectedVendors.length; i++) {
+			assertEquals(expectedVendors[i].getName(), actualVendors[i].getName());
+			IProfile[] expectedProfiles = expectedVendors[i].getProfiles();
+			IProfile[] actualProfiles = actualVendors[i].getProfiles();
+			assertEquals(PROFILES_PER_VENDOR, expectedProfiles.length);
+			assertEquals(expectedProfiles.length, actualProfiles.length);
+			for (int j = 0; j < expectedProfiles.length; j++) {
+				assertEquals(expectedProfiles[j].getName(), actualProfiles[j].getName());
+				assertEquals(expectedProfiles[j].getRuntime(), actualProfiles[j].getRuntime());
+				assertEquals(expectedProfiles[j].getProperties(), actualProfiles[j].getProperties());
+			}
+		}
+		for (int i = 0; i < 10; i++) {
+			String runtime = "profiles/runtimes/runtime" + i;
+			assertEquals(expected.getProfilesForRuntime(runtime), actual.getProfilesForRuntime(runtime));
+		}
+	}
+
+	void awaitCache() throws InterruptedException {
+		// The cache is written by the last parser thread
+		for (int i = 0; i < 100 && !cacheFile.exists(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(cacheFile.exists());
+	}
+
+	private void write(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
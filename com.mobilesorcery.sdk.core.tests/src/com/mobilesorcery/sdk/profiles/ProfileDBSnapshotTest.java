@@ -0,0 +1,208 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.profiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.Capabilities;
+import com.mobilesorcery.sdk.core.Capability;
+import com.mobilesorcery.sdk.core.CapabilityFragmentation;
+import com.mobilesorcery.sdk.core.CapabilityState;
+import com.mobilesorcery.sdk.core.ICapability;
+import com.mobilesorcery.sdk.core.MoSyncTool;
+import com.mobilesorcery.sdk.profiles.ProfileDBManager.ProfileDBResult;
+
+public class ProfileDBSnapshotTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("profiledb", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void roundtrip() throws Exception {
+		ProfileDBResult tree = new ProfileDBResult();
+		Vendor android = new Vendor("Android", null);
+		tree.families.put("Android", android);
+		Profile android15 = createProfile(tree, android, "1.5", "android_3");
+		Profile android23 = createProfile(tree, android, "2.3", "android_9");
+		android15.getModifiableProperties().put("MA_PROF_CONST_SCREENSIZE_X", "320");
+		android23.getModifiableProperties().put("MA_PROF_SUPPORT_JAVAPACKAGE", Boolean.TRUE);
+		Capabilities caps = new Capabilities();
+		caps.setCapability(new Capability("Camera", CapabilityState.REQUIRES_PERMISSION, null, Boolean.TRUE, CapabilityFragmentation.RUNTIME));
+		caps.setCapability(new Capability("Width", CapabilityState.SUPPORTED, "property", "320", null));
+		tree.capabilitiesForProfiles.put(android15, caps);
+		tree.capabilities.add("Camera");
+		tree.permissions.add("Camera");
+
+		ProfileDBResult match = new ProfileDBResult();
+		Vendor matchedAndroid = new Vendor("Android", null);
+		match.families.put("Android", matchedAndroid);
+		createProfile(match, matchedAndroid, "1.5", "android_3");
+		match.profileMappings.put("Android/2.3", "Android/1.5");
+
+		ProfileDBSnapshot snapshot = new ProfileDBSnapshot("key", tree);
+		ProfileDBSnapshot.Query query = new ProfileDBSnapshot.Query("+", new String[] { "Camera" }, new String[0]);
+		snapshot.putMatch(query, match);
+		File file = new File(directory, "snapshot");
+		snapshot.write(file);
+
+		ProfileDBSnapshot read = ProfileDBSnapshot.read(file, directory);
+		assertEquals("key", read.getKey());
+		ProfileDBResult readTree = read.getTree();
+		IVendor readAndroid = readTree.families.get("Android");
+		assertEquals(2, readAndroid.getProfiles().length);
+		IProfile read15 = readAndroid.getProfile("1.5");
+		assertEquals("profiles/runtimes/android_3", read15.getRuntime());
+		assertEquals("320", read15.getProperties().get("MA_PROF_CONST_SCREENSIZE_X"));
+		assertEquals(Boolean.TRUE, readAndroid.getProfile("2.3").getProperties().get("MA_PROF_SUPPORT_JAVAPACKAGE"));
+		assertEquals(2, readTree.profiles.size());
+		assertTrue(readTree.profiles.contains(read15));
+		assertEquals(Arrays.asList(read15), readTree.profilesForRuntime.get("profiles/runtimes/android_3"));
+		ICapability camera = readTree.capabilitiesForProfiles.get(read15).getCapability("Camera");
+		assertEquals(CapabilityState.REQUIRES_PERMISSION, camera.getState());
+		assertEquals(CapabilityFragmentation.RUNTIME, camera.getFragmentation());
+		assertEquals(Boolean.TRUE, camera.getValue());
+		ICapability width = readTree.capabilitiesForProfiles.get(read15).getCapability("Width");
+		assertEquals("property", width.getType());
+		assertEquals("320", width.getValue());
+		assertNull(width.getFragmentation());
+		assertTrue(readTree.permissions.contains("Camera"));
+
+		ProfileDBResult readMatch = read.getMatch(new ProfileDBSnapshot.Query("+", new String[] { "Camera" }, new String[0]));
+		assertEquals(1, readMatch.profiles.size());
+		assertEquals("Android/1.5", readMatch.profileMappings.get("Android/2.3"));
+		assertNull(read.getMatch(new ProfileDBSnapshot.Query("+", new String[0], new String[] { "Camera" })));
+	}
+
+	@Test
+	public void keys() throws Exception {
+		File tool = new File(directory, "profiledb");
+		tool.createNewFile();
+		File profiles = new File(directory, "profiles");
+		File platform = new File(profiles, "platforms/Android");
+		platform.mkdirs();
+		File maprofile = new File(platform, "maprofile.h");
+		maprofile.createNewFile();
+		maprofile.setLastModified(1000000000000L);
+
+		String key = ProfileDBSnapshot.computeKey(tool, profiles);
+		assertEquals(key, ProfileDBSnapshot.computeKey(tool, profiles));
+		maprofile.setLastModified(1100000000000L);
+		assertFalse(key.equals(ProfileDBSnapshot.computeKey(tool, profiles)));
+	}
+
+	@Test
+	public void mostRecentlyUsedMatches() throws Exception {
+		ProfileDBSnapshot snapshot = new ProfileDBSnapshot("key", new ProfileDBResult());
+		ProfileDBSnapshot.Query first = new ProfileDBSnapshot.Query("first", new String[0], new String[0]);
+		snapshot.putMatch(first, new ProfileDBResult());
+		for (int i = 0; i < 1000; i++) {
+			snapshot.putMatch(new ProfileDBSnapshot.Query("+", new String[] { "Capability" + i }, new String[0]), new ProfileDBResult());
+			// Keeps it from being evicted
+			assertTrue(snapshot.getMatch(first) != null);
+		}
+		assertNull(snapshot.getMatch(new ProfileDBSnapshot.Query("+", new String[] { "Capability0" }, new String[0])));
+		assertTrue(snapshot.getMatch(new ProfileDBSnapshot.Query("+", new String[] { "Capability999" }, new String[0])) != null);
+
+		assertTrue(snapshot.isDirty());
+		File file = new File(directory, "snapshot");
+		snapshot.write(file);
+		assertFalse(snapshot.isDirty());
+		ProfileDBSnapshot read = ProfileDBSnapshot.read(file, directory);
+		assertFalse(read.isDirty());
+		assertTrue(read.getMatch(first) != null);
+	}
+
+	@Test
+	public void corrupt() throws Exception {
+		ProfileDBResult tree = new ProfileDBResult();
+		Vendor android = new Vendor("Android", null);
+		tree.families.put("Android", android);
+		Profile profile = createProfile(tree, android, "1.5", "android_3");
+		tree.capabilitiesForProfiles.put(profile, new Capabilities());
+		File file = new File(directory, "snapshot");
+		new ProfileDBSnapshot("key", tree).write(file);
+
+		// The file ends with the index of the profile of the capabilities,
+		// the number of capabilities and the number of matches
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.seek(output.length() - 12);
+			output.writeInt(4711);
+		} finally {
+			output.close();
+		}
+		try {
+			ProfileDBSnapshot.read(file, directory);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void unsupportedValue() throws Exception {
+		ProfileDBResult tree = new ProfileDBResult();
+		Vendor android = new Vendor("Android", null);
+		tree.families.put("Android", android);
+		Profile profile = createProfile(tree, android, "1.5", "android_3");
+		profile.getModifiableProperties().put("MA_PROF_CONST_SCREENSIZE_X", 320);
+		new ProfileDBSnapshot("key", tree).write(new File(directory, "snapshot"));
+	}
+
+	private Profile createProfile(ProfileDBResult result, Vendor vendor, String name, String runtime) {
+		Profile profile = new Profile(vendor, name, MoSyncTool.DEFAULT_PROFILE_TYPE);
+		profile.setRuntime("profiles/runtimes/" + runtime);
+		vendor.addProfile(profile);
+		result.profiles.add(profile);
+		ArrayList<IProfile> profilesForRuntime = new ArrayList<IProfile>();
+		profilesForRuntime.add(profile);
+		result.profilesForRuntime.put(profile.getRuntime(), profilesForRuntime);
+		return profile;
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
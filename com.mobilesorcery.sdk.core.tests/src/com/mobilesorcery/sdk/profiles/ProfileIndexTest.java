@@ -0,0 +1,146 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.mobilesorcery.sdk.profiles;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mobilesorcery.sdk.core.MoSyncTool;
+import com.mobilesorcery.sdk.profiles.filter.AbstractDeviceFilter;
+import com.mobilesorcery.sdk.profiles.filter.CompositeDeviceFilter;
+import com.mobilesorcery.sdk.profiles.filter.ConstantFilter;
+import com.mobilesorcery.sdk.profiles.filter.EmulatorDeviceFilter;
+import com.mobilesorcery.sdk.profiles.filter.FeatureFilter;
+import com.mobilesorcery.sdk.profiles.filter.ProfileFilter;
+import com.mobilesorcery.sdk.profiles.filter.VendorFilter;
+
+public class ProfileIndexTest {
+
+	private static final int VENDOR_COUNT = 40;
+
+	private static final int PROFILES_PER_VENDOR = 50;
+
+	private IProfile[] profiles;
+
+	private ProfileIndex index;
+
+	@Before
+	public void setUp() {
+		ArrayList<IProfile> profiles = new ArrayList<IProfile>();
+		for (int i = 0; i < VENDOR_COUNT; i++) {
+			Vendor vendor = new Vendor("Vendor" + i, null);
+			for (int j = 0; j < PROFILES_PER_VENDOR; j++) {
+				Profile profile = new Profile(vendor, "Profile" + j, MoSyncTool.LEGACY_PROFILE_TYPE);
+				if (j % 2 == 0) {
+					profile.getModifiableProperties().put("MA_PROF_SUPPORT_JAVAPACKAGE", Boolean.TRUE);
+				}
+				if (j % 3 == 0) {
+					profile.getModifiableProperties().put("MA_PROF_SUPPORT_BLUETOOTH", Boolean.TRUE);
+				}
+				if (j % 5 == 0) {
+					profile.getModifiableProperties().put("MA_PROF_SUPPORT_LOCATIONAPI", Boolean.FALSE);
+				}
+				profile.getModifiableProperties().put("MA_PROF_CONST_SCREENSIZE_X", (long) (j * 16));
+				vendor.addProfile(profile);
+				profiles.add(profile);
+			}
+		}
+		this.profiles = profiles.toArray(new IProfile[profiles.size()]);
+		this.index = new ProfileIndex(this.profiles);
+	}
+
+	@Test
+	public void equivalence() {
+		FeatureFilter features = new FeatureFilter();
+		features.setFeatureIds(new String[] { "MA_PROF_SUPPORT_JAVAPACKAGE", "MA_PROF_SUPPORT_BLUETOOTH" });
+		features.setStyle(AbstractDeviceFilter.REQUIRE);
+		assertSameProfiles(features);
+		features.setStyle(AbstractDeviceFilter.DISALLOW);
+		assertSameProfiles(features);
+		features.setFeatureIds(new String[] { "MA_PROF_SUPPORT_LOCATIONAPI" });
+		features.setStyle(AbstractDeviceFilter.REQUIRE);
+		assertSameProfiles(features);
+
+		VendorFilter vendors = new VendorFilter(new String[] { "Vendor3", "Vendor7", "NoSuchVendor" });
+		assertSameProfiles(vendors);
+
+		ProfileFilter someProfiles = new ProfileFilter();
+		someProfiles.setProfiles(new IProfile[] { profiles[3], profiles[500] }, true);
+		someProfiles.setVendor(profiles[1000].getVendor(), true);
+		someProfiles.setStyle(AbstractDeviceFilter.DISALLOW);
+		assertSameProfiles(someProfiles);
+
+		ConstantFilter screenSize = new ConstantFilter();
+		screenSize.setConstantFeature("MA_PROF_CONST_SCREENSIZE_X");
+		screenSize.setRelationalOp(ConstantFilter.GT);
+		screenSize.setThreshold(320);
+		assertSameProfiles(screenSize);
+
+		assertSameProfiles(new EmulatorDeviceFilter(EmulatorDeviceFilter.EXCLUDE_EMULATORS));
+
+		features.setFeatureIds(new String[] { "MA_PROF_SUPPORT_JAVAPACKAGE" });
+		CompositeDeviceFilter composite = new CompositeDeviceFilter(features, vendors, someProfiles, screenSize);
+		assertSameProfiles(composite);
+		assertSameProfiles(new CompositeDeviceFilter());
+	}
+
+	@Test
+	public void stateChanges() {
+		VendorFilter vendors = new VendorFilter(new String[] { "Vendor1" });
+		CompositeDeviceFilter composite = new CompositeDeviceFilter(vendors);
+		assertEquals(PROFILES_PER_VENDOR, index.select(composite).cardinality());
+		// Filters do not always notify their listeners of changes
+		vendors.setVendor("Vendor2", true);
+		assertEquals(2 * PROFILES_PER_VENDOR, index.select(composite).cardinality());
+		vendors.setVendor("Vendor1", false);
+		assertSameProfiles(composite);
+	}
+
+	@Test
+	public void freshIndex() {
+		FeatureFilter features = new FeatureFilter();
+		features.setFeatureIds(new String[] { "MA_PROF_SUPPORT_JAVAPACKAGE", "MA_PROF_SUPPORT_BLUETOOTH" });
+		features.setStyle(AbstractDeviceFilter.REQUIRE);
+		VendorFilter vendors = new VendorFilter(new String[] { "Vendor3", "Vendor7", "Vendor11" });
+		CompositeDeviceFilter composite = new CompositeDeviceFilter(features, vendors);
+
+		ProfileIndex fresh = new ProfileIndex(profiles);
+		assertArrayEquals(filterLinearly(composite), fresh.getProfiles(fresh.select(composite)));
+		assertArrayEquals(filterLinearly(composite), index.getProfiles(index.select(composite)));
+	}
+
+	private void assertSameProfiles(IDeviceFilter filter) {
+		IProfile[] expected = filterLinearly(filter);
+		assertArrayEquals(expected, index.getProfiles(index.select(filter)));
+		// Once more, from the cache
+		assertArrayEquals(expected, index.getProfiles(index.select(filter)));
+		assertArrayEquals(expected, index.filter(profiles, filter));
+	}
+
+	private IProfile[] filterLinearly(IDeviceFilter filter) {
+		ArrayList<IProfile> result = new ArrayList<IProfile>();
+		for (IProfile profile : profiles) {
+			if (filter.accept(profile)) {
+				result.add(profile);
+			}
+		}
+		return result.toArray(new IProfile[result.size()]);
+	}
+}
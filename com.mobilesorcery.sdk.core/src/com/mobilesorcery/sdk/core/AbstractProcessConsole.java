@@ -14,9 +14,6 @@
 package com.mobilesorcery.sdk.core;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 
 import com.mobilesorcery.sdk.core.LineReader.ILineHandler;
 
@@ -43,13 +40,7 @@ public abstract class AbstractProcessConsole implements IProcessConsole {
 	 */
     @Override
 	public void attachProcess(Process process, final ILineHandler stdoutDelegate, final ILineHandler stderrDelegate) {
-        final InputStream input = process.getInputStream();
-        final InputStream error = process.getErrorStream();
-
-        Reader inputReader = new InputStreamReader(input);
-        Reader errorReader = new InputStreamReader(error);
-
-        LineReader inputPump = new LineReader(inputReader, new ILineHandler() {
+        ILineHandler stdoutHandler = new ILineHandler() {
         	@Override
 			public void start(Process process) {
             	if (stdoutDelegate != null) {
@@ -71,9 +62,9 @@ public abstract class AbstractProcessConsole implements IProcessConsole {
                     stdoutDelegate.stop(e);
                 }
             }
-        });
+        };
 
-        LineReader errorPump = new LineReader(errorReader, new ILineHandler() {
+        ILineHandler stderrHandler = new ILineHandler() {
         	@Override
 			public void start(Process process) {
             	if (stderrDelegate != null) {
@@ -96,10 +87,9 @@ public abstract class AbstractProcessConsole implements IProcessConsole {
                 }
             }
 
-        });
+        };
 
-        inputPump.start();
-        errorPump.start();
+        ProcessIOPump.getDefault().attach(process, stdoutHandler, stderrHandler);
     }
 
     /**
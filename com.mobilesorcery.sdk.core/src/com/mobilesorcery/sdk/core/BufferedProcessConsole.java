@@ -0,0 +1,66 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.core;
+
+import java.util.ArrayList;
+
+/**
+ * <p>A console that buffers all output until {@link #flush()} is
+ * called, at which point the buffered output is written to another
+ * console in one go. Any output after that is passed on directly.</p>
+ * <p>Used to keep the output of concurrent builds from being interleaved.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class BufferedProcessConsole extends AbstractProcessConsole {
+
+	private final IProcessConsole delegate;
+
+	private final ArrayList<Integer> types = new ArrayList<Integer>();
+	private final ArrayList<String> lines = new ArrayList<String>();
+
+	private boolean flushed = false;
+
+	public BufferedProcessConsole(IProcessConsole delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	protected synchronized void writeLine(int type, String line) {
+		if (flushed) {
+			delegate.addMessage(type, line);
+		} else {
+			types.add(type);
+			lines.add(line);
+		}
+	}
+
+	/**
+	 * Writes all buffered output to the underlying console. Output
+	 * of different buffered consoles flushed at the same time
+	 * will not be interleaved.
+	 */
+	public synchronized void flush() {
+		synchronized (delegate) {
+			for (int i = 0; i < lines.size(); i++) {
+				delegate.addMessage(types.get(i), lines.get(i));
+			}
+		}
+		types.clear();
+		lines.clear();
+		flushed = true;
+	}
+
+}
@@ -92,6 +92,7 @@ import com.mobilesorcery.sdk.internal.launch.EmulatorLauncherProxy;
 import com.mobilesorcery.sdk.internal.security.ApplicationPermissions;
 import com.mobilesorcery.sdk.lib.JNALibInitializer;
 import com.mobilesorcery.sdk.profiles.IProfile;
+import com.mobilesorcery.sdk.profiles.ProfileDBManager;
 import com.mobilesorcery.sdk.profiles.filter.DeviceFilterFactoryProxy;
 import com.mobilesorcery.sdk.profiles.filter.IDeviceFilterFactory;
 import com.mobilesorcery.sdk.profiles.filter.elementfactories.ConstantFilterFactory;
@@ -303,6 +304,8 @@ public class CoreMoSyncPlugin extends AbstractUIPlugin implements IPropertyChang
 	public void stop(BundleContext context) throws Exception {
     	// Must be here, before nulling the plugin
         Stats.getStats().stop();
+        Demangler.disposeDefault();
+        ProfileDBManager.getInstance().flush();
         plugin = null;
         projectDependencyManager = null;
         disposeUpdater();
@@ -0,0 +1,593 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Demangles C++ symbols using a long-lived <code>c++filt</code>
+ * process.</p>
+ * <p>Symbols are looked up in a session cache, a persistent cache
+ * keyed by symbol (and invalidated if the <code>c++filt</code> binary
+ * changes) and an in-process demangler that handles simple functions.
+ * Whatever is left is written to <code>c++filt</code> in batches,
+ * one symbol per line, and the results are read back in order
+ * by a separate thread.</p>
+ * <p>If <code>c++filt</code> cannot be run or does not answer in time,
+ * symbols are returned as they are until a fresh <code>c++filt</code>
+ * process is tried, after a delay.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class Demangler {
+
+	private static final int MAGIC = 0x444d4731;
+
+	private static final int VERSION = 2;
+
+	private static final int SESSION_CACHE_SIZE = 8192;
+
+	private static final int PERSISTENT_CACHE_SIZE = 65536;
+
+	/**
+	 * The max number of symbols and bytes written before reading
+	 * the results; keeps the input pipe well below its capacity.
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	private static final int MAX_BATCH_BYTES = 16 * 1024;
+
+	private static final long DEFAULT_TIMEOUT = 10000;
+
+	private static final long DEFAULT_RETRY_DELAY = 60000;
+
+	/**
+	 * Cached symbols are not expected to be anywhere near this long;
+	 * a longer string means that the cache file is corrupt.
+	 */
+	private static final int MAX_STRING_LENGTH = 1 << 20;
+
+	/**
+	 * Marks the end of the <code>c++filt</code> output.
+	 */
+	private static final String EOF = new String();
+
+	private static Demangler instance;
+
+	private final String[] command;
+
+	private final File cacheFile;
+
+	private final Cache<String, String> sessionCache = new Cache<String, String>(SESSION_CACHE_SIZE);
+
+	private Cache<String, String> persistentCache;
+
+	private boolean dirty;
+
+	private Process process;
+
+	private BufferedWriter toProcess;
+
+	private BlockingQueue<String> fromProcess;
+
+	// c++filt is not used again until this time
+	private long retryTime;
+
+	private long timeout = DEFAULT_TIMEOUT;
+
+	private long retryDelay = DEFAULT_RETRY_DELAY;
+
+	private int batchCount;
+
+	/**
+	 * Returns the demangler of the current MoSync SDK.
+	 * @return
+	 */
+	public static synchronized Demangler getDefault() {
+		String cppFilt = MoSyncTool.getDefault().getBinary("c++filt").toOSString();
+		if (instance != null && !instance.command[0].equals(cppFilt)) {
+			instance.dispose();
+			instance = null;
+		}
+		if (instance == null) {
+			File cacheFile = CoreMoSyncPlugin.getDefault().getStateLocation().append("demangle.cache").toFile();
+			instance = new Demangler(new String[] { cppFilt }, cacheFile);
+		}
+		return instance;
+	}
+
+	static synchronized void disposeDefault() {
+		if (instance != null) {
+			instance.dispose();
+			instance = null;
+		}
+	}
+
+	/**
+	 * @param command The <code>c++filt</code> command line
+	 * @param cacheFile The file to persist demangled symbols to,
+	 * or <code>null</code>
+	 */
+	public Demangler(String[] command, File cacheFile) {
+		this.command = command;
+		this.cacheFile = cacheFile;
+	}
+
+	public String demangle(String symbol) {
+		return demangle(new String[] { symbol })[0];
+	}
+
+	/**
+	 * Demangles a set of symbols.
+	 * @param symbols
+	 * @return The demangled symbols, in the same order
+	 */
+	public synchronized String[] demangle(String[] symbols) {
+		initPersistentCache();
+		String[] result = new String[symbols.length];
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		for (int i = 0; i < symbols.length; i++) {
+			String symbol = symbols[i];
+			if (!isMangled(symbol)) {
+				result[i] = symbol;
+				continue;
+			}
+			// Removed and re-inserted to keep the most recently used last
+			String demangled = sessionCache.remove(symbol);
+			if (demangled == null) {
+				demangled = persistentCache.get(symbol);
+			}
+			if (demangled == null) {
+				demangled = demangleSimple(symbol);
+			}
+			if (demangled == null) {
+				pending.add(i);
+			} else {
+				result[i] = demangled;
+				sessionCache.put(symbol, demangled);
+			}
+		}
+
+		for (int batchStart = 0, batchEnd; batchStart < pending.size(); batchStart = batchEnd) {
+			batchEnd = batchStart;
+			for (int batchBytes = 0; batchEnd < pending.size() && batchEnd - batchStart < BATCH_SIZE; batchEnd++) {
+				batchBytes += symbols[pending.get(batchEnd)].length() + 1;
+				if (batchBytes > MAX_BATCH_BYTES && batchEnd > batchStart) {
+					break;
+				}
+			}
+			String[] batch = new String[batchEnd - batchStart];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = symbols[pending.get(batchStart + i)];
+			}
+			String[] demangledBatch = demangleExternally(batch);
+			for (int i = 0; i < batch.length; i++) {
+				String symbol = batch[i];
+				String demangled = demangledBatch == null ? symbol : demangledBatch[i];
+				result[pending.get(batchStart + i)] = demangled;
+				// Symbols c++filt failed for are retried with the next process
+				if (demangledBatch != null) {
+					sessionCache.put(symbol, demangled);
+					persistentCache.put(symbol, demangled);
+					dirty = true;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean isMangled(String symbol) {
+		return symbol.startsWith("_Z");
+	}
+
+	/**
+	 * Sends a batch of symbols to the <code>c++filt</code> process.
+	 * @return The demangled symbols, or <code>null</code> if
+	 * <code>c++filt</code> could not be used or timed out
+	 */
+	private String[] demangleExternally(String[] batch) {
+		if (System.currentTimeMillis() < retryTime) {
+			return null;
+		}
+		try {
+			if (process == null) {
+				startProcess();
+			}
+			for (String symbol : batch) {
+				toProcess.write(symbol);
+				toProcess.write('\n');
+			}
+			toProcess.flush();
+			String[] result = new String[batch.length];
+			long deadline = System.currentTimeMillis() + timeout;
+			for (int i = 0; i < batch.length; i++) {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				String line = fromProcess.poll(remaining, TimeUnit.MILLISECONDS);
+				if (line == null) {
+					throw new IOException("c++filt did not respond within " + timeout + " ms");
+				}
+				if (line == EOF) {
+					throw new IOException("c++filt terminated unexpectedly");
+				}
+				result[i] = line;
+			}
+			batchCount++;
+			return result;
+		} catch (IOException e) {
+			fail(e);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+			return null;
+		}
+	}
+
+	private void fail(Exception e) {
+		// Give c++filt a break; the next batch after that starts a new process
+		retryTime = System.currentTimeMillis() + retryDelay;
+		stopProcess();
+		CoreMoSyncPlugin.getDefault().logOnce(e, getClass().getName() + "c++filt");
+	}
+
+	private void startProcess() throws IOException {
+		process = new ProcessBuilder(command).start();
+		toProcess = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+		final BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+		fromProcess = lines;
+		Thread outputReader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String line = output.readLine(); line != null; line = output.readLine()) {
+						lines.add(line);
+					}
+				} catch (IOException e) {
+					// Ignore; treated as end of output.
+				} finally {
+					lines.add(EOF);
+					Util.safeClose(output);
+				}
+			}
+		}, "c++filt output stream");
+		outputReader.setDaemon(true);
+		outputReader.start();
+		final InputStream errors = process.getErrorStream();
+		Thread errorDrainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[1024];
+				try {
+					while (errors.read(buffer) != -1) {
+						// Ignore.
+					}
+				} catch (IOException e) {
+					// Ignore.
+				}
+			}
+		}, "c++filt error stream");
+		errorDrainer.setDaemon(true);
+		errorDrainer.start();
+	}
+
+	private void stopProcess() {
+		if (process != null) {
+			Util.safeClose(toProcess);
+			// Also ends the output reader
+			process.destroy();
+			process = null;
+			fromProcess = null;
+		}
+	}
+
+	/**
+	 * Sets the max time to wait for <code>c++filt</code> to
+	 * demangle a batch of symbols; if it takes longer, it will
+	 * not be used again until the retry delay has passed.
+	 * @param timeout The timeout, in milliseconds
+	 */
+	synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Sets the time to wait before starting a new <code>c++filt</code>
+	 * process after it failed or timed out.
+	 * @param retryDelay The delay, in milliseconds
+	 */
+	synchronized void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Returns the number of batches sent to <code>c++filt</code>
+	 * so far.
+	 * @return
+	 */
+	public synchronized int getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * Writes the persistent cache, if it has changed.
+	 */
+	public synchronized void flush() {
+		if (dirty && cacheFile != null) {
+			try {
+				writeCache();
+				dirty = false;
+			} catch (IOException e) {
+				CoreMoSyncPlugin.getDefault().log(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the persistent cache and terminates the
+	 * <code>c++filt</code> process.
+	 */
+	public synchronized void dispose() {
+		flush();
+		stopProcess();
+	}
+
+	/**
+	 * Demangles simple function and variable names; returns
+	 * <code>null</code> for anything else (such as templates,
+	 * operators, constructors and symbols using substitutions).
+	 * The result is the same as that of <code>c++filt</code>.
+	 * @param symbol
+	 * @return
+	 */
+	static String demangleSimple(String symbol) {
+		if (!isMangled(symbol)) {
+			return symbol;
+		}
+		int[] pos = new int[] { 2 };
+		boolean isConst = false;
+		String name;
+		if (peek(symbol, pos) == 'N') {
+			pos[0]++;
+			if (peek(symbol, pos) == 'K') {
+				isConst = true;
+				pos[0]++;
+			}
+			name = parseNestedName(symbol, pos);
+		} else {
+			name = parseSourceName(symbol, pos);
+		}
+		if (name == null) {
+			return null;
+		}
+		if (pos[0] == symbol.length()) {
+			return isConst ? null : name;
+		}
+
+		StringBuffer result = new StringBuffer(name);
+		result.append('(');
+		if (symbol.length() - pos[0] == 1 && peek(symbol, pos) == 'v') {
+			pos[0]++;
+		}
+		for (int paramCount = 0; pos[0] < symbol.length(); paramCount++) {
+			String type = parseType(symbol, pos);
+			if (type == null) {
+				return null;
+			}
+			if (paramCount > 0) {
+				result.append(", ");
+			}
+			result.append(type);
+		}
+		result.append(')');
+		if (isConst) {
+			result.append(" const");
+		}
+		return result.toString();
+	}
+
+	private static char peek(String symbol, int[] pos) {
+		return pos[0] < symbol.length() ? symbol.charAt(pos[0]) : 0;
+	}
+
+	private static String parseNestedName(String symbol, int[] pos) {
+		StringBuffer result = new StringBuffer();
+		while (peek(symbol, pos) != 'E') {
+			String segment = parseSourceName(symbol, pos);
+			if (segment == null) {
+				return null;
+			}
+			if (result.length() > 0) {
+				result.append("::");
+			}
+			result.append(segment);
+		}
+		pos[0]++;
+		return result.length() == 0 ? null : result.toString();
+	}
+
+	private static String parseSourceName(String symbol, int[] pos) {
+		int length = 0;
+		int start = pos[0];
+		while (Character.isDigit(peek(symbol, pos))) {
+			length = length * 10 + peek(symbol, pos) - '0';
+			pos[0]++;
+		}
+		if (pos[0] == start || length == 0 || pos[0] + length > symbol.length()) {
+			return null;
+		}
+		String name = symbol.substring(pos[0], pos[0] + length);
+		pos[0] += length;
+		// Anonymous namespaces are presented differently.
+		return name.startsWith("_GLOBAL_") ? null : name;
+	}
+
+	private static String parseType(String symbol, int[] pos) {
+		char ch = peek(symbol, pos);
+		String builtin = getBuiltinType(ch);
+		if (builtin != null) {
+			pos[0]++;
+			return builtin;
+		}
+		String suffix = null;
+		if (ch == 'P') {
+			suffix = "*";
+		} else if (ch == 'R') {
+			suffix = "&";
+		} else if (ch == 'K') {
+			suffix = " const";
+		}
+		if (suffix != null) {
+			pos[0]++;
+			String type = parseType(symbol, pos);
+			return type == null ? null : type + suffix;
+		}
+		if (ch == 'N') {
+			pos[0]++;
+			return parseNestedName(symbol, pos);
+		}
+		return parseSourceName(symbol, pos);
+	}
+
+	private static String getBuiltinType(char ch) {
+		switch (ch) {
+		case 'v': return "void";
+		case 'b': return "bool";
+		case 'c': return "char";
+		case 'a': return "signed char";
+		case 'h': return "unsigned char";
+		case 's': return "short";
+		case 't': return "unsigned short";
+		case 'i': return "int";
+		case 'j': return "unsigned int";
+		case 'l': return "long";
+		case 'm': return "unsigned long";
+		case 'x': return "long long";
+		case 'y': return "unsigned long long";
+		case 'f': return "float";
+		case 'd': return "double";
+		case 'e': return "long double";
+		case 'w': return "wchar_t";
+		default: return null;
+		}
+	}
+
+	private void initPersistentCache() {
+		if (persistentCache == null) {
+			persistentCache = new Cache<String, String>(PERSISTENT_CACHE_SIZE);
+			if (cacheFile != null && cacheFile.exists()) {
+				try {
+					readCache();
+				} catch (IOException e) {
+					persistentCache.clear();
+					CoreMoSyncPlugin.getDefault().log(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The persistent cache is only valid for the same
+	 * <code>c++filt</code> binary.
+	 */
+	private String getToolKey() {
+		StringBuffer key = new StringBuffer();
+		for (String part : command) {
+			File file = new File(part);
+			key.append(part);
+			if (file.isFile()) {
+				key.append(':');
+				key.append(file.length());
+				key.append(':');
+				key.append(file.lastModified());
+			}
+			key.append('\n');
+		}
+		return key.toString();
+	}
+
+	private void readCache() throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION ||
+				!getToolKey().equals(readString(input))) {
+				return;
+			}
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				persistentCache.put(readString(input), readString(input));
+			}
+		} finally {
+			Util.safeClose(input);
+		}
+	}
+
+	private void writeCache() throws IOException {
+		cacheFile.getParentFile().mkdirs();
+		File tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			writeString(output, getToolKey());
+			output.writeInt(persistentCache.size());
+			for (Map.Entry<String, String> entry : persistentCache.entrySet()) {
+				writeString(output, entry.getKey());
+				writeString(output, entry.getValue());
+			}
+		} finally {
+			Util.safeClose(output);
+		}
+		cacheFile.delete();
+		if (!tmpFile.renameTo(cacheFile)) {
+			tmpFile.delete();
+			throw new IOException("Could not write " + cacheFile);
+		}
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0 || length > MAX_STRING_LENGTH) {
+			throw new IOException("Corrupt demangler cache");
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	// Unlike writeUTF, not limited to 64 kB
+	private static void writeString(DataOutputStream output, String str) throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
@@ -13,8 +13,8 @@
 */
 package com.mobilesorcery.sdk.core;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.LineNumberReader;
 import java.io.Reader;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -99,9 +99,33 @@ public class LineReader implements Runnable {
     	
     }
 
+    /**
+     * <p>Parses XML output as it arrives. The lines are fed to a SAX
+     * parser running in a separate thread through a bounded pipe, so
+     * the {@link DefaultHandler} callbacks are made incrementally (on
+     * the parser thread) and the output is never held in memory in
+     * its entirety.</p>
+     * <p>{@link #doStop(Exception)} is called once the parser has
+     * consumed all output; normally on the parser thread, so
+     * {@link #stop(IOException)} never waits for the parser.
+     * {@link #newLine(String)} blocks while the pipe is full, so this
+     * handler should only be used from threads that may wait
+     * for the parser to catch up.</p>
+     */
     public static class XMLLineAdapter extends DefaultHandler implements ILineHandler {
 
-    	StringBuffer buffer = new StringBuffer();
+    	static final int PIPE_CAPACITY = 65536;
+
+    	private BoundedPipe pipe;
+
+    	private Thread parser;
+
+    	private volatile Exception parseException;
+
+    	private IOException stopException;
+
+    	// The number of stop() and parser exits left before doStop() is called
+    	private int pendingStops = 2;
 
 		@Override
 		public void start(Process process) {
@@ -109,29 +133,177 @@ public class LineReader implements Runnable {
 
 		@Override
 		public void newLine(String line) {
-			buffer.append(line);
-			buffer.append('\n');
+			startParser();
+			pipe.write(line);
+			pipe.write("\n");
 		}
 
 		@Override
 		public final void stop(IOException ioe) {
-			Exception ex = ioe;
-			if (ioe == null) {
-				try {
-					SAXParserFactory factory = SAXParserFactory.newInstance();
-					SAXParser parser = factory.newSAXParser();
-					parser.parse(new ByteArrayInputStream(buffer.toString().getBytes()), this);
-				} catch (Exception e) {
-					ex = e;
+			startParser();
+			synchronized (this) {
+				stopException = ioe;
+			}
+			pipe.close(ioe);
+			stopped();
+		}
+
+		/**
+		 * Called once by {@link #stop(IOException)} and once by the
+		 * parser thread when it exits; whichever comes last calls
+		 * {@link #doStop(Exception)}.
+		 */
+		private void stopped() {
+			Exception ex;
+			synchronized (this) {
+				pendingStops--;
+				if (pendingStops > 0) {
+					return;
 				}
+				ex = stopException == null ? parseException : stopException;
 			}
 			doStop(ex);
 		}
 
+		private synchronized void startParser() {
+			if (parser != null) {
+				return;
+			}
+			pipe = new BoundedPipe(PIPE_CAPACITY);
+			parser = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						SAXParserFactory factory = SAXParserFactory.newInstance();
+						SAXParser parser = factory.newSAXParser();
+						parser.parse(new InputSource(pipe), XMLLineAdapter.this);
+					} catch (Exception e) {
+						parseException = e;
+					} finally {
+						// Any further output is discarded instead of blocking the writer.
+						pipe.closeReader();
+						stopped();
+					}
+				}
+			}, "XML output parser");
+			parser.setDaemon(true);
+			parser.start();
+		}
+
 		protected void doStop(Exception e) {
 
 		}
 
+		/**
+		 * Returns the max number of characters held by the
+		 * pipe to the parser so far.
+		 */
+		synchronized int getMaxBuffered() {
+			return pipe == null ? 0 : pipe.getMaxSize();
+		}
+
+    }
+
+    /**
+     * A pipe from one writer thread to one reader thread that holds
+     * at most a fixed number of characters; the writer blocks
+     * when the pipe is full.
+     */
+    static class BoundedPipe extends Reader {
+
+    	private final char[] buffer;
+
+    	private int head = 0;
+
+    	private int size = 0;
+
+    	private boolean writerClosed = false;
+
+    	private boolean readerClosed = false;
+
+    	private IOException writerException;
+
+    	private int maxSize = 0;
+
+    	BoundedPipe(int capacity) {
+    		buffer = new char[capacity];
+    	}
+
+    	synchronized void write(String str) {
+    		int offset = 0;
+    		while (offset < str.length()) {
+    			while (size == buffer.length && !readerClosed) {
+    				try {
+    					wait();
+    				} catch (InterruptedException e) {
+    					Thread.currentThread().interrupt();
+    					return;
+    				}
+    			}
+    			if (readerClosed) {
+    				return;
+    			}
+    			int tail = (head + size) % buffer.length;
+    			int chunk = Math.min(str.length() - offset, Math.min(buffer.length - size, buffer.length - tail));
+    			str.getChars(offset, offset + chunk, buffer, tail);
+    			offset += chunk;
+    			size += chunk;
+    			maxSize = Math.max(maxSize, size);
+    			notifyAll();
+    		}
+    	}
+
+    	/**
+    	 * Closes the writing end of this pipe; the reader will
+    	 * get the remaining characters and then EOF, or the exception
+    	 * passed to this method.
+    	 */
+    	synchronized void close(IOException e) {
+    		writerClosed = true;
+    		writerException = e;
+    		notifyAll();
+    	}
+
+    	synchronized int getMaxSize() {
+    		return maxSize;
+    	}
+
+    	synchronized void closeReader() {
+    		readerClosed = true;
+    		size = 0;
+    		notifyAll();
+    	}
+
+		@Override
+		public synchronized int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (size == 0 && !writerClosed && !readerClosed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			if (size == 0) {
+				if (writerException != null) {
+					throw writerException;
+				}
+				return -1;
+			}
+			int chunk = Math.min(len, Math.min(size, buffer.length - head));
+			System.arraycopy(buffer, head, cbuf, off, chunk);
+			head = (head + chunk) % buffer.length;
+			size -= chunk;
+			notifyAll();
+			return chunk;
+		}
+
+		@Override
+		public void close() {
+			closeReader();
+		}
     }
 
     private final Reader from;
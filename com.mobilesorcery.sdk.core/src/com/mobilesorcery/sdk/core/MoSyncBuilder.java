@@ -29,6 +29,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.ErrorParserManager;
@@ -48,6 +55,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
@@ -188,6 +196,23 @@ public class MoSyncBuilder extends ACBuilder {
 	
 	public static final String VERBOSE_BUILDS = "verbose.builds";
 
+	/**
+	 * The preference key for the number of files to compile concurrently.
+	 */
+	public static final String PARALLEL_COMPILE_JOBS = "parallel.compile.jobs";
+
+	/**
+	 * The preference key for the maximum size of the compile
+	 * cache, in megabytes; {@code 0} disables the cache.
+	 */
+	public static final String COMPILE_CACHE_SIZE = "compile.cache.size";
+
+	/**
+	 * The preference key for the number of build variants to
+	 * build concurrently when building several variants.
+	 */
+	public static final String CONCURRENT_VARIANT_BUILDS = "concurrent.variant.builds";
+
 	private static final String CONSOLE_PREPARED = "console.prepared";
 
 	public static final int GCC_WALL = 1 << 1;
@@ -198,6 +223,19 @@ public class MoSyncBuilder extends ACBuilder {
 
 	private static Boolean doesRescompilerLibExist;
 
+	// The build state that was updated by the last call
+	// to build(int, Map, IProgressMonitor); if the next build
+	// uses the same build state, the platform resource delta
+	// can be used instead of a full file system scan.
+	private IBuildState lastBuiltState;
+
+	// Set for builders of concurrent variant builds; output goes
+	// to this console, and all workspace operations that require
+	// scheduling rules are left to the thread that started the builds.
+	private IProcessConsole concurrentBuildConsole;
+
+	private boolean concurrentBuildHadErrors;
+
 	public final class GCCLineHandler extends LineAdapter {
 
 		private final ErrorParserManager epm;
@@ -388,22 +426,44 @@ public class MoSyncBuilder extends ACBuilder {
 			kind = FULL_BUILD;
 		}
 
-		IBuildVariant variant = getActiveVariant(MoSyncProject.create(project));
+		MoSyncProject mosyncProject = MoSyncProject.create(project);
+		IBuildVariant variant = getActiveVariant(mosyncProject);
 		IBuildSession session = createIncrementalBuildSession(project, kind);
 		if (kind == FULL_BUILD) {
+			lastBuiltState = null;
 			build(project, session, variant, null, monitor);
 		} else {
-			incrementalBuild(project, session, variant, null, monitor);
+			IFileTreeDiff deltaDiff = createDeltaDiff(mosyncProject, variant);
+			lastBuiltState = null;
+			incrementalBuild(project, session, variant, null, deltaDiff, monitor);
 		}
+		lastBuiltState = mosyncProject.getBuildState(variant);
 
-		Set<IProject> dependencies = CoreMoSyncPlugin.getDefault()
-				.getProjectDependencyManager(ResourcesPlugin.getWorkspace())
-				.getDependenciesOf(project);
+		DependencyManager<IProject> projectDependencies = CoreMoSyncPlugin.getDefault()
+				.getProjectDependencyManager(ResourcesPlugin.getWorkspace());
+		Set<IProject> dependencies;
+		synchronized (projectDependencies) {
+			dependencies = new HashSet<IProject>(projectDependencies.getDependenciesOf(project));
+		}
 		dependencies.add(project);
 
 		return dependencies.toArray(new IProject[dependencies.size()]);
 	}
 
+	/**
+	 * Returns a diff based on the platform resource delta, or <code>null</code>
+	 * if there is no delta or if it cannot be trusted to be relative
+	 * to the current build state.
+	 */
+	private IFileTreeDiff createDeltaDiff(MoSyncProject project, IBuildVariant variant) throws CoreException {
+		IResourceDelta delta = getDelta(project.getWrappedProject());
+		IBuildState buildState = project.getBuildState(variant);
+		if (delta == null || buildState != lastBuiltState || !buildState.isValid()) {
+			return null;
+		}
+		return BuildState.createDiff(delta, buildState);
+	}
+
 	private boolean hasErrorMarkers(IProject project) throws CoreException {
 		return hasErrorMarkers(project, IResource.DEPTH_INFINITE);
 	}
@@ -447,11 +507,13 @@ public class MoSyncBuilder extends ACBuilder {
 				null, 1, subMonitor);
 		Util.deleteFiles(outputFile, Util.getExtensionFilter("s"), 512, subMonitor);
 
-		IBuildState buildState = MoSyncProject.create(project).getBuildState(
-				variant);
+		MoSyncProject mosyncProject = MoSyncProject.create(project);
+		IBuildState buildState = mosyncProject.getBuildState(variant);
 		buildState.clear();
 		buildState.save();
 		buildState.setValid(true);
+		// Make sure no one keeps using state from before the clean.
+		mosyncProject.invalidateBuildState(variant);
 	}
 
 	/**
@@ -538,8 +600,20 @@ public class MoSyncBuilder extends ACBuilder {
 	IBuildResult incrementalBuild(IProject project, IBuildSession session,
 			IBuildVariant variant, IFilter<IResource> resourceFilter,
 			IProgressMonitor monitor) throws CoreException {
+		return incrementalBuild(project, session, variant, resourceFilter, null, monitor);
+	}
+
+	/**
+	 * Performs an incremental build.
+	 * @param deltaDiff A diff computed from the platform resource
+	 * delta, or <code>null</code> if the diff should be computed
+	 * from the build state.
+	 */
+	IBuildResult incrementalBuild(IProject project, IBuildSession session,
+			IBuildVariant variant, IFilter<IResource> resourceFilter,
+			IFileTreeDiff deltaDiff, IProgressMonitor monitor) throws CoreException {
 		IProcessConsole console = createConsole(session);
-		IBuildResult result = incrementalBuild0(project, session, variant, resourceFilter, console, monitor);
+		IBuildResult result = incrementalBuild0(project, session, variant, resourceFilter, deltaDiff, console, monitor);
 		if (monitor.isCanceled()) {
 			console.addMessage(IProcessConsole.ERR, "*** Build was cancelled by user ***");
 		}
@@ -548,7 +622,7 @@ public class MoSyncBuilder extends ACBuilder {
 	
 	IBuildResult incrementalBuild0(IProject project, IBuildSession session,
 			IBuildVariant variant, IFilter<IResource> resourceFilter,
-			IProcessConsole console,
+			IFileTreeDiff deltaDiff, IProcessConsole console,
 			IProgressMonitor monitor) throws CoreException {
 		if (CoreMoSyncPlugin.getDefault().isDebugging()) {
 			CoreMoSyncPlugin.trace("Building project {0}", project);
@@ -579,11 +653,14 @@ public class MoSyncBuilder extends ACBuilder {
 		ParameterResolver resolver = createParameterResolver(mosyncProject,
 				variant);
 
-		ensureOutputIsMarkedDerived(project, variant);
+		if (concurrentBuildConsole == null) {
+			ensureOutputIsMarkedDerived(project, variant);
+		}
 
 		ErrorParserManager epm = createErrorParserManager(project);
 
 		CoreException errorToShowInConsole = null;
+		IFileTreeDiff diff = null;
 
 		try {
 			/* Set up build monitor */
@@ -597,9 +674,9 @@ public class MoSyncBuilder extends ACBuilder {
 			}
 
 			// And we only remove things that are on the project.
-			IFileTreeDiff diff = createDiff(buildState, session);
-			if (PropertyUtil.getBoolean(mosyncProject, REBUILD_ON_ERROR) &&
-					hasErrorMarkers(project)) {
+			diff = createDiff(buildState, session, deltaDiff);
+			boolean hadErrors = concurrentBuildConsole == null ? hasErrorMarkers(project) : concurrentBuildHadErrors;
+			if (PropertyUtil.getBoolean(mosyncProject, REBUILD_ON_ERROR) && hadErrors) {
 				// Build all files
 				console.addMessage(IProcessConsole.ERR, "*** Errors in previous build triggered full rebuild ***");
 				diff = null;
@@ -701,7 +778,9 @@ public class MoSyncBuilder extends ACBuilder {
 					dateFormater.format(endTimestamp),
 					Util.elapsedTime(endTimestamp.getTime() - timestamp.getTime().getTime())));
 
-			refresh(project);
+			if (concurrentBuildConsole == null) {
+				refresh(project);
+			}
 
 			buildResult.setSuccess(true);
 
@@ -722,14 +801,18 @@ public class MoSyncBuilder extends ACBuilder {
 					CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
 		} finally {
 			epm.reportProblems();
-			if (!monitor.isCanceled() && !buildResult.success()
-					&& !hasErrorMarkers(project)) {
-				addBuildFailedMarker(project);
-			} else if (buildResult.success()) {
-				clearCMarkers(project);
+			// The project markers are shared by concurrent variant builds;
+			// they are updated once all of them are done.
+			if (concurrentBuildConsole == null) {
+				if (!monitor.isCanceled() && !buildResult.success()
+						&& !hasErrorMarkers(project)) {
+					addBuildFailedMarker(project);
+				} else if (buildResult.success()) {
+					clearCMarkers(project);
+				}
 			}
 
-			saveBuildState(buildState, mosyncProject, buildResult);
+			saveBuildState(buildState, mosyncProject, buildResult, diff != null && diff == deltaDiff ? diff : null);
 
 			if (errorToShowInConsole != null) {
 				console.addMessage(IProcessConsole.ERR, errorToShowInConsole.getMessage());
@@ -833,7 +916,7 @@ public class MoSyncBuilder extends ACBuilder {
 
 	// returns null if a full build should be performed.
 	private IFileTreeDiff createDiff(IBuildState buildState,
-			IBuildSession session) throws CoreException {
+			IBuildSession session, IFileTreeDiff deltaDiff) throws CoreException {
 		Set<String> changedProperties = buildState.getChangedBuildProperties();
 
 		if (session.doClean() || buildState.fullRebuildNeeded()) {
@@ -852,7 +935,7 @@ public class MoSyncBuilder extends ACBuilder {
 		}
 
 		if (changedProperties.isEmpty()) {
-			return buildState.createDiff();
+			return deltaDiff == null ? buildState.createDiff() : deltaDiff;
 		} else {
 			if (CoreMoSyncPlugin.getDefault().isDebugging()) {
 				CoreMoSyncPlugin
@@ -896,9 +979,14 @@ public class MoSyncBuilder extends ACBuilder {
 	}
 
 	private void saveBuildState(IBuildState buildState, MoSyncProject project,
-			IBuildResult buildResult) throws CoreException {
+			IBuildResult buildResult, IFileTreeDiff deltaDiff) throws CoreException {
 		buildState.updateResult(buildResult);
-		buildState.updateState(project.getWrappedProject());
+		if (deltaDiff == null) {
+			buildState.updateState(project.getWrappedProject());
+		} else {
+			// No need to traverse the file system.
+			buildState.updateState(deltaDiff);
+		}
 		buildState.updateBuildProperties(project.getProperties());
 		buildState.fullRebuildNeeded(buildResult == null
 				|| !buildResult.success());
@@ -956,9 +1044,11 @@ public class MoSyncBuilder extends ACBuilder {
 	 * @return A console that is ready for printing.
 	 */
 	private IProcessConsole createConsole(IBuildSession session) {
-		IProcessConsole console = CoreMoSyncPlugin.getDefault().createConsole(
-				CONSOLE_ID);
-		prepareConsole(session, console);
+		IProcessConsole console = concurrentBuildConsole;
+		if (console == null) {
+			console = CoreMoSyncPlugin.getDefault().createConsole(CONSOLE_ID);
+			prepareConsole(session, console);
+		}
 
 		if (!MoSyncTool.getDefault().isValid()) {
 			String error = MoSyncTool.getDefault().validate();
@@ -977,10 +1067,6 @@ public class MoSyncBuilder extends ACBuilder {
 		IProject project = mosyncProject.getWrappedProject();
 		monitor.setTaskName(MessageFormat.format(
 				"Computing project dependencies for {0}", project.getName()));
-		DependencyManager<IProject> projectDependencies = CoreMoSyncPlugin
-				.getDefault().getProjectDependencyManager(
-						ResourcesPlugin.getWorkspace());
-		projectDependencies.clearDependencies(project);
 		HashSet<IProject> allProjectDependencies = new HashSet<IProject>();
 		Set<IResource> dependencies = buildState.getDependencyManager()
 				.getDependenciesOf(Arrays.asList(allAffectedResources));
@@ -1286,6 +1372,17 @@ public class MoSyncBuilder extends ACBuilder {
 				monitor.beginTask(MessageFormat.format("Building {0} variants",
 						variantsToBuild.size()), variantsToBuild.size());
 
+				int concurrentBuilds = Math.min(variantsToBuild.size(),
+						CoreMoSyncPlugin.getDefault().getPreferenceStore().getInt(CONCURRENT_VARIANT_BUILDS));
+				if (concurrentBuilds > 1) {
+					try {
+						buildConcurrently(project, buildSession, variantsToBuild, concurrentBuilds, monitor);
+					} finally {
+						monitor.done();
+					}
+					return;
+				}
+
 				for (IBuildVariant variantToBuild : variantsToBuild) {
 					SubProgressMonitor jobMonitor = new SubProgressMonitor(
 							monitor, 1);
@@ -1299,6 +1396,198 @@ public class MoSyncBuilder extends ACBuilder {
 		};
 	}
 
+	/**
+	 * A build of one variant out of several concurrent ones.
+	 */
+	private static class VariantBuild implements Callable<VariantBuild> {
+
+		private final IProject project;
+		private final IBuildSession session;
+		private final IBuildVariant variant;
+		private final boolean hadErrors;
+		private final BufferedProcessConsole console;
+		private final IProgressMonitor monitor;
+		private CoreException error;
+		private boolean cancelled;
+
+		VariantBuild(IProject project, IBuildSession session, IBuildVariant variant, boolean hadErrors,
+				IProcessConsole console, IProgressMonitor parentMonitor) {
+			this.project = project;
+			this.session = session;
+			this.variant = variant;
+			this.hadErrors = hadErrors;
+			this.console = new BufferedProcessConsole(console);
+			this.monitor = new VariantProgressMonitor(parentMonitor);
+		}
+
+		@Override
+		public VariantBuild call() {
+			MoSyncBuilder builder = new MoSyncBuilder();
+			builder.concurrentBuildConsole = console;
+			builder.concurrentBuildHadErrors = hadErrors;
+			try {
+				IBuildResult result = builder.build(project, session, variant, null, monitor);
+				if (!result.success() && !monitor.isCanceled()) {
+					error = result.createException();
+					if (error == null) {
+						error = new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, "Build failed"));
+					}
+				}
+			} catch (OperationCanceledException e) {
+				// Handled below
+			} catch (CoreException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+			} finally {
+				cancelled = monitor.isCanceled();
+				console.flush();
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * A progress monitor for a single variant build; it is
+	 * cancelled if the parent monitor is cancelled, but
+	 * does not report progress to it since progress monitors
+	 * need not be thread safe.
+	 */
+	private static class VariantProgressMonitor extends NullProgressMonitor {
+
+		private final IProgressMonitor parent;
+
+		VariantProgressMonitor(IProgressMonitor parent) {
+			this.parent = parent;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return super.isCanceled() || parent.isCanceled();
+		}
+	}
+
+	/**
+	 * Builds several variants of a project concurrently. Each variant
+	 * gets its own session properties, console output buffer, pipe-tool
+	 * and build state; operations that need workspace scheduling rules
+	 * are performed by the calling thread before and after the builds.
+	 */
+	private static void buildConcurrently(IProject project, IBuildSession session,
+			List<IBuildVariant> variants, int concurrentBuilds, IProgressMonitor monitor)
+			throws InvocationTargetException, InterruptedException {
+		if (!session.doClean() && session.doSaveDirtyEditors()) {
+			if (!saveAllEditors(project)) {
+				throw new OperationCanceledException();
+			}
+		}
+
+		MoSyncBuilder coordinator = new MoSyncBuilder();
+		IProcessConsole console = coordinator.createConsole(session);
+		// Make sure all variants share app code, just like in sequential builds.
+		getCurrentAppCode(session);
+		boolean hadErrors;
+		try {
+			for (IBuildVariant variant : variants) {
+				coordinator.ensureOutputIsMarkedDerived(project, variant);
+			}
+			// Checked before any variant build reports its problems
+			hadErrors = coordinator.hasErrorMarkers(project);
+		} catch (CoreException e) {
+			throw new InvocationTargetException(e);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrentBuilds, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Variant build thread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<VariantBuild> completionService = new ExecutorCompletionService<VariantBuild>(executor);
+		ArrayList<VariantBuild> builds = new ArrayList<VariantBuild>();
+		try {
+			for (IBuildVariant variant : variants) {
+				VariantBuild build = new VariantBuild(project, createVariantSession(session, variant), variant, hadErrors, console, monitor);
+				builds.add(build);
+				completionService.submit(build);
+			}
+			for (int i = 0; i < builds.size(); i++) {
+				VariantBuild build = completionService.take().get();
+				monitor.subTask(MessageFormat.format("Finished building for {0}", build.variant.getProfile()));
+				monitor.worked(1);
+			}
+		} catch (InterruptedException e) {
+			// Let the remaining builds stop in an orderly fashion.
+			monitor.setCanceled(true);
+			throw e;
+		} catch (ExecutionException e) {
+			throw new InvocationTargetException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		try {
+			refresh(project);
+		} catch (CoreException e) {
+			CoreMoSyncPlugin.getDefault().log(e);
+		}
+
+		MultiStatus status = new MultiStatus(CoreMoSyncPlugin.PLUGIN_ID, 1,
+				MessageFormat.format("Build failed for one or more of {0} variants", builds.size()), null);
+		int succeeded = 0;
+		int cancelled = 0;
+		for (VariantBuild build : builds) {
+			if (build.error != null) {
+				status.add(new MultiStatus(CoreMoSyncPlugin.PLUGIN_ID, 1,
+						new IStatus[] { build.error.getStatus() },
+						build.variant.getProfile() + ": " + build.error.getMessage(), null)); //$NON-NLS-1$
+			} else if (build.cancelled) {
+				cancelled++;
+			} else {
+				succeeded++;
+			}
+		}
+
+		try {
+			if (succeeded == builds.size()) {
+				clearCMarkers(project);
+			} else if (!status.isOK() && !coordinator.hasErrorMarkers(project)) {
+				coordinator.addBuildFailedMarker(project);
+			}
+		} catch (CoreException e) {
+			CoreMoSyncPlugin.getDefault().log(e);
+		}
+
+		console.addMessage(MessageFormat.format(
+				"Built {0} variants concurrently: {1} succeeded, {2} failed, {3} cancelled",
+				builds.size(), succeeded, status.getChildren().length, cancelled));
+		for (IStatus failure : status.getChildren()) {
+			console.addMessage(IProcessConsole.ERR, failure.getMessage());
+		}
+
+		if (!status.isOK()) {
+			throw new InvocationTargetException(new CoreException(status));
+		}
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+	private static IBuildSession createVariantSession(IBuildSession session, IBuildVariant variant) {
+		// Dirty editors have already been saved.
+		int flags = (session.doClean() ? BuildSession.DO_CLEAN : 0) |
+				(session.doLink() ? BuildSession.DO_LINK : 0) |
+				(session.doBuildResources() ? BuildSession.DO_BUILD_RESOURCES : 0) |
+				(session.doPack() ? BuildSession.DO_PACK : 0);
+		BuildSession variantSession = new BuildSession(Arrays.asList(variant), flags);
+		// Build steps pass information to each other through
+		// the session properties, so each variant needs its own.
+		variantSession.getProperties().putAll(session.getProperties());
+		return variantSession;
+	}
+
 	public static IRunnableWithProgress createBuildJob(final IProject project,
 			final IBuildSession session, final IBuildVariant variant) {
 		return new IRunnableWithProgress() {
@@ -189,6 +189,13 @@ public class MoSyncProject extends PropertyOwnerBase implements
 	 */
 	public static final int NULL_DEPENDENCY_STRATEGY = 1;
 
+	/**
+	 * The property key for content hash based change detection; if
+	 * set to <code>true</code>, files whose timestamp has changed are
+	 * only rebuilt if their contents have changed as well.
+	 */
+	public static final String CONTENT_HASH_CHANGE_DETECTION = "content.hash.change.detection";
+
 	/**
 	 * The extension of the XML files that describes the icons used in a
 	 * project.
@@ -298,10 +305,38 @@ public class MoSyncProject extends PropertyOwnerBase implements
 
 	private boolean disposed = false;
 
-	private final HashMap<IBuildVariant, IBuildState> cachedBuildStates = new HashMap<IBuildVariant, IBuildState>();
+	/**
+	 * The minimum number of build states kept in memory per project;
+	 * at least as many as there are concurrently built variants are kept.
+	 */
+	private static final int MAX_CACHED_BUILD_STATES = 4;
+
+	/**
+	 * A per variant cache that never holds fewer entries than the
+	 * number of variants that may be built concurrently, since evicting
+	 * the state of a variant in the middle of its build would make it
+	 * be reloaded from disk by its next build step.
+	 */
+	private static class VariantCache<V> extends Cache<IBuildVariant, V> {
+
+		VariantCache() {
+			super(MAX_CACHED_BUILD_STATES);
+		}
+
+		@Override
+		protected int maxSize() {
+			CoreMoSyncPlugin plugin = CoreMoSyncPlugin.getDefault();
+			int concurrentBuilds = plugin == null ? 1 : plugin.getPreferenceStore().getInt(MoSyncBuilder.CONCURRENT_VARIANT_BUILDS);
+			return Math.max(super.maxSize(), concurrentBuilds);
+		}
+	}
+
+	private final Cache<IBuildVariant, BuildState> cachedBuildStates = new VariantCache<BuildState>();
 
 	private final HashMap<IPropertyOwner, PathExclusionFilter> excludes = new HashMap<IPropertyOwner, PathExclusionFilter>();
 
+	private final Cache<IBuildVariant, LibraryLookup> libraryLookups = new VariantCache<LibraryLookup>();
+
 	private final ApplicationPermissions permissions;
 
 	private Version formatVersion = CURRENT_VERSION;
@@ -706,6 +741,7 @@ public class MoSyncProject extends PropertyOwnerBase implements
 			projects.remove(this.project);
 		}
 
+		invalidateBuildState(null);
 		disposed = true;
 	}
 
@@ -1267,24 +1303,41 @@ public class MoSyncProject extends PropertyOwnerBase implements
 
 	/**
 	 * <p>
-	 * Returns the build state for a variant manager of this project. All
-	 * non-finalizer build states are cached.
+	 * Returns the build state for a variant manager of this project.
+	 * The most recently used build states are cached, and are reloaded
+	 * if their underlying file has been changed by someone else.
 	 * </p>
 	 *
 	 * @return
 	 */
 	public IBuildState getBuildState(IBuildVariant variant) {
-		IBuildState result = cachedBuildStates.get(variant);
-		boolean wasNull = true; // result == null;
-		if (wasNull) {
-			result = new BuildState(this, variant);
-		}
+		synchronized (cachedBuildStates) {
+			BuildState result = cachedBuildStates.remove(variant);
+			if (result == null || result.isStale()) {
+				result = new BuildState(this, variant);
+			}
 
-		if (wasNull) {
+			// Re-insert to keep the most recently used last.
 			cachedBuildStates.put(variant, result);
+			return result;
 		}
+	}
 
-		return result;
+	/**
+	 * Removes the cached build state of a variant; the next
+	 * call to {@link #getBuildState(IBuildVariant)} will reload
+	 * it from disk.
+	 * @param variant The variant, or <code>null</code> to remove
+	 * all cached build states.
+	 */
+	public void invalidateBuildState(IBuildVariant variant) {
+		synchronized (cachedBuildStates) {
+			if (variant == null) {
+				cachedBuildStates.clear();
+			} else {
+				cachedBuildStates.remove(variant);
+			}
+		}
 	}
 
 	/**
@@ -1470,11 +1523,25 @@ public class MoSyncProject extends PropertyOwnerBase implements
 		return securePropertyOwner;
 	}
 
+	/**
+	 * Returns the library lookup of a build variant; the same lookup
+	 * (and the libraries it has resolved) is returned for as long as
+	 * the library paths and libraries stay the same.
+	 * @param variant
+	 * @param buildProperties
+	 * @return
+	 */
 	public LibraryLookup getLibraryLookup(IBuildVariant variant, IPropertyOwner buildProperties) {
-		// TODO: cache?
-		return new LibraryLookup(MoSyncBuilder.getLibraryPaths(
-				getWrappedProject(), buildProperties),
-				MoSyncBuilder.getLibraries(this, variant, buildProperties));
+		IPath[] libraryPaths = MoSyncBuilder.getLibraryPaths(getWrappedProject(), buildProperties);
+		IPath[] libraries = MoSyncBuilder.getLibraries(this, variant, buildProperties);
+		synchronized (libraryLookups) {
+			LibraryLookup result = libraryLookups.get(variant);
+			if (result == null || !result.isLookupFor(libraryPaths, libraries)) {
+				result = new LibraryLookup(libraryPaths, libraries);
+				libraryLookups.put(variant, result);
+			}
+			return result;
+		}
 	}
 
 	public IApplicationPermissions getPermissions() {
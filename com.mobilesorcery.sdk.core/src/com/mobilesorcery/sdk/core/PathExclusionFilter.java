@@ -15,9 +15,11 @@ package com.mobilesorcery.sdk.core;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
@@ -26,9 +28,9 @@ import com.mobilesorcery.sdk.internal.StringMatcher;
 
 public class PathExclusionFilter implements IFilter<IResource> {
 
-	private final static int NEUTRAL = 0;
-	private final static int INCLUDE = 1;
-	private final static int EXCLUDE = -INCLUDE;
+	private final static byte UNKNOWN = 0;
+	private final static byte DIRECTORY = 1;
+	private final static byte NOT_DIRECTORY = 2;
 
 	static class InternalFilter {
 		private String filespec;
@@ -46,17 +48,30 @@ public class PathExclusionFilter implements IFilter<IResource> {
 			this(prototype.filespec, prototype.exclude);
 		}
 
-		public int accept(IResource resource) {
-		    IResource directoryLocation = resource.getProject().findMember(new Path(filespec));
-			boolean isDirectoryFilter = directoryLocation != null && directoryLocation.getLocation().toFile().isDirectory();
-			boolean match = matcher.match(resource.getProjectRelativePath().toPortableString());
-			if (match) {
-				return exclude ? EXCLUDE : INCLUDE;
-			} else if (isDirectoryFilter && resource.getType() != IResource.PROJECT && resource.getType() != IResource.ROOT) {
-				return accept(resource.getParent());
-			}
-			
-			return NEUTRAL;
+		boolean match(String path) {
+			return matcher.match(path);
+		}
+
+		/**
+		 * Returns <code>true</code> if this filter has no wildcards,
+		 * in which case it will only match paths equal to it.
+		 */
+		boolean isLiteral() {
+			return filespec.length() > 0 && filespec.indexOf('*') == -1 && filespec.indexOf('?') == -1 && filespec.indexOf('\\') == -1;
+		}
+
+		/**
+		 * Returns <code>true</code> if this filter names a directory
+		 * of a project; if so, it applies to everything in that directory.
+		 */
+		boolean isDirectoryFilter(IProject project) {
+			IResource directory = project.findMember(new Path(filespec));
+			IPath location = directory == null ? null : directory.getLocation();
+			return location != null && location.toFile().isDirectory();
+		}
+
+		boolean isExclude() {
+			return exclude;
 		}
 
 		public static InternalFilter parse(String filespec) {
@@ -105,9 +120,46 @@ public class PathExclusionFilter implements IFilter<IResource> {
 		}
 	}
 	
+	/**
+	 * A node of a trie of path segments; the filters without wildcards
+	 * are put into the trie, so all of them can be matched against a
+	 * path and its parent directories in a single pass.
+	 */
+	static class TrieNode {
+		private HashMap<String, TrieNode> children;
+		private int[] filters = new int[0];
+
+		TrieNode getChild(String segment) {
+			return children == null ? null : children.get(segment);
+		}
+
+		TrieNode addChild(String segment) {
+			if (children == null) {
+				children = new HashMap<String, TrieNode>();
+			}
+			TrieNode child = children.get(segment);
+			if (child == null) {
+				child = new TrieNode();
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		void addFilter(int filter) {
+			int[] newFilters = new int[filters.length + 1];
+			System.arraycopy(filters, 0, newFilters, 0, filters.length);
+			newFilters[filters.length] = filter;
+			filters = newFilters;
+		}
+	}
+
 	// Todo: create 'internal filters' instead of string[]
 	private List<InternalFilter> filters = new ArrayList<InternalFilter>();
 
+	// Compiled on first use; filters are immutable.
+	private TrieNode literals;
+	private int[] globs;
+
 	PathExclusionFilter(String[] filespecs) {
 		filters = parseFilters(filespecs, true);
 	}
@@ -162,14 +214,122 @@ public class PathExclusionFilter implements IFilter<IResource> {
 	}
 	
 	public boolean inverseAccept(IResource resource) {
-		int state = NEUTRAL;
+		return inverseAccept(resource, new byte[filters.size()]);
+	}
+
+	/**
+	 * Returns a filter equivalent to this one that remembers the
+	 * result for every resource it has been asked about. Since it will
+	 * not pick up any changes to the workspace, it should only be used
+	 * for the duration of a build or similar.
+	 * @return
+	 */
+	public IFilter<IResource> createCachingFilter() {
+		return new IFilter<IResource>() {
+			private final HashMap<IResource, Boolean> results = new HashMap<IResource, Boolean>();
+			private final HashMap<IProject, byte[]> directoryStates = new HashMap<IProject, byte[]>();
+
+			@Override
+			public synchronized boolean accept(IResource resource) {
+				Boolean result = results.get(resource);
+				if (result == null) {
+					IProject project = resource.getProject();
+					byte[] directoryState = directoryStates.get(project);
+					if (directoryState == null) {
+						directoryState = new byte[filters.size()];
+						directoryStates.put(project, directoryState);
+					}
+					result = !inverseAccept(resource, directoryState);
+					results.put(resource, result);
+				}
+				return result;
+			}
+		};
+	}
+
+	private boolean inverseAccept(IResource resource, byte[] directoryState) {
+		compile();
+		// The last filter that matches wins, so we look for the
+		// matching filter with the highest index.
+		IProject project = resource.getProject();
+		IPath path = resource.getProjectRelativePath();
+		int segmentCount = resource.getType() == IResource.PROJECT || resource.getType() == IResource.ROOT ? 0 : path.segmentCount();
+		int match = -1;
+		TrieNode node = literals;
+		for (int i = 0; node != null; i++) {
+			boolean isParent = i < segmentCount;
+			for (int filter : node.filters) {
+				if (filter > match && (!isParent || isDirectoryFilter(project, filter, directoryState))) {
+					match = filter;
+				}
+			}
+			node = isParent ? node.getChild(toKey(path.segment(i))) : null;
+		}
+
+		String[] parents = null;
+		for (int i = globs.length - 1; i >= 0 && globs[i] > match; i--) {
+			int filter = globs[i];
+			InternalFilter glob = filters.get(filter);
+			if (glob.match(path.toPortableString())) {
+				match = filter;
+			} else if (segmentCount > 0 && isDirectoryFilter(project, filter, directoryState)) {
+				if (parents == null) {
+					parents = new String[segmentCount];
+					for (int j = 0; j < segmentCount; j++) {
+						parents[j] = path.uptoSegment(j).toPortableString();
+					}
+				}
+				for (int j = 0; match != filter && j < segmentCount; j++) {
+					if (glob.match(parents[j])) {
+						match = filter;
+					}
+				}
+			}
+		}
+
+		return match != -1 && filters.get(match).isExclude();
+	}
+
+	private boolean isDirectoryFilter(IProject project, int filter, byte[] directoryState) {
+		if (directoryState[filter] == UNKNOWN) {
+			directoryState[filter] = filters.get(filter).isDirectoryFilter(project) ? DIRECTORY : NOT_DIRECTORY;
+		}
+		return directoryState[filter] == DIRECTORY;
+	}
+
+	private synchronized void compile() {
+		if (literals != null) {
+			return;
+		}
+		TrieNode root = new TrieNode();
+		ArrayList<Integer> globList = new ArrayList<Integer>();
 		for (int i = 0; i < filters.size(); i++) {
-			int newState = filters.get(i).accept(resource);
-			state = newState == NEUTRAL ? state : newState;
+			InternalFilter filter = filters.get(i);
+			if (filter.isLiteral()) {
+				TrieNode node = root;
+				for (String segment : new Path(filter.filespec).toPortableString().split("/", -1)) {
+					node = node.addChild(toKey(segment));
+				}
+				node.addFilter(i);
+			} else {
+				globList.add(i);
+			}
 		}
+		int[] globs = new int[globList.size()];
+		for (int i = 0; i < globs.length; i++) {
+			globs[i] = globList.get(i);
+		}
+		this.globs = globs;
+		this.literals = root;
+	}
 
-		boolean result = state == EXCLUDE;
-		return result;
+	private static String toKey(String segment) {
+		// Same as the string matcher's case insensitivity
+		char[] chars = segment.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toUpperCase(chars[i]);
+		}
+		return new String(chars);
 	}
 
 	public PathExclusionFilter addExclusions(List<String> filespecs, boolean excluded) {
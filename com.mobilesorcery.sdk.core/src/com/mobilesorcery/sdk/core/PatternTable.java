@@ -0,0 +1,153 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * <p>An ordered list of regular expressions, each with an associated value,
+ * that returns the values of all patterns that match an input.</p>
+ * <p>Instead of running every pattern against every input, patterns are
+ * dispatched on their literal prefix (for example <code>android_</code> for
+ * <code>android_[0-9]+</code>), so only patterns whose prefix matches
+ * the input are run. Patterns without a literal prefix are always run.
+ * The result for each input is cached.</p>
+ *
+ * @author Mattias Bybro
+ *
+ * @param <T>
+ */
+public class PatternTable<T> {
+
+	private static final int MAX_CACHED_RESULTS = 1024;
+
+	private final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+
+	private final ArrayList<T> values = new ArrayList<T>();
+
+	private final HashMap<String, BitSet> patternsForPrefix = new HashMap<String, BitSet>();
+
+	private final TreeSet<Integer> prefixLengths = new TreeSet<Integer>();
+
+	private final Cache<String, List<T>> results = new Cache<String, List<T>>(MAX_CACHED_RESULTS);
+
+	public synchronized void add(Pattern pattern, T value) {
+		int index = patterns.size();
+		patterns.add(pattern);
+		values.add(value);
+		String prefix = getLiteralPrefix(pattern);
+		BitSet patternsWithPrefix = patternsForPrefix.get(prefix);
+		if (patternsWithPrefix == null) {
+			patternsWithPrefix = new BitSet();
+			patternsForPrefix.put(prefix, patternsWithPrefix);
+		}
+		patternsWithPrefix.set(index);
+		prefixLengths.add(prefix.length());
+		results.clear();
+	}
+
+	/**
+	 * Returns the values of all patterns that match an input.
+	 * @param input
+	 * @return The values, in the order their patterns were added
+	 */
+	public synchronized List<T> matchAll(String input) {
+		List<T> result = results.get(input);
+		if (result == null) {
+			result = Collections.unmodifiableList(doMatchAll(input));
+			results.put(input, result);
+		}
+		return result;
+	}
+
+	private List<T> doMatchAll(String input) {
+		BitSet candidates = new BitSet(patterns.size());
+		for (Integer prefixLength : prefixLengths) {
+			if (prefixLength > input.length()) {
+				break;
+			}
+			BitSet patternsWithPrefix = patternsForPrefix.get(input.substring(0, prefixLength));
+			if (patternsWithPrefix != null) {
+				candidates.or(patternsWithPrefix);
+			}
+		}
+
+		ArrayList<T> result = new ArrayList<T>();
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (patterns.get(i).matcher(input).matches()) {
+				result.add(values.get(i));
+			}
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return patterns.size();
+	}
+
+	/**
+	 * Returns a string that every input matching a pattern must start with.
+	 * @param pattern
+	 * @return The empty string if the pattern has no such prefix
+	 */
+	static String getLiteralPrefix(Pattern pattern) {
+		String regexp = pattern.pattern();
+		if (pattern.flags() != 0 || hasTopLevelAlternation(regexp)) {
+			return "";
+		}
+		int end = 0;
+		while (end < regexp.length() && "\\[](){}.*+?^$|".indexOf(regexp.charAt(end)) == -1) {
+			end++;
+		}
+		if (end < regexp.length() && "*+?{".indexOf(regexp.charAt(end)) != -1) {
+			// The quantifier applies to the last character
+			end = Math.max(0, end - 1);
+		}
+		return regexp.substring(0, end);
+	}
+
+	private static boolean hasTopLevelAlternation(String regexp) {
+		int groupDepth = 0;
+		int classDepth = 0;
+		for (int i = 0; i < regexp.length(); i++) {
+			char ch = regexp.charAt(i);
+			if (ch == '\\') {
+				if (i + 1 < regexp.length() && regexp.charAt(i + 1) == 'Q') {
+					// Quoted sections may contain anything; give up
+					return true;
+				}
+				i++;
+			} else if (ch == '[') {
+				classDepth++;
+			} else if (ch == ']' && classDepth > 0) {
+				classDepth--;
+			} else if (classDepth == 0) {
+				if (ch == '(') {
+					groupDepth++;
+				} else if (ch == ')') {
+					groupDepth--;
+				} else if (ch == '|' && groupDepth == 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
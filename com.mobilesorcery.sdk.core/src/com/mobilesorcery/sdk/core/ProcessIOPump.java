@@ -0,0 +1,479 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.mobilesorcery.sdk.core.LineReader.ILineHandler;
+
+/**
+ * <p>Reads the output of external processes using a small, fixed
+ * number of pump threads instead of one {@link LineReader} thread
+ * per stream.</p>
+ * <p>Each pump thread polls the streams assigned to it and only reads
+ * what is available without blocking. All streams of a process are handled
+ * by the same pump thread. A stream ends when a read returns -1; since
+ * that read may block for as long as any child process that inherited
+ * the stream is running, it is done by a separate drain thread once the
+ * process has exited and there is nothing left to read.</p>
+ * <p>The pump threads never call the {@link ILineHandler}s themselves, since
+ * a handler that blocks would then stop the output of every other process.
+ * Lines are instead queued per stream and passed on, in order, by a fixed
+ * pool of handler threads; a stream with too many queued lines is not read
+ * until its handler has caught up.</p>
+ * <p>Only the pipes of processes started by the JRE have a reliable
+ * {@link InputStream#available()}; the streams of any other processes are
+ * read by a dedicated {@link LineReader} thread, as before.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class ProcessIOPump {
+
+	public static final int DEFAULT_PUMP_COUNT = 2;
+
+	private static final int MIN_IDLE_WAIT = 1;
+
+	private static final int MAX_IDLE_WAIT = 16;
+
+	private static final int MAX_PENDING_LINES = 1024;
+
+	private static final int HANDLER_THREAD_COUNT = 4;
+
+	private static ExecutorService dispatcher;
+
+	private static ExecutorService drainer;
+
+	private static ProcessIOPump instance;
+
+	private final Pump[] pumps;
+
+	private int threadCount = 0;
+
+	/**
+	 * Returns the pump shared by all process consoles and builders.
+	 * @return
+	 */
+	public static synchronized ProcessIOPump getDefault() {
+		if (instance == null) {
+			instance = new ProcessIOPump(DEFAULT_PUMP_COUNT);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a process I/O pump.
+	 * @param pumpCount The maximum number of pump threads
+	 */
+	public ProcessIOPump(int pumpCount) {
+		pumps = new Pump[Math.max(1, pumpCount)];
+	}
+
+	/**
+	 * Starts reading the standard output and standard error
+	 * of a process.
+	 * @param process
+	 * @param stdoutHandler The handler to pass standard output lines to,
+	 * may be <code>null</code>
+	 * @param stderrHandler The handler to pass standard error lines to,
+	 * may be <code>null</code>
+	 */
+	public void attach(Process process, ILineHandler stdoutHandler, ILineHandler stderrHandler) {
+		pump(process, new InputStream[] { process.getInputStream(), process.getErrorStream() },
+				new ILineHandler[] { stdoutHandler, stderrHandler });
+	}
+
+	/**
+	 * Starts reading one of the output streams of a process.
+	 * @param process
+	 * @param stream
+	 * @param handler The handler to pass lines to, may be <code>null</code>
+	 */
+	public void attach(Process process, InputStream stream, ILineHandler handler) {
+		pump(process, new InputStream[] { stream }, new ILineHandler[] { handler });
+	}
+
+	private void pump(Process process, InputStream[] streams, ILineHandler[] handlers) {
+		if (!isPumpable(process)) {
+			for (int i = 0; i < streams.length; i++) {
+				new LineReader(new InputStreamReader(streams[i]), handlers[i]).start();
+			}
+			return;
+		}
+
+		PumpedStream[] pumpedStreams = new PumpedStream[streams.length];
+		for (int i = 0; i < streams.length; i++) {
+			pumpedStreams[i] = new PumpedStream(process, streams[i], handlers[i]);
+		}
+		selectPump().add(pumpedStreams);
+	}
+
+	private static boolean isPumpable(Process process) {
+		// The JRE process implementations are all in java.lang
+		return process.getClass().getName().startsWith("java.lang.");
+	}
+
+	private synchronized Pump selectPump() {
+		Pump selected = null;
+		for (int i = 0; i < pumps.length; i++) {
+			if (pumps[i] == null) {
+				pumps[i] = new Pump(i);
+				threadCount++;
+				return pumps[i];
+			}
+			if (selected == null || pumps[i].size() < selected.size()) {
+				selected = pumps[i];
+			}
+		}
+		return selected;
+	}
+
+	private static synchronized ExecutorService getDispatcher() {
+		if (dispatcher == null) {
+			dispatcher = Executors.newFixedThreadPool(HANDLER_THREAD_COUNT, createThreadFactory("Process output handler "));
+		}
+		return dispatcher;
+	}
+
+	private static synchronized ExecutorService getDrainer() {
+		if (drainer == null) {
+			// Usually there is nothing left to wait for, so threads are reused
+			drainer = Executors.newCachedThreadPool(createThreadFactory("Process output drain "));
+		}
+		return drainer;
+	}
+
+	private static ThreadFactory createThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static void log(Throwable e) {
+		// There is no plugin when running headless or shutting down
+		CoreMoSyncPlugin plugin = CoreMoSyncPlugin.getDefault();
+		if (plugin != null) {
+			plugin.log(e);
+		}
+	}
+
+	/**
+	 * Returns the number of pump threads started so far.
+	 * @return
+	 */
+	public synchronized int getThreadCount() {
+		return threadCount;
+	}
+
+	private static class Pump implements Runnable {
+
+		private final ArrayList<PumpedStream> streams = new ArrayList<PumpedStream>();
+
+		private final byte[] buffer = new byte[8192];
+
+		Pump(int index) {
+			Thread thread = new Thread(this, "Process I/O pump " + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		synchronized void add(PumpedStream[] newStreams) {
+			streams.addAll(Arrays.asList(newStreams));
+			notifyAll();
+		}
+
+		synchronized int size() {
+			return streams.size();
+		}
+
+		@Override
+		public void run() {
+			int idleWait = MIN_IDLE_WAIT;
+			try {
+				while (true) {
+					PumpedStream[] current;
+					synchronized (this) {
+						while (streams.isEmpty()) {
+							wait();
+						}
+						current = streams.toArray(new PumpedStream[streams.size()]);
+					}
+
+					boolean progress = false;
+					for (PumpedStream stream : current) {
+						progress |= stream.pump(buffer);
+						if (!stream.isPumped()) {
+							synchronized (this) {
+								streams.remove(stream);
+							}
+						}
+					}
+
+					if (progress) {
+						idleWait = MIN_IDLE_WAIT;
+					} else {
+						Thread.sleep(idleWait);
+						idleWait = Math.min(MAX_IDLE_WAIT, idleWait * 2);
+					}
+				}
+			} catch (InterruptedException e) {
+				// Just exit.
+			}
+		}
+	}
+
+	/**
+	 * Splits the output of one stream into lines the same way
+	 * {@link java.io.BufferedReader#readLine()} does.
+	 */
+	private static class PumpedStream implements Runnable {
+
+		private final Process process;
+
+		private final InputStream stream;
+
+		private final ILineHandler handler;
+
+		private final Charset charset = Charset.defaultCharset();
+
+		private byte[] line = new byte[256];
+
+		private int lineLength = 0;
+
+		private boolean skipLF = false;
+
+		private boolean done = false;
+
+		private boolean draining = false;
+
+		// The lines not yet passed on to the handler, guarded by itself
+		private final LinkedList<String> pending = new LinkedList<String>();
+
+		private boolean stopPending = false;
+
+		private IOException stopException;
+
+		private boolean dispatching = false;
+
+		PumpedStream(Process process, InputStream stream, ILineHandler handler) {
+			this.process = process;
+			this.stream = stream;
+			this.handler = handler;
+		}
+
+		/**
+		 * Returns <code>false</code> once this stream has ended or
+		 * has been handed over to a drain thread.
+		 */
+		boolean isPumped() {
+			return !done && !draining;
+		}
+
+		/**
+		 * Reads whatever is available without blocking.
+		 * @return <code>true</code> if anything was read or if
+		 * the stream ended
+		 */
+		boolean pump(byte[] buffer) {
+			if (isBacklogged()) {
+				return false;
+			}
+			try {
+				// Must check for exit before checking what is
+				// available, or we might miss the last output.
+				boolean exited = hasExited();
+				int available = stream.available();
+				if (available > 0) {
+					int read = stream.read(buffer, 0, Math.min(available, buffer.length));
+					if (read < 0) {
+						finish(null);
+					} else {
+						split(buffer, read);
+					}
+					return true;
+				} else if (exited) {
+					draining = true;
+					getDrainer().execute(new Runnable() {
+						@Override
+						public void run() {
+							drain();
+						}
+					});
+					return true;
+				}
+			} catch (IOException e) {
+				finish(e);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reads until the end of the stream, blocking if need be.
+		 */
+		private void drain() {
+			byte[] buffer = new byte[1024];
+			try {
+				for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+					split(buffer, read);
+					while (isBacklogged()) {
+						Thread.sleep(MAX_IDLE_WAIT);
+					}
+				}
+				finish(null);
+			} catch (IOException e) {
+				finish(e);
+			} catch (InterruptedException e) {
+				finish(null);
+			}
+		}
+
+		private boolean isBacklogged() {
+			synchronized (pending) {
+				return pending.size() >= MAX_PENDING_LINES;
+			}
+		}
+
+		private boolean hasExited() {
+			try {
+				process.exitValue();
+				return true;
+			} catch (IllegalThreadStateException e) {
+				return false;
+			}
+		}
+
+		private void split(byte[] buffer, int length) {
+			for (int i = 0; i < length; i++) {
+				byte b = buffer[i];
+				if (skipLF) {
+					skipLF = false;
+					if (b == '\n') {
+						continue;
+					}
+				}
+				if (b == '\n' || b == '\r') {
+					skipLF = b == '\r';
+					emitLine();
+				} else {
+					if (lineLength == line.length) {
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[lineLength++] = b;
+				}
+			}
+		}
+
+		private void emitLine() {
+			String str = new String(line, 0, lineLength, charset);
+			lineLength = 0;
+			if (handler != null) {
+				synchronized (pending) {
+					pending.add(str);
+					dispatch();
+				}
+			}
+		}
+
+		private void finish(IOException e) {
+			if (done) {
+				return;
+			}
+			done = true;
+			if (e == null && lineLength > 0) {
+				emitLine();
+			}
+			Util.safeClose(stream);
+			if (handler != null) {
+				synchronized (pending) {
+					stopPending = true;
+					stopException = e;
+					dispatch();
+				}
+			}
+		}
+
+		private void dispatch() {
+			// Must hold the pending lock; only one handler thread
+			// at a time per stream, to keep the lines in order.
+			if (!dispatching) {
+				dispatching = true;
+				getDispatcher().execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			boolean completed = false;
+			try {
+				while (true) {
+					String line;
+					boolean stop = false;
+					IOException e = null;
+					synchronized (pending) {
+						line = pending.poll();
+						if (line == null) {
+							stop = stopPending;
+							e = stopException;
+							stopPending = false;
+							if (!stop) {
+								dispatching = false;
+								completed = true;
+								return;
+							}
+						}
+					}
+					try {
+						if (stop) {
+							// Keep dispatching = true; nothing more will come.
+							completed = true;
+							handler.stop(e);
+							return;
+						}
+						handler.newLine(line);
+					} catch (RuntimeException handlerException) {
+						// Do not let a failing handler stop the rest of the output
+						log(handlerException);
+					}
+				}
+			} finally {
+				if (!completed) {
+					// Let another handler thread pass on the remaining lines
+					synchronized (pending) {
+						dispatching = false;
+						if (!pending.isEmpty() || stopPending) {
+							dispatch();
+						}
+					}
+				}
+			}
+		}
+	}
+}
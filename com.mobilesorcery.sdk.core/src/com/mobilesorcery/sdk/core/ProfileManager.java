@@ -12,6 +12,7 @@ import com.mobilesorcery.sdk.profiles.IDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IProfile;
 import com.mobilesorcery.sdk.profiles.IVendor;
 import com.mobilesorcery.sdk.profiles.ProfileDBManager;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 import com.mobilesorcery.sdk.profiles.filter.DeviceCapabilitiesFilter;
 
 public abstract class ProfileManager {
@@ -20,6 +21,8 @@ public abstract class ProfileManager {
 
 	private IProfile defaultProfile = null;
 
+	private ProfileIndex index;
+
 	public abstract void init();
 
 	public abstract IVendor[] getVendors();
@@ -81,8 +84,31 @@ public abstract class ProfileManager {
 	}
 
 	public IProfile[] getProfiles(IDeviceFilter filter) {
-		IProfile[] profiles = getProfiles();
-		return filterProfiles(profiles, filter);
+		if (filter == null) {
+			return getProfiles();
+		}
+		ProfileIndex index = getIndex();
+		return index.getProfiles(index.select(filter));
+	}
+
+	/**
+	 * Returns an index over all profiles of this profile manager,
+	 * used for filtering.
+	 * @return
+	 */
+	public synchronized ProfileIndex getIndex() {
+		if (index == null) {
+			index = new ProfileIndex(getProfiles());
+		}
+		return index;
+	}
+
+	/**
+	 * Subclasses must call this method whenever
+	 * the set of profiles changes.
+	 */
+	protected synchronized void invalidateIndex() {
+		index = null;
 	}
 
 	public IProfile[] getProfiles(String profileName) {
@@ -133,7 +159,11 @@ public abstract class ProfileManager {
 
 	public static IProfile[] filterProfiles(IProfile[] profiles,
 			IDeviceFilter filter) {
-		if (filter != null) {
+		ProfileManager mgr = profiles.length == 0 ? null :
+			MoSyncTool.getDefault().getProfileManager(profiles[0].getProfileType());
+		if (filter != null && mgr != null) {
+			return mgr.getIndex().filter(profiles, filter);
+		} else if (filter != null) {
 			ArrayList<IProfile> filtered = new ArrayList<IProfile>();
 			for (int i = 0; i < profiles.length; i++) {
 				if (filter.accept(profiles[i])) {
@@ -13,6 +13,7 @@
 */
 package com.mobilesorcery.sdk.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -92,8 +93,15 @@ public class SLD {
         if (doParse) {
 	        SLDParser parser = new SLDParser();
 	        try {
-	            parser.parse(sld.toFile());
-	            result = parser.getSLD();
+	            // The binary cache survives restarts; but 'force' means 'force'.
+	            result = alwaysParse ? null : readBinarySLD(sld.toFile());
+	            if (result == null) {
+	            	parser.parse(sld.toFile());
+	            	result = parser.getSLD();
+	            	if (!dontCache) {
+	            		writeBinarySLD(result);
+	            	}
+	            }
 	            if (!dontCache) { 
 	            	lastSLD = result;
 	            	lastSLDTimestamp = currentSLDTimestamp; 
@@ -108,6 +116,38 @@ public class SLD {
         return result;
     }
 
+    private SLDInfoImpl readBinarySLD(File sld) {
+    	try {
+    		SLDInfoImpl result = SLDInfoImpl.readBinary(getBinarySLDFile(sld), sld);
+    		if (result != null && CoreMoSyncPlugin.getDefault().isDebugging()) {
+    			CoreMoSyncPlugin.trace("Loaded SLD from binary cache {0}", getBinarySLDFile(sld));
+    		}
+    		return result;
+    	} catch (IOException e) {
+    		// Corrupt; we'll just parse the SLD file and overwrite it.
+    		CoreMoSyncPlugin.getDefault().log(e);
+    		return null;
+    	}
+    }
+
+    private void writeBinarySLD(SLDInfoImpl result) {
+    	try {
+    		result.writeBinary(getBinarySLDFile(result.getSLDFile()));
+    	} catch (IOException e) {
+    		CoreMoSyncPlugin.getDefault().logOnce(e, getClass().getName() + "binary");
+    	}
+    }
+
+    /**
+     * Returns the binary SLD file, written next to the SLD file
+     * and used instead of it if up to date.
+     * @param sld
+     * @return
+     */
+    private static File getBinarySLDFile(File sld) {
+    	return new File(sld.getParentFile(), sld.getName() + ".bin");
+    }
+
     /**
      * <p>Returns the path to the SLD file.</p>
      * <p>The SLD file maps addresses to files and line numbers.</p> 
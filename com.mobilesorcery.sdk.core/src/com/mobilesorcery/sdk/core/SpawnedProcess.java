@@ -22,6 +22,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.core.runtime.ListenerList;
 
@@ -40,6 +43,19 @@ public class SpawnedProcess extends Process {
 
 	private static final int INITIAL_EXIT_VALUE = Integer.MIN_VALUE;
 
+	/**
+	 * Waiting for a process blocks a thread, but the threads
+	 * are reused between processes.
+	 */
+	private static final ExecutorService WAITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Waiting for process");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private final String cmd;
     private final String[] args;
     private final File dir;
@@ -78,7 +94,7 @@ public class SpawnedProcess extends Process {
         handle = pu.proc_spawn((cmd + '\0').getBytes(), (args + '\0').getBytes(), (dir.getAbsolutePath() + '\0')
                 .getBytes());
 
-        Thread waitForThread = new Thread(new Runnable() {
+        WAITERS.execute(new Runnable() {
             @Override
 			public void run() {
                 int tmpExitValue = pu.proc_wait_for(handle);
@@ -89,10 +105,6 @@ public class SpawnedProcess extends Process {
             }
         });
 
-        waitForThread.setName("Waiting for process " + cmd);
-        waitForThread.setDaemon(true);
-        waitForThread.start();
-
         if (handle < 0) {
             throw new IllegalStateException("Could not spawn process");
         }
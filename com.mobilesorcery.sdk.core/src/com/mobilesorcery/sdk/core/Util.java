@@ -86,6 +86,16 @@ public class Util {
 
 	public static final int INFINITE_DEPTH = Short.MAX_VALUE;
 
+	/**
+	 * The offset basis of the 64 bit FNV-1a hash.
+	 */
+	public static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/**
+	 * The prime of the 64 bit FNV-1a hash.
+	 */
+	public static final long FNV_PRIME = 0x100000001b3L;
+
 	public static String join(String[] s, String delim) {
 		StringBuffer result = new StringBuffer();
 		for (int i = 0; i < s.length; i++) {
@@ -594,6 +604,29 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Computes a 64 bit FNV-1a hash of the contents of a file.
+	 * @param file
+	 * @return
+	 * @throws IOException If the file could not be read
+	 */
+	public static long hashContents(File file) throws IOException {
+		long hash = FNV_OFFSET_BASIS;
+		byte[] buffer = new byte[1 << 16];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+				for (int i = 0; i < read; i++) {
+					hash ^= buffer[i] & 0xff;
+					hash *= FNV_PRIME;
+				}
+			}
+		} finally {
+			safeClose(input);
+		}
+		return hash;
+	}
+
 	public static String readFile(String filename) throws IOException {
 		return readFile(filename, null);
 	}
@@ -20,7 +20,6 @@ import java.util.Set;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.IProgressMonitor;
 
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
@@ -39,7 +38,6 @@ import com.mobilesorcery.sdk.core.MoSyncProject;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.core.security.IApplicationPermissions;
 import com.mobilesorcery.sdk.internal.PipeTool;
-import com.mobilesorcery.sdk.internal.dependencies.DependencyManager;
 import com.mobilesorcery.sdk.internal.dependencies.IDependencyProvider;
 import com.mobilesorcery.sdk.profiles.IProfile;
 
@@ -172,8 +170,6 @@ public abstract class AbstractBuildStep implements IBuildStep {
     protected Set<IProject> computeProjectDependencies(IProgressMonitor monitor, MoSyncProject mosyncProject, IBuildState buildState, IResource[] allAffectedResources) {
         IProject project = mosyncProject.getWrappedProject();
         monitor.setTaskName(MessageFormat.format("Computing project dependencies for {0}", project.getName()));
-        DependencyManager<IProject> projectDependencies = CoreMoSyncPlugin.getDefault().getProjectDependencyManager(ResourcesPlugin.getWorkspace());
-        projectDependencies.clearDependencies(project);
         HashSet<IProject> allProjectDependencies = new HashSet<IProject>();
         Set<IResource> dependencies = buildState.getDependencyManager().getDependenciesOf(Arrays.asList(allAffectedResources));
         for (IResource resourceDependency : dependencies) {
@@ -25,6 +25,7 @@ import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncProject;
 import com.mobilesorcery.sdk.core.ParameterResolverException;
 import com.mobilesorcery.sdk.core.PropertyUtil;
+import com.mobilesorcery.sdk.internal.builder.CompileCache;
 import com.mobilesorcery.sdk.internal.builder.MoSyncBuilderVisitor;
 import com.mobilesorcery.sdk.internal.dependencies.DependencyManager;
 
@@ -86,6 +87,9 @@ public class CompileBuildStep extends AbstractBuildStep {
         compilerVisitor.setDiff(diff);
         compilerVisitor.setResourceFilter(getResourceFilter());
         compilerVisitor.setParameterResolver(getParameterResolver());
+        compilerVisitor.setCompileJobs(CoreMoSyncPlugin.getDefault().getPreferenceStore().getInt(MoSyncBuilder.PARALLEL_COMPILE_JOBS));
+        int compileCacheSize = CoreMoSyncPlugin.getDefault().getPreferenceStore().getInt(MoSyncBuilder.COMPILE_CACHE_SIZE);
+        compilerVisitor.setCompileCache(compileCacheSize > 0 ? CompileCache.getDefault(compileCacheSize * 1024L * 1024L) : null);
         try {
 			compilerVisitor.incrementalCompile(monitor, getBuildState().getDependencyManager(), buildResult.getDependencyDelta());
 		} catch (ParameterResolverException e) {
@@ -96,7 +100,10 @@ public class CompileBuildStep extends AbstractBuildStep {
         IResource[] allAffectedResources = compilerVisitor.getAllAffectedResources();
         Set<IProject> projectDependencies = computeProjectDependencies(monitor, mosyncProject, getBuildState(), allAffectedResources);
         DependencyManager<IProject> projectDependencyMgr = CoreMoSyncPlugin.getDefault().getProjectDependencyManager(ResourcesPlugin.getWorkspace());
-        projectDependencyMgr.setDependencies(project, projectDependencies);
+        // The project dependency manager is shared by all concurrently built variants
+        synchronized (projectDependencyMgr) {
+            projectDependencyMgr.setDependencies(project, projectDependencies);
+        }
 
         // TODO: Better way to transport this stuff?
         session.getProperties().put(OBJECT_FILES, compilerVisitor.getObjectFilesForProject(project));
@@ -0,0 +1,239 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.core.build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+
+import com.mobilesorcery.sdk.core.IBuildVariant;
+import com.mobilesorcery.sdk.core.IPropertyOwner;
+import com.mobilesorcery.sdk.core.MoSyncBuilder;
+import com.mobilesorcery.sdk.core.MoSyncProject;
+import com.mobilesorcery.sdk.core.MoSyncTool;
+import com.mobilesorcery.sdk.core.ParameterResolverException;
+import com.mobilesorcery.sdk.core.PropertyUtil;
+import com.mobilesorcery.sdk.core.Util;
+
+/**
+ * <p>An immutable snapshot of everything that goes into a compiler
+ * invocation except the file being compiled: the compiler binary,
+ * the include paths and the compiler flags.</p>
+ * <p>Computing this involves parsing build properties and resolving
+ * paths, so a build computes it once and then only adds the file
+ * specific arguments for each compiled file.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public final class CompilerCommandTemplate {
+
+	private static final String GCC_WALL_STR = "-Wall";
+
+	private static final String GCC_WEXTRA_STR = "-Wextra";
+
+	private static final String GCC_WERROR_STR = "-Werror";
+
+	private final IPath compiler;
+
+	private final IPath[] includePaths;
+
+	private final String[] includeArgs;
+
+	private final String[] flags;
+
+	private final boolean generateDependencies;
+
+	private CompilerCommandTemplate(IPath compiler, IPath[] includePaths, String[] flags, boolean generateDependencies) {
+		this.compiler = compiler;
+		this.includePaths = includePaths;
+		this.includeArgs = assembleIncludeString(includePaths);
+		this.flags = flags;
+		this.generateDependencies = generateDependencies;
+	}
+
+	/**
+	 * Creates a compiler command template from the build properties
+	 * of a project.
+	 * @param project
+	 * @param variant
+	 * @return
+	 * @throws ParameterResolverException
+	 */
+	public static CompilerCommandTemplate create(MoSyncProject project, IBuildVariant variant) throws ParameterResolverException {
+		IPropertyOwner buildProperties = MoSyncBuilder.getPropertyOwner(project, variant.getConfigurationId());
+		Integer gccWarnings = PropertyUtil.getInteger(buildProperties, MoSyncBuilder.GCC_WARNINGS);
+		return create(project, variant, MoSyncBuilder.getOutputPath(project.getWrappedProject(), variant),
+				gccWarnings == null ? 0 : gccWarnings.intValue(),
+				MoSyncBuilder.getExtraCompilerSwitches(project, variant), true);
+	}
+
+	/**
+	 * Creates a compiler command template.
+	 * @param project
+	 * @param variant
+	 * @param outputPath The output path of the build, which is also
+	 * added as the last include path
+	 * @param gccWarnings The warnings to enable, a combination of
+	 * {@link MoSyncBuilder#GCC_WALL}, {@link MoSyncBuilder#GCC_WEXTRA}
+	 * and {@link MoSyncBuilder#GCC_WERROR}
+	 * @param extraSwitches Any extra (resolved) compiler switches, or
+	 * <code>null</code>
+	 * @param generateDependencies Whether to have the compiler generate
+	 * dependency files
+	 * @return
+	 * @throws ParameterResolverException
+	 */
+	public static CompilerCommandTemplate create(MoSyncProject project, IBuildVariant variant, IPath outputPath,
+			int gccWarnings, String extraSwitches, boolean generateDependencies) throws ParameterResolverException {
+		IPath compiler = MoSyncTool.getDefault().getBinary("xgcc");
+
+		List<IPath> includePaths = new ArrayList<IPath>(Arrays.asList(MoSyncBuilder.getBaseIncludePaths(project, variant)));
+		// TODO: Too much 'secret sauce' here; add special dialogs for this instead,
+		// like JDT/CDT, to allow user to control this better. Like %output%?
+		includePaths.add(outputPath);
+
+		ArrayList<String> flags = new ArrayList<String>();
+		flags.add("-g");
+		if ((gccWarnings & MoSyncBuilder.GCC_WALL) != 0) {
+			flags.add(GCC_WALL_STR);
+		}
+		if ((gccWarnings & MoSyncBuilder.GCC_WEXTRA) != 0) {
+			flags.add(GCC_WEXTRA_STR);
+		}
+		if ((gccWarnings & MoSyncBuilder.GCC_WERROR) != 0) {
+			flags.add(GCC_WERROR_STR);
+		}
+		flags.add("-DMAPIP");
+		if (extraSwitches != null) {
+			flags.addAll(Arrays.asList(Util.parseCommandLine(extraSwitches)));
+		}
+
+		return new CompilerCommandTemplate(compiler, includePaths.toArray(new IPath[includePaths.size()]),
+				flags.toArray(new String[flags.size()]), generateDependencies);
+	}
+
+	/**
+	 * Returns the compiler binary.
+	 * @return
+	 */
+	public IPath getCompiler() {
+		return compiler;
+	}
+
+	/**
+	 * Returns the include paths, in the order they are passed to the compiler.
+	 * @return
+	 */
+	public IPath[] getIncludePaths() {
+		return includePaths.clone();
+	}
+
+	/**
+	 * Returns the compiler flags, excluding include paths and
+	 * file specific arguments.
+	 * @return
+	 */
+	public String[] getFlags() {
+		return flags.clone();
+	}
+
+	public boolean generatesDependencies() {
+		return generateDependencies;
+	}
+
+	/**
+	 * Returns the arguments that affect the compiler output of a
+	 * source file, ie anything but the compiler binary and
+	 * the output files.
+	 * @param source
+	 * @return
+	 */
+	public String[] getCompileArgs(IPath source) {
+		String[] result = new String[flags.length + 1 + includeArgs.length];
+		System.arraycopy(flags, 0, result, 0, flags.length);
+		result[flags.length] = source.toOSString();
+		System.arraycopy(includeArgs, 0, result, flags.length + 1, includeArgs.length);
+		return result;
+	}
+
+	/**
+	 * Returns the arguments for generating a dependency file,
+	 * or an empty array if this template does not generate
+	 * dependencies.
+	 * @param output
+	 * @return
+	 */
+	public String[] getDependencyArgs(IPath output) {
+		if (!generateDependencies) {
+			return new String[0];
+		}
+		return new String[] { "-MMD", "-MF", mapToDependencyFile(output.toOSString()) };
+	}
+
+	/**
+	 * Returns the full command line for compiling a source file
+	 * into an assembly file.
+	 * @param source
+	 * @param output
+	 * @return
+	 */
+	public String[] createCommandLine(IPath source, IPath output) {
+		ArrayList<String> args = new ArrayList<String>();
+		args.add(compiler.toOSString());
+		args.add("-o");
+		args.add(output.toOSString());
+		args.add("-S");
+		args.addAll(Arrays.asList(getDependencyArgs(output)));
+		args.addAll(Arrays.asList(getCompileArgs(source)));
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * Returns the command line for preprocessing a source file;
+	 * if this template generates dependencies, the dependency
+	 * file will be identical to the one {@link #createCommandLine(IPath, IPath)}
+	 * would generate.
+	 * @param source
+	 * @param output
+	 * @return
+	 */
+	public String[] createPreprocessCommandLine(IPath source, IPath output) {
+		ArrayList<String> args = new ArrayList<String>();
+		args.add(compiler.toOSString());
+		args.add("-E");
+		if (generateDependencies) {
+			args.addAll(Arrays.asList(getDependencyArgs(output)));
+			args.add("-MT");
+			args.add(output.toOSString());
+		}
+		args.addAll(Arrays.asList(getCompileArgs(source)));
+		return args.toArray(new String[args.size()]);
+	}
+
+	public static String mapToDependencyFile(String filename) {
+		return filename + ".deps";
+	}
+
+	public static String[] assembleIncludeString(IPath[] includePaths) {
+		String[] strs = new String[includePaths.length];
+		for (int i = 0; i < strs.length; i++) {
+			// Remove trailing separator, otherwise the \ will be considered an escape char.
+			strs[i] = "-I" + includePaths[i].removeTrailingSeparator().toOSString();
+		}
+		return strs;
+	}
+}
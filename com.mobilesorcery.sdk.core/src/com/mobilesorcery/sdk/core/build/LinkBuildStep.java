@@ -1,9 +1,16 @@
 package com.mobilesorcery.sdk.core.build;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
@@ -25,11 +32,13 @@ import com.mobilesorcery.sdk.core.IPropertyOwner;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncProject;
 import com.mobilesorcery.sdk.core.MoSyncProjectParameterResolver;
+import com.mobilesorcery.sdk.core.MoSyncTool;
 import com.mobilesorcery.sdk.core.ParameterResolver;
 import com.mobilesorcery.sdk.core.PropertyUtil;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.core.LineReader.ILineHandler;
 import com.mobilesorcery.sdk.internal.PipeTool;
+import com.mobilesorcery.sdk.internal.builder.CompileCache;
 import com.mobilesorcery.sdk.internal.dependencies.IDependencyProvider;
 import com.mobilesorcery.sdk.profiles.IProfile;
 
@@ -56,6 +65,13 @@ public class LinkBuildStep extends AbstractBuildStep {
 
 	public static final String ID = "link";
 
+	private static final String LINK_STATE_FILE = "link.state";
+	private static final String LINK_KEY = "link.key";
+	private static final String LINK_SKIP = "link.skip";
+	private static final String LINK_APP_CODE = "link.appcode";
+	private static final String COMB_KEY = "comb.key";
+	private static final String APP_CODE_SWITCH = "-appcode=";
+
 	public LinkBuildStep() {
 		setId(ID);
 		setName("Link");
@@ -111,30 +127,61 @@ public class LinkBuildStep extends AbstractBuildStep {
             String[] extraLinkerSwitches = PropertyUtil.getStrings(buildProperties, MoSyncBuilder.EXTRA_LINK_SWITCHES);
             pipeTool.setExtraSwitches(extraLinkerSwitches);
 
-            continueFlag = (pipeTool.run() == PipeTool.SKIP_RETURN_CODE ? IBuildStep.SKIP : IBuildStep.CONTINUE);
+            // We keep track of what went into the last link, so we can
+            // skip the passes that would not change anything.
+            IPath linkOutput = isLibOrExt ? libraryOutput : program;
+            File linkStateFile = getLinkStateFile(project, variant);
+            Properties linkState = loadLinkState(linkStateFile);
+            String linkKey = computeLinkKey(pipeTool.getCommandLine(), MoSyncTool.getDefault().getBinary("pipe-tool").toFile(),
+            		mosyncProject.getLibraryLookup(variant, buildProperties).resolveLibraryLocations(), objectFiles);
+            ArrayList<String> timings = new ArrayList<String>();
 
-            // If needed, run a second time to generate IL
-            if (isLibOrExt == false && pipeToolMode.equals(PipeTool.BUILD_C_MODE) == false) {
-            	pipeTool.setMode(PipeTool.BUILD_C_MODE);
-        		pipeTool.run();
-            }
+            if (isLinkUpToDate(linkState, linkKey, linkOutput.toFile())) {
+            	console.addMessage(MessageFormat.format("Object files and libraries are unchanged, skipping re-linking (keeping app code {0})",
+            			getLinkedAppCode(linkState)));
+            	continueFlag = Boolean.parseBoolean(linkState.getProperty(LINK_SKIP)) ? IBuildStep.SKIP : IBuildStep.CONTINUE;
+            } else {
+            	// If we fail half-way, we want to start over next time.
+            	linkState.clear();
+            	linkStateFile.delete();
+
+            	File rebuildFile = new File(pipeTool.getExecDir(), "rebuild.s");
+            	rebuildFile.delete();
+
+            	long startTime = System.currentTimeMillis();
+            	continueFlag = (pipeTool.run() == PipeTool.SKIP_RETURN_CODE ? IBuildStep.SKIP : IBuildStep.CONTINUE);
+            	addTiming(timings, "link", startTime);
+
+            	// If needed, run a second time to generate IL -- unless we do dead
+            	// code elimination, since that pass will generate IL from rebuild.s
+            	boolean requiresILPass = isLibOrExt == false && pipeToolMode.equals(PipeTool.BUILD_C_MODE) == false;
+            	if (requiresILPass && (!elim || !rebuildFile.exists())) {
+            		startTime = System.currentTimeMillis();
+            		pipeTool.setMode(PipeTool.BUILD_C_MODE);
+            		pipeTool.run();
+            		addTiming(timings, "IL", startTime);
+            	}
 
-            if (elim) {
-                PipeTool elimPipeTool = new PipeTool();
-                elimPipeTool.setProject(project);
-                elimPipeTool.setVariant(variant);
-                elimPipeTool.setLineHandler(lineHandler);
-                elimPipeTool.setNoVerify(true);
-                elimPipeTool.setGenerateSLD(false);
-                elimPipeTool.setMode(PipeTool.BUILD_C_MODE);
-                elimPipeTool.setOutputFile(program);
-                elimPipeTool.setConsole(console);
-                elimPipeTool.setExtraSwitches(extraLinkerSwitches);
-                elimPipeTool.setAppCode(MoSyncBuilder.getCurrentAppCode(session));
-                elimPipeTool.setArguments(buildProperties);
-                File rebuildFile = new File(elimPipeTool.getExecDir(), "rebuild.s");
-                elimPipeTool.setInputFiles(new String[] { rebuildFile.getAbsolutePath() });
-                elimPipeTool.run();
+            	if (elim) {
+            		startTime = System.currentTimeMillis();
+            		PipeTool elimPipeTool = new PipeTool();
+            		elimPipeTool.setProject(project);
+            		elimPipeTool.setVariant(variant);
+            		elimPipeTool.setLineHandler(lineHandler);
+            		elimPipeTool.setNoVerify(true);
+            		elimPipeTool.setGenerateSLD(false);
+            		elimPipeTool.setMode(PipeTool.BUILD_C_MODE);
+            		elimPipeTool.setOutputFile(program);
+            		elimPipeTool.setConsole(console);
+            		elimPipeTool.setExtraSwitches(extraLinkerSwitches);
+            		elimPipeTool.setAppCode(MoSyncBuilder.getCurrentAppCode(session));
+            		elimPipeTool.setArguments(buildProperties);
+            		elimPipeTool.setInputFiles(new String[] { rebuildFile.getAbsolutePath() });
+            		elimPipeTool.run();
+            		addTiming(timings, "dead code elimination", startTime);
+            	}
+
+            	setLinked(linkState, linkKey, pipeTool.getAppCode(), continueFlag == IBuildStep.SKIP);
             }
 
             if (!isLibOrExt) {
@@ -149,11 +196,24 @@ public class LinkBuildStep extends AbstractBuildStep {
                     parts.add(resource.toFile());
                 }
 
-                if (parts.size() > 1) {
-                    console.addMessage(MessageFormat.format("Combining {0} into one large file, {1}", Util.join(parts.toArray(), ", "), programComb
-                            .toFile()));
+                String combKey = computeCombKey(parts);
+                if (combKey.equals(linkState.getProperty(COMB_KEY)) && programComb.toFile().exists()) {
+                	console.addMessage("Program and resources are unchanged, keeping the combined file");
+                } else {
+                	long startTime = System.currentTimeMillis();
+                	if (parts.size() > 1) {
+                		console.addMessage(MessageFormat.format("Combining {0} into one large file, {1}", Util.join(parts.toArray(), ", "), programComb
+                				.toFile()));
+                	}
+                	Util.mergeFiles(new SubProgressMonitor(monitor, 1), parts.toArray(new File[parts.size()]), programComb.toFile());
+                	addTiming(timings, "combine", startTime);
+                	linkState.setProperty(COMB_KEY, combKey);
                 }
-                Util.mergeFiles(new SubProgressMonitor(monitor, 1), parts.toArray(new File[parts.size()]), programComb.toFile());
+            }
+
+            saveLinkState(linkStateFile, linkState);
+            if (!timings.isEmpty()) {
+            	console.addMessage(MessageFormat.format("Link passes: {0}", Util.join(timings.toArray(), ", ")));
             }
         }
 
@@ -163,6 +223,119 @@ public class LinkBuildStep extends AbstractBuildStep {
         return continueFlag;
 	}
 
+	private void addTiming(List<String> timings, String pass, long startTime) {
+		timings.add(MessageFormat.format("{0} {1}", pass, Util.elapsedTime(System.currentTimeMillis() - startTime)));
+	}
+
+	/**
+	 * Computes a key that will change whenever the input of the link
+	 * changes: the pipe-tool command line, the contents of the object
+	 * files and the libraries.
+	 * The app code is not part of the key; every build session gets
+	 * a new one, and the last linked program keeps its app code.
+	 */
+	static String computeLinkKey(String[] commandLine, File pipeTool, File[] libraries, String[] objectFiles) throws IOException {
+		MessageDigest digest = CompileCache.createDigest();
+		for (String arg : commandLine) {
+			if (!arg.startsWith(APP_CODE_SWITCH)) {
+				update(digest, arg);
+			}
+		}
+		update(digest, pipeTool);
+		for (File library : libraries) {
+			update(digest, library);
+		}
+		byte[] buffer = new byte[65536];
+		for (String objectFile : objectFiles) {
+			if (!new File(objectFile).exists()) {
+				// Let pipe-tool report it.
+				update(digest, objectFile);
+				continue;
+			}
+			InputStream input = new FileInputStream(objectFile);
+			try {
+				for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				Util.safeClose(input);
+			}
+		}
+		return Util.toBase16(digest.digest());
+	}
+
+	private String computeCombKey(List<File> parts) throws IOException {
+		MessageDigest digest = CompileCache.createDigest();
+		for (File part : parts) {
+			update(digest, part);
+		}
+		return Util.toBase16(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, File file) throws IOException {
+		update(digest, file.getAbsolutePath());
+		update(digest, Long.toString(file.length()));
+		update(digest, Long.toString(file.lastModified()));
+	}
+
+	private static void update(MessageDigest digest, String str) throws IOException {
+		digest.update(str.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	private static File getLinkStateFile(IProject project, IBuildVariant variant) {
+		return MoSyncBuilder.getOutputPath(project, variant).append(LINK_STATE_FILE).toFile();
+	}
+
+	/**
+	 * Returns <code>true</code> if the last link had the same key
+	 * and its output is still there.
+	 */
+	static boolean isLinkUpToDate(Properties linkState, String linkKey, File linkOutput) {
+		return linkKey.equals(linkState.getProperty(LINK_KEY)) && linkOutput.exists();
+	}
+
+	/**
+	 * Returns the app code of the last link, or <code>null</code>.
+	 */
+	static String getLinkedAppCode(Properties linkState) {
+		String appCode = linkState.getProperty(LINK_APP_CODE);
+		return Util.isEmpty(appCode) ? null : appCode;
+	}
+
+	static void setLinked(Properties linkState, String linkKey, String appCode, boolean skip) {
+		linkState.setProperty(LINK_KEY, linkKey);
+		linkState.setProperty(LINK_APP_CODE, appCode == null ? "" : appCode);
+		linkState.setProperty(LINK_SKIP, Boolean.toString(skip));
+	}
+
+	static Properties loadLinkState(File linkStateFile) {
+		Properties result = new Properties();
+		if (linkStateFile.exists()) {
+			InputStream input = null;
+			try {
+				input = new FileInputStream(linkStateFile);
+				result.load(input);
+			} catch (IOException e) {
+				// Then we just re-link.
+				result.clear();
+			} finally {
+				Util.safeClose(input);
+			}
+		}
+		return result;
+	}
+
+	static void saveLinkState(File linkStateFile, Properties linkState) throws IOException {
+		linkStateFile.getParentFile().mkdirs();
+		OutputStream output = new FileOutputStream(linkStateFile);
+		try {
+			linkState.store(output, null);
+		} finally {
+			Util.safeClose(output);
+		}
+	}
+
     private String[] getResourceFiles(IBuildSession session) {
 		String[] result = (String[]) session.getProperties().get(ResourceBuildStep.RESOURCE_FILES);
 		return result == null ? new String[0] : result;
@@ -37,6 +37,14 @@ public class AddressRange {
         this.endAddr = endAddr;
     }
     
+    public int getStartAddr() {
+        return startAddr;
+    }
+
+    public int getEndAddr() {
+        return endAddr;
+    }
+
     public boolean inRange(int addr) {
         return addr >= startAddr && addr <= endAddr;
     }
@@ -14,7 +14,6 @@
 package com.mobilesorcery.sdk.internal;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,6 +27,8 @@ import java.util.Set;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -45,9 +46,6 @@ import com.mobilesorcery.sdk.core.IFileTreeDiff;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncProject;
 import com.mobilesorcery.sdk.core.PropertyUtil;
-import com.mobilesorcery.sdk.core.SectionedPropertiesFile;
-import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section;
-import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section.Entry;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.internal.dependencies.DependencyManager;
 
@@ -100,8 +98,30 @@ public class BuildState implements IBuildState {
 
     }
 
-    class FileInfoTree implements IResourceVisitor {
+    static class FileInfoTree implements IResourceVisitor {
         HashMap<IPath, Long> timestampMap = new HashMap<IPath, Long>();
+        HashMap<IPath, Long> hashMap = new HashMap<IPath, Long>();
+
+        private final IProject project;
+
+        private boolean useContentHashes;
+
+        FileInfoTree(IProject project) {
+            this.project = project;
+        }
+
+        /**
+         * Sets whether content hashes should be kept for the files
+         * of this tree. If so, a file whose timestamp has changed
+         * is only considered changed if its content hash has changed too.
+         * @param useContentHashes
+         */
+        void setUseContentHashes(boolean useContentHashes) {
+            this.useContentHashes = useContentHashes;
+            if (!useContentHashes) {
+                hashMap.clear();
+            }
+        }
 
         /**
          * Computes a diff between this tree and another tree,
@@ -116,7 +136,8 @@ public class BuildState implements IBuildState {
                 Long otherTimestamp = other.timestampMap.get(path);
                 if (otherTimestamp == null) {
                 	recursiveAdd(diff.added, path);
-                } else if (otherTimestamp.compareTo(timestampMap.get(path)) != 0) {
+                } else if (otherTimestamp.compareTo(timestampMap.get(path)) != 0 &&
+                		!other.hasSameContent(path)) {
                 	recursiveAdd(diff.changed, path);
                 }
 
@@ -135,7 +156,52 @@ public class BuildState implements IBuildState {
             return diff;
         }
 
-        private void recursiveAdd(HashSet<IPath> set, IPath path) {
+        /**
+         * Returns <code>true</code> if this tree holds a content hash
+         * for a file and the file still has that content. If so, the
+         * timestamp of the file is updated so it need not be hashed again.
+         * @param path
+         * @return
+         */
+        boolean hasSameContent(IPath path) {
+            Long hash = useContentHashes ? hashMap.get(path) : null;
+            if (hash == null) {
+                return false;
+            }
+            File file = getFile(path);
+            if (file == null || computeHash(file) != hash) {
+                return false;
+            }
+            timestampMap.put(path, file.lastModified());
+            return true;
+        }
+
+        private File getFile(IPath path) {
+            IResource projectResource = project.findMember(path);
+            if (projectResource == null || projectResource.isVirtual()) {
+                return null;
+            }
+            IPath location = projectResource.getLocation();
+            return location == null ? null : location.toFile();
+        }
+
+        /**
+         * Computes the content hash of a file.
+         * @param file
+         * @return The hash, or {@link BuildStateFile#NO_HASH} if
+         * the file could not be read.
+         * @see Util#hashContents(File)
+         */
+        static long computeHash(File file) {
+            try {
+                long hash = Util.hashContents(file);
+                return hash == BuildStateFile.NO_HASH ? 1 : hash;
+            } catch (IOException e) {
+                return BuildStateFile.NO_HASH;
+            }
+        }
+
+        private static void recursiveAdd(HashSet<IPath> set, IPath path) {
 			while (!path.isEmpty()) {
 				set.add(path);
 				path = path.removeLastSegments(1);
@@ -150,13 +216,18 @@ public class BuildState implements IBuildState {
 
         private void internalUpdateResource(IResource resource) {
             if (resource.getType() == IResource.FILE) {
-                internalUpdateState(resource.getProjectRelativePath());
+                internalUpdateState(resource.getProjectRelativePath(), resource);
             }
         }
 
         private void internalUpdateState(IPath path) {
-        	IResource projectResource = project.getWrappedProject().findMember(path);
+        	IResource projectResource = project.findMember(path);
+        	if (projectResource != null && projectResource.getType() == IResource.FILE) {
+        		internalUpdateState(path, projectResource);
+        	}
+        }
 
+        private void internalUpdateState(IPath path, IResource projectResource) {
         	/**
         	 * Ignore virtual folders since they do not have a timestamp and
         	 * getLocation always returns null for them.
@@ -168,11 +239,73 @@ public class BuildState implements IBuildState {
         	IPath fullpath = projectResource.getLocation();
         	File file = fullpath.toFile();
             long newTimestamp = file.lastModified();
-            timestampMap.put(path, newTimestamp);
+            Long oldTimestamp = timestampMap.put(path, newTimestamp);
+            if (useContentHashes) {
+                // Only files that have been touched need to be hashed.
+                boolean touched = oldTimestamp == null || oldTimestamp.longValue() != newTimestamp;
+                if (touched || !hashMap.containsKey(path)) {
+                    long hash = computeHash(file);
+                    if (hash == BuildStateFile.NO_HASH) {
+                        hashMap.remove(path);
+                    } else {
+                        hashMap.put(path, hash);
+                    }
+                }
+            }
         }
 
         public void removeState(IPath removed) {
             timestampMap.remove(removed);
+            hashMap.remove(removed);
+        }
+    }
+
+    /**
+     * Builds a diff directly from a platform resource delta, without
+     * visiting the entire project. The resulting diff follows the same
+     * conventions as {@link #createDiff()}: only files are considered,
+     * the parent folders of a changed file are also marked as changed,
+     * and the children of derived folders are ignored.
+     * If a previous tree with content hashes is provided, files whose
+     * content did not actually change are not considered changed.
+     */
+    static class DeltaDiffBuilder implements IResourceDeltaVisitor {
+
+        private static final int CONTENT_CHANGE_FLAGS = IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.TYPE;
+
+        private final Diff diff = new Diff();
+
+        private final FileInfoTree previous;
+
+        DeltaDiffBuilder(FileInfoTree previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public boolean visit(IResourceDelta delta) throws CoreException {
+            IResource resource = delta.getResource();
+            if (resource.getType() == IResource.FILE && !resource.isVirtual()) {
+                IPath path = resource.getProjectRelativePath();
+                switch (delta.getKind()) {
+                case IResourceDelta.ADDED:
+                    FileInfoTree.recursiveAdd(diff.added, path);
+                    break;
+                case IResourceDelta.REMOVED:
+                    FileInfoTree.recursiveAdd(diff.removed, path);
+                    break;
+                case IResourceDelta.CHANGED:
+                    if ((delta.getFlags() & CONTENT_CHANGE_FLAGS) != 0 &&
+                    		(previous == null || !previous.hasSameContent(path))) {
+                        FileInfoTree.recursiveAdd(diff.changed, path);
+                    }
+                    break;
+                }
+            }
+            return !resource.isDerived();
+        }
+
+        Diff getDiff() {
+            return diff;
         }
     }
 
@@ -189,6 +322,11 @@ public class BuildState implements IBuildState {
     private boolean fullRebuildNeeded;
     private Map<String, String> properties;
 
+    // The timestamp and size of the build state file last time it was
+    // loaded or saved, used to detect modifications by others.
+    private long fileTimestamp = -1;
+    private long fileLength = -1;
+
     public BuildState(MoSyncProject project, IBuildVariant variant) {
         this.project = project;
         this.variant = variant;
@@ -228,10 +366,13 @@ public class BuildState implements IBuildState {
      */
     @Override
 	public void load() {
+        updateFileStamp();
         valid = buildStateFile.exists();
         if (valid) {
             try {
-                parseBuildStateFile(buildStateFile);
+                // A text build state is migrated to the binary
+                // format the next time it is saved.
+                parseBuildStateFile(BuildStateFile.read(buildStateFile));
             } catch (Exception e) {
                 CoreMoSyncPlugin.getDefault().log(e);
                 valid = false;
@@ -240,6 +381,22 @@ public class BuildState implements IBuildState {
         }
     }
 
+    private void updateFileStamp() {
+        fileTimestamp = buildStateFile.lastModified();
+        fileLength = buildStateFile.length();
+    }
+
+    /**
+     * Returns <code>true</code> if the build state file has been
+     * modified, created or deleted since this build state
+     * was last loaded or saved.
+     * @return
+     */
+    public boolean isStale() {
+        return buildStateFile.lastModified() != fileTimestamp ||
+               buildStateFile.length() != fileLength;
+    }
+
     /* (non-Javadoc)
      * @see com.mobilesorcery.sdk.internal.IBuildState#isValid()
      */
@@ -248,69 +405,56 @@ public class BuildState implements IBuildState {
         return valid;
     }
 
-    private void parseBuildStateFile(File buildStateFile) throws IOException {
-        SectionedPropertiesFile props = SectionedPropertiesFile.parse(buildStateFile);
-
-        Section resultSection = props.getDefaultSection();
-        parseBuildResult(resultSection);
-
-        Section files = props.getFirstSection("files");
-        parseFileState(files);
+    private void parseBuildStateFile(BuildStateFile file) {
+        IPath[] paths = new IPath[file.getPathCount()];
 
-        Section dependenciesSection = props.getFirstSection("dependencies");
-        parseDependencies(dependenciesSection);
-
-        Section buildPropertiesSection = props.getFirstSection("build-properties");
-        parseBuildProperties(buildPropertiesSection);
-    }
-
-    private void parseBuildProperties(Section buildPropertiesSection) {
-        if (buildPropertiesSection == null) {
-            return;
-        }
-
-        properties = buildPropertiesSection.getEntriesAsMap();
+        parseBuildResult(file.getResult());
+        parseFileState(file, paths);
+        parseDependencies(file, paths);
+        properties = new HashMap<String, String>(file.getBuildProperties());
     }
 
-    private void parseDependencies(Section dependenciesSection) {
-        if (dependenciesSection == null) {
-            return;
-        }
-
-        List<Entry> dependencyEntries = dependenciesSection.getEntries();
-        for (Entry dependencyEntry : dependencyEntries) {
-            IPath dependeePath = new Path(dependencyEntry.getKey());
-            IPath[] dependencyPaths = PropertyUtil.toPaths(dependencyEntry.getValue());
-            // Ehm... TODO: Dependencies should be on absolute paths, not resources...
-            IWorkspaceRoot wr = ResourcesPlugin.getWorkspace().getRoot();
-            //IFile[] dependeeFiles = wr.findFilesForLocation(dependeePath);
-            IResource dependeeFile = wr.findMember(dependeePath);
-            for (int j = 0; j < dependencyPaths.length; j++) {
-                IResource dependencyFile = wr.findMember(dependencyPaths[j]);
+    private void parseDependencies(BuildStateFile file, IPath[] paths) {
+        // Ehm... TODO: Dependencies should be on absolute paths, not resources...
+        IWorkspaceRoot wr = ResourcesPlugin.getWorkspace().getRoot();
+        // Each path is only resolved once
+        IResource[] resources = new IResource[paths.length];
+        for (int[] edges : file.getDependencies()) {
+            IResource dependeeFile = resolve(wr, file, paths, resources, edges[0]);
+            for (int j = 1; j < edges.length; j++) {
+                IResource dependencyFile = resolve(wr, file, paths, resources, edges[j]);
                 dependencies.addDependency(dependeeFile, dependencyFile);
             }
         }
     }
 
-    private void parseFileState(Section files) {
-        if (files == null) {
-            return;
-        }
+    private IResource resolve(IWorkspaceRoot wr, BuildStateFile file, IPath[] paths, IResource[] resources, int index) {
+    	if (resources[index] == null) {
+    		resources[index] = wr.findMember(getPath(file, paths, index));
+    	}
+    	return resources[index];
+    }
 
-        List<Entry> entries = files.getEntries();
-        for (Entry entry : entries) {
-            IPath path = new Path(entry.getKey());
-            long timestamp = Long.parseLong(entry.getValue());
-            tree.timestampMap.put(path, timestamp);
-        }
+    private IPath getPath(BuildStateFile file, IPath[] paths, int index) {
+    	if (paths[index] == null) {
+    		paths[index] = Path.fromPortableString(file.getPath(index));
+    	}
+    	return paths[index];
     }
 
-    private void parseBuildResult(Section resultSection) {
-        if (resultSection == null) {
-            return;
+    private void parseFileState(BuildStateFile file, IPath[] paths) {
+        int fileCount = file.getFileCount();
+        for (int i = 0; i < fileCount; i++) {
+            IPath path = getPath(file, paths, file.getFilePath(i));
+            tree.timestampMap.put(path, file.getFileTimestamp(i));
+            long hash = file.getFileHash(i);
+            if (hash != BuildStateFile.NO_HASH) {
+                tree.hashMap.put(path, hash);
+            }
         }
+    }
 
-        Map<String, String> resultMap = resultSection.getEntriesAsMap();
+    private void parseBuildResult(Map<String, String> resultMap) {
         BuildResult buildResult = new BuildResult(project.getWrappedProject());
         IBuildVariant variant = BuildVariant.parse(resultMap.get("variant"));
         buildResult.setVariant(variant);
@@ -349,55 +493,42 @@ public class BuildState implements IBuildState {
      */
     @Override
 	public void save() {
-        FileWriter buildStateWriter = null;
         try {
-            buildStateFile.getParentFile().mkdirs();
-            buildStateWriter = new FileWriter(buildStateFile);
-            SectionedPropertiesFile props = SectionedPropertiesFile.create();
-
-            Section resultSection = props.getDefaultSection();
-            saveBuildResult(resultSection);
-
-            Section files = props.addSection("files");
-            saveFileState(files);
-
-            Section deps = props.addSection("dependencies");
-            saveDependencies(deps);
-
-            Section buildPropertiesSection = props.addSection("build-properties");
-            saveBuildProperties(buildPropertiesSection);
-
-            buildStateWriter.write(props.toString());
+            BuildStateFile file = new BuildStateFile();
+            saveBuildResult(file.getResult());
+            saveFileState(file);
+            saveDependencies(file);
+            file.getBuildProperties().putAll(properties);
+            file.write(buildStateFile);
+            updateFileStamp();
         } catch (Exception e) {
             CoreMoSyncPlugin.getDefault().log(e);
             e.printStackTrace();
             // We silently ignore it.
-        } finally {
-            Util.safeClose(buildStateWriter);
         }
     }
 
-    private void saveBuildProperties(Section buildPropertiesSection) {
-        buildPropertiesSection.addEntries(properties);
-    }
-
-    private void saveDependencies(Section deps) {
+    private void saveDependencies(BuildStateFile file) {
         for (IResource dependee : dependencies.getAllDependees()) {
             if (dependee != null) {
                 IPath dependeePath = dependee.getFullPath();
                 Set<IResource> dependentResources = dependencies.getDependenciesOf(dependee);
-                deps.addEntry(new Entry(dependeePath.toPortableString(), PropertyUtil.fromPaths(dependentResources.toArray(new IResource[0]))));
+                ArrayList<String> dependentPaths = new ArrayList<String>(dependentResources.size());
+                for (IResource dependentResource : dependentResources) {
+                	dependentPaths.add(dependentResource.getFullPath().toPortableString());
+                }
+                file.addDependencies(dependeePath.toPortableString(), dependentPaths);
             }
         }
     }
 
-    private void saveBuildResult(Section resultSection) {
-        resultSection.addEntry(new Entry("rebuild-needed", Boolean.toString(fullRebuildNeeded)));
+    private void saveBuildResult(Map<String, String> resultSection) {
+        resultSection.put("rebuild-needed", Boolean.toString(fullRebuildNeeded));
 
         if (buildResult != null) {
-            resultSection.addEntry(new Entry("variant", BuildVariant.toString(buildResult.getVariant())));
-            resultSection.addEntry(new Entry("success", Boolean.toString(buildResult.success())));
-            resultSection.addEntry(new Entry("timestamp", Long.toString(buildResult.getTimestamp())));
+            resultSection.put("variant", BuildVariant.toString(buildResult.getVariant()));
+            resultSection.put("success", Boolean.toString(buildResult.success()));
+            resultSection.put("timestamp", Long.toString(buildResult.getTimestamp()));
             Map<String, List<File>> buildArtifacts = buildResult.getBuildResult();
             if (buildArtifacts != null) {
             	for (Map.Entry<String, List<File>> buildArtifact : buildArtifacts.entrySet()) {
@@ -408,15 +539,16 @@ public class BuildState implements IBuildState {
             		for (File file : files) {
             			filenames.add(file.getAbsolutePath());
             		}
-            		resultSection.addEntry(new Entry(outputKey, PropertyUtil.fromStrings(filenames.toArray(new String[0]))));
+            		resultSection.put(outputKey, PropertyUtil.fromStrings(filenames.toArray(new String[0])));
             	}
             }
         }
     }
 
-    private void saveFileState(Section files) {
-        for (IPath path : tree.timestampMap.keySet()) {
-            files.addEntry(new Entry(path.toPortableString(), tree.timestampMap.get(path).toString()));
+    private void saveFileState(BuildStateFile file) {
+        for (Map.Entry<IPath, Long> entry : tree.timestampMap.entrySet()) {
+            Long hash = tree.hashMap.get(entry.getKey());
+            file.addFile(entry.getKey().toPortableString(), entry.getValue(), hash == null ? BuildStateFile.NO_HASH : hash);
         }
     }
 
@@ -425,6 +557,7 @@ public class BuildState implements IBuildState {
      */
     @Override
 	public void updateState(IResource resource) throws CoreException {
+        updateContentHashMode();
         resource.accept(tree);
     }
 
@@ -433,6 +566,7 @@ public class BuildState implements IBuildState {
      */
     @Override
 	public void updateState(IFileTreeDiff diff) {
+        updateContentHashMode();
         for (IPath added : diff.getAdded()) {
             tree.internalUpdateState(added);
         }
@@ -493,18 +627,59 @@ public class BuildState implements IBuildState {
      */
     @Override
 	public IFileTreeDiff createDiff() throws CoreException {
-        FileInfoTree currentTree = new FileInfoTree();
-        IProject project = this.project.getWrappedProject();
-        project.accept(currentTree);
+        updateContentHashMode();
+        FileInfoTree currentTree = new FileInfoTree(project.getWrappedProject());
+        project.getWrappedProject().accept(currentTree);
         return currentTree.computeDiff(tree);
     }
 
+    /**
+     * Creates a diff from a resource delta, which is typically a lot
+     * cheaper than {@link #createDiff()} since the file system
+     * need not be traversed. It is up to clients to make sure the
+     * delta is not older than this build state.
+     * @param delta The delta of a project
+     * @return
+     * @throws CoreException
+     */
+    public static IFileTreeDiff createDiff(IResourceDelta delta) throws CoreException {
+        return createDiff(delta, null);
+    }
+
+    /**
+     * Creates a diff from a resource delta, and if content hashing
+     * is enabled, uses the content hashes of a previous build state
+     * to filter out files that have not really changed.
+     * @param delta The delta of a project
+     * @param previous The build state the delta is relative to,
+     * may be <code>null</code>
+     * @return
+     * @throws CoreException
+     */
+    public static IFileTreeDiff createDiff(IResourceDelta delta, IBuildState previous) throws CoreException {
+        FileInfoTree previousTree = null;
+        if (previous instanceof BuildState) {
+            BuildState previousState = (BuildState) previous;
+            previousState.updateContentHashMode();
+            previousTree = previousState.tree;
+        }
+        DeltaDiffBuilder builder = new DeltaDiffBuilder(previousTree);
+        delta.accept(builder);
+        return builder.getDiff();
+    }
+
+    private void updateContentHashMode() {
+        boolean useContentHashes = project != null &&
+            PropertyUtil.getBoolean(project, MoSyncProject.CONTENT_HASH_CHANGE_DETECTION);
+        tree.setUseContentHashes(useContentHashes);
+    }
+
     /* (non-Javadoc)
      * @see com.mobilesorcery.sdk.internal.IBuildState#clear()
      */
     @Override
 	public void clear() {
-        tree = new FileInfoTree();
+        tree = new FileInfoTree(project == null ? null : project.getWrappedProject());
         dependencies = new DependencyManager<IResource>();
         properties = new HashMap<String, String>();
         buildResult = null;
@@ -0,0 +1,453 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.mobilesorcery.sdk.core.PropertyUtil;
+import com.mobilesorcery.sdk.core.SectionedPropertiesFile;
+import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section;
+import com.mobilesorcery.sdk.core.SectionedPropertiesFile.Section.Entry;
+import com.mobilesorcery.sdk.core.Util;
+
+/**
+ * <p>The on-disk representation of a {@link BuildState}.</p>
+ * <p>All paths are interned into a single path table, and
+ * file timestamps and dependency edges refer to paths by
+ * their index in that table. The binary format is read into a
+ * heap buffer in one go; the old text format (as written by
+ * {@link SectionedPropertiesFile}) can still be read so that
+ * existing build states can be migrated.</p>
+ * <p>Binary layout (all integers big-endian):</p>
+ * <pre>
+ * int      magic
+ * int      version
+ * int      #paths, then #paths strings
+ * int      #result entries, then key/value string pairs
+ * int      #files, then #files (int path, long timestamp, long content hash)
+ * int      #dependees, then for each (int path, int #deps, #deps * int path)
+ * int      #build properties, then key/value string pairs
+ * </pre>
+ * <p>Strings are stored as an int byte count followed by UTF-8 bytes.
+ * Version 1 files have no content hashes.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class BuildStateFile {
+
+	/**
+	 * The magic number of binary build state files; no
+	 * text build state file will ever start with these bytes.
+	 */
+	public static final int MAGIC = 0x00425354;
+
+	public static final int VERSION = 2;
+
+	/**
+	 * The content hash of files that have not been hashed.
+	 */
+	public static final long NO_HASH = 0;
+
+	private static final String UTF8 = "UTF-8";
+
+	private final ArrayList<String> paths = new ArrayList<String>();
+	private final HashMap<String, Integer> pathIndices = new HashMap<String, Integer>();
+
+	private final LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+
+	private int fileCount = 0;
+	private int[] filePaths = new int[64];
+	private long[] fileTimestamps = new long[64];
+	private long[] fileHashes = new long[64];
+
+	private final ArrayList<int[]> dependencies = new ArrayList<int[]>();
+
+	private final LinkedHashMap<String, String> buildProperties = new LinkedHashMap<String, String>();
+
+	/**
+	 * Returns the index of a path in the path table, adding
+	 * it if it is not already present.
+	 * @param path
+	 * @return
+	 */
+	public int intern(String path) {
+		Integer index = pathIndices.get(path);
+		if (index == null) {
+			index = paths.size();
+			paths.add(path);
+			pathIndices.put(path, index);
+		}
+		return index;
+	}
+
+	public int getPathCount() {
+		return paths.size();
+	}
+
+	public String getPath(int index) {
+		return paths.get(index);
+	}
+
+	public Map<String, String> getResult() {
+		return result;
+	}
+
+	public Map<String, String> getBuildProperties() {
+		return buildProperties;
+	}
+
+	public void addFile(String path, long timestamp) {
+		addFile(path, timestamp, NO_HASH);
+	}
+
+	public void addFile(String path, long timestamp, long hash) {
+		if (fileCount == filePaths.length) {
+			filePaths = Arrays.copyOf(filePaths, fileCount * 2);
+			fileTimestamps = Arrays.copyOf(fileTimestamps, fileCount * 2);
+			fileHashes = Arrays.copyOf(fileHashes, fileCount * 2);
+		}
+		filePaths[fileCount] = intern(path);
+		fileTimestamps[fileCount] = timestamp;
+		fileHashes[fileCount] = hash;
+		fileCount++;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Returns the path table index of the <code>i</code>th file.
+	 */
+	public int getFilePath(int i) {
+		return filePaths[i];
+	}
+
+	public long getFileTimestamp(int i) {
+		return fileTimestamps[i];
+	}
+
+	/**
+	 * Returns the content hash of the <code>i</code>th file,
+	 * or {@link #NO_HASH} if it has not been hashed.
+	 */
+	public long getFileHash(int i) {
+		return fileHashes[i];
+	}
+
+	public void addDependencies(String dependee, Collection<String> dependencyPaths) {
+		int[] edges = new int[dependencyPaths.size() + 1];
+		edges[0] = intern(dependee);
+		int i = 1;
+		for (String dependency : dependencyPaths) {
+			edges[i] = intern(dependency);
+			i++;
+		}
+		dependencies.add(edges);
+	}
+
+	/**
+	 * Returns all dependency edges; the first element of
+	 * each array is the path index of the dependee, the
+	 * remaining elements the path indices of its dependencies.
+	 * @return
+	 */
+	public List<int[]> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * Returns <code>true</code> if a file is a binary build state file.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		if (file.length() < 8) {
+			return false;
+		}
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			return input.readInt() == MAGIC;
+		} finally {
+			Util.safeClose(input);
+		}
+	}
+
+	/**
+	 * Reads a build state file, regardless of format.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static BuildStateFile read(File file) throws IOException {
+		return isBinary(file) ? readBinary(file) : readText(file);
+	}
+
+	public static BuildStateFile readBinary(File file) throws IOException {
+		// Not memory-mapped; a mapping would keep the file locked
+		// on some platforms until garbage collected.
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// Keep reading
+			}
+			buffer.flip();
+			return readBinary(buffer);
+		} finally {
+			Util.safeClose(input);
+		}
+	}
+
+	static BuildStateFile readBinary(ByteBuffer buffer) throws IOException {
+		try {
+			int magic = buffer.getInt();
+			if (magic != MAGIC) {
+				throw new IOException("Not a build state file");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION && version != 1) {
+				throw new IOException(MessageFormat.format("Unsupported build state version {0}", version));
+			}
+
+			BuildStateFile result = new BuildStateFile();
+			int pathCount = buffer.getInt();
+			for (int i = 0; i < pathCount; i++) {
+				result.intern(readString(buffer));
+			}
+
+			readMap(buffer, result.result);
+
+			int fileCount = buffer.getInt();
+			result.filePaths = new int[Math.max(fileCount, 1)];
+			result.fileTimestamps = new long[Math.max(fileCount, 1)];
+			result.fileHashes = new long[Math.max(fileCount, 1)];
+			boolean hasHashes = version > 1;
+			for (int i = 0; i < fileCount; i++) {
+				result.filePaths[i] = checkIndex(buffer.getInt(), pathCount);
+				result.fileTimestamps[i] = buffer.getLong();
+				result.fileHashes[i] = hasHashes ? buffer.getLong() : NO_HASH;
+			}
+			result.fileCount = fileCount;
+
+			int dependeeCount = buffer.getInt();
+			result.dependencies.ensureCapacity(dependeeCount);
+			for (int i = 0; i < dependeeCount; i++) {
+				int dependee = checkIndex(buffer.getInt(), pathCount);
+				int[] edges = new int[buffer.getInt() + 1];
+				edges[0] = dependee;
+				for (int j = 1; j < edges.length; j++) {
+					edges[j] = checkIndex(buffer.getInt(), pathCount);
+				}
+				result.dependencies.add(edges);
+			}
+
+			readMap(buffer, result.buildProperties);
+			return result;
+		} catch (RuntimeException e) {
+			// Typically BufferUnderflowException
+			IOException ioe = new IOException("Corrupt build state file");
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	private static int checkIndex(int index, int pathCount) throws IOException {
+		if (index < 0 || index >= pathCount) {
+			throw new IOException("Corrupt build state file; invalid path index");
+		}
+		return index;
+	}
+
+	private static void readMap(ByteBuffer buffer, Map<String, String> map) throws UnsupportedEncodingException {
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			String key = readString(buffer);
+			String value = readString(buffer);
+			map.put(key, value);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes this build state in the binary format. The file is
+	 * first written to a temporary file which then replaces
+	 * <code>file</code>.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(paths.size());
+			for (String path : paths) {
+				writeString(output, path);
+			}
+			writeMap(output, result);
+			output.writeInt(fileCount);
+			for (int i = 0; i < fileCount; i++) {
+				output.writeInt(filePaths[i]);
+				output.writeLong(fileTimestamps[i]);
+				output.writeLong(fileHashes[i]);
+			}
+			output.writeInt(dependencies.size());
+			for (int[] edges : dependencies) {
+				output.writeInt(edges[0]);
+				output.writeInt(edges.length - 1);
+				for (int j = 1; j < edges.length; j++) {
+					output.writeInt(edges[j]);
+				}
+			}
+			writeMap(output, buildProperties);
+		} finally {
+			Util.safeClose(output);
+		}
+
+		if (!replace(tmpFile, file)) {
+			tmpFile.delete();
+			throw new IOException(MessageFormat.format("Could not write build state file {0}", file));
+		}
+	}
+
+	private static boolean replace(File from, File to) {
+		if (from.renameTo(to)) {
+			return true;
+		}
+		to.delete();
+		return from.renameTo(to);
+	}
+
+	private static void writeMap(DataOutputStream output, Map<String, String> map) throws IOException {
+		output.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String str) throws IOException {
+		if (str == null) {
+			output.writeInt(-1);
+		} else {
+			byte[] bytes = str.getBytes(UTF8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads a build state file in the old, text based format.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static BuildStateFile readText(File file) throws IOException {
+		SectionedPropertiesFile props = SectionedPropertiesFile.parse(file);
+		BuildStateFile result = new BuildStateFile();
+
+		Section resultSection = props.getDefaultSection();
+		if (resultSection != null) {
+			result.result.putAll(resultSection.getEntriesAsMap());
+		}
+
+		Section files = props.getFirstSection("files");
+		if (files != null) {
+			for (Entry entry : files.getEntries()) {
+				result.addFile(entry.getKey(), Long.parseLong(entry.getValue()));
+			}
+		}
+
+		Section dependenciesSection = props.getFirstSection("dependencies");
+		if (dependenciesSection != null) {
+			for (Entry entry : dependenciesSection.getEntries()) {
+				IPath[] dependencyPaths = PropertyUtil.toPaths(entry.getValue());
+				ArrayList<String> dependencies = new ArrayList<String>(dependencyPaths.length);
+				for (IPath dependencyPath : dependencyPaths) {
+					dependencies.add(dependencyPath.toPortableString());
+				}
+				result.addDependencies(entry.getKey(), dependencies);
+			}
+		}
+
+		Section buildPropertiesSection = props.getFirstSection("build-properties");
+		if (buildPropertiesSection != null) {
+			result.buildProperties.putAll(buildPropertiesSection.getEntriesAsMap());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes this build state in the old, text based format.
+	 * Only used for comparison purposes; content hashes are
+	 * not written.
+	 * @param file
+	 * @throws IOException
+	 */
+	void writeText(File file) throws IOException {
+		SectionedPropertiesFile props = SectionedPropertiesFile.create();
+		props.getDefaultSection().addEntries(result);
+		Section files = props.addSection("files");
+		for (int i = 0; i < fileCount; i++) {
+			files.addEntry(new Entry(paths.get(filePaths[i]), Long.toString(fileTimestamps[i])));
+		}
+		Section deps = props.addSection("dependencies");
+		for (int[] edges : dependencies) {
+			IPath[] dependencyPaths = new IPath[edges.length - 1];
+			for (int j = 1; j < edges.length; j++) {
+				dependencyPaths[j - 1] = Path.fromPortableString(paths.get(edges[j]));
+			}
+			deps.addEntry(new Entry(paths.get(edges[0]), PropertyUtil.fromPaths(dependencyPaths)));
+		}
+		props.addSection("build-properties").addEntries(buildProperties);
+		props.write(file);
+	}
+
+}
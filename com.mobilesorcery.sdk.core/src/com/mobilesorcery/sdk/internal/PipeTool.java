@@ -139,14 +139,11 @@ public class PipeTool {
     }
 
     /**
-     * <p>Runs pipetool and returns the error code
-     * if it is either <code>0</code> or {@link #SKIP_RETURN_CODE}
-     * (Otherwise it will throw an exception).</p>
+     * Returns the command line that {@link #run()} would execute.
      * @return
-     * @throws CoreException
      * @throws ParameterResolverException
      */
-    public int run() throws CoreException, ParameterResolverException {
+    public String[] getCommandLine() throws ParameterResolverException {
     	IPath pipeTool = MoSyncTool.getDefault().getBinary("pipe-tool");
 
         ArrayList<String> args = new ArrayList<String>();
@@ -196,7 +193,6 @@ public class PipeTool {
 
         if (BUILD_RESOURCES_MODE == mode) {
         	IPath depsFile = getResourcesDependencyFile(project, variant);
-        	depsFile.toFile().getParentFile().mkdirs();
         	// Pipetool only accepts -depend files in exeuction dir
         	args.add("-depend=" + depsFile.toOSString());
         }
@@ -212,6 +208,24 @@ public class PipeTool {
             }
         }
 
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * <p>Runs pipetool and returns the error code
+     * if it is either <code>0</code> or {@link #SKIP_RETURN_CODE}
+     * (Otherwise it will throw an exception).</p>
+     * @return
+     * @throws CoreException
+     * @throws ParameterResolverException
+     */
+    public int run() throws CoreException, ParameterResolverException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList(getCommandLine()));
+
+        if (BUILD_RESOURCES_MODE == mode) {
+        	getResourcesDependencyFile(project, variant).toFile().getParentFile().mkdirs();
+        }
+
         addMessage(Util.join(args.toArray(new String[0]), " "));
 
         try {
@@ -13,94 +13,263 @@
 */
 package com.mobilesorcery.sdk.internal;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeMap;
-import java.util.Map.Entry;
 
 import com.mobilesorcery.sdk.core.ISLDInfo;
+import com.mobilesorcery.sdk.core.Util;
 
+/**
+ * <p>The parsed contents of an SLD file.</p>
+ * <p>Addresses are kept in sorted <code>int</code> arrays, with parallel
+ * arrays for lines, files and functions; lookups are binary searches.
+ * Entries are appended as they are parsed and sorted once, when the
+ * first lookup is made (or when {@link #compact()} is called) -- SLD
+ * files are normally already sorted, in which case no sorting is done.
+ * As before, if an address occurs more than once the last entry wins.</p>
+ * <p>The tables can be written to a binary file, which is much faster
+ * to load than the text SLD; see {@link #writeBinary(File)}.</p>
+ */
 public class SLDInfoImpl implements ISLDInfo {
 
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int MAGIC = 0x534c4442;
+
+    private static final int VERSION = 1;
+
     private TreeMap<Integer, String> fileTable = new TreeMap<Integer, String>();
-    private TreeMap<Integer, Integer> addrToFile = new TreeMap<Integer, Integer>();
-    private TreeMap<Integer, Integer> addrToLine = new TreeMap<Integer, Integer>();
-    public TreeMap<AddressRange, String> startAddrForFunc = new TreeMap<AddressRange, String>(AddressRange.START_COMPARATOR);
+
+    private int[] addrs = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int[] fileIds = new int[INITIAL_CAPACITY];
+    private int locationCount;
+    private boolean locationsSorted = true;
+
+    private int[] funcStarts = new int[INITIAL_CAPACITY];
+    private int[] funcEnds = new int[INITIAL_CAPACITY];
+    private int[] funcNames = new int[INITIAL_CAPACITY];
+    private int functionCount;
+    private boolean functionsSorted = true;
+
+    // Each function name is only stored once
+    private String[] functionNameTable = new String[INITIAL_CAPACITY];
+    private int functionNameCount;
+    private HashMap<String, Integer> functionNameIds = new HashMap<String, Integer>();
+
+    private volatile boolean compacted = true;
+
     private File file;
 
+    // The SLD file as it was when this SLD was parsed from it
+    private long fileLength;
+    private long fileLastModified;
+
     SLDInfoImpl(File sldFile) {
         this.file = sldFile;
     }
 
+    /**
+     * Sets the size and timestamp of the SLD file, as they were
+     * before it was parsed.
+     * @param length
+     * @param lastModified
+     */
+    void setFileStamp(long length, long lastModified) {
+        this.fileLength = length;
+        this.fileLastModified = lastModified;
+    }
+
     void addFile(int id, String name) {
         fileTable.put(id, name);
     }
 
     void addLocationForAddress(int addr, int lineInFile, int fileId) {
-        addrToLine.put(addr, lineInFile);
-        addrToFile.put(addr, fileId);
+        if (locationCount == addrs.length) {
+            int newLength = Math.max(INITIAL_CAPACITY, locationCount * 2);
+            addrs = Arrays.copyOf(addrs, newLength);
+            lines = Arrays.copyOf(lines, newLength);
+            fileIds = Arrays.copyOf(fileIds, newLength);
+        }
+        if (locationCount > 0 && addr <= addrs[locationCount - 1]) {
+            locationsSorted = false;
+        }
+        addrs[locationCount] = addr;
+        lines[locationCount] = lineInFile;
+        fileIds[locationCount] = fileId;
+        locationCount++;
+        compacted = false;
     }
 
-
     void addRangeForFunction(String functionName, AddressRange addrRange) {
         if (addrRange != null) {
-            startAddrForFunc.put(addrRange, functionName);
+            if (functionCount == funcStarts.length) {
+                int newLength = Math.max(INITIAL_CAPACITY, functionCount * 2);
+                funcStarts = Arrays.copyOf(funcStarts, newLength);
+                funcEnds = Arrays.copyOf(funcEnds, newLength);
+                funcNames = Arrays.copyOf(funcNames, newLength);
+            }
+            int start = addrRange.getStartAddr();
+            if (functionCount > 0 && start <= funcStarts[functionCount - 1]) {
+                functionsSorted = false;
+            }
+            funcStarts[functionCount] = start;
+            funcEnds[functionCount] = addrRange.getEndAddr();
+            funcNames[functionCount] = internFunctionName(functionName);
+            functionCount++;
+            compacted = false;
         }
     }
-    
-    /* (non-Javadoc)
-     * @see com.mobilesorcery.sdk.core.ISLDInfo#getFileName(int)
+
+    private int internFunctionName(String functionName) {
+        if (functionNameIds == null) {
+            functionNameIds = new HashMap<String, Integer>();
+            for (int i = 0; i < functionNameCount; i++) {
+                functionNameIds.put(functionNameTable[i], i);
+            }
+        }
+        Integer id = functionNameIds.get(functionName);
+        if (id == null) {
+            if (functionNameCount == functionNameTable.length) {
+                functionNameTable = Arrays.copyOf(functionNameTable, Math.max(INITIAL_CAPACITY, functionNameCount * 2));
+            }
+            id = functionNameCount;
+            functionNameTable[functionNameCount++] = functionName;
+            functionNameIds.put(functionName, id);
+        }
+        return id;
+    }
+
+    /**
+     * Sorts the address tables, removes duplicates and releases
+     * any memory used only while adding entries.
      */
-    public String getFileName(int addr) {
-        if (addrToFile.isEmpty()) {
-            return null;
+    synchronized void compact() {
+        if (compacted) {
+            return;
+        }
+        if (!locationsSorted) {
+            int[] order = sortedOrder(addrs, locationCount);
+            locationCount = order.length;
+            addrs = permute(addrs, order);
+            lines = permute(lines, order);
+            fileIds = permute(fileIds, order);
+            locationsSorted = true;
+        } else {
+            addrs = Arrays.copyOf(addrs, locationCount);
+            lines = Arrays.copyOf(lines, locationCount);
+            fileIds = Arrays.copyOf(fileIds, locationCount);
         }
 
-        Entry<Integer, Integer> entry = addrToFile.floorEntry(addr);
-        if (entry != null) {
-            Integer fileId = entry.getValue();
-            if (fileId != null) {
-                return fileTable.get(fileId);
+        if (!functionsSorted) {
+            int[] order = sortedOrder(funcStarts, functionCount);
+            functionCount = order.length;
+            funcStarts = permute(funcStarts, order);
+            funcEnds = permute(funcEnds, order);
+            funcNames = permute(funcNames, order);
+            functionsSorted = true;
+        } else {
+            funcStarts = Arrays.copyOf(funcStarts, functionCount);
+            funcEnds = Arrays.copyOf(funcEnds, functionCount);
+            funcNames = Arrays.copyOf(funcNames, functionCount);
+        }
+        functionNameTable = Arrays.copyOf(functionNameTable, functionNameCount);
+        functionNameIds = null;
+        compacted = true;
+    }
+
+    /**
+     * Returns the indices of the entries to keep, in address order;
+     * for duplicate addresses, only the last index is kept.
+     */
+    private static int[] sortedOrder(int[] keys, int size) {
+        long[] sortKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            sortKeys[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+        int[] order = new int[size];
+        int orderSize = 0;
+        for (int i = 0; i < size; i++) {
+            int ix = (int) sortKeys[i];
+            boolean isLastForKey = i + 1 == size || (int) (sortKeys[i + 1] >> 32) != keys[ix];
+            if (isLastForKey) {
+                order[orderSize++] = ix;
             }
         }
+        return Arrays.copyOf(order, orderSize);
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
 
-        return null;
+    /**
+     * Returns the index of the greatest element less than or
+     * equal to a key, or <code>-1</code> if there is none.
+     */
+    private static int floor(int[] sorted, int size, int key) {
+        int ix = Arrays.binarySearch(sorted, 0, size, key);
+        return ix >= 0 ? ix : -ix - 2;
     }
 
     /* (non-Javadoc)
-     * @see com.mobilesorcery.sdk.core.ISLDInfo#getLine(int)
+     * @see com.mobilesorcery.sdk.core.ISLDInfo#getFileName(int)
      */
-    public int getLine(int addr) {
-        if (addrToLine.isEmpty()) {
-            return UNKNOWN_LINE;
+    public String getFileName(int addr) {
+        if (!compacted) {
+            compact();
         }
+        int ix = floor(addrs, locationCount, addr);
+        return ix >= 0 ? fileTable.get(fileIds[ix]) : null;
+    }
 
-        Entry<Integer, Integer> entry = addrToLine.floorEntry(addr - 1);
-        if (entry != null) {
-            Integer line = entry.getValue();
-            if (line != null) {
-                return line;
-            }
+    /* (non-Javadoc)
+     * @see com.mobilesorcery.sdk.core.ISLDInfo#getLine(int)
+     */
+    public int getLine(int addr) {
+        if (!compacted) {
+            compact();
         }
-
-        return UNKNOWN_LINE;
+        int ix = floor(addrs, locationCount, addr - 1);
+        return ix >= 0 ? lines[ix] : UNKNOWN_LINE;
     }
 
     public String getFunction(int addr) {
-        AddressRange key = new AddressRange(addr, addr);
-        Entry<AddressRange, String> closestEntry = startAddrForFunc.floorEntry(key);
-        AddressRange closestAddressRange = closestEntry.getKey();
-        return closestAddressRange != null && closestAddressRange.inRange(addr) ? closestEntry.getValue() : null;
+        if (!compacted) {
+            compact();
+        }
+        // Addresses below the first function have no function
+        int ix = floor(funcStarts, functionCount, addr);
+        return ix >= 0 && addr <= funcEnds[ix] ? functionNameTable[funcNames[ix]] : null;
     }
-    
+
     /* (non-Javadoc)
      * @see com.mobilesorcery.sdk.core.ISLDInfo#write(java.io.Writer)
      */
     public void write(Writer writer) throws IOException {
+        if (!compacted) {
+            compact();
+        }
         writer.write(SLDParser.FILE_MARKER);
         writer.write('\n');
         for (Iterator<Integer> files = fileTable.keySet().iterator(); files.hasNext();) {
@@ -113,16 +282,163 @@ public class SLDInfoImpl implements ISLDInfo {
         writer.write(SLDParser.SLD_MARKER);
         writer.write('\n');
 
-        for (Iterator<Integer> addrs = addrToFile.keySet().iterator(); addrs.hasNext();) {
-            Integer addr = addrs.next();
-            int line = addrToLine.get(addr);
-            int file = addrToFile.get(addr);
-
-            writer.write(Integer.toHexString(addr) + ":" + line + ":" + file);
+        for (int i = 0; i < locationCount; i++) {
+            writer.write(Integer.toHexString(addrs[i]) + ":" + lines[i] + ":" + fileIds[i]);
             writer.write("\n");
         }
     }
 
+    /**
+     * <p>Writes this SLD in a binary format, along with the
+     * size and timestamp the SLD file had when it was parsed; if
+     * the SLD file has changed since then, the binary file will
+     * be out of date.</p>
+     * <p>The format is a header followed by the address tables as
+     * big-endian ints and then the file and function names.</p>
+     * @param binFile
+     * @throws IOException
+     */
+    public synchronized void writeBinary(File binFile) throws IOException {
+        compact();
+        binFile.getParentFile().mkdirs();
+        File tmpFile = new File(binFile.getParentFile(), binFile.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(fileLength);
+            output.writeLong(fileLastModified);
+            output.writeInt(locationCount);
+            output.writeInt(functionCount);
+            output.writeInt(fileTable.size());
+            output.writeInt(functionNameCount);
+            writeInts(output, addrs, locationCount);
+            writeInts(output, lines, locationCount);
+            writeInts(output, fileIds, locationCount);
+            writeInts(output, funcStarts, functionCount);
+            writeInts(output, funcEnds, functionCount);
+            writeInts(output, funcNames, functionCount);
+            for (Integer fileId : fileTable.keySet()) {
+                output.writeInt(fileId);
+            }
+            for (String filename : fileTable.values()) {
+                writeString(output, filename);
+            }
+            for (int i = 0; i < functionNameCount; i++) {
+                writeString(output, functionNameTable[i]);
+            }
+        } finally {
+            Util.safeClose(output);
+        }
+        binFile.delete();
+        if (!tmpFile.renameTo(binFile)) {
+            tmpFile.delete();
+            throw new IOException("Could not write " + binFile);
+        }
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values, int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            output.writeInt(values[i]);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String str) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads an SLD written by {@link #writeBinary(File)}. The file
+     * is read into a heap buffer and the address tables are copied out
+     * in bulk; it is not memory mapped, since a mapping would keep the
+     * file locked on some platforms until garbage collected.
+     * @param binFile
+     * @param sldFile The SLD file the binary file was created from
+     * @return The SLD, or <code>null</code> if there is no binary file
+     * or if it is out of date with respect to <code>sldFile</code>
+     * @throws IOException If the binary file is corrupt
+     */
+    public static SLDInfoImpl readBinary(File binFile, File sldFile) throws IOException {
+        if (!binFile.exists()) {
+            return null;
+        }
+        RandomAccessFile input = new RandomAccessFile(binFile, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Keep reading
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+                buffer.getLong() != sldFile.length() || buffer.getLong() != sldFile.lastModified()) {
+                return null;
+            }
+            SLDInfoImpl sld = new SLDInfoImpl(sldFile);
+            sld.setFileStamp(sldFile.length(), sldFile.lastModified());
+            int locationCount = readCount(buffer, 3);
+            int functionCount = readCount(buffer, 3);
+            int fileCount = readCount(buffer, 2);
+            int functionNameCount = readCount(buffer, 1);
+            sld.locationCount = locationCount;
+            sld.addrs = readInts(buffer, locationCount);
+            sld.lines = readInts(buffer, locationCount);
+            sld.fileIds = readInts(buffer, locationCount);
+            sld.functionCount = functionCount;
+            sld.funcStarts = readInts(buffer, functionCount);
+            sld.funcEnds = readInts(buffer, functionCount);
+            sld.funcNames = readInts(buffer, functionCount);
+            int[] fileTableIds = readInts(buffer, fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                sld.fileTable.put(fileTableIds[i], readString(buffer));
+            }
+            sld.functionNameCount = functionNameCount;
+            sld.functionNameTable = new String[functionNameCount];
+            for (int i = 0; i < functionNameCount; i++) {
+                sld.functionNameTable[i] = readString(buffer);
+            }
+            for (int i = 0; i < functionCount; i++) {
+                if (sld.funcNames[i] < 0 || sld.funcNames[i] >= functionNameCount) {
+                    throw new IOException("Corrupt SLD cache " + binFile);
+                }
+            }
+            sld.functionNameIds = null;
+            sld.compacted = true;
+            return sld;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated SLD cache " + binFile);
+        } finally {
+            Util.safeClose(input);
+        }
+    }
+
+    private static int readCount(ByteBuffer buffer, int intsPerEntry) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * intsPerEntry * 4 > buffer.remaining()) {
+            throw new IOException("Corrupt SLD cache");
+        }
+        return count;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int size) {
+        int[] result = new int[size];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + size * 4);
+        return result;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readCount(buffer, 0);
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     /* (non-Javadoc)
      * @see com.mobilesorcery.sdk.core.ISLDInfo#getSLDFile()
      */
@@ -135,7 +451,20 @@ public class SLDInfoImpl implements ISLDInfo {
 	}
 
 	public Collection<String> getAllFunctions() {
-		return Collections.unmodifiableCollection(startAddrForFunc.values());	
+		if (!compacted) {
+			compact();
+		}
+		return new AbstractList<String>() {
+			@Override
+			public String get(int ix) {
+				return functionNameTable[funcNames[ix]];
+			}
+
+			@Override
+			public int size() {
+				return functionCount;
+			}
+		};
 	}
 
  
@@ -22,10 +22,7 @@ import java.io.Reader;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 
-import org.eclipse.cdt.utils.CPPFilt;
-
-import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
-import com.mobilesorcery.sdk.core.MoSyncTool;
+import com.mobilesorcery.sdk.core.Demangler;
 import com.mobilesorcery.sdk.core.Util;
 
 public class SLDParser {
@@ -46,12 +43,19 @@ public class SLDParser {
 	private SLDInfoImpl sld;
 
 	private int currentLine;
-	private CPPFilt cppFilt;
+
+	// Function symbols are demangled in one batch, after parsing
+	private ArrayList<String> functionSymbols = new ArrayList<String>();
+	private ArrayList<AddressRange> functionRanges = new ArrayList<AddressRange>();
 
 	public void parse(File sldFile) throws IOException {
+		// Before reading, so that a concurrent change of the file makes it out of date
+		long length = sldFile.length();
+		long lastModified = sldFile.lastModified();
 		BufferedReader sldReader = new BufferedReader(new FileReader(sldFile));
 		try {
 			parse(sldReader, sldFile);
+			sld.setFileStamp(length, lastModified);
 		} finally {
 			Util.safeClose(sldReader);
 		}
@@ -62,40 +66,44 @@ public class SLDParser {
 	}
 
 	private void parse(Reader sldReader, File sldFile) throws IOException {
-		try {
-			try {
-				cppFilt = new CPPFilt(MoSyncTool.getDefault()
-						.getBinary("c++filt").toOSString());
-			} catch (IOException e) {
-				// Ignore but log.
-				CoreMoSyncPlugin.getDefault().logOnce(e,
-						getClass().getName() + "c++filt");
-			}
-			sld = new SLDInfoImpl(sldFile);
-			currentLine = 0;
-			LineNumberReader sldLines = new LineNumberReader(sldReader);
-			for (String line = sldLines.readLine(); line != null; line = sldLines
-					.readLine()) {
-				line = line.trim();
-				// Lines are 1-based.
-				currentLine++;
-				if (FILE_MARKER.equals(line)) {
-					state = FILE_STATE;
-				} else if (SLD_MARKER.equals(line)) {
-					state = SLD_STATE;
-				} else if (FUNCTIONS_MARKER.equals(line)) {
-					state = FUNCTIONS_STATE;
-				} else if (LINE_IP_MARKER.equals(line)) {
-					state = LINE_IP_STATE;
-				} else if (line.length() > 0) {
-					parseEntry(line);
-				}
-			}
-		} finally {
-			if (cppFilt != null) {
-				cppFilt.dispose();
+		sld = new SLDInfoImpl(sldFile);
+		currentLine = 0;
+		functionSymbols.clear();
+		functionRanges.clear();
+		LineNumberReader sldLines = new LineNumberReader(sldReader);
+		for (String line = sldLines.readLine(); line != null; line = sldLines
+				.readLine()) {
+			line = line.trim();
+			// Lines are 1-based.
+			currentLine++;
+			if (FILE_MARKER.equals(line)) {
+				state = FILE_STATE;
+			} else if (SLD_MARKER.equals(line)) {
+				state = SLD_STATE;
+			} else if (FUNCTIONS_MARKER.equals(line)) {
+				state = FUNCTIONS_STATE;
+			} else if (LINE_IP_MARKER.equals(line)) {
+				state = LINE_IP_STATE;
+			} else if (line.length() > 0) {
+				parseEntry(line);
 			}
 		}
+		addFunctions();
+		sld.compact();
+	}
+
+	private void addFunctions() {
+		if (functionSymbols.isEmpty()) {
+			return;
+		}
+		Demangler demangler = Demangler.getDefault();
+		String[] functionNames = demangler.demangle(functionSymbols.toArray(new String[functionSymbols.size()]));
+		demangler.flush();
+		for (int i = 0; i < functionNames.length; i++) {
+			sld.addRangeForFunction(functionNames[i], functionRanges.get(i));
+		}
+		functionSymbols.clear();
+		functionRanges.clear();
 	}
 
 	public SLDInfoImpl getSLD() {
@@ -127,16 +135,11 @@ public class SLDParser {
 	private void parseFunctionEntry(String line) {
 		String[] functionEntry = line.split("\\s", 2);
 		if (functionEntry.length == 2) {
-			String symbol = functionEntry[0];
-			String unmangledFunctionName = symbol;
-			try {
-				unmangledFunctionName = cppFilt.getFunction(symbol);
-			} catch (IOException e) {
-				// Just present the mangled name
+			AddressRange addrRange = AddressRange.parse(functionEntry[1]);
+			if (addrRange != null) {
+				functionSymbols.add(functionEntry[0]);
+				functionRanges.add(addrRange);
 			}
-			String addrRange = functionEntry[1];
-			sld.addRangeForFunction(unmangledFunctionName,
-					AddressRange.parse(addrRange));
 		}
 	}
 
@@ -124,6 +124,10 @@ public class BuildPropertiesInitializerDelegate extends AbstractPreferenceInitia
         IPreferenceStore store = CoreMoSyncPlugin.getDefault().getPreferenceStore();
         store.setDefault(MoSyncBuilder.REBUILD_ON_ERROR, true);
         store.setDefault(MoSyncBuilder.VERBOSE_BUILDS, true);
+        store.setDefault(MoSyncBuilder.PARALLEL_COMPILE_JOBS, Runtime.getRuntime().availableProcessors());
+        // Off by default; see CompileCache
+        store.setDefault(MoSyncBuilder.COMPILE_CACHE_SIZE, 0);
+        store.setDefault(MoSyncBuilder.CONCURRENT_VARIANT_BUILDS, 1);
     }
 
 }
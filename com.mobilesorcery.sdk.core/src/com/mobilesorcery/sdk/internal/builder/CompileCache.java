@@ -0,0 +1,279 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.internal.builder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
+import com.mobilesorcery.sdk.core.Util;
+
+/**
+ * <p>A content addressed cache of compiler output, stored in the
+ * workspace state location.</p>
+ * <p>Entries are keyed by a hash of the preprocessed source, the
+ * compiler arguments and the compiler binary, and hold the compiler
+ * output as well as the lines the compiler printed to the console.
+ * Since the preprocessed source and the arguments contain absolute
+ * paths (which also end up in the debug info of the output), entries
+ * are in practice only reused by the same project, for example after
+ * a clean or when switching back and forth between branches.
+ * The cache costs an extra preprocessor pass per compiled file and
+ * is therefore disabled by default.
+ * The total size of the cache is bounded; when the bound is
+ * exceeded, the least recently used entries are evicted.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class CompileCache {
+
+	private static final String ENTRY_EXT = ".entry";
+
+	private static final char STDOUT_LINE = 'O';
+
+	private static final char STDERR_LINE = 'E';
+
+	private static CompileCache instance;
+
+	private final File directory;
+
+	private long maxSize;
+
+	private long currentSize = -1;
+
+	/**
+	 * Returns the workspace compile cache.
+	 * @param maxSize The maximum size of the cache, in bytes
+	 * @return
+	 */
+	public static synchronized CompileCache getDefault(long maxSize) {
+		if (instance == null) {
+			File directory = CoreMoSyncPlugin.getDefault().getStateLocation().append("compile-cache").toFile();
+			instance = new CompileCache(directory);
+		}
+		instance.setMaxSize(maxSize);
+		return instance;
+	}
+
+	public CompileCache(File directory) {
+		this.directory = directory;
+		this.maxSize = Long.MAX_VALUE;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Creates the digest used for cache keys.
+	 * @return
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes a cache key.
+	 * @param compiler The compiler binary; its size and timestamp is
+	 * used as the compiler version
+	 * @param args The compiler arguments, minus anything that does not
+	 * affect the output (such as the output file name)
+	 * @param preprocessed The preprocessed source, which will be
+	 * completely consumed but not closed
+	 * @return
+	 * @throws IOException
+	 */
+	public static String computeKey(File compiler, String[] args, InputStream preprocessed) throws IOException {
+		MessageDigest digest = createDigest();
+		update(digest, compiler.getAbsolutePath());
+		update(digest, Long.toString(compiler.length()));
+		update(digest, Long.toString(compiler.lastModified()));
+		for (String arg : args) {
+			update(digest, arg);
+		}
+		byte[] buffer = new byte[65536];
+		for (int read = preprocessed.read(buffer); read != -1; read = preprocessed.read(buffer)) {
+			digest.update(buffer, 0, read);
+		}
+		return Util.toBase16(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String str) throws IOException {
+		digest.update(str.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Restores a cached compiler output.
+	 * @param key
+	 * @param output The file to copy the cached output to
+	 * @param stdout A list to add the cached standard output lines to
+	 * @param stderr A list to add the cached standard error lines to
+	 * @return <code>false</code> if there was no such entry
+	 */
+	public boolean fetch(String key, File output, List<String> stdout, List<String> stderr) {
+		File entry = getEntryFile(key);
+		if (!entry.exists()) {
+			return false;
+		}
+		DataInputStream input = null;
+		OutputStream outputStream = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+			int lineCount = input.readInt();
+			for (int i = 0; i < lineCount; i++) {
+				String line = input.readUTF();
+				List<String> lines = line.charAt(0) == STDERR_LINE ? stderr : stdout;
+				lines.add(line.substring(1));
+			}
+			outputStream = new FileOutputStream(output);
+			Util.transfer(input, outputStream);
+		} catch (IOException e) {
+			// Most likely evicted by another thread
+			Util.safeClose(outputStream);
+			output.delete();
+			stdout.clear();
+			stderr.clear();
+			return false;
+		} finally {
+			Util.safeClose(input);
+			Util.safeClose(outputStream);
+		}
+		// Used as the LRU timestamp.
+		entry.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Adds a compiler output to this cache.
+	 * @param key
+	 * @param output
+	 * @param stdout
+	 * @param stderr
+	 * @throws IOException
+	 */
+	public void store(String key, File output, List<String> stdout, List<String> stderr) throws IOException {
+		directory.mkdirs();
+		File tmpFile = File.createTempFile("compile", ".tmp", directory);
+		DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		InputStream input = null;
+		try {
+			outputStream.writeInt(stdout.size() + stderr.size());
+			writeLines(outputStream, STDOUT_LINE, stdout);
+			writeLines(outputStream, STDERR_LINE, stderr);
+			input = new FileInputStream(output);
+			Util.transfer(input, outputStream);
+		} finally {
+			Util.safeClose(input);
+			Util.safeClose(outputStream);
+		}
+
+		File entry = getEntryFile(key);
+		synchronized (this) {
+			long previousSize = entry.length();
+			entry.delete();
+			if (!tmpFile.renameTo(entry)) {
+				tmpFile.delete();
+				return;
+			}
+			if (currentSize >= 0) {
+				currentSize += entry.length() - previousSize;
+			}
+			evict();
+		}
+	}
+
+	private static void writeLines(DataOutputStream output, char type, List<String> lines) throws IOException {
+		for (String line : lines) {
+			output.writeUTF(type + line);
+		}
+	}
+
+	private File getEntryFile(String key) {
+		return new File(directory, key + ENTRY_EXT);
+	}
+
+	private File[] listEntries() {
+		File[] entries = directory.listFiles();
+		return entries == null ? new File[0] : entries;
+	}
+
+	private void evict() {
+		if (currentSize < 0) {
+			currentSize = 0;
+			for (File entry : listEntries()) {
+				currentSize += entry.length();
+			}
+		}
+
+		if (currentSize <= maxSize) {
+			return;
+		}
+
+		// Evict down to 90% so we do not need to do this
+		// for every new entry.
+		long targetSize = maxSize - maxSize / 10;
+		File[] entries = listEntries();
+		final long[] lastModified = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			lastModified[i] = entries[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return lastModified[i1] < lastModified[i2] ? -1 : (lastModified[i1] == lastModified[i2] ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < order.length && currentSize > targetSize; i++) {
+			File entry = entries[order[i]];
+			long size = entry.length();
+			if (entry.getName().endsWith(ENTRY_EXT) && entry.delete()) {
+				currentSize -= size;
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries from this cache.
+	 */
+	public synchronized void clear() {
+		for (File entry : listEntries()) {
+			if (entry.getName().endsWith(ENTRY_EXT)) {
+				entry.delete();
+			}
+		}
+		currentSize = -1;
+	}
+}
@@ -57,6 +57,8 @@ public abstract class IncrementalBuilderVisitor implements IResourceVisitor {
 	protected IProject project;
 	protected IProcessConsole console;
 	private IFilter<IResource> resourceFilter;
+	// Visitors live for one build, so we can cache exclusion results
+	private IFilter<IResource> exclusionFilter;
     private IBuildVariant variant;
 	private IDependencyProvider<IResource> dependencyProvider;
 	private ParameterResolver resolver;
@@ -144,6 +146,7 @@ public abstract class IncrementalBuilderVisitor implements IResourceVisitor {
 
 	public void setProject(IProject project) {
 		this.project = project;
+		this.exclusionFilter = null;
 	}
 
 	public IProject getProject() {
@@ -191,11 +194,13 @@ public abstract class IncrementalBuilderVisitor implements IResourceVisitor {
 	    if (resource == null || resource.isDerived() || MoSyncBuilder.isInOutput(resource.getProject(), resource)) {
 	        return false;
 	    }
-		// TODO: Make this much faster!
 		MoSyncProject project = MoSyncProject.create(this.project);
 		IFilter<IResource> resourceFilter = this.resourceFilter;
-		if (resourceFilter == null) {
-			resourceFilter = MoSyncProject.getExclusionFilter(project, true);
+		if (resourceFilter == null && project != null) {
+			if (exclusionFilter == null) {
+				exclusionFilter = MoSyncProject.getExclusionFilter(project, true).createCachingFilter();
+			}
+			resourceFilter = exclusionFilter;
 		}
 		return project == null || resourceFilter.accept(resource);
 	}
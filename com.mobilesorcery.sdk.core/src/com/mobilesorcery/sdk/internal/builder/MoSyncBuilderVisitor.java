@@ -16,11 +16,22 @@
  */
 package com.mobilesorcery.sdk.internal.builder;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -33,12 +44,15 @@ import org.eclipse.core.runtime.Status;
 
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.IBuildResult;
+import com.mobilesorcery.sdk.core.IProcessConsole;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncProject;
-import com.mobilesorcery.sdk.core.MoSyncTool;
 import com.mobilesorcery.sdk.core.ParameterResolverException;
+import com.mobilesorcery.sdk.core.ProcessIOPump;
 import com.mobilesorcery.sdk.core.Util;
+import com.mobilesorcery.sdk.core.build.CompilerCommandTemplate;
 import com.mobilesorcery.sdk.core.LineReader.ILineHandler;
+import com.mobilesorcery.sdk.core.LineReader.LineAdapter;
 import com.mobilesorcery.sdk.internal.dependencies.CompoundDependencyProvider;
 import com.mobilesorcery.sdk.internal.dependencies.DependencyManager;
 import com.mobilesorcery.sdk.internal.dependencies.GCCDependencyProvider;
@@ -51,12 +65,6 @@ import com.mobilesorcery.sdk.internal.dependencies.ResourceFileDependencyProvide
 // TODO: Replace all IResource references in build classes with IPath. (Huge refactoring)
 public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
 
-    private static final String GCC_WALL_STR = "-Wall";
-
-    private static final String GCC_WEXTRA_STR = "-Wextra";
-
-    private static final String GCC_WERROR_STR = "-Werror";
-
     /**
      * The standard extensions for C/C++ files
      */
@@ -73,6 +81,137 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
 
     public static final String[] RESOURCE_FILE_EXTS = new String[] { "lst", "lstx" };
 
+    /**
+     * A single xgcc invocation. When compiling in parallel, the
+     * output of the process is buffered so it can be reported
+     * to the console and line handler after the fact, in the
+     * same order as a serial build would have.
+     * If there is a compile cache, the file is first preprocessed
+     * to compute the cache key, and xgcc is only invoked upon
+     * cache misses.
+     */
+    private class CompileJob implements Callable<CompileJob> {
+
+		private final IFile cFile;
+		private final String[] args;
+		private final File workingDir;
+		private final File output;
+		private final List<String> stdout = new ArrayList<String>();
+		private final List<String> stderr = new ArrayList<String>();
+		private String[] preprocessArgs;
+		private String[] keyArgs;
+		private boolean cached;
+		private int result;
+
+		CompileJob(IFile cFile, String[] args, File workingDir, File output) {
+			this.cFile = cFile;
+			this.args = args;
+			this.workingDir = workingDir;
+			this.output = output;
+		}
+
+		@Override
+		public CompileJob call() throws Exception {
+			String key = computeCacheKey();
+			if (key != null && compileCache.fetch(key, output, stdout, stderr)) {
+				cached = true;
+				result = 0;
+				return this;
+			}
+
+			Process process = Runtime.getRuntime().exec(args, null, workingDir);
+			CountDownLatch pumped = new CountDownLatch(2);
+			ProcessIOPump.getDefault().attach(process, collect(stdout, pumped), collect(stderr, pumped));
+			result = waitFor(process);
+			pumped.await();
+
+			if (key != null && result == 0) {
+				try {
+					compileCache.store(key, output, stdout, stderr);
+				} catch (IOException e) {
+					CoreMoSyncPlugin.getDefault().log(e);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Runs the preprocessor (which also generates the dependency
+		 * file) and computes a cache key from its output.
+		 * @return The key, or <code>null</code> if there is no
+		 * cache or if preprocessing failed.
+		 */
+		private String computeCacheKey() throws IOException, InterruptedException {
+			if (compileCache == null || preprocessArgs == null) {
+				return null;
+			}
+			ProcessBuilder builder = new ProcessBuilder(preprocessArgs);
+			builder.directory(workingDir);
+			// Any preprocessor diagnostics become part of the key.
+			builder.redirectErrorStream(true);
+			Process process = builder.start();
+			InputStream preprocessed = process.getInputStream();
+			String key;
+			try {
+				key = CompileCache.computeKey(new File(args[0]), keyArgs, preprocessed);
+			} finally {
+				Util.safeClose(preprocessed);
+			}
+			return waitFor(process) == 0 ? key : null;
+		}
+
+		/**
+		 * Waits for a process; if interrupted (ie the build was cancelled)
+		 * the process is destroyed so it does not keep running.
+		 */
+		private int waitFor(Process process) throws InterruptedException {
+			try {
+				return process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+		}
+
+		private ILineHandler collect(final List<String> lines, final CountDownLatch pumped) {
+			return new LineAdapter() {
+				@Override
+				public void newLine(String line) {
+					lines.add(line);
+				}
+
+				@Override
+				public void stop(IOException e) {
+					pumped.countDown();
+				}
+			};
+		}
+
+		/**
+		 * Reports the buffered output; must be called from the
+		 * build thread.
+		 */
+		void report() {
+			String cmdLine = Util.join(args, " ");
+			console.addMessage(cached ? MessageFormat.format("{0} (cached)", cmdLine) : cmdLine);
+			replay(IProcessConsole.OUT, stdout);
+			replay(IProcessConsole.ERR, stderr);
+		}
+
+		private void replay(int type, List<String> lines) {
+			for (String line : lines) {
+				if (linehandler != null) {
+					linehandler.newLine(line);
+				}
+				console.addMessage(type, line);
+			}
+			if (linehandler != null) {
+				linehandler.stop(null);
+			}
+		}
+    }
+
     public MoSyncBuilderVisitor() {
     }
 
@@ -85,6 +224,11 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
     private ILineHandler linehandler;
     private int gccWarnings;
 	private boolean generateDependencies = true;
+	private int compileJobs = 1;
+	private CompileCache compileCache;
+	private CompilerCommandTemplate commandTemplate;
+	private int cacheHits;
+	private int cacheMisses;
 
 	private CompoundDependencyProvider<IResource> dependencyProvider;
 
@@ -123,14 +267,84 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
             }
         }
 
+        ArrayList<IResource> buildThese = new ArrayList<IResource>();
         for (IResource recompileThis : recompileThese) {
-            if (monitor.isCanceled()) {
-                return;
-            }
             if (shouldBuild(recompileThis)) {
-            	compile(recompileThis, delta);
+            	buildThese.add(recompileThis);
             }
         }
+
+        if (compileJobs > 1 && buildThese.size() > 1) {
+        	parallelCompile(monitor, buildThese, delta);
+        } else {
+	        for (IResource recompileThis : buildThese) {
+	            if (monitor.isCanceled()) {
+	                return;
+	            }
+	            compile(recompileThis, delta);
+	        }
+        }
+
+        if (compileCache != null && cacheHits + cacheMisses > 0) {
+        	console.addMessage(MessageFormat.format("Compile cache: {0} hit(s), {1} miss(es)", cacheHits, cacheMisses));
+        }
+    }
+
+    /**
+     * Compiles a set of resources using a pool of {@link #setCompileJobs(int)}
+     * threads. Process output, errors and dependencies are reported
+     * in the same order as for serial builds, once the compilation
+     * of each file is done.
+     * @param monitor
+     * @param resources
+     * @param dependenciesDelta
+     * @throws CoreException
+     * @throws ParameterResolverException
+     */
+    private void parallelCompile(IProgressMonitor monitor, List<IResource> resources, DependencyManager.Delta<IResource> dependenciesDelta) throws CoreException, ParameterResolverException {
+    	ExecutorService executor = Executors.newFixedThreadPool(Math.min(compileJobs, resources.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Compiler thread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+    	ArrayList<IResource> submitted = new ArrayList<IResource>();
+    	ArrayList<Future<CompileJob>> futures = new ArrayList<Future<CompileJob>>();
+    	try {
+    		for (IResource resource : resources) {
+    			if (monitor.isCanceled()) {
+    				break;
+    			}
+    			CompileJob job = prepareCompile(resource);
+    			submitted.add(resource);
+    			futures.add(job == null ? null : executor.submit(job));
+    		}
+
+    		for (int i = 0; i < submitted.size(); i++) {
+    			Future<CompileJob> future = futures.get(i);
+    			if (monitor.isCanceled() && future != null) {
+    				// Interrupts running jobs, which destroys their processes
+    				future.cancel(true);
+    			}
+    			CompileJob job = future == null ? null : future.get();
+    			if (job != null) {
+    				job.report();
+    				handleCompileResult(job);
+    			}
+    			addDependencies(submitted.get(i), dependenciesDelta);
+    		}
+    	} catch (CancellationException e) {
+    		// Cancelled by user, just return.
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} catch (ExecutionException e) {
+    		Throwable cause = e.getCause();
+    		throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, cause.getMessage(), cause));
+    	} finally {
+    		executor.shutdownNow();
+    	}
     }
 
     private boolean shouldBuild(IResource recompileThis) {
@@ -200,117 +414,151 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
     }
 
     public void compile(IResource resource, DependencyManager.Delta<IResource> dependenciesDelta) throws CoreException, ParameterResolverException {
-    	if (!CoreMoSyncPlugin.isHeadless()) {
-    		MoSyncBuilder.clearCMarkers(resource);
-            //clearCMarkers(resource.getProject());
-    	}
-
-        IFile cFile = getCFile(resource, false);
-
-        if (cFile != null) {
-            // Assume unique filenames.
-            IPath output = mapFileToOutput(cFile);
+    	CompileJob job = prepareCompile(resource);
+
+        if (job != null && compileCache != null) {
+        	// Output must be buffered to be cacheable
+        	try {
+        		job.call();
+        	} catch (Exception e) {
+        		throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+        	}
+        	job.report();
+        	handleCompileResult(job);
+        } else if (job != null) {
+            // Display invocation in console
+            String cmdLine = Util.join(job.args, " ");
+            console.addMessage(cmdLine);
 
-            IPath xgcc = MoSyncTool.getDefault().getBinary("xgcc");
+            try {
+                // Java automatically escapes the arguments when we call exec with an array instead of a string
+                Process process = Runtime.getRuntime().exec(job.args, null, job.workingDir);
 
-            MoSyncProject project = MoSyncProject.create(resource.getProject());
-            List<IPath> includePaths = new ArrayList<IPath>(Arrays.asList(MoSyncBuilder.getBaseIncludePaths(project, getVariant())));
+                console.attachProcess(process, linehandler);
 
-			// TODO: Too much 'secret sauce' here; add special dialogs for this instead,
-			// like JDT/CDT, to allow user to control this better. Like %output%?
-            includePaths.add(outputPath);
+                job.result = process.waitFor();
+                handleCompileResult(job);
+            } catch (Exception e) {
+                throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+            }
+        }
 
-            String[] includeStr = assembleIncludeString(includePaths.toArray(new IPath[0]));
+        addDependencies(resource, dependenciesDelta);
+    }
 
-            ArrayList<String> args = new ArrayList<String>();
-            args.add(xgcc.toOSString());
-            args.add("-o");
-            args.add(output.toOSString());
-            args.add("-S");
-            args.add("-g");
+    private CompileJob prepareCompile(IResource resource) throws CoreException, ParameterResolverException {
+    	if (!CoreMoSyncPlugin.isHeadless()) {
+    		MoSyncBuilder.clearCMarkers(resource);
+            //clearCMarkers(resource.getProject());
+    	}
 
-            if (generateDependencies) {
-            	args.add("-MMD");
-            	args.add("-MF");
-            	args.add(mapToDependencyFile(output.toOSString()));
-            }
+        IFile cFile = getCFile(resource, false);
 
-            addGccWarnings(args);
-            args.add("-DMAPIP");
-            String[] extra = extraSwitches == null ? new String[0] : Util.parseCommandLine(resolve(extraSwitches));
-            args.addAll(Arrays.asList(extra));
-            args.add(cFile.getLocation().toOSString());
-            args.addAll(Arrays.asList(includeStr));
+        if (cFile == null) {
+        	return null;
+        }
 
-            // Create output if it does not exist
-            output.toFile().getParentFile().mkdirs();
+        // Assume unique filenames.
+        IPath output = mapFileToOutput(cFile);
+        IPath source = cFile.getLocation();
+        CompilerCommandTemplate template = getCommandTemplate();
 
-            String argsAsArray[] = new String[args.size()];
-            args.toArray(argsAsArray);
+        // Create output if it does not exist
+        output.toFile().getParentFile().mkdirs();
 
-            // Display invocation in console
-            String cmdLine = Util.join(argsAsArray, " ");
-            console.addMessage(cmdLine);
+        File workingDir = resource.getProject().getLocation().toFile();
+        CompileJob job = new CompileJob(cFile, template.createCommandLine(source, output), workingDir, output.toFile());
 
-            try {
-                // Java automatically escapes the arguments when we call exec with an array instead of a string
-                Process process = Runtime.getRuntime().exec(argsAsArray, null, resource.getProject().getLocation().toFile());
+        if (compileCache != null) {
+        	// Upon cache hits, the dependency file is generated by the preprocessor
+        	job.preprocessArgs = template.createPreprocessCommandLine(source, output);
+        	// The arguments that affect the compiler output
+        	ArrayList<String> keyArgs = new ArrayList<String>(Arrays.asList(template.getCompileArgs(source)));
+        	keyArgs.add(workingDir.getAbsolutePath());
+        	job.keyArgs = keyArgs.toArray(new String[keyArgs.size()]);
+        }
 
-                console.attachProcess(process, linehandler);
+        return job;
+    }
 
-                int result = process.waitFor();
-                if (result != 0) {
-                    errors++;
-                    if (buildResult != null) {
-                        buildResult.addError("Failed to compile " + cFile.getLocation());
-                    }
-                }
-                compileCount ++;
-            } catch (Exception e) {
-                throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+    private void handleCompileResult(CompileJob job) {
+        if (job.result != 0) {
+            errors++;
+            if (buildResult != null) {
+                buildResult.addError("Failed to compile " + job.cFile.getLocation());
             }
         }
+        if (compileCache != null) {
+        	if (job.cached) {
+        		cacheHits++;
+        	} else {
+        		cacheMisses++;
+        	}
+        }
+        compileCount ++;
+    }
 
+    private void addDependencies(IResource resource, DependencyManager.Delta<IResource> dependenciesDelta) throws CoreException {
         if (dependenciesDelta != null) {
         	dependenciesDelta.addDependencies(resource, getDependencyProvider());
         }
-
     }
 
 	public static String mapToDependencyFile(String filename) {
-    	 return filename + ".deps";
+    	 return CompilerCommandTemplate.mapToDependencyFile(filename);
     }
 
 	public void setGenerateDependencies(boolean generateDependencies) {
     	this.generateDependencies = generateDependencies;
+    	this.commandTemplate = null;
     }
 
-    private void addGccWarnings(List<String> args) {
-        if ((gccWarnings & MoSyncBuilder.GCC_WALL) != 0) {
-            args.add(GCC_WALL_STR);
-        }
-
-        if ((gccWarnings & MoSyncBuilder.GCC_WEXTRA) != 0) {
-            args.add(GCC_WEXTRA_STR);
-        }
+	/**
+	 * Returns the compiler command template used by this visitor;
+	 * it is computed once from the settings of this visitor and
+	 * then shared by all compiled files.
+	 * @return
+	 * @throws ParameterResolverException
+	 */
+	public CompilerCommandTemplate getCommandTemplate() throws ParameterResolverException {
+		if (commandTemplate == null) {
+			String resolvedExtraSwitches = extraSwitches == null ? null : resolve(extraSwitches);
+			commandTemplate = CompilerCommandTemplate.create(MoSyncProject.create(project), getVariant(),
+					outputPath, gccWarnings, resolvedExtraSwitches, generateDependencies);
+		}
+		return commandTemplate;
+	}
 
-        if ((gccWarnings & MoSyncBuilder.GCC_WERROR) != 0) {
-            args.add(GCC_WERROR_STR);
-        }
-    }
+	/**
+	 * Sets the compiler command template to use, overriding
+	 * the compiler settings of this visitor.
+	 * @param commandTemplate The template, or {@code null} to
+	 * compute it from the settings of this visitor.
+	 */
+	public void setCommandTemplate(CompilerCommandTemplate commandTemplate) {
+		this.commandTemplate = commandTemplate;
+	}
 
-    public static String[] assembleIncludeString(IPath[] includePaths) {
-        String[] strs = new String[includePaths.length];
-        for (int i = 0; i < strs.length; i++) {
-            strs[i] = assembleIncludeString(includePaths[i]);
-        }
+	/**
+	 * Sets the maximum number of files to compile concurrently.
+	 * @param compileJobs The number of concurrent compiler processes;
+	 * {@code 1} or less means serial compilation.
+	 */
+	public void setCompileJobs(int compileJobs) {
+		this.compileJobs = compileJobs;
+	}
 
-        return strs;
-    }
+	/**
+	 * Sets the cache to use for compiler output.
+	 * @param compileCache The cache, or {@code null} to always
+	 * invoke the compiler.
+	 */
+	public void setCompileCache(CompileCache compileCache) {
+		this.compileCache = compileCache;
+	}
 
-    private static String assembleIncludeString(IPath includePath) {
-    	// Remove trailing separator, otherwise the \ will be considered an escape char.
-        return "-I" + includePath.removeTrailingSeparator().toOSString();
+    public static String[] assembleIncludeString(IPath[] includePaths) {
+        return CompilerCommandTemplate.assembleIncludeString(includePaths);
     }
 
     public IPath mapFileToOutput(IResource file) {
@@ -339,10 +587,12 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
 
     public void setOutputPath(IPath outputPath) {
         this.outputPath = outputPath;
+        this.commandTemplate = null;
     }
 
     public void setExtraCompilerSwitches(String extraSwitches) {
         this.extraSwitches = extraSwitches;
+        this.commandTemplate = null;
     }
 
     public void setLineHandler(ILineHandler linehandler) {
@@ -355,6 +605,7 @@ public class MoSyncBuilderVisitor extends IncrementalBuilderVisitor {
 
     public void setGCCWarnings(int gccWarnings) {
         this.gccWarnings = gccWarnings;
+        this.commandTemplate = null;
     }
 
 	protected String getName() {
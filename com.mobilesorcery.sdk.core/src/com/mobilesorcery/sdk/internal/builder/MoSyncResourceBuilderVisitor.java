@@ -24,19 +24,24 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.debug.core.DebugPlugin;
 
 import com.mobilesorcery.sdk.core.CommandLineExecutor;
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
+import com.mobilesorcery.sdk.core.IBuildVariant;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncTool;
 import com.mobilesorcery.sdk.core.ParameterResolverException;
@@ -49,27 +54,25 @@ import com.mobilesorcery.sdk.internal.dependencies.ResourceFileDependencyProvide
 import com.mobilesorcery.sdk.profiles.ProfileDBManager;
 
 public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
-	private ArrayList<IResource> resourceFiles = new ArrayList<IResource>();
-	private IPath outputFile;
-	private PipeTool pipeTool;
 
-	private IDependencyProvider<IResource> dependencyProvider;
+	private static final String INTERMEDIATE_DIRECTORY = "res";
 
-	@Override
-	public boolean visit(IResource resource) throws CoreException {
-		super.visit(resource);
+	private static final String INTERMEDIATE_LST_FILE = "~tmpres.lst";
 
-		if (doesAffectBuild(resource) && MoSyncBuilder.isResourceFile(resource)) {
-			resourceFiles.add(resource);
-		}
+	private List<IResource> resourceFiles;
+	private IPath outputFile;
+	private PipeTool pipeTool;
 
-		return true;
-	}
+	private IDependencyProvider<IResource> dependencyProvider;
 
+	/**
+	 * Returns the resource files of the project; the
+	 * project is only traversed once per visitor.
+	 * @return
+	 * @throws CoreException
+	 */
 	public String[] getResourceFiles() throws CoreException {
-		// TODO: side-effect-less
-		resourceFiles = new ArrayList<IResource>();
-		project.accept(this);
+		List<IResource> resourceFiles = getResourceFileResources();
 		String[] result = new String[resourceFiles.size()];
 		for (int i = 0; i < result.length; i++) {
 			result[i] = resourceFiles.get(i).getLocation().toOSString();
@@ -77,6 +80,23 @@ public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
 		return result;
 	}
 
+	private List<IResource> getResourceFileResources() throws CoreException {
+		if (resourceFiles == null) {
+			final ArrayList<IResource> result = new ArrayList<IResource>();
+			project.accept(new IResourceVisitor() {
+				@Override
+				public boolean visit(IResource resource) throws CoreException {
+					if (MoSyncBuilder.isResourceFile(resource) && doesAffectBuild(resource)) {
+						result.add(resource);
+					}
+					return true;
+				}
+			});
+			resourceFiles = result;
+		}
+		return resourceFiles;
+	}
+
 	public void setOutputFile(IPath outputFile) {
 		this.outputFile = outputFile;
 	}
@@ -96,6 +116,7 @@ public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
 	}
 
 	public void incrementalCompile(IProgressMonitor monitor, DependencyManager<IResource> dependencyManager, DependencyManager.Delta<IResource> dependencyDelta) throws CoreException, IOException {
+		deleteIntermediateDirectories(monitor);
 		Set<IResource> recompileThese = computeResourcesToRebuild(dependencyManager);
 		if (!recompileThese.isEmpty()) {
 			List<String> resourceFiles = new ArrayList<String>(Arrays.asList(getResourceFiles()));
@@ -111,7 +132,7 @@ public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
 			}
 			if ((lstxCount > 0 || resDir != null) && lstCount == 0) {
 				// Beware; here we once more update the resourceFiles array...
-				resourceFiles = Arrays.asList(compileWithResComp(resourceFiles.toArray(new String[0]), monitor, dependencyManager, dependencyDelta));
+				resourceFiles = Arrays.asList(compileWithResComp(resourceFiles.toArray(new String[0]), recompileThese, monitor));
 			}
 
 			if (!resourceFiles.isEmpty()) {
@@ -120,38 +141,119 @@ public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
 		}
 	}
 
+	/**
+	 * Removes the intermediate output of deleted resource files.
+	 */
+	private void deleteIntermediateDirectories(IProgressMonitor monitor) {
+		for (IResource deletedResource : deletedResources) {
+			IPath location = deletedResource.getLocation();
+			if (location != null && MoSyncBuilder.isResourceFile(deletedResource)) {
+				File intermediateDir = getIntermediateDirectory(project, getVariant(), location.toFile()).toFile();
+				Util.deleteFiles(intermediateDir, null, Util.INFINITE_DEPTH, monitor);
+			}
+		}
+	}
+
+	/**
+	 * Returns the directory where the intermediate output of
+	 * a resource file or directory is placed. The directory
+	 * name is the file name plus a 64 bit hash of its path,
+	 * relative to the project if the file is inside it.
+	 * @param project
+	 * @param variant
+	 * @param resourceFile
+	 * @return
+	 */
+	public static IPath getIntermediateDirectory(IProject project, IBuildVariant variant, File resourceFile) {
+		IPath path = new Path(resourceFile.getAbsolutePath());
+		IPath projectLocation = project.getLocation();
+		if (projectLocation != null && projectLocation.isPrefixOf(path)) {
+			path = path.removeFirstSegments(projectLocation.segmentCount()).setDevice(null);
+		}
+		String name = resourceFile.getName() + "-" + Long.toHexString(hash(path.toPortableString()));
+		return MoSyncBuilder.getResourceOutputPath(project, variant).removeLastSegments(1).append(INTERMEDIATE_DIRECTORY).append(name);
+	}
+
+	private static long hash(String str) {
+		long hash = Util.FNV_OFFSET_BASIS;
+		for (int i = 0; i < str.length(); i++) {
+			hash ^= str.charAt(i);
+			hash *= Util.FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the intermediate <code>.lst</code> file of
+	 * a resource file or directory.
+	 * @param project
+	 * @param variant
+	 * @param resourceFile
+	 * @return
+	 */
+	public static IPath getIntermediateLstFile(IProject project, IBuildVariant variant, File resourceFile) {
+		return getIntermediateDirectory(project, variant, resourceFile).append(INTERMEDIATE_LST_FILE);
+	}
+
 	private String[] getExtraSwitches() {
 		String[] extraResourceSwitches = PropertyUtil.getStrings(getBuildProperties(), MoSyncBuilder.EXTRA_RES_SWITCHES);
 		return extraResourceSwitches;
 	}
 
-	private String compileWithResComp(String[]resourceFiles, IProgressMonitor monitor, DependencyManager<IResource> dependencyManager, DependencyManager.Delta<IResource> dependencyDelta) throws CoreException, IOException {
+	/**
+	 * Runs rescomp on every resource file that needs it; each resource file
+	 * gets its own intermediate output, and pipe-tool will then merge them.
+	 * @return The intermediate resource files to pass on to pipe-tool
+	 */
+	private String[] compileWithResComp(String[] resourceFiles, Set<IResource> recompileThese, IProgressMonitor monitor) throws CoreException, IOException {
 		if (getExtraSwitches().length > 0) {
 			throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, "Extra resource switches are not allowed when using .lstx files or file tree based resources."));
 		}
 		IPath rescomp = MoSyncTool.getDefault().getBinary("rescomp");
-		IPath resourceOutput = MoSyncBuilder.getResourceOutputPath(project, getVariant());
-		IPath intermediateLstFile = resourceOutput.removeLastSegments(1).append("~tmpres.lst");
 		String platform = ProfileDBManager.getPlatform(getVariant().getProfile());
 		if (platform == null) {
 			throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, MessageFormat.format("No platform defined for {0}", getVariant())));
 		}
 
-		ArrayList<String> args = new ArrayList<String>();
-		args.add(rescomp.toOSString());
-		args.add("-L");
-		args.add(platform);
-		args.add(intermediateLstFile.removeLastSegments(1).toOSString());
-		for (String resourceFile : resourceFiles) {
-			args.add(resourceFile);
+		String[] result = new String[resourceFiles.length];
+		int compileCount = 0;
+		for (int i = 0; i < resourceFiles.length; i++) {
+			File resourceFile = new File(resourceFiles[i]);
+			IPath intermediateLstFile = getIntermediateLstFile(project, getVariant(), resourceFile);
+			result[i] = intermediateLstFile.toOSString();
+			if (!intermediateLstFile.toFile().exists() || needsRecompile(resourceFile, recompileThese)) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				File intermediateDir = intermediateLstFile.removeLastSegments(1).toFile();
+				intermediateDir.mkdirs();
+				String[] args = new String[] { rescomp.toOSString(), "-L", platform, intermediateDir.getAbsolutePath(), resourceFile.getAbsolutePath() };
+				CommandLineExecutor exe = new CommandLineExecutor(MoSyncBuilder.CONSOLE_ID);
+				if (exe.runCommandLine(args) != 0) {
+					// Make sure we try again next time
+					intermediateLstFile.toFile().delete();
+					throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, "Could not compile resources"));
+				}
+				compileCount++;
+			}
 		}
 
-		CommandLineExecutor exe = new CommandLineExecutor(MoSyncBuilder.CONSOLE_ID);
-		if (exe.runCommandLine(args.toArray(new String[0])) != 0) {
-			throw new CoreException(new Status(IStatus.ERROR, CoreMoSyncPlugin.PLUGIN_ID, "Could not compile resources"));
+		if (console != null) {
+			console.addMessage(MessageFormat.format("Compiled {0} of {1} resource file(s)", compileCount, resourceFiles.length));
 		}
+		return result;
+	}
 
-		return intermediateLstFile.toOSString();
+	private boolean needsRecompile(File resourceFile, Set<IResource> recompileThese) {
+		IPath location = new Path(resourceFile.getAbsolutePath());
+		for (IResource recompileThis : recompileThese) {
+			IPath recompileLocation = recompileThis.getLocation();
+			// For resource directories, anything below them counts
+			if (recompileLocation != null && location.isPrefixOf(recompileLocation)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	private void compileWithPipeTool(IProgressMonitor monitor, DependencyManager<IResource> dependencyManager, DependencyManager.Delta<IResource> dependencyDelta, String[] lstFiles) throws CoreException {
@@ -174,7 +276,13 @@ public class MoSyncResourceBuilderVisitor extends IncrementalBuilderVisitor {
 		for (IFile resourceFile : resourceFiles) {
 			dependencyDelta.addDependencies(resourceFile, dependencyProvider);
 		}
-		dependencyDelta.addDependencies(this.resourceFiles, dependencyProvider);
+		dependencyDelta.addDependencies(getResourceFileResources(), dependencyProvider);
+		File resDir = MoSyncBuilder.getResourcesDirectory(project);
+		if (resDir != null) {
+			for (IContainer resDirResource : ResourcesPlugin.getWorkspace().getRoot().findContainersForLocationURI(resDir.toURI())) {
+				dependencyDelta.addDependencies(resDirResource, dependencyProvider);
+			}
+		}
 	}
 
 	@Override
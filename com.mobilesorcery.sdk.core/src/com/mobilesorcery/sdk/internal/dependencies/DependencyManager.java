@@ -13,19 +13,34 @@
 */
 package com.mobilesorcery.sdk.internal.dependencies;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.eclipse.core.runtime.CoreException;
 
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 
+/**
+ * <p>A dependency graph.</p>
+ * <p>All objects are interned into integer ids, and the edges of the graph
+ * are kept as arrays of ids. Ids are released when an object has no edges
+ * left, and may then be reused; the sets returned by
+ * {@link #getDependenciesOf(Object)} and
+ * {@link #getReverseDependenciesOf(Object)} are therefore immutable
+ * snapshots of the objects, not of the ids.</p>
+ *
+ * @param <T>
+ */
 public class DependencyManager<T> {
 
 	/**
@@ -40,79 +55,243 @@ public class DependencyManager<T> {
 		}
 	}
 
+	/**
+	 * An immutable set of distinct objects, looked up by a linear
+	 * search until it is large enough to warrant a hash set.
+	 */
+	private static class ObjectSet<T> extends AbstractSet<T> {
+
+		private static final int MAX_LINEAR_SEARCH = 8;
+
+		private final Object[] elements;
+		private HashSet<Object> lookup;
+
+		ObjectSet(Object[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < elements.length;
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if (i >= elements.length) {
+						throw new NoSuchElementException();
+					}
+					return (T) elements[i++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object obj) {
+			if (elements.length <= MAX_LINEAR_SEARCH) {
+				for (Object element : elements) {
+					if (element.equals(obj)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			synchronized (this) {
+				if (lookup == null) {
+					lookup = new HashSet<Object>(Arrays.asList(elements));
+				}
+			}
+			return lookup.contains(obj);
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+	}
+
 	public static final int DEPTH_INFINITE = Integer.MAX_VALUE;
 
-	private HashMap<T, HashSet<T>> dependencyMap = new HashMap<T, HashSet<T>>();
+	private static final int[] NO_IDS = new int[0];
+
+	private final HashMap<T, Integer> idMap = new HashMap<T, Integer>();
+
+	private final ArrayList<T> objects = new ArrayList<T>();
+
+	private final BitSet freeIds = new BitSet();
+
+	// Indexed by id
+	private int[][] dependencies = new int[16][];
+	private int[] dependencyCounts = new int[16];
+	private int[][] reverseDependencies = new int[16][];
+	private int[] reverseDependencyCounts = new int[16];
+
+	private final BitSet dependees = new BitSet();
 
-	private HashMap<T, HashSet<T>> reverseDependencyMap = new HashMap<T, HashSet<T>>();
-	
-	private final Set<T> emptySet = Collections.unmodifiableSet(new HashSet<T>());
-	
 	public List<T> computeDependenciesOf(T obj) throws CoreException {
 		Set<T> result = getDependenciesOf(obj);
 		if (result == null) {
-			return null; 
+			return null;
 		}
-		
+
 		return new ArrayList<T>(result);
 	}
-	
+
+	/**
+	 * Returns all objects that have had dependencies added to them.
+	 * The returned set reflects any subsequent changes.
+	 * @return
+	 */
 	public Set<T> getAllDependees() {
-	    return dependencyMap.keySet();
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				return new Iterator<T>() {
+					private int next = dependees.nextSetBit(0);
+
+					@Override
+					public boolean hasNext() {
+						return next != -1;
+					}
+
+					@Override
+					public T next() {
+						if (next == -1) {
+							throw new NoSuchElementException();
+						}
+						T result = objects.get(next);
+						next = dependees.nextSetBit(next + 1);
+						return result;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object obj) {
+				Integer id = idMap.get(obj);
+				return id != null && dependees.get(id);
+			}
+
+			@Override
+			public int size() {
+				return dependees.cardinality();
+			}
+		};
 	}
-	
+
+	/**
+	 * Returns the direct dependencies of an object. The returned
+	 * set is an immutable snapshot.
+	 * @param obj
+	 * @return
+	 */
 	public Set<T> getDependenciesOf(T obj) {
-		Set<T> result = dependencyMap.get(obj);
-		result = result == null ? emptySet : result;
-		return new HashSet<T>(result);
+		Integer id = idMap.get(obj);
+		if (id == null || dependencies[id] == null) {
+			return toSet(NO_IDS, 0);
+		}
+		return toSet(dependencies[id], dependencyCounts[id]);
 	}
-	
+
 	public Set<T> getDependenciesOf(Collection<T> list) {
-		HashSet<T> result = new HashSet<T>();
+		BitSet members = new BitSet(objects.size());
+		int[] result = new int[16];
+		int size = 0;
 		for (T obj : list) {
-			HashSet<T> intermediateResult = dependencyMap.get(obj);
-			if (intermediateResult != null) {
-				result.addAll(intermediateResult);
+			Integer id = idMap.get(obj);
+			if (id != null && dependencies[id] != null) {
+				int[] ids = dependencies[id];
+				for (int i = 0; i < dependencyCounts[id]; i++) {
+					int dependency = ids[i];
+					if (!members.get(dependency)) {
+						members.set(dependency);
+						if (size == result.length) {
+							result = Arrays.copyOf(result, size * 2);
+						}
+						result[size++] = dependency;
+					}
+				}
 			}
 		}
-		
-		return result;		
+
+		return toSet(result, size);
 	}
-	
+
+	/**
+	 * Returns the direct reverse dependencies of an object. The returned
+	 * set is an immutable snapshot.
+	 * @param obj
+	 * @return
+	 */
 	public Set<T> getReverseDependenciesOf(T obj) {
-		HashSet<T> result = reverseDependencyMap.get(obj);
-		return result == null ? emptySet : result;
+		Integer id = idMap.get(obj);
+		if (id == null || reverseDependencies[id] == null) {
+			return toSet(NO_IDS, 0);
+		}
+		return toSet(reverseDependencies[id], reverseDependencyCounts[id]);
 	}
-	
+
 	public void addDependency(T from, T to) {
-	    if (from != null && to != null) {
-	        Set<T> dependencies = lazyInit(dependencyMap, from, new HashSet<T>());
-	        Set<T> reverseDependencies = lazyInit(reverseDependencyMap, to, new HashSet<T>());
-	        dependencies.add(to);
-	        reverseDependencies.add(from);
-	    }
-	}
-	
+		if (from != null && to != null) {
+			int fromId = intern(from);
+			int toId = intern(to);
+			dependees.set(fromId);
+			if (indexOf(dependencies[fromId], dependencyCounts[fromId], toId) == -1) {
+				dependencies[fromId] = append(dependencies[fromId], dependencyCounts[fromId]++, toId);
+				reverseDependencies[toId] = append(reverseDependencies[toId], reverseDependencyCounts[toId]++, fromId);
+			}
+		}
+	}
+
 	public void addDependencies(T from, Collection<T> toList) {
 		for (T to : toList) {
 			addDependency(from, to);
 		}
 	}
-	
+
 	public void removeDependency(T from, T to) {
-		Set<T> dependencies = lazyInit(dependencyMap, from, new HashSet<T>());
-		Set<T> reverseDependencies = lazyInit(reverseDependencyMap, to, new HashSet<T>());
-		
-		dependencies.remove(to);
-		reverseDependencies.remove(from);		
+		if (from == null || to == null) {
+			return;
+		}
+		int fromId = intern(from);
+		int toId = intern(to);
+		dependees.set(fromId);
+		removeEdge(fromId, toId);
+		releaseIfUnused(toId);
+	}
+
+	private void removeEdge(int fromId, int toId) {
+		int[] fromDependencies = dependencies[fromId];
+		int ix = indexOf(fromDependencies, dependencyCounts[fromId], toId);
+		if (ix != -1) {
+			dependencies[fromId] = remove(fromDependencies, dependencyCounts[fromId]--, ix);
+			int[] toReverseDependencies = reverseDependencies[toId];
+			int reverseIx = indexOf(toReverseDependencies, reverseDependencyCounts[toId], fromId);
+			reverseDependencies[toId] = remove(toReverseDependencies, reverseDependencyCounts[toId]--, reverseIx);
+		}
 	}
-	
+
 	public void clearDependencies(Collection<T> objs) {
 		for (T obj : objs) {
 			clearDependencies(obj);
 		}
 	}
-	
+
 	/**
 	 * Clears all dependencies for a given object.
 	 * If B depends on A, then clearDependencies(A)
@@ -123,13 +302,20 @@ public class DependencyManager<T> {
 	 * @param obj
 	 */
 	public void clearDependencies(T obj) {
-		Set<T> dependencies = new HashSet<T>(getDependenciesOf(obj));
-		
-		for (T dependency : dependencies) {
-			removeDependency(obj, dependency);
+		Integer id = idMap.get(obj);
+		if (id == null) {
+			return;
 		}
-		
-		dependencyMap.remove(obj);
+
+		int[] ids = dependencies[id];
+		for (int i = dependencyCounts[id] - 1; i >= 0; i--) {
+			removeEdge(id, ids[i]);
+			releaseIfUnused(ids[i]);
+		}
+
+		dependencies[id] = null;
+		dependees.clear(id);
+		releaseIfUnused(id);
 	}
 
 	public void setDependencies(T from, Collection<T> toList) {
@@ -139,14 +325,14 @@ public class DependencyManager<T> {
 
 	public void addDependencies(T from, IDependencyProvider<T> provider) throws CoreException {
 		Map<T, Collection<T>> dependencies = provider.computeDependenciesOf(from);
-       	
+
 		if (CoreMoSyncPlugin.getDefault().isDebugging()) {
-       		CoreMoSyncPlugin.trace("Setting dependencies of {0} to {1}", from, dependencies);
-       	}
-       	
+			CoreMoSyncPlugin.trace("Setting dependencies of {0} to {1}", from, dependencies);
+		}
+
 		for (T dependency : dependencies.keySet()) {
 			addDependencies(dependency, dependencies.get(dependency));
-		}	
+		}
 	}
 
 	public void addDependencies(Collection<T> fromList, IDependencyProvider<T> provider) throws CoreException {
@@ -155,41 +341,147 @@ public class DependencyManager<T> {
 		}
 	}
 
-	/*private void setDependencies(Collection<T> fromList, IDependencyProvider<T> provider) throws CoreException {
-		for (T from : fromList) {
-			setDependencies(from, provider);
+	private int intern(T obj) {
+		Integer id = idMap.get(obj);
+		if (id == null) {
+			id = freeIds.nextSetBit(0);
+			if (id != -1) {
+				freeIds.clear(id);
+				objects.set(id, obj);
+				idMap.put(obj, id);
+				return id;
+			}
+			id = objects.size();
+			objects.add(obj);
+			idMap.put(obj, id);
+			if (id == dependencies.length) {
+				int newLength = id * 2;
+				dependencies = Arrays.copyOf(dependencies, newLength);
+				dependencyCounts = Arrays.copyOf(dependencyCounts, newLength);
+				reverseDependencies = Arrays.copyOf(reverseDependencies, newLength);
+				reverseDependencyCounts = Arrays.copyOf(reverseDependencyCounts, newLength);
+			}
 		}
-	}*/
-	
-	private <K, V> V lazyInit(Map<K, V> map, K key, V valueIfNoKey) {
-		V value = map.get(key);
-		if (value == null) {
-			value = valueIfNoKey;
-			map.put(key, value);
+		return id;
+	}
+
+	/**
+	 * Releases the id of an object that has no edges left and
+	 * is not a dependee, so it can be reused.
+	 */
+	private void releaseIfUnused(int id) {
+		if (dependencyCounts[id] == 0 && reverseDependencyCounts[id] == 0 && !dependees.get(id)) {
+			idMap.remove(objects.get(id));
+			objects.set(id, null);
+			dependencies[id] = null;
+			reverseDependencies[id] = null;
+			freeIds.set(id);
 		}
-		
-		return value;
 	}
 
-	public Set<T> getReverseDependenciesOf(T obj, int depth) {
-		HashSet<T> result = new HashSet<T>();
-		innerGetReverseDependenciesOf(obj, depth, result, new HashSet<T>());
+	/**
+	 * Copies the objects of a set of ids.
+	 */
+	private Set<T> toSet(int[] ids, int size) {
+		Object[] elements = new Object[size];
+		for (int i = 0; i < size; i++) {
+			elements[i] = objects.get(ids[i]);
+		}
+		return new ObjectSet<T>(elements);
+	}
+
+	private static int indexOf(int[] ids, int size, int id) {
+		for (int i = 0; i < size; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends an id to an array; never changes any
+	 * element visible to a snapshot.
+	 */
+	private static int[] append(int[] ids, int size, int id) {
+		if (ids == null) {
+			ids = new int[4];
+		} else if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		ids[size] = id;
+		return ids;
+	}
+
+	/**
+	 * Returns a copy of an array with one element removed.
+	 */
+	private static int[] remove(int[] ids, int size, int ix) {
+		int[] result = new int[Math.max(size - 1, 4)];
+		System.arraycopy(ids, 0, result, 0, ix);
+		System.arraycopy(ids, ix + 1, result, ix, size - ix - 1);
 		return result;
 	}
-	
+
+	public Set<T> getReverseDependenciesOf(T obj, int depth) {
+		return getReverseDependenciesOf(Arrays.asList(obj), depth);
+	}
+
+	/**
+	 * Returns the reverse dependencies of a set of objects, up to
+	 * a given depth. The returned set is an immutable snapshot.
+	 * @param objs
+	 * @param depth
+	 * @return
+	 */
 	public Set<T> getReverseDependenciesOf(List<T> objs, int depth) {
-		HashSet<T> result = new HashSet<T>();
+		BitSet visited = new BitSet(objects.size());
+		int[] queue = new int[16];
+		int tail = 0;
 		for (T obj : objs) {
-			innerGetReverseDependenciesOf(obj, depth, result, new HashSet<T>());
+			Integer id = idMap.get(obj);
+			if (id != null) {
+				// Roots are not part of the result unless reached through an edge.
+				queue = append(queue, tail++, id);
+			}
 		}
-		return result;		
+
+		// The result is everything enqueued after the roots.
+		int roots = tail;
+		int[] result = new int[16];
+		int size = 0;
+		int head = 0;
+		int levelEnd = tail;
+		for (int level = 0; level < depth && head < tail; level++) {
+			for (; head < levelEnd; head++) {
+				int id = queue[head];
+				int[] ids = reverseDependencies[id];
+				for (int i = 0; i < reverseDependencyCounts[id]; i++) {
+					int reverseDependency = ids[i];
+					if (!visited.get(reverseDependency)) {
+						visited.set(reverseDependency);
+						result = append(result, size++, reverseDependency);
+						queue = append(queue, tail++, reverseDependency);
+					}
+				}
+			}
+			levelEnd = tail;
+		}
+
+		return toSet(result, roots == 0 ? 0 : size);
 	}
 
 	public void clear() {
-		dependencyMap.clear();
-		reverseDependencyMap.clear();
+		idMap.clear();
+		objects.clear();
+		freeIds.clear();
+		dependencies = new int[16][];
+		dependencyCounts = new int[16];
+		reverseDependencies = new int[16][];
+		reverseDependencyCounts = new int[16];
+		dependees.clear();
 	}
-	
+
 	/**
 	 * Create a new delta to be used as a working copy
 	 * by clients.
@@ -198,7 +490,7 @@ public class DependencyManager<T> {
 	public Delta<T> createDelta() {
 		return new Delta<T>();
 	}
-	
+
 	/**
 	 * <p>Applies all dependencies represented by <code>delta</code> to this manager.</p>
 	 * <p>If the delta has a defined dependency for an object, then those dependencies will
@@ -210,33 +502,18 @@ public class DependencyManager<T> {
 			setDependencies(dependee, delta.getDependenciesOf(dependee));
 		}
 	}
-	
-	private void innerGetReverseDependenciesOf(T obj, int depth, Set<T> result, Set<T> alreadyProcessed) {
-		if (depth <= 0) {
-			return;
-		}
-		
-		Set<T> reverseDependencies = new HashSet<T>(getReverseDependenciesOf(obj));
-		result.addAll(reverseDependencies);
-		
-		for (T reverseDependency : reverseDependencies) {
-			if (!alreadyProcessed.contains(reverseDependency)) {
-				alreadyProcessed.add(reverseDependency);
-				innerGetReverseDependenciesOf(reverseDependency, depth - 1, result, alreadyProcessed);				
-			}			
-		}
-	}
-	
+
+	@Override
 	public String toString() {
 		// For debugging.
 		StringBuffer result = new StringBuffer();
-		for (T dependency : dependencyMap.keySet()) {
+		for (T dependency : getAllDependees()) {
 			result.append(dependency);
 			result.append(" --> ");
 			result.append(getDependenciesOf(dependency));
 			result.append("\n");
 		}
-		
+
 		return result.toString();
 	}
 
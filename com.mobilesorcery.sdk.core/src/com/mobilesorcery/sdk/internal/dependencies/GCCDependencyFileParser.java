@@ -13,12 +13,13 @@
 */
 package com.mobilesorcery.sdk.internal.dependencies;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -32,25 +33,46 @@ import org.eclipse.core.runtime.Path;
 
 import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 
+/**
+ * <p>Parses the makefile fragments generated by GCC's <code>-MMD</code>
+ * switch.</p>
+ * <p>The file is tokenized as it is read, and paths are resolved to
+ * workspace resources through a location cache; clients that parse
+ * several files during a build should share one cache between parsers
+ * so every path is only resolved once.</p>
+ */
 public class GCCDependencyFileParser {
 
-	private static final int IN_DEPFILE = 0;
-	private static final int IN_DEP_LIST = 1;
+	private final Map<IResource, Collection<IResource>> dependencies = new HashMap<IResource, Collection<IResource>>();
 
-	private Map<IResource, Collection<IResource>> dependencies = new HashMap<IResource, Collection<IResource>>();
-	private IResource currentDependentFile;
-	private ArrayList<IResource> currentDependencies;
+	private final Map<String, IResource> locationCache;
 
 	private String projectRoot;
 
+	private final StringBuilder token = new StringBuilder();
+
+	// The last complete target token of the current rule
+	private String target;
+
+	private Collection<IResource> currentDependencies;
+
 	public GCCDependencyFileParser() {
+		this(new HashMap<String, IResource>());
+	}
 
+	/**
+	 * @param locationCache A cache from file system locations to
+	 * workspace resources (or <code>null</code> for locations
+	 * outside of the workspace).
+	 */
+	public GCCDependencyFileParser(Map<String, IResource> locationCache) {
+		this.locationCache = locationCache;
 	}
 
 	public void parse(File mmdFile) throws IOException {
 		FileInputStream mmdFileInputStream = new FileInputStream(mmdFile);
 		try {
-			IResource fileInWs = getFile(mmdFile.getAbsolutePath());
+			IResource fileInWs = resolve(mmdFile.getAbsolutePath());
 			String projectRoot = fileInWs == null ? "" : fileInWs.getProject().getLocation().toOSString();
 			parse(projectRoot, mmdFileInputStream);
 		} finally {
@@ -60,113 +82,138 @@ public class GCCDependencyFileParser {
 
 	public void parse(String projectRoot, InputStream input) throws IOException {
 		this.projectRoot = projectRoot;
-		
-		LineNumberReader lines = new LineNumberReader(new InputStreamReader(
-				input));
-		StringBuffer compoundLine = new StringBuffer();
-		for (String line = lines.readLine(); line != null; line = lines
-				.readLine()) {
-			int continuationIx = line.lastIndexOf('\\');
-			boolean endsWithSlash = line.trim().endsWith("\\");
-			if (continuationIx != -1 && endsWithSlash) {
-				compoundLine.append(line.substring(0, continuationIx));
-			} else {
-				compoundLine.append(line);
-				parseLine(compoundLine);
-				compoundLine = new StringBuffer();
-			}
-		}
+		parse(new BufferedReader(new InputStreamReader(input)));
 
-		// Just in case; should never happen, though.
-		if (compoundLine.length() > 0) {
-			parseLine(compoundLine);
+		if (CoreMoSyncPlugin.getDefault().isDebugging()) {
+			CoreMoSyncPlugin.trace("GCC dependency parsing:\n{0}", dependencies);
 		}
 	}
 
-	private void parseLine(StringBuffer line) {
-		char[] lineAr = new char[line.length()];
-		line.getChars(0, line.length(), lineAr, 0);
-		StringBuffer depFile = new StringBuffer();
-		int pos = -1;
-		int state = IN_DEPFILE;
-		while (pos < lineAr.length - 1) {
-			pos++;
-			boolean doAppend = true;
-			char ch = lineAr[pos];
-			char peek = pos == lineAr.length - 1 ? '\0' : lineAr[pos + 1];
-			char prev = pos == 0 ? '\0' : lineAr[pos - 1];
-
-			boolean potentialEscapeState = ch == '\\';
-			boolean isInEscapeState = prev == '\\' && ch == ' ';
-
-			switch (state) {
-			case IN_DEPFILE:
-				if (ch == ':') {
-					// Is this the full name? A colon followed by a space, or
-					// an existing file -> full name!
-					if (peek == ' ' || new File(depFile.toString()).exists()) {
-						currentDependentFile = getFile(depFile);
-						if (currentDependentFile != null) {
-							currentDependencies = new ArrayList<IResource>();
-							dependencies.put(currentDependentFile,
-									currentDependencies);
-						}
-						depFile.delete(0, depFile.length());
-						doAppend = false;
-						state = IN_DEP_LIST;
-					}
+	private void parse(Reader reader) throws IOException {
+		boolean inDependencyList = false;
+		int ch = reader.read();
+		while (ch != -1) {
+			int next;
+			switch (ch) {
+			case '\\':
+				next = reader.read();
+				if (next == '\r' || next == '\n') {
+					// Line continuation
+					endToken(inDependencyList);
+					ch = next == '\r' ? skipNewline(reader) : reader.read();
+				} else if (next == ' ' || next == '#') {
+					token.append((char) next);
+					ch = reader.read();
 				} else {
-					doAppend = !potentialEscapeState || peek != ' ';
+					// A path separator, at least on Windows
+					token.append('\\');
+					ch = next;
 				}
+				continue;
+
+			case '$':
+				next = reader.read();
+				token.append('$');
+				// $$ is make's escape for $
+				ch = next == '$' ? reader.read() : next;
+				continue;
+
+			case ':':
+				next = reader.read();
+				// A colon that is not followed by whitespace is
+				// part of a path, such as in C:\Windows
+				if (!inDependencyList && (next == -1 || Character.isWhitespace(next))) {
+					endToken(false);
+					startRule();
+					inDependencyList = true;
+				} else {
+					token.append(':');
+				}
+				ch = next;
+				continue;
+
+			case '\r':
+			case '\n':
+				endToken(inDependencyList);
+				endRule();
+				inDependencyList = false;
+				break;
 
+			case ' ':
+			case '\t':
+				endToken(inDependencyList);
 				break;
 
-			case IN_DEP_LIST:
-				doAppend = !potentialEscapeState || peek != ' ';
-				
-				if (!isInEscapeState && ch == ' ' && currentDependencies != null) {
-					addCurrentFileToDependencies(depFile);
-					doAppend = false;
-				}
+			default:
+				token.append((char) ch);
 			}
-			
-			boolean unappendableCh = ch == '\t';
-			
-			if (doAppend && !unappendableCh) {
-				depFile.append(ch);
-			}
-		}
-		
-		addCurrentFileToDependencies(depFile);
-		
-		if (CoreMoSyncPlugin.getDefault().isDebugging()) {
-			CoreMoSyncPlugin.trace("GCC dependency parsing:\n{0}", dependencies);
+			ch = reader.read();
 		}
-		currentDependentFile = null;
-		currentDependencies = null;
+
+		endToken(inDependencyList);
+		endRule();
+	}
+
+	private int skipNewline(Reader reader) throws IOException {
+		int ch = reader.read();
+		return ch == '\n' ? reader.read() : ch;
 	}
 
-	private void addCurrentFileToDependencies(StringBuffer depFile) {
-		if (currentDependencies != null && depFile != null && depFile.length() > 0) {
-			IResource file = getFile(depFile);
+	private void endToken(boolean inDependencyList) {
+		if (token.length() == 0) {
+			return;
+		}
+		String path = token.toString();
+		token.setLength(0);
+		if (!inDependencyList) {
+			target = path;
+		} else if (currentDependencies != null) {
+			IResource file = resolvePath(path);
 			if (file != null) {
 				currentDependencies.add(file);
 			}
-			depFile.delete(0, depFile.length());
 		}
 	}
 
-	public IResource getFile(StringBuffer filename) {
-		String filenameStr = filename.toString();
-		String absFilenameStr = new File(projectRoot, filenameStr).getAbsolutePath(); 
+	private void startRule() {
+		IResource dependentFile = target == null ? null : resolvePath(target);
+		if (dependentFile != null) {
+			currentDependencies = new ArrayList<IResource>();
+			dependencies.put(dependentFile, currentDependencies);
+		}
+	}
 
-		IResource result = getFile(filenameStr);
-		return result == null ? getFile(absFilenameStr) : result;
+	private void endRule() {
+		target = null;
+		currentDependencies = null;
 	}
-	
+
+	/**
+	 * Returns the workspace resource of a path of a dependency file;
+	 * relative paths are relative to the project root.
+	 * @param filename
+	 * @return
+	 */
+	private IResource resolvePath(String filename) {
+		IResource result = resolve(filename);
+		if (result == null && !new Path(filename).isAbsolute()) {
+			result = resolve(new File(projectRoot, filename).getAbsolutePath());
+		}
+		return result;
+	}
+
+	private IResource resolve(String location) {
+		if (locationCache.containsKey(location)) {
+			return locationCache.get(location);
+		}
+		IResource result = getFile(location);
+		locationCache.put(location, result);
+		return result;
+	}
+
 	public static IResource getFile(String filename) {
         IWorkspace ws = ResourcesPlugin.getWorkspace();
-        IFile[] files = ws.getRoot().findFilesForLocation(new Path(filename.toString().trim()));
+        IFile[] files = ws.getRoot().findFilesForLocation(new Path(filename.trim()));
         if (files != null && files.length > 0) {
         	return files[0];
         }
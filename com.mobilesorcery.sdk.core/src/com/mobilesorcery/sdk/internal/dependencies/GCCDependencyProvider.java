@@ -46,6 +46,9 @@ public class GCCDependencyProvider implements IDependencyProvider<IResource> {
 	private static final Map<IResource, Collection<IResource>> EMPTY = new HashMap<IResource, Collection<IResource>>();
 	private MoSyncProject project;
 	private IBuildVariant variant;
+
+	// Dependency providers live for one build, and so does this cache
+	private final HashMap<String, IResource> locationCache = new HashMap<String, IResource>();
 	
 	/**
 	 * 
@@ -69,7 +72,7 @@ public class GCCDependencyProvider implements IDependencyProvider<IResource> {
 		}
 		
 		try {
-			GCCDependencyFileParser parser = new GCCDependencyFileParser();
+			GCCDependencyFileParser parser = new GCCDependencyFileParser(locationCache);
 			File depsFile = getMMDFile(output);
 			if (depsFile != null && depsFile.exists()) {
 				parser.parse(depsFile);
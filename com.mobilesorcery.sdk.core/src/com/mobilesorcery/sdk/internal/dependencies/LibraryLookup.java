@@ -14,7 +14,10 @@
 package com.mobilesorcery.sdk.internal.dependencies;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 import org.eclipse.core.runtime.IPath;
 
@@ -26,6 +29,9 @@ import org.eclipse.core.runtime.IPath;
  * implement this as a dependency provider.)</p>
  * <p>The current implementation do only care about <i>newer</i> libraries,
  * so the use case is 'build lib then build project'.</p>
+ * <p>Libraries are resolved once and kept in an index; the index is only
+ * rebuilt if one of the directories a library may be resolved into has
+ * changed (ie a file was added to or removed from it).</p>
  * @author Mattias Bybro
  *
  */
@@ -33,57 +39,129 @@ public class LibraryLookup {
 
 	public static final int NO_LIBRARY_LOCATIONS = -1;
 	
+	/**
+	 * The resolved locations of the libraries and their timestamps,
+	 * along with the timestamps of the directories the libraries may
+	 * be resolved into (eg <code>sub</code> for <code>sub/x.lib</code>)
+	 * at the time of resolution.
+	 */
+	private static class Index {
+		private final File[] directories;
+		private final long[] directoryTimestamps;
+		private final IPath[] libraries;
+		private final File[] locations;
+		private final long[] timestamps;
+
+		Index(IPath[] libraryPaths, IPath[] libraries) {
+			LinkedHashSet<File> candidateDirectories = new LinkedHashSet<File>();
+			for (int i = 0; i < libraries.length; i++) {
+				for (int j = 0; j < libraryPaths.length; j++) {
+					candidateDirectories.add(new File(libraryPaths[j].toFile(), libraries[i].toOSString()).getParentFile());
+				}
+			}
+			directories = candidateDirectories.toArray(new File[0]);
+			directoryTimestamps = new long[directories.length];
+			for (int j = 0; j < directories.length; j++) {
+				directoryTimestamps[j] = directories[j].lastModified();
+			}
+
+			ArrayList<IPath> resolvedLibraries = new ArrayList<IPath>();
+			ArrayList<File> resolvedLocations = new ArrayList<File>();
+			HashSet<IPath> added = new HashSet<IPath>();
+			for (int i = 0; i < libraries.length; i++) {
+				for (int j = 0; !added.contains(libraries[i]) && j < libraryPaths.length; j++) {
+					File file = new File(libraryPaths[j].toFile(), libraries[i].toOSString());
+					if (file.exists()) {
+						resolvedLibraries.add(libraries[i]);
+						resolvedLocations.add(file);
+						added.add(libraries[i]);
+					}
+				}
+			}
+			this.libraries = resolvedLibraries.toArray(new IPath[0]);
+			this.locations = resolvedLocations.toArray(new File[0]);
+			timestamps = new long[locations.length];
+			update();
+		}
+
+		boolean isValid() {
+			for (int j = 0; j < directories.length; j++) {
+				if (directoryTimestamps[j] != directories[j].lastModified()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void update() {
+			for (int i = 0; i < locations.length; i++) {
+				timestamps[i] = locations[i].lastModified();
+			}
+		}
+	}
+
 	private IPath[] libraryPaths;
 	private IPath[] libraries;
 
+	private Index index;
+
 	public LibraryLookup(IPath[] libraryPaths, IPath[] libraries) {
 		setLibraries(libraries);
 		setLibraryPaths(libraryPaths);
 	}
 	
-	void setLibraryPaths(IPath[] libraryPaths) {
+	synchronized void setLibraryPaths(IPath[] libraryPaths) {
 		this.libraryPaths = libraryPaths;
+		this.index = null;
 	}
 	
-	void setLibraries(IPath[] libraries) {
+	synchronized void setLibraries(IPath[] libraries) {
 		this.libraries = libraries;
+		this.index = null;
 	}
-	
-	public File[] resolveLibraryLocations() {
+
+	/**
+	 * Returns <code>true</code> if this lookup was created
+	 * for the given library paths and libraries.
+	 * @param libraryPaths
+	 * @param libraries
+	 * @return
+	 */
+	public synchronized boolean isLookupFor(IPath[] libraryPaths, IPath[] libraries) {
+		return Arrays.equals(this.libraryPaths, libraryPaths) && Arrays.equals(this.libraries, libraries);
+	}
+
+	private Index getIndex() {
 		if (libraries == null || libraries.length == 0 || libraryPaths == null || libraryPaths.length == 0) {
-			return new File[0];
+			return null;
 		}
-		
-		HashMap<IPath, File> locations = new HashMap<IPath, File>();
-		
-		// To be safe, we need to actually traverse
-		// all paths every time...
-		for (int i = 0; i < libraries.length; i++) {
-			for (int j = 0; j < libraryPaths.length; j++) {
-				File file = new File(libraryPaths[j].toFile(), libraries[i].toOSString());
-				if (file.exists()) {
-					locations.put(libraries[i], file);
-					break;
-				}
-			}
+
+		if (index == null || !index.isValid()) {
+			index = new Index(libraryPaths, libraries);
 		}
-		
-		return locations.values().toArray(new File[0]);
+		return index;
 	}
-	
+
+	public synchronized File[] resolveLibraryLocations() {
+		Index index = getIndex();
+		return index == null ? new File[0] : index.locations.clone();
+	}
+
 	/**
 	 * Returns the last time one of the resolved libraries
 	 * were touched.
 	 * @return If there are no resolved libraries, <code>NO_LIBRARY_LOCATIONS</code>
 	 * is returned.
 	 */
-	public long getLastTouched() {
-		File[] libraryLocations = resolveLibraryLocations();
+	public synchronized long getLastTouched() {
+		Index index = getIndex();
 		long lastTouched = NO_LIBRARY_LOCATIONS;
-		for (int i = 0; i < libraryLocations.length; i++) {
-			long libraryModified = libraryLocations[i].lastModified();
-			if (libraryModified > lastTouched) {
-				lastTouched = libraryModified;
+		if (index != null) {
+			index.update();
+			for (int i = 0; i < index.timestamps.length; i++) {
+				if (index.timestamps[i] > lastTouched) {
+					lastTouched = index.timestamps[i];
+				}
 			}
 		}
 		
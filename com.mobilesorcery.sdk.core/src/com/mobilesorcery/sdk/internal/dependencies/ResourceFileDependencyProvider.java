@@ -13,18 +13,20 @@
 */
 package com.mobilesorcery.sdk.internal.dependencies;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IContainer;
-import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
@@ -35,18 +37,29 @@ import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.IBuildVariant;
 import com.mobilesorcery.sdk.core.MoSyncBuilder;
 import com.mobilesorcery.sdk.core.MoSyncProject;
+import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.internal.PipeTool;
 import com.mobilesorcery.sdk.internal.builder.MoSyncResourceBuilderVisitor;
 
 public class ResourceFileDependencyProvider implements
 		IDependencyProvider<IResource> {
 
-	private static final Map<IResource, Collection<IResource>> EMPTY = new HashMap<IResource, Collection<IResource>>();
-
 	private final MoSyncProject project;
 
 	private final IBuildVariant variant;
 
+	private static final Pattern QUOTED_PATH = Pattern.compile("\"([^\"\\r\\n]+)\"|'([^'\\r\\n]+)'");
+
+	/**
+	 * The resource directives that take a file argument.
+	 */
+	private static final String[] FILE_DIRECTIVES = new String[] { ".include", ".image", ".media", ".umedia" };
+
+	// Dependency providers live for one build, and so do these caches
+	private final HashMap<String, IResource> locationCache = new HashMap<String, IResource>();
+
+	private Map<IResource, Collection<IResource>> pipeToolDependencies;
+
 	public ResourceFileDependencyProvider(MoSyncProject project, IBuildVariant variant) {
 		this.project = project;
 		this.variant = variant;
@@ -54,31 +67,167 @@ public class ResourceFileDependencyProvider implements
 
 	@Override
 	public Map<IResource, Collection<IResource>> computeDependenciesOf(IResource obj) throws CoreException {
-		// TODO: Use centralized:
+		// Every resource file depends on the assets it references,
+		// so an asset change only triggers recompilation of its own
+		// resource file. The final pipe-tool output depends on all
+		// files pipe-tool reported in its -depend file.
 		IPath resourceOutputPath = MoSyncBuilder.getResourceOutputPath(project.getWrappedProject(), variant);
-		IFile[] resourceOutputFiles = ResourcesPlugin.getWorkspace().getRoot().findFilesForLocationURI(resourceOutputPath.toFile().toURI());
-
-		// We use a mini-hack to get the desired results;
-		// first, we let every .lst file depend on the project's
-		// resource file. The dependencies generated by pipetool
-		// is an aggregate of all resources in the project's .lst files.
 		HashMap<IResource, Collection<IResource>> result = new HashMap<IResource, Collection<IResource>>();
-		for (IFile resourceOutputFile : resourceOutputFiles) {
-			if (MoSyncBuilder.isResourceFile(obj)) {
-				result.put(obj, new ArrayList(Arrays.asList(resourceOutputFile)));
-			} else if (obj.equals(resourceOutputFile)) {
-				try {
-					GCCDependencyFileParser parser = new GCCDependencyFileParser();
-					IPath depsFile = PipeTool.getResourcesDependencyFile(project.getWrappedProject(), variant);
-					parser.parse(depsFile.toFile());
-					result.putAll(parser.getDependencies());
-				} catch (IOException e) {
-					throw new CoreException(new Status(IStatus.ERROR,
-							CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+		if (MoSyncBuilder.isResourceFile(obj) || isResourcesDirectory(obj)) {
+			result.put(obj, computeResourceFileDependencies(obj));
+		} else if (resourceOutputPath.equals(obj.getLocation())) {
+			result.putAll(getPipeToolDependencies());
+		}
+		return result;
+	}
+
+	private boolean isResourcesDirectory(IResource obj) {
+		File resDir = MoSyncBuilder.getResourcesDirectory(project.getWrappedProject());
+		return obj.getType() == IResource.FOLDER && resDir != null && resDir.equals(obj.getLocation().toFile());
+	}
+
+	private Collection<IResource> computeResourceFileDependencies(IResource obj) throws CoreException {
+		final LinkedHashSet<IResource> result = new LinkedHashSet<IResource>();
+		File resourceFile = obj.getLocation().toFile();
+		IPath intermediateDir = MoSyncResourceBuilderVisitor.getIntermediateDirectory(project.getWrappedProject(), variant, resourceFile);
+
+		if (obj.getType() == IResource.FILE) {
+			if ("lst".equalsIgnoreCase(obj.getFileExtension())) {
+				// Plain .lst files are merged by pipe-tool in a single
+				// pass anyway, so they depend on everything it read.
+				addReferencedFiles(resourceFile, result);
+				addAllPipeToolDependencies(result);
+				result.remove(obj);
+				return result;
+			}
+			addReferencedFiles(resourceFile, result);
+		} else {
+			// File tree based resources
+			obj.accept(new IResourceVisitor() {
+				@Override
+				public boolean visit(IResource resource) throws CoreException {
+					if (resource.getType() == IResource.FILE) {
+						result.add(resource);
+					}
+					return true;
+				}
+			});
+		}
+
+		// And then what rescomp made of it
+		boolean resolved = addReferencedFiles(MoSyncResourceBuilderVisitor.getIntermediateLstFile(project.getWrappedProject(), variant, resourceFile).toFile(), result);
+		for (Collection<IResource> dependencies : getPipeToolDependencies().values()) {
+			for (IResource dependency : dependencies) {
+				IPath location = dependency.getLocation();
+				if (location != null && intermediateDir.isPrefixOf(location)) {
+					result.add(dependency);
+				}
+			}
+		}
+
+		if (!resolved) {
+			// We cannot tell which assets are ours, so
+			// fall back to depending on all of them.
+			addAllPipeToolDependencies(result);
+		}
+
+		result.remove(obj);
+		return result;
+	}
+
+	private void addAllPipeToolDependencies(Collection<IResource> result) throws CoreException {
+		for (Collection<IResource> dependencies : getPipeToolDependencies().values()) {
+			result.addAll(dependencies);
+		}
+	}
+
+	/**
+	 * Adds all existing files referenced by a quoted path in a resource
+	 * file; relative paths are relative to the resource file or, failing
+	 * that, to the project.
+	 * @return <code>false</code> if the file does not exist or if
+	 * it has a file directive whose file could not be found
+	 */
+	private boolean addReferencedFiles(File resourceFile, Collection<IResource> result) throws CoreException {
+		if (!resourceFile.isFile()) {
+			return false;
+		}
+		String contents;
+		try {
+			contents = Util.readFile(resourceFile.getAbsolutePath());
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR,
+					CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+		}
+		IPath parent = new Path(resourceFile.getParentFile().getAbsolutePath());
+		boolean resolved = true;
+		for (String line : contents.split("\r?\n")) {
+			boolean found = false;
+			Matcher matcher = QUOTED_PATH.matcher(line);
+			while (matcher.find()) {
+				String path = matcher.group(1) == null ? matcher.group(2) : matcher.group(1);
+				IResource referenced = resolve(parent, new Path(path));
+				if (referenced != null) {
+					result.add(referenced);
+					found = true;
 				}
 			}
+			if (!found && isFileDirective(line)) {
+				resolved = false;
+			}
+		}
+		return resolved;
+	}
+
+	private static boolean isFileDirective(String line) {
+		String trimmed = line.trim();
+		for (String directive : FILE_DIRECTIVES) {
+			if (trimmed.startsWith(directive) && (trimmed.length() == directive.length() || !Character.isLetter(trimmed.charAt(directive.length())))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private IResource resolve(IPath parent, IPath path) {
+		if (path.isAbsolute()) {
+			return getExistingFile(path);
+		}
+		IResource result = getExistingFile(parent.append(path));
+		if (result == null) {
+			result = getExistingFile(project.getWrappedProject().getLocation().append(path));
 		}
 		return result;
 	}
 
+	private IResource getExistingFile(IPath path) {
+		IResource result = getFile(path.toOSString());
+		return result != null && result.exists() ? result : null;
+	}
+
+	private IResource getFile(String location) {
+		if (!locationCache.containsKey(location)) {
+			locationCache.put(location, GCCDependencyFileParser.getFile(location));
+		}
+		return locationCache.get(location);
+	}
+
+	private Map<IResource, Collection<IResource>> getPipeToolDependencies() throws CoreException {
+		if (pipeToolDependencies == null) {
+			IPath depsFile = PipeTool.getResourcesDependencyFile(project.getWrappedProject(), variant);
+			if (!depsFile.toFile().exists()) {
+				return Collections.emptyMap();
+			}
+			try {
+				GCCDependencyFileParser parser = new GCCDependencyFileParser(locationCache);
+				parser.parse(depsFile.toFile());
+				pipeToolDependencies = parser.getDependencies();
+			} catch (IOException e) {
+				throw new CoreException(new Status(IStatus.ERROR,
+						CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+			}
+		}
+		return pipeToolDependencies;
+	}
+
 }
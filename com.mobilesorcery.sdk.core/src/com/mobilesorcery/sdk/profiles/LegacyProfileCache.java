@@ -0,0 +1,212 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.profiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mobilesorcery.sdk.core.Util;
+
+/**
+ * <p>An on-disk cache of parsed legacy profiles.</p>
+ * <p>The profile list of a vendor is considered valid as long as
+ * the timestamp of the vendor directory is unchanged, and
+ * the contents of a profile as long as the timestamps of its
+ * <code>maprofile.h</code> and <code>runtime.txt</code> files
+ * are unchanged.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+class LegacyProfileCache {
+
+	static class VendorEntry {
+		final long lastModified;
+		final List<ProfileEntry> profiles;
+
+		VendorEntry(long lastModified, List<ProfileEntry> profiles) {
+			this.lastModified = lastModified;
+			this.profiles = profiles;
+		}
+	}
+
+	static class ProfileEntry {
+		final String name;
+		final long infoLastModified;
+		final long runtimeLastModified;
+		final String runtime;
+		final Map<String, Object> properties;
+
+		ProfileEntry(String name, long infoLastModified, long runtimeLastModified, String runtime, Map<String, Object> properties) {
+			this.name = name;
+			this.infoLastModified = infoLastModified;
+			this.runtimeLastModified = runtimeLastModified;
+			this.runtime = runtime;
+			this.properties = properties;
+		}
+	}
+
+	private static final int MAGIC = 0x4c504331;
+
+	private static final int VERSION = 1;
+
+	private static final byte STRING_VALUE = 0;
+
+	private static final byte BOOLEAN_VALUE = 1;
+
+	private static final byte LONG_VALUE = 2;
+
+	private final HashMap<String, VendorEntry> vendors = new LinkedHashMap<String, VendorEntry>();
+
+	private boolean dirty = false;
+
+	synchronized VendorEntry get(String vendor) {
+		return vendors.get(vendor);
+	}
+
+	synchronized void put(String vendor, VendorEntry entry) {
+		vendors.put(vendor, entry);
+		dirty = true;
+	}
+
+	/**
+	 * Removes all vendors except the given ones.
+	 * @param vendorNames
+	 */
+	synchronized void retain(List<String> vendorNames) {
+		dirty |= vendors.keySet().retainAll(vendorNames);
+	}
+
+	synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Reads a cache, for a specific vendor directory.
+	 * @param file
+	 * @param vendorsDir
+	 * @return An empty cache if there was no cache for this
+	 * vendor directory and version
+	 * @throws IOException
+	 */
+	static LegacyProfileCache read(File file, File vendorsDir) throws IOException {
+		LegacyProfileCache cache = new LegacyProfileCache();
+		if (file == null || !file.exists()) {
+			return cache;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION ||
+				!vendorsDir.getAbsolutePath().equals(input.readUTF())) {
+				return cache;
+			}
+			int vendorCount = input.readInt();
+			for (int i = 0; i < vendorCount; i++) {
+				String vendor = input.readUTF();
+				long lastModified = input.readLong();
+				int profileCount = input.readInt();
+				ArrayList<ProfileEntry> profiles = new ArrayList<ProfileEntry>(profileCount);
+				for (int j = 0; j < profileCount; j++) {
+					String name = input.readUTF();
+					long infoLastModified = input.readLong();
+					long runtimeLastModified = input.readLong();
+					String runtime = input.readBoolean() ? input.readUTF() : null;
+					int propertyCount = input.readInt();
+					HashMap<String, Object> properties = new HashMap<String, Object>();
+					for (int k = 0; k < propertyCount; k++) {
+						properties.put(input.readUTF(), readValue(input));
+					}
+					profiles.add(new ProfileEntry(name, infoLastModified, runtimeLastModified, runtime, properties));
+				}
+				cache.vendors.put(vendor, new VendorEntry(lastModified, profiles));
+			}
+		} finally {
+			Util.safeClose(input);
+		}
+		return cache;
+	}
+
+	synchronized void write(File file, File vendorsDir) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(vendorsDir.getAbsolutePath());
+			output.writeInt(vendors.size());
+			for (Map.Entry<String, VendorEntry> vendor : vendors.entrySet()) {
+				output.writeUTF(vendor.getKey());
+				output.writeLong(vendor.getValue().lastModified);
+				output.writeInt(vendor.getValue().profiles.size());
+				for (ProfileEntry profile : vendor.getValue().profiles) {
+					output.writeUTF(profile.name);
+					output.writeLong(profile.infoLastModified);
+					output.writeLong(profile.runtimeLastModified);
+					output.writeBoolean(profile.runtime != null);
+					if (profile.runtime != null) {
+						output.writeUTF(profile.runtime);
+					}
+					output.writeInt(profile.properties.size());
+					for (Map.Entry<String, Object> property : profile.properties.entrySet()) {
+						output.writeUTF(property.getKey());
+						writeValue(output, property.getValue());
+					}
+				}
+			}
+		} finally {
+			Util.safeClose(output);
+		}
+		file.delete();
+		if (!tmpFile.renameTo(file)) {
+			tmpFile.delete();
+			throw new IOException("Could not write " + file);
+		}
+		dirty = false;
+	}
+
+	private static void writeValue(DataOutputStream output, Object value) throws IOException {
+		if (value instanceof Boolean) {
+			output.writeByte(BOOLEAN_VALUE);
+			output.writeBoolean((Boolean) value);
+		} else if (value instanceof Long) {
+			output.writeByte(LONG_VALUE);
+			output.writeLong((Long) value);
+		} else {
+			output.writeByte(STRING_VALUE);
+			output.writeUTF(String.valueOf(value));
+		}
+	}
+
+	private static Object readValue(DataInputStream input) throws IOException {
+		byte type = input.readByte();
+		if (type == BOOLEAN_VALUE) {
+			return input.readBoolean();
+		} else if (type == LONG_VALUE) {
+			return input.readLong();
+		}
+		return input.readUTF();
+	}
+}
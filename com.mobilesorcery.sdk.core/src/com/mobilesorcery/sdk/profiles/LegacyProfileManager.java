@@ -4,36 +4,186 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.jface.resource.ImageDescriptor;
 
+import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.ProfileManager;
 import com.mobilesorcery.sdk.core.MoSyncTool;
 
+/**
+ * <p>The profile manager for the legacy, directory based, device database.</p>
+ * <p>Initialization only lists the vendors; the profiles of each
+ * vendor are parsed concurrently in the background, and a vendor that
+ * is accessed before its profiles have been parsed will parse them
+ * on the calling thread. Parsed profiles are cached on disk
+ * (see {@link LegacyProfileCache}).</p>
+ */
 public class LegacyProfileManager extends ProfileManager {
 
+	private static final int MAX_PARSER_THREADS = 4;
+
+	/**
+	 * A vendor that parses its profiles on first access.
+	 */
+	private class LegacyVendor extends Vendor {
+
+		private final File vendorDir;
+
+		private final FutureTask<List<IProfile>> loader;
+
+		LegacyVendor(File vendorDir) {
+			super(vendorDir.getName(), getIconForVendor(vendorDir));
+			this.vendorDir = vendorDir;
+			this.loader = new FutureTask<List<IProfile>>(new Callable<List<IProfile>>() {
+				@Override
+				public List<IProfile> call() {
+					try {
+						return loadVendor(LegacyVendor.this);
+					} finally {
+						vendorLoaded();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Returns the profiles of this vendor, in directory order.
+		 * @return
+		 */
+		List<IProfile> load() {
+			// A no-op if the parser threads already did this
+			loader.run();
+			try {
+				return loader.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ArrayList<IProfile>();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		@Override
+		public IProfile[] getProfiles() {
+			load();
+			return super.getProfiles();
+		}
+
+		@Override
+		public IProfile getProfile(String name) {
+			load();
+			return super.getProfile(name);
+		}
+	}
+
+	private final File vendorsDir;
+
+	private final File cacheFile;
+
 	private final TreeMap<String, Vendor> vendors = new TreeMap<String, Vendor>(
 			String.CASE_INSENSITIVE_ORDER);
 
-	private final HashMap<String, List<IProfile>> profilesForRuntime = new HashMap<String, List<IProfile>>();
+	private final ArrayList<LegacyVendor> vendorsInDirectoryOrder = new ArrayList<LegacyVendor>();
+
+	private HashMap<String, List<IProfile>> profilesForRuntime;
+
+	private LegacyProfileCache cache;
+
+	private final AtomicInteger vendorsToLoad = new AtomicInteger();
+
+	private final AtomicInteger parsedCount = new AtomicInteger();
+
+	public LegacyProfileManager() {
+		this(MoSyncTool.getDefault().getVendorsPath().toFile(),
+			CoreMoSyncPlugin.getDefault().getStateLocation().append("legacyprofiles.cache").toFile());
+	}
+
+	/**
+	 * Creates a legacy profile manager.
+	 * @param vendorsDir The directory containing one directory per vendor
+	 * @param cacheFile The file to cache parsed profiles in, or
+	 * <code>null</code> to always parse all profiles
+	 */
+	public LegacyProfileManager(File vendorsDir, File cacheFile) {
+		this.vendorsDir = vendorsDir;
+		this.cacheFile = cacheFile;
+	}
 
 	@Override
-	public void init() {
-		IPath vendorsPath = MoSyncTool.getDefault().getVendorsPath();
+	public synchronized void init() {
+		try {
+			cache = LegacyProfileCache.read(cacheFile, vendorsDir);
+		} catch (IOException e) {
+			// Just reparse everything.
+			cache = new LegacyProfileCache();
+		}
 
-		File[] directories = vendorsPath.toFile().listFiles();
+		File[] directories = vendorsDir.listFiles();
+		if (directories == null) {
+			directories = new File[0];
+		}
+		ArrayList<String> vendorNames = new ArrayList<String>();
 		for (int i = 0; i < directories.length; i++) {
 			if (directories[i].isDirectory()) {
-				Vendor vendor = initVendor(directories[i]);
+				LegacyVendor vendor = new LegacyVendor(directories[i]);
 				this.vendors.put(vendor.getName(), vendor);
+				vendorsInDirectoryOrder.add(vendor);
+				vendorNames.add(vendor.getName());
+			}
+		}
+		cache.retain(vendorNames);
+
+		invalidateIndex();
+
+		vendorsToLoad.set(vendorsInDirectoryOrder.size());
+		ExecutorService parsers = Executors.newFixedThreadPool(MAX_PARSER_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Profile parser");
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+		for (LegacyVendor vendor : vendorsInDirectoryOrder) {
+			parsers.execute(vendor.loader);
 		}
+		// Lets the threads die once all vendors are parsed
+		parsers.shutdown();
+	}
+
+	/**
+	 * Waits for all profiles to be parsed.
+	 */
+	public void awaitProfiles() {
+		for (LegacyVendor vendor : getVendorsInDirectoryOrder()) {
+			vendor.load();
+		}
+	}
+
+	/**
+	 * Returns the number of profiles that were parsed rather than
+	 * read from the cache so far.
+	 * @return
+	 */
+	int getParsedCount() {
+		return parsedCount.get();
+	}
+
+	private synchronized List<LegacyVendor> getVendorsInDirectoryOrder() {
+		return new ArrayList<LegacyVendor>(vendorsInDirectoryOrder);
 	}
 
 	static ImageDescriptor getIconForVendor(File vendorDir) {
@@ -51,41 +201,80 @@ public class LegacyProfileManager extends ProfileManager {
 		return icon;
 	}
 
-	private Vendor initVendor(File vendorDir) {
+	private List<IProfile> loadVendor(LegacyVendor vendor) {
 		ProfileParser parser = new ProfileParser();
+		ArrayList<IProfile> result = new ArrayList<IProfile>();
 
-		String name = vendorDir.getName();
-		ImageDescriptor icon = getIconForVendor(MoSyncTool.getDefault().getVendorsPath().append(name).toFile());
-
-		Vendor vendor = new Vendor(name, icon);
+		long vendorLastModified = vendor.vendorDir.lastModified();
+		LegacyProfileCache.VendorEntry cached = cache.get(vendor.getName());
+		HashMap<String, LegacyProfileCache.ProfileEntry> cachedProfiles = new HashMap<String, LegacyProfileCache.ProfileEntry>();
+		ArrayList<String> profileNames = new ArrayList<String>();
+		if (cached != null) {
+			for (LegacyProfileCache.ProfileEntry cachedProfile : cached.profiles) {
+				cachedProfiles.put(cachedProfile.name, cachedProfile);
+				profileNames.add(cachedProfile.name);
+			}
+		}
+		boolean changed = cached == null || cached.lastModified != vendorLastModified;
+		if (changed) {
+			// Profiles were added or removed
+			profileNames.clear();
+			File[] profiles = vendor.vendorDir.listFiles();
+			for (int i = 0; profiles != null && i < profiles.length; i++) {
+				if (profiles[i].isDirectory()) {
+					profileNames.add(profiles[i].getName());
+				}
+			}
+		}
 
-		File[] profiles = vendorDir.listFiles();
-		for (int i = 0; i < profiles.length; i++) {
-			if (profiles[i].isDirectory()) {
-				String profileName = profiles[i].getName();
-				File profileInfoFile = new File(profiles[i], "maprofile.h");
-				File runtimeTxtFile = new File(profiles[i], "runtime.txt");
-				IProfile profile;
+		ArrayList<LegacyProfileCache.ProfileEntry> entries = new ArrayList<LegacyProfileCache.ProfileEntry>();
+		for (String profileName : profileNames) {
+			File profileDir = new File(vendor.vendorDir, profileName);
+			File profileInfoFile = new File(profileDir, "maprofile.h");
+			File runtimeTxtFile = new File(profileDir, "runtime.txt");
+			long infoLastModified = profileInfoFile.lastModified();
+			long runtimeLastModified = runtimeTxtFile.lastModified();
+			LegacyProfileCache.ProfileEntry entry = cachedProfiles.get(profileName);
+			IProfile profile;
+			if (entry != null && entry.infoLastModified == infoLastModified && entry.runtimeLastModified == runtimeLastModified) {
+				Profile cachedProfile = new Profile(vendor, profileName, MoSyncTool.LEGACY_PROFILE_TYPE);
+				cachedProfile.getModifiableProperties().putAll(entry.properties);
+				cachedProfile.setRuntime(entry.runtime);
+				profile = cachedProfile;
+			} else {
 				try {
+					parsedCount.incrementAndGet();
 					profile = parser.parseInfoFile(vendor, profileName,
 							profileInfoFile, runtimeTxtFile);
-					vendor.addProfile(profile);
-					String runtime = toCanonicalRuntime(profile.getRuntime());
-					List<IProfile> profilesForOneRuntime =
-							profilesForRuntime.get(runtime);
-					if (profilesForOneRuntime == null) {
-						profilesForOneRuntime = new ArrayList<IProfile>();
-						profilesForRuntime.put(runtime, profilesForOneRuntime);
-					}
-					profilesForOneRuntime.add(profile);
 				} catch (IOException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
+					changed |= entry != null;
+					continue;
 				}
+				entry = new LegacyProfileCache.ProfileEntry(profileName, infoLastModified, runtimeLastModified,
+						profile.getRuntime(), new HashMap<String, Object>(profile.getProperties()));
+				changed = true;
 			}
+			entries.add(entry);
+			vendor.addProfile(profile);
+			result.add(profile);
+		}
+
+		if (changed) {
+			cache.put(vendor.getName(), new LegacyProfileCache.VendorEntry(vendorLastModified, entries));
 		}
+		return result;
+	}
 
-		return vendor;
+	private void vendorLoaded() {
+		if (vendorsToLoad.decrementAndGet() == 0 && cacheFile != null && cache.isDirty()) {
+			try {
+				cache.write(cacheFile, vendorsDir);
+			} catch (IOException e) {
+				CoreMoSyncPlugin.getDefault().log(e);
+			}
+		}
 	}
 
 	@Override
@@ -100,7 +289,26 @@ public class LegacyProfileManager extends ProfileManager {
 
 	@Override
 	public List<IProfile> getProfilesForRuntime(String runtime) {
-		return profilesForRuntime.get(toCanonicalRuntime(runtime));
+		return getProfilesForRuntime().get(toCanonicalRuntime(runtime));
+	}
+
+	private synchronized HashMap<String, List<IProfile>> getProfilesForRuntime() {
+		if (profilesForRuntime == null) {
+			profilesForRuntime = new HashMap<String, List<IProfile>>();
+			for (LegacyVendor vendor : vendorsInDirectoryOrder) {
+				for (IProfile profile : vendor.load()) {
+					String runtime = toCanonicalRuntime(profile.getRuntime());
+					List<IProfile> profilesForOneRuntime =
+							profilesForRuntime.get(runtime);
+					if (profilesForOneRuntime == null) {
+						profilesForOneRuntime = new ArrayList<IProfile>();
+						profilesForRuntime.put(runtime, profilesForOneRuntime);
+					}
+					profilesForOneRuntime.add(profile);
+				}
+			}
+		}
+		return profilesForRuntime;
 	}
 
 	@Override
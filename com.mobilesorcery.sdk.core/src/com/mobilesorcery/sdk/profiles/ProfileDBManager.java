@@ -1,11 +1,14 @@
 package com.mobilesorcery.sdk.profiles;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -13,6 +16,10 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.xml.sax.Attributes;
 
@@ -31,7 +38,7 @@ import com.mobilesorcery.sdk.profiles.filter.DeviceCapabilitiesFilter;
 
 public class ProfileDBManager extends ProfileManager {
 
-	public class ProfileDBResult {
+	public static class ProfileDBResult {
 		public final HashMap<String, Vendor> families = new HashMap<String, Vendor>();
 		public final Set<IProfile> profiles = new HashSet<IProfile>();
 		public final Set<String> capabilities = new TreeSet<String>();
@@ -39,6 +46,25 @@ public class ProfileDBManager extends ProfileManager {
 		public final HashMap<String, List<IProfile>> profilesForRuntime = new HashMap<String, List<IProfile>>();
 		public final HashMap<String, String> profileMappings = new HashMap<String, String>();
 		public final HashMap<IProfile, Capabilities> capabilitiesForProfiles = new HashMap<IProfile, Capabilities>();
+
+		/**
+		 * Returns a copy of this result; the collections are
+		 * copied, the vendors, profiles and capabilities are shared.
+		 * @return
+		 */
+		public ProfileDBResult copy() {
+			ProfileDBResult result = new ProfileDBResult();
+			result.families.putAll(families);
+			result.profiles.addAll(profiles);
+			result.capabilities.addAll(capabilities);
+			result.permissions.addAll(permissions);
+			for (Map.Entry<String, List<IProfile>> entry : profilesForRuntime.entrySet()) {
+				result.profilesForRuntime.put(entry.getKey(), new ArrayList<IProfile>(entry.getValue()));
+			}
+			result.profileMappings.putAll(profileMappings);
+			result.capabilitiesForProfiles.putAll(capabilitiesForProfiles);
+			return result;
+		}
 	}
 
 	private static final class ProfileDBLineHandler extends
@@ -48,6 +74,7 @@ public class ProfileDBManager extends ProfileManager {
 		private boolean inMapTag = false;
 		private final ProfileDBResult result;
 		private Profile currentProfile;
+		private boolean complete = false;
 
 		public ProfileDBLineHandler(CountDownLatch done, ProfileDBResult result) {
 			this.done = done;
@@ -64,8 +91,7 @@ public class ProfileDBManager extends ProfileManager {
 
 				Vendor family = result.families.get(familyName);
 				if (family == null) {
-					IPath iconDir = MoSyncTool.getDefault().getProfilesPath()
-							.append("platforms").append(familyName);
+					IPath iconDir = getPlatformsPath().append(familyName);
 					ImageDescriptor icon = LegacyProfileManager
 							.getIconForVendor(iconDir.toFile());
 					family = new Vendor(familyName, icon);
@@ -143,30 +169,54 @@ public class ProfileDBManager extends ProfileManager {
 			profilesForThisRuntime.add(profile);
 		}
 
+		/**
+		 * Returns whether all output of <code>profiledb</code>
+		 * was successfully parsed.
+		 * @return
+		 */
+		public synchronized boolean isComplete() {
+			return complete;
+		}
+
 		@Override
 		public synchronized void doStop(Exception e) {
+			complete = e == null;
 			if (done != null) {
 				done.countDown();
 			}
 		}
 	}
 
+	private static final List<String> ALL_PROFILES_ARGS = Arrays.asList(new String[] { "-g", "+" });
+
+	private static final ProfileDBSnapshot.Query MATCH_ALL = new ProfileDBSnapshot.Query("+", new String[0], new String[0]);
+
+	private static final long SAVE_DELAY = 2000;
+
 	private static ProfileDBManager instance = new ProfileDBManager();
 
-	private final TreeMap<String, Vendor> vendors = new TreeMap<String, Vendor>(
+	// These are replaced, never modified, when a new snapshot is applied;
+	// readers do not need to lock.
+	private volatile TreeMap<String, Vendor> vendors = new TreeMap<String, Vendor>(
 			String.CASE_INSENSITIVE_ORDER);
 
-	private final TreeSet<String> capabilities = new TreeSet<String>(
+	private volatile TreeSet<String> capabilities = new TreeSet<String>(
 			String.CASE_INSENSITIVE_ORDER);
 
-	private final TreeSet<String> permissions = new TreeSet<String>(
+	private volatile TreeSet<String> permissions = new TreeSet<String>(
 			String.CASE_INSENSITIVE_ORDER);
 
-	private HashMap<String, List<IProfile>> profilesForRuntime = new HashMap<String, List<IProfile>>();
+	private volatile HashMap<String, List<IProfile>> profilesForRuntime = new HashMap<String, List<IProfile>>();
 
 	private boolean inited = false;
 
-	private HashMap<IProfile, Capabilities> capabilitiesForProfiles;
+	private ProfileDBSnapshot snapshot;
+
+	private boolean persistSnapshot;
+
+	private Job saveJob;
+
+	private volatile HashMap<IProfile, Capabilities> capabilitiesForProfiles;
 
 	public static ProfileDBManager getInstance() {
 		return instance;
@@ -178,16 +228,130 @@ public class ProfileDBManager extends ProfileManager {
 			return;
 		}
 		inited = true;
-		ProfileDBLineHandler lh = runProfileDb(new ArrayList<String>(
-				Arrays.asList(new String[] { "-g", "+" })));
-		vendors.clear();
-		vendors.putAll(lh.result.families);
-		capabilities.addAll(lh.result.capabilities);
-		permissions.addAll(lh.result.permissions);
-		capabilitiesForProfiles = lh.result.capabilitiesForProfiles;
+		String key = ProfileDBSnapshot.computeKey(getTool().toFile(), MoSyncTool.getDefault().getProfilesPath().toFile());
+		ProfileDBSnapshot cached = readSnapshot();
+		if (cached == null) {
+			ProfileDBLineHandler lh = runProfileDb(ALL_PROFILES_ARGS);
+			ProfileDBSnapshot fresh = new ProfileDBSnapshot(key, lh.result);
+			// Never persist partial results
+			persistSnapshot = lh.isComplete();
+			apply(fresh);
+			flush();
+		} else {
+			persistSnapshot = true;
+			apply(cached);
+			if (!key.equals(cached.getKey())) {
+				// Use the stale snapshot until we have a new one
+				scheduleRebuild(key);
+			}
+		}
+	}
+
+	private void apply(ProfileDBSnapshot snapshot) {
+		this.snapshot = snapshot;
+		ProfileDBResult tree = snapshot.getTree();
+		TreeMap<String, Vendor> newVendors = new TreeMap<String, Vendor>(String.CASE_INSENSITIVE_ORDER);
+		newVendors.putAll(tree.families);
+		TreeSet<String> newCapabilities = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		newCapabilities.addAll(tree.capabilities);
+		TreeSet<String> newPermissions = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		newPermissions.addAll(tree.permissions);
 		// Ok, give us some mappings!
-		ProfileDBResult matchResult = match("+", new String[0], new String[0]);
+		ProfileDBResult matchResult = match(MATCH_ALL).copy();
+
+		vendors = newVendors;
+		capabilities = newCapabilities;
+		permissions = newPermissions;
+		capabilitiesForProfiles = new HashMap<IProfile, Capabilities>(tree.capabilitiesForProfiles);
 		profilesForRuntime = matchResult.profilesForRuntime;
+		invalidateIndex();
+	}
+
+	/**
+	 * Runs <code>profiledb</code> to create a snapshot of the
+	 * profile tree; matches are added as they are asked for.
+	 * @param key
+	 * @return The snapshot, or <code>null</code> if <code>profiledb</code>
+	 * failed
+	 */
+	private ProfileDBSnapshot createSnapshot(String key) {
+		ProfileDBLineHandler lh = runProfileDb(ALL_PROFILES_ARGS);
+		if (!lh.isComplete()) {
+			return null;
+		}
+		return new ProfileDBSnapshot(key, lh.result);
+	}
+
+	private void scheduleRebuild(final String key) {
+		Job rebuild = new Job("Updating profile database") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				ProfileDBSnapshot fresh = createSnapshot(key);
+				if (fresh != null) {
+					synchronized (ProfileDBManager.this) {
+						apply(fresh);
+						flush();
+					}
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		rebuild.setSystem(true);
+		rebuild.schedule();
+	}
+
+	private synchronized void scheduleSave() {
+		if (saveJob == null) {
+			saveJob = new Job("Saving profile database") {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					flush();
+					return Status.OK_STATUS;
+				}
+			};
+			saveJob.setSystem(true);
+		}
+		saveJob.schedule(SAVE_DELAY);
+	}
+
+	/**
+	 * Writes the current profile database snapshot, if it has
+	 * changed since it was last written.
+	 */
+	public synchronized void flush() {
+		// Nowhere to write it once the plugin has stopped
+		if (CoreMoSyncPlugin.getDefault() == null) {
+			return;
+		}
+		if (persistSnapshot && snapshot != null && snapshot.isDirty()) {
+			saveSnapshot(snapshot);
+		}
+	}
+
+	private static File getSnapshotFile() {
+		return CoreMoSyncPlugin.getDefault().getStateLocation().append("profiledb.snapshot").toFile();
+	}
+
+	private ProfileDBSnapshot readSnapshot() {
+		try {
+			return ProfileDBSnapshot.read(getSnapshotFile(), getPlatformsPath().toFile());
+		} catch (IOException e) {
+			// Unreadable or corrupt; just rebuild it.
+			CoreMoSyncPlugin.getDefault().log(e);
+			return null;
+		}
+	}
+
+	private void saveSnapshot(ProfileDBSnapshot snapshot) {
+		try {
+			snapshot.write(getSnapshotFile());
+		} catch (IOException e) {
+			CoreMoSyncPlugin.getDefault().log(e);
+		}
+	}
+
+	private static IPath getPlatformsPath() {
+		return MoSyncTool.getDefault().getProfilesPath().append("platforms");
 	}
 
 	public static boolean isAvailable() {
@@ -267,23 +431,44 @@ public class ProfileDBManager extends ProfileManager {
 	 * @param profilePattern
 	 * @param requiredCapabilities
 	 * @param optionalCapabilities
-	 * @return
+	 * @return A result that the caller may modify
 	 */
 	public ProfileDBResult match(String profilePattern,
 			String[] requiredCapabilities, String[] optionalCapabilities) {
 		init();
+		// The result is cached, so never hand out the cached instance
+		return match(new ProfileDBSnapshot.Query(profilePattern, requiredCapabilities, optionalCapabilities)).copy();
+	}
+
+	private ProfileDBResult match(ProfileDBSnapshot.Query query) {
+		ProfileDBSnapshot current;
+		synchronized (this) {
+			current = snapshot;
+		}
+		ProfileDBResult result = current.getMatch(query);
+		if (result == null) {
+			ProfileDBLineHandler lh = runMatch(query);
+			result = lh.result;
+			if (lh.isComplete()) {
+				current.putMatch(query, result);
+				scheduleSave();
+			}
+		}
+		return result;
+	}
+
+	private ProfileDBLineHandler runMatch(ProfileDBSnapshot.Query query) {
 		ArrayList<String> args = new ArrayList<String>();
 		args.add("--list-mappings");
 		args.add("--no-caps");
 		args.add("-m");
-		args.add(profilePattern);
-		args.addAll(Arrays.asList(requiredCapabilities));
-		if (optionalCapabilities.length > 0) {
+		args.add(query.profilePattern);
+		args.addAll(Arrays.asList(query.requiredCapabilities));
+		if (query.optionalCapabilities.length > 0) {
 			args.add("-o");
-			args.addAll(Arrays.asList(optionalCapabilities));
+			args.addAll(Arrays.asList(query.optionalCapabilities));
 		}
-		ProfileDBLineHandler lh = runProfileDb(args);
-		return lh.result;
+		return runProfileDb(args);
 	}
 
 	@Override
@@ -0,0 +1,430 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.profiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mobilesorcery.sdk.core.Cache;
+import com.mobilesorcery.sdk.core.Capabilities;
+import com.mobilesorcery.sdk.core.Capability;
+import com.mobilesorcery.sdk.core.CapabilityFragmentation;
+import com.mobilesorcery.sdk.core.CapabilityState;
+import com.mobilesorcery.sdk.core.ICapability;
+import com.mobilesorcery.sdk.core.MoSyncTool;
+import com.mobilesorcery.sdk.core.Util;
+import com.mobilesorcery.sdk.profiles.ProfileDBManager.ProfileDBResult;
+
+/**
+ * <p>A persistent snapshot of the output of <code>profiledb</code>: the
+ * full profile tree and the results of the most recently used profile
+ * matches.</p>
+ * <p>A snapshot is only valid for the <code>profiledb</code> binary and
+ * profile database it was created from; see {@link #computeKey(File, File)}.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+class ProfileDBSnapshot {
+
+	/**
+	 * A profile match, as passed to <code>profiledb</code>.
+	 */
+	static class Query {
+		final String profilePattern;
+		final String[] requiredCapabilities;
+		final String[] optionalCapabilities;
+
+		Query(String profilePattern, String[] requiredCapabilities, String[] optionalCapabilities) {
+			this.profilePattern = profilePattern;
+			this.requiredCapabilities = requiredCapabilities;
+			this.optionalCapabilities = optionalCapabilities;
+		}
+
+		String getKey() {
+			return profilePattern + '\0' + Util.join(requiredCapabilities, "\0") + "\0\0" + Util.join(optionalCapabilities, "\0");
+		}
+	}
+
+	private static class Match {
+		final Query query;
+		final ProfileDBResult result;
+
+		Match(Query query, ProfileDBResult result) {
+			this.query = query;
+			this.result = result;
+		}
+	}
+
+	private static final int MAGIC = 0x50444253;
+
+	private static final int VERSION = 1;
+
+	private static final int MAX_MATCHES = 64;
+
+	private static final byte STRING_VALUE = 0;
+
+	private static final byte BOOLEAN_VALUE = 1;
+
+	private final String key;
+
+	private final ProfileDBResult tree;
+
+	// The least recently used match first
+	private final Cache<String, Match> matches = new Cache<String, Match>(MAX_MATCHES);
+
+	private boolean dirty = true;
+
+	ProfileDBSnapshot(String key, ProfileDBResult tree) {
+		this.key = key;
+		this.tree = tree;
+	}
+
+	/**
+	 * Computes the key of the snapshot for a profile database;
+	 * any change to the <code>profiledb</code> binary or to
+	 * the files of the profile database results in another key.
+	 * @param tool The <code>profiledb</code> binary
+	 * @param profiles The profile database directory
+	 * @return
+	 */
+	static String computeKey(File tool, File profiles) {
+		long[] stats = new long[3];
+		computeStats(profiles, stats);
+		return VERSION + ":" + tool.length() + ":" + tool.lastModified() + ":" + stats[0] + ":" + stats[1] + ":" + stats[2];
+	}
+
+	private static void computeStats(File file, long[] stats) {
+		File[] children = file.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			long lastModified = child.lastModified();
+			stats[0]++;
+			stats[1] = Math.max(stats[1], lastModified);
+			stats[2] += lastModified + child.length();
+			if (child.isDirectory()) {
+				computeStats(child, stats);
+			}
+		}
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	ProfileDBResult getTree() {
+		return tree;
+	}
+
+	synchronized ProfileDBResult getMatch(Query query) {
+		// Removed and re-inserted to keep the most recently used last
+		Match match = matches.remove(query.getKey());
+		if (match == null) {
+			return null;
+		}
+		matches.put(query.getKey(), match);
+		return match.result;
+	}
+
+	synchronized void putMatch(Query query, ProfileDBResult result) {
+		matches.put(query.getKey(), new Match(query, result));
+		dirty = true;
+	}
+
+	/**
+	 * Returns whether this snapshot has changed since it
+	 * was last read or written.
+	 * @return
+	 */
+	synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Reads a snapshot.
+	 * @param file
+	 * @param platformsDir The directory to look for platform icons in
+	 * @return The snapshot, or <code>null</code> if there is no snapshot
+	 * of the current version
+	 * @throws IOException If the snapshot could not be read or is corrupt
+	 */
+	static ProfileDBSnapshot read(File file, File platformsDir) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				return null;
+			}
+			String key = input.readUTF();
+			ProfileDBSnapshot snapshot = new ProfileDBSnapshot(key, readResult(input, platformsDir));
+			int matchCount = input.readInt();
+			for (int i = 0; i < matchCount; i++) {
+				Query query = new Query(input.readUTF(), readStrings(input), readStrings(input));
+				snapshot.putMatch(query, readResult(input, platformsDir));
+			}
+			snapshot.dirty = false;
+			return snapshot;
+		} catch (RuntimeException e) {
+			// Such as indices out of range
+			throw new IOException("Corrupt profile database snapshot " + file, e);
+		} finally {
+			Util.safeClose(input);
+		}
+	}
+
+	/**
+	 * Writes this snapshot; the file is replaced atomically
+	 * if the platform allows it.
+	 * @param file
+	 * @throws IOException
+	 */
+	synchronized void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(key);
+			writeResult(output, tree);
+			output.writeInt(matches.size());
+			for (Match match : matches.values()) {
+				output.writeUTF(match.query.profilePattern);
+				writeStrings(output, match.query.requiredCapabilities);
+				writeStrings(output, match.query.optionalCapabilities);
+				writeResult(output, match.result);
+			}
+		} finally {
+			Util.safeClose(output);
+		}
+		file.delete();
+		if (!tmpFile.renameTo(file)) {
+			tmpFile.delete();
+			throw new IOException("Could not write " + file);
+		}
+		dirty = false;
+	}
+
+	private static void writeResult(DataOutputStream output, ProfileDBResult result) throws IOException {
+		// All profiles are written once, and then referred to by index
+		IdentityHashMap<IProfile, Integer> profileIndices = new IdentityHashMap<IProfile, Integer>();
+		ArrayList<IProfile> profiles = new ArrayList<IProfile>();
+		for (Vendor family : result.families.values()) {
+			addProfiles(profiles, profileIndices, Arrays.asList(family.getProfiles()));
+		}
+		addProfiles(profiles, profileIndices, result.profiles);
+		for (List<IProfile> profilesForRuntime : result.profilesForRuntime.values()) {
+			addProfiles(profiles, profileIndices, profilesForRuntime);
+		}
+		addProfiles(profiles, profileIndices, result.capabilitiesForProfiles.keySet());
+
+		output.writeInt(result.families.size());
+		for (Vendor family : result.families.values()) {
+			output.writeUTF(family.getName());
+		}
+		output.writeInt(profiles.size());
+		for (IProfile profile : profiles) {
+			output.writeUTF(profile.getVendor().getName());
+			output.writeUTF(profile.getName());
+			writeNullableString(output, profile.getRuntime());
+			Map<String, Object> properties = profile.getProperties();
+			output.writeInt(properties.size());
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				output.writeUTF(property.getKey());
+				writeValue(output, property.getValue());
+			}
+		}
+		for (Vendor family : result.families.values()) {
+			writeIndices(output, profileIndices, Arrays.asList(family.getProfiles()));
+		}
+		writeIndices(output, profileIndices, result.profiles);
+		writeStrings(output, result.capabilities.toArray(new String[0]));
+		writeStrings(output, result.permissions.toArray(new String[0]));
+		output.writeInt(result.profilesForRuntime.size());
+		for (Map.Entry<String, List<IProfile>> profilesForRuntime : result.profilesForRuntime.entrySet()) {
+			output.writeUTF(profilesForRuntime.getKey());
+			writeIndices(output, profileIndices, profilesForRuntime.getValue());
+		}
+		output.writeInt(result.profileMappings.size());
+		for (Map.Entry<String, String> mapping : result.profileMappings.entrySet()) {
+			output.writeUTF(mapping.getKey());
+			writeNullableString(output, mapping.getValue());
+		}
+		output.writeInt(result.capabilitiesForProfiles.size());
+		for (Map.Entry<IProfile, Capabilities> capabilities : result.capabilitiesForProfiles.entrySet()) {
+			output.writeInt(profileIndices.get(capabilities.getKey()));
+			Set<ICapability> capabilityList = capabilities.getValue().listCapabilities();
+			output.writeInt(capabilityList.size());
+			for (ICapability capability : capabilityList) {
+				output.writeUTF(capability.getName());
+				output.writeByte(capability.getState() == null ? -1 : capability.getState().ordinal());
+				writeNullableString(output, capability.getType());
+				writeValue(output, capability.getValue());
+				output.writeByte(capability.getFragmentation() == null ? -1 : capability.getFragmentation().ordinal());
+			}
+		}
+	}
+
+	private static ProfileDBResult readResult(DataInputStream input, File platformsDir) throws IOException {
+		ProfileDBResult result = new ProfileDBResult();
+		int familyCount = input.readInt();
+		Vendor[] families = new Vendor[familyCount];
+		for (int i = 0; i < familyCount; i++) {
+			String familyName = input.readUTF();
+			families[i] = new Vendor(familyName, LegacyProfileManager.getIconForVendor(new File(platformsDir, familyName)));
+			result.families.put(familyName, families[i]);
+		}
+		Profile[] profiles = new Profile[input.readInt()];
+		for (int i = 0; i < profiles.length; i++) {
+			String familyName = input.readUTF();
+			Vendor family = result.families.get(familyName);
+			if (family == null) {
+				family = new Vendor(familyName, null);
+			}
+			profiles[i] = new Profile(family, input.readUTF(), MoSyncTool.DEFAULT_PROFILE_TYPE);
+			profiles[i].setRuntime(readNullableString(input));
+			int propertyCount = input.readInt();
+			for (int j = 0; j < propertyCount; j++) {
+				profiles[i].getModifiableProperties().put(input.readUTF(), readValue(input));
+			}
+		}
+		for (Vendor family : families) {
+			for (IProfile profile : readProfiles(input, profiles)) {
+				family.addProfile(profile);
+			}
+		}
+		result.profiles.addAll(readProfiles(input, profiles));
+		for (String capability : readStrings(input)) {
+			result.capabilities.add(capability);
+		}
+		for (String permission : readStrings(input)) {
+			result.permissions.add(permission);
+		}
+		int runtimeCount = input.readInt();
+		for (int i = 0; i < runtimeCount; i++) {
+			String runtime = input.readUTF();
+			result.profilesForRuntime.put(runtime, readProfiles(input, profiles));
+		}
+		int mappingCount = input.readInt();
+		for (int i = 0; i < mappingCount; i++) {
+			result.profileMappings.put(input.readUTF(), readNullableString(input));
+		}
+		int capabilitiesCount = input.readInt();
+		for (int i = 0; i < capabilitiesCount; i++) {
+			IProfile profile = profiles[input.readInt()];
+			Capabilities capabilities = new Capabilities();
+			int capabilityCount = input.readInt();
+			for (int j = 0; j < capabilityCount; j++) {
+				String name = input.readUTF();
+				byte state = input.readByte();
+				String type = readNullableString(input);
+				Object value = readValue(input);
+				byte fragmentation = input.readByte();
+				capabilities.setCapability(new Capability(name,
+						state < 0 ? null : CapabilityState.values()[state], type, value,
+						fragmentation < 0 ? null : CapabilityFragmentation.values()[fragmentation]));
+			}
+			result.capabilitiesForProfiles.put(profile, capabilities);
+		}
+		return result;
+	}
+
+	private static void addProfiles(List<IProfile> profiles, IdentityHashMap<IProfile, Integer> profileIndices, Collection<IProfile> toAdd) {
+		for (IProfile profile : toAdd) {
+			if (!profileIndices.containsKey(profile)) {
+				profileIndices.put(profile, profiles.size());
+				profiles.add(profile);
+			}
+		}
+	}
+
+	private static void writeIndices(DataOutputStream output, IdentityHashMap<IProfile, Integer> profileIndices, Collection<IProfile> profiles) throws IOException {
+		output.writeInt(profiles.size());
+		for (IProfile profile : profiles) {
+			output.writeInt(profileIndices.get(profile));
+		}
+	}
+
+	private static List<IProfile> readProfiles(DataInputStream input, Profile[] profiles) throws IOException {
+		int count = input.readInt();
+		ArrayList<IProfile> result = new ArrayList<IProfile>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(profiles[input.readInt()]);
+		}
+		return result;
+	}
+
+	private static void writeStrings(DataOutputStream output, String[] strs) throws IOException {
+		output.writeInt(strs.length);
+		for (String str : strs) {
+			output.writeUTF(str);
+		}
+	}
+
+	private static String[] readStrings(DataInputStream input) throws IOException {
+		String[] result = new String[input.readInt()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = input.readUTF();
+		}
+		return result;
+	}
+
+	private static void writeNullableString(DataOutputStream output, String str) throws IOException {
+		output.writeBoolean(str != null);
+		if (str != null) {
+			output.writeUTF(str);
+		}
+	}
+
+	private static String readNullableString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	private static void writeValue(DataOutputStream output, Object value) throws IOException {
+		if (value instanceof Boolean) {
+			output.writeByte(BOOLEAN_VALUE);
+			output.writeBoolean((Boolean) value);
+		} else if (value == null || value instanceof String) {
+			output.writeByte(STRING_VALUE);
+			writeNullableString(output, (String) value);
+		} else {
+			// Would not be read back as the same type
+			throw new IOException("Cannot write a value of type " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(DataInputStream input) throws IOException {
+		if (input.readByte() == BOOLEAN_VALUE) {
+			return input.readBoolean();
+		}
+		return readNullableString(input);
+	}
+}
@@ -0,0 +1,233 @@
+/*  Copyright (C) 2013 Mobile Sorcery AB
+
+    This program is free software; you can redistribute it and/or modify it
+    under the terms of the Eclipse Public License v1.0.
+
+    This program is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse Public License v1.0 for
+    more details.
+
+    You should have received a copy of the Eclipse Public License v1.0 along
+    with this program. It is also available at http://www.eclipse.org/legal/epl-v10.html
+*/
+package com.mobilesorcery.sdk.profiles;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mobilesorcery.sdk.core.Cache;
+import com.mobilesorcery.sdk.profiles.filter.AbstractDeviceFilter;
+
+/**
+ * <p>An index over a fixed set of profiles, where each profile is
+ * represented by a bit, and sets of profiles by {@link BitSet}s.</p>
+ * <p>Filters that extend {@link AbstractDeviceFilter} may override
+ * {@link AbstractDeviceFilter#select(ProfileIndex)} to use the
+ * vendor and feature sets of this index instead of testing every
+ * profile; the result of a filter is cached for as long as
+ * its {@link AbstractDeviceFilter#getStateKey()} is unchanged.</p>
+ *
+ * @author Mattias Bybro
+ *
+ */
+public class ProfileIndex {
+
+	private static final int MAX_CACHED_SELECTIONS = 64;
+
+	private final IProfile[] profiles;
+
+	private final HashMap<IProfile, Integer> indices = new HashMap<IProfile, Integer>();
+
+	private final HashMap<String, BitSet> vendors = new HashMap<String, BitSet>();
+
+	private final HashMap<String, BitSet> features = new HashMap<String, BitSet>();
+
+	private final BitSet emulators = new BitSet();
+
+	private final Cache<Object, BitSet> selections = new Cache<Object, BitSet>(MAX_CACHED_SELECTIONS);
+
+	public ProfileIndex(IProfile[] profiles) {
+		this.profiles = profiles;
+		for (int i = 0; i < profiles.length; i++) {
+			IProfile profile = profiles[i];
+			indices.put(profile, i);
+			getOrCreate(vendors, profile.getVendor().getName()).set(i);
+			for (Map.Entry<String, Object> property : profile.getProperties().entrySet()) {
+				if (Boolean.TRUE.equals(property.getValue())) {
+					getOrCreate(features, property.getKey()).set(i);
+				}
+			}
+			if (profile.isEmulator()) {
+				emulators.set(i);
+			}
+		}
+	}
+
+	private static BitSet getOrCreate(HashMap<String, BitSet> sets, String key) {
+		BitSet set = sets.get(key);
+		if (set == null) {
+			set = new BitSet();
+			sets.put(key, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the number of profiles in this index.
+	 * @return
+	 */
+	public int size() {
+		return profiles.length;
+	}
+
+	public IProfile getProfile(int index) {
+		return profiles[index];
+	}
+
+	/**
+	 * Returns the bit of a profile.
+	 * @param profile
+	 * @return <code>-1</code> if the profile is not in this index
+	 */
+	public int indexOf(IProfile profile) {
+		Integer index = indices.get(profile);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns a new set containing all profiles in this index.
+	 * @return
+	 */
+	public BitSet all() {
+		BitSet result = new BitSet(profiles.length);
+		result.set(0, profiles.length);
+		return result;
+	}
+
+	/**
+	 * Returns a new set of the profiles of a vendor.
+	 * @param vendorName
+	 * @return
+	 */
+	public BitSet getVendorProfiles(String vendorName) {
+		return copy(vendors.get(vendorName));
+	}
+
+	/**
+	 * Returns a new set of the profiles that have a feature flag set,
+	 * for example <code>MA_PROF_SUPPORT_JAVAPACKAGE</code>.
+	 * @param featureId
+	 * @return
+	 */
+	public BitSet getFeatureProfiles(String featureId) {
+		return copy(features.get(featureId));
+	}
+
+	/**
+	 * Returns a new set of the emulator profiles.
+	 * @return
+	 */
+	public BitSet getEmulatorProfiles() {
+		return copy(emulators);
+	}
+
+	/**
+	 * Returns a new set of the profiles in a list that
+	 * are also in this index.
+	 * @param profiles
+	 * @return
+	 */
+	public BitSet getProfiles(Iterable<IProfile> profiles) {
+		BitSet result = new BitSet(this.profiles.length);
+		for (IProfile profile : profiles) {
+			int index = indexOf(profile);
+			if (index >= 0) {
+				result.set(index);
+			}
+		}
+		return result;
+	}
+
+	private static BitSet copy(BitSet set) {
+		return set == null ? new BitSet() : (BitSet) set.clone();
+	}
+
+	/**
+	 * Returns a new set of the profiles accepted by a filter.
+	 * @param filter
+	 * @return
+	 */
+	public BitSet select(IDeviceFilter filter) {
+		if (filter == null) {
+			return all();
+		}
+		Object key = filter instanceof AbstractDeviceFilter ? ((AbstractDeviceFilter) filter).getStateKey() : null;
+		if (key == null) {
+			return evaluate(filter);
+		}
+		BitSet result;
+		synchronized (selections) {
+			result = selections.get(key);
+		}
+		if (result == null) {
+			result = evaluate(filter);
+			synchronized (selections) {
+				selections.put(key, result);
+			}
+		}
+		return (BitSet) result.clone();
+	}
+
+	private BitSet evaluate(IDeviceFilter filter) {
+		if (filter instanceof AbstractDeviceFilter) {
+			return ((AbstractDeviceFilter) filter).select(this);
+		}
+		BitSet result = new BitSet(profiles.length);
+		for (int i = 0; i < profiles.length; i++) {
+			if (filter.accept(profiles[i])) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the profiles of a set, in index order.
+	 * @param set
+	 * @return
+	 */
+	public IProfile[] getProfiles(BitSet set) {
+		IProfile[] result = new IProfile[set.cardinality()];
+		int j = 0;
+		for (int i = set.nextSetBit(0); i >= 0 && i < profiles.length; i = set.nextSetBit(i + 1)) {
+			result[j++] = profiles[i];
+		}
+		return j == result.length ? result : Arrays.copyOf(result, j);
+	}
+
+	/**
+	 * Filters a list of profiles, keeping their order. Profiles
+	 * that are not in this index are tested one by one.
+	 * @param profiles
+	 * @param filter
+	 * @return
+	 */
+	public IProfile[] filter(IProfile[] profiles, IDeviceFilter filter) {
+		if (filter == null) {
+			return profiles;
+		}
+		BitSet selected = select(filter);
+		IProfile[] result = new IProfile[profiles.length];
+		int j = 0;
+		for (int i = 0; i < profiles.length; i++) {
+			int index = indexOf(profiles[i]);
+			if (index >= 0 ? selected.get(index) : filter.accept(profiles[i])) {
+				result[j++] = profiles[i];
+			}
+		}
+		return Arrays.copyOf(result, j);
+	}
+}
@@ -17,12 +17,15 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import org.eclipse.core.runtime.IAdaptable;
 
 import com.mobilesorcery.sdk.profiles.IDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IProfile;
 import com.mobilesorcery.sdk.profiles.IVendor;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 
 public abstract class AbstractDeviceFilter implements IDeviceFilter, IAdaptable {
 
@@ -65,6 +68,50 @@ public abstract class AbstractDeviceFilter implements IDeviceFilter, IAdaptable
         return false;
     }
 
+    /**
+     * Returns the set of profiles of an index that this filter accepts.
+     * May be overridden by clients - the default implementation
+     * calls acceptProfile for every profile of the index.
+     * @param index
+     * @return A new set, that the caller may modify
+     */
+    public BitSet select(ProfileIndex index) {
+        BitSet result = new BitSet(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            if (acceptProfile(index.getProfile(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key that identifies the current state of
+     * this filter; two filters with equal keys must accept
+     * the same profiles. Used by {@link ProfileIndex} to
+     * cache the result of {@link #select(ProfileIndex)}.
+     * @return <code>null</code> if the result of this filter
+     * should not be cached, which is the default
+     */
+    public Object getStateKey() {
+        return null;
+    }
+
+    /**
+     * Creates a state key for this filter.
+     * @param state Objects with proper <code>equals</code>
+     * and <code>hashCode</code> methods that represent the
+     * state of this filter
+     * @return
+     */
+    protected Object createStateKey(Object... state) {
+        ArrayList<Object> key = new ArrayList<Object>();
+        key.add(getClass());
+        key.add(required);
+        key.addAll(Arrays.asList(state));
+        return key;
+    }
+
     @Override
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
         this.listeners.addPropertyChangeListener(listener);
@@ -17,6 +17,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 
 import org.eclipse.ui.IMemento;
@@ -25,6 +26,7 @@ import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.profiles.ICompositeDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IProfile;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 
 /**
  * Sort of an AND filter.
@@ -91,6 +93,28 @@ public class CompositeDeviceFilter extends AbstractDeviceFilter implements IComp
         return true;
     }
 
+    @Override
+	public BitSet select(ProfileIndex index) {
+        BitSet result = index.all();
+        for (Iterator<IDeviceFilter> filterIterator = filters.iterator(); filterIterator.hasNext() && !result.isEmpty();) {
+            result.and(index.select(filterIterator.next()));
+        }
+        return result;
+    }
+
+    @Override
+	public Object getStateKey() {
+        Object[] keys = new Object[filters.size()];
+        for (int i = 0; i < keys.length; i++) {
+            IDeviceFilter filter = filters.get(i);
+            keys[i] = filter instanceof AbstractDeviceFilter ? ((AbstractDeviceFilter) filter).getStateKey() : null;
+            if (keys[i] == null) {
+                return null;
+            }
+        }
+        return createStateKey(keys);
+    }
+
     @Override
 	public void saveState(IMemento memento) {
     	if (filters.size() > 0) {
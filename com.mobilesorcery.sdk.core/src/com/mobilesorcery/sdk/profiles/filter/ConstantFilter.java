@@ -147,6 +147,10 @@ public class ConstantFilter extends AbstractDeviceFilter {
         return true;
     }
     
+    public Object getStateKey() {
+        return createStateKey(constantFeature, threshold, op);
+    }
+
     public String toString() {
         return MoSyncTool.getDefault().getFeatureDescription(constantFeature) + " " + op.toString() + " " + threshold; 
     }
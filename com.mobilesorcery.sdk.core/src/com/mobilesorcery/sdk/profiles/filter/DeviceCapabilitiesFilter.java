@@ -2,6 +2,7 @@ package com.mobilesorcery.sdk.profiles.filter;
 
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -20,6 +21,7 @@ import com.mobilesorcery.sdk.profiles.ICompositeDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IDeviceFilter;
 import com.mobilesorcery.sdk.profiles.IProfile;
 import com.mobilesorcery.sdk.profiles.ProfileDBManager;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 import com.mobilesorcery.sdk.profiles.ProfileDBManager.ProfileDBResult;
 import com.mobilesorcery.sdk.profiles.filter.elementfactories.DeviceCapabilitiesFilterFactory;
 
@@ -82,6 +84,17 @@ public class DeviceCapabilitiesFilter extends AbstractDeviceFilter {
 		return profiles.contains(profile);
 	}
 
+	@Override
+	public BitSet select(ProfileIndex index) {
+		initProfiles();
+		return index.getProfiles(profiles);
+	}
+
+	@Override
+	public Object getStateKey() {
+		return createStateKey(Arrays.asList(requiredCapabilities), Arrays.asList(optionalCapabilities));
+	}
+
 	private void initProfiles() {
 		if (profiles == null) {
 			profiles = new HashSet<IProfile>();
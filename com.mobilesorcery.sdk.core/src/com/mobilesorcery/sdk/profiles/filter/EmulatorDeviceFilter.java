@@ -13,9 +13,12 @@
 */
 package com.mobilesorcery.sdk.profiles.filter;
 
+import java.util.BitSet;
+
 import org.eclipse.ui.IMemento;
 
 import com.mobilesorcery.sdk.profiles.IProfile;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 
 /**
  * A filter that either filters out emulated a devices,
@@ -38,6 +41,18 @@ public class EmulatorDeviceFilter extends AbstractDeviceFilter {
 		return type == EXCLUDE_EMULATORS ? !profile.isEmulator() : profile.isEmulator();
 	}
 
+	public BitSet select(ProfileIndex index) {
+		BitSet result = index.getEmulatorProfiles();
+		if (type == EXCLUDE_EMULATORS) {
+			result.flip(0, index.size());
+		}
+		return result;
+	}
+
+	public Object getStateKey() {
+		return createStateKey(type);
+	}
+
 	public String getFactoryId() {
 		throw new UnsupportedOperationException();
 	}
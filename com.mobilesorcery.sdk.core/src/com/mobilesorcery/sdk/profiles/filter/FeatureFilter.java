@@ -14,6 +14,7 @@
 package com.mobilesorcery.sdk.profiles.filter;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -22,6 +23,7 @@ import org.eclipse.ui.IMemento;
 import com.mobilesorcery.sdk.core.MoSyncTool;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.profiles.IProfile;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 import com.mobilesorcery.sdk.profiles.filter.elementfactories.FeatureFilterFactory;
 
 public class FeatureFilter extends AbstractDeviceFilter {
@@ -71,6 +73,22 @@ public class FeatureFilter extends AbstractDeviceFilter {
         
         return false;
     }
+
+    public BitSet select(ProfileIndex index) {
+        BitSet result = index.all();
+        for (Iterator<String> featureIds = this.featureIds.iterator(); featureIds.hasNext(); ) {
+            result.and(index.getFeatureProfiles(featureIds.next()));
+        }
+
+        if (!required) {
+            result.flip(0, index.size());
+        }
+        return result;
+    }
+
+    public Object getStateKey() {
+        return createStateKey(new HashSet<String>(featureIds));
+    }
     
     public String toString() {        
         String[] featureIds = this.featureIds.toArray(new String[0]);
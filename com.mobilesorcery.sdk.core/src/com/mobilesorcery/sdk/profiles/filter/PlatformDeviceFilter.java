@@ -75,6 +75,10 @@ public class PlatformDeviceFilter extends AbstractDeviceFilter {
 		}
 	}
 
+	public Object getStateKey() {
+		return createStateKey(matchingPlatform, matchStrategy);
+	}
+
 	public String getFactoryId() {
 		throw new UnsupportedOperationException();
 	}
@@ -15,6 +15,7 @@ package com.mobilesorcery.sdk.profiles.filter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -24,6 +25,7 @@ import com.mobilesorcery.sdk.core.MoSyncTool;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.profiles.IProfile;
 import com.mobilesorcery.sdk.profiles.IVendor;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 import com.mobilesorcery.sdk.profiles.filter.elementfactories.ProfileFilterFactory;
 
 public class ProfileFilter extends AbstractDeviceFilter {
@@ -89,6 +91,20 @@ public class ProfileFilter extends AbstractDeviceFilter {
         return required == acceptIfRequired;
     }
 
+    @Override
+	public BitSet select(ProfileIndex index) {
+        BitSet result = index.getProfiles(profiles);
+        if (!required) {
+            result.flip(0, index.size());
+        }
+        return result;
+    }
+
+    @Override
+	public Object getStateKey() {
+        return createStateKey(new ArrayList<IProfile>(profiles));
+    }
+
     public Set<IVendor> getVendorsWithAllProfilesAccepted() {
         TreeSet<IVendor> result = new TreeSet<IVendor>();
 
@@ -14,6 +14,7 @@
 package com.mobilesorcery.sdk.profiles.filter;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 
 import org.eclipse.ui.IMemento;
@@ -21,6 +22,7 @@ import org.eclipse.ui.IMemento;
 import com.mobilesorcery.sdk.core.Util;
 import com.mobilesorcery.sdk.profiles.IProfile;
 import com.mobilesorcery.sdk.profiles.IVendor;
+import com.mobilesorcery.sdk.profiles.ProfileIndex;
 import com.mobilesorcery.sdk.profiles.filter.elementfactories.VendorFilterFactory;
 
 public class VendorFilter extends AbstractDeviceFilter {
@@ -54,6 +56,18 @@ public class VendorFilter extends AbstractDeviceFilter {
     public boolean acceptVendor(IVendor vendor) {
         return vendors.contains(vendor.getName());
     }
+
+    public BitSet select(ProfileIndex index) {
+        BitSet result = new BitSet(index.size());
+        for (String vendor : vendors) {
+            result.or(index.getVendorProfiles(vendor));
+        }
+        return result;
+    }
+
+    public Object getStateKey() {
+        return createStateKey(new HashSet<String>(vendors));
+    }
     
     public String toString() {
         String vendorList = Util.join(vendors.toArray(new String[0]), ", ");
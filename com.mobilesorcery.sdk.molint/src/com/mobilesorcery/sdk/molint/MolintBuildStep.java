@@ -1,7 +1,10 @@
 package com.mobilesorcery.sdk.molint;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.runtime.CoreException;
@@ -10,6 +13,7 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.IMessageProvider;
 
+import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
 import com.mobilesorcery.sdk.core.IBuildResult;
 import com.mobilesorcery.sdk.core.IBuildSession;
 import com.mobilesorcery.sdk.core.IBuildVariant;
@@ -59,27 +63,51 @@ public class MolintBuildStep extends AbstractBuildStep {
 			IProgressMonitor monitor) throws Exception {
 		if (MolintPlugin.getDefault().isMolintEnabled()) {
 			boolean failed = false;
+			ArrayList<CPPASTMolintRule> astRules = new ArrayList<CPPASTMolintRule>();
+			ArrayList<IMarker> analysisResult = new ArrayList<IMarker>();
+			LinkedHashMap<String, Long> timings = new LinkedHashMap<String, Long>();
+			int analyzedCount = 0;
 			for (IMolintRule rule : getRules()) {
 				if (rule.getSeverity() == IMarker.SEVERITY_WARNING
 						|| rule.getSeverity() == IMarker.SEVERITY_ERROR) {
-					List<IMarker> analysisResult = rule.analyze(monitor,
-							project, variant);
-					if (analysisResult != null) {
-						for (IMarker potentialError : analysisResult) {
-							if (potentialError.getAttribute(IMarker.SEVERITY,
-									IMarker.SEVERITY_INFO) == IMarker.SEVERITY_ERROR) {
-								failed = true;
-								Object lineAttr = potentialError.getAttribute(IMarker.LINE_NUMBER);
-								getConsole().addMessage(IMessageProvider.ERROR, 
-										MessageFormat.format("{0}:{1}: {2}", 
-												potentialError.getResource().getLocation().toFile(),
-												lineAttr == null ? "-1" : lineAttr.toString(),
-												potentialError.getAttribute(IMarker.MESSAGE)));
-							}
+					if (rule instanceof CPPASTMolintRule) {
+						// These are all run in a single pass, below
+						astRules.add((CPPASTMolintRule) rule);
+					} else {
+						long start = System.nanoTime();
+						List<IMarker> ruleResult = rule.analyze(monitor,
+								project, variant);
+						timings.put(rule.getId(), System.nanoTime() - start);
+						if (ruleResult != null) {
+							analysisResult.addAll(ruleResult);
 						}
 					}
 				}
 			}
+
+			if (!astRules.isEmpty()) {
+				MolintEngine engine = new MolintEngine(astRules);
+				engine.setAffectedResources(MolintEngine.computeAffectedResources(
+						project.getWrappedProject(), diff,
+						getBuildState().getDependencyManager()));
+				analysisResult.addAll(engine.analyze(monitor, project, variant));
+				timings.putAll(engine.getTimings());
+				analyzedCount = engine.getAnalyzedCount();
+			}
+			publishTimings(timings, analyzedCount);
+
+			for (IMarker potentialError : analysisResult) {
+				if (potentialError.getAttribute(IMarker.SEVERITY,
+						IMarker.SEVERITY_INFO) == IMarker.SEVERITY_ERROR) {
+					failed = true;
+					Object lineAttr = potentialError.getAttribute(IMarker.LINE_NUMBER);
+					getConsole().addMessage(IMessageProvider.ERROR, 
+							MessageFormat.format("{0}:{1}: {2}", 
+									potentialError.getResource().getLocation().toFile(),
+									lineAttr == null ? "-1" : lineAttr.toString(),
+									potentialError.getAttribute(IMarker.MESSAGE)));
+				}
+			}
 			if (failed) {
 				throw new CoreException(
 						new Status(
@@ -91,6 +119,24 @@ public class MolintBuildStep extends AbstractBuildStep {
 		return CONTINUE;
 	}
 
+	private void publishTimings(Map<String, Long> timings, int analyzedCount) {
+		StringBuffer ruleTimings = new StringBuffer();
+		for (Map.Entry<String, Long> timing : timings.entrySet()) {
+			if (ruleTimings.length() > 0) {
+				ruleTimings.append(", ");
+			}
+			ruleTimings.append(MessageFormat.format("{0}: {1} ms",
+					timing.getKey(), timing.getValue() / 1000000));
+		}
+		String message = MessageFormat.format(
+				"MoLint analyzed {0} translation unit(s); rule timings: {1}",
+				analyzedCount, ruleTimings);
+		getConsole().addMessage(message);
+		if (CoreMoSyncPlugin.getDefault().isDebugging()) {
+			CoreMoSyncPlugin.trace(message);
+		}
+	}
+
 	@Override
 	public String[] getDependees() {
 		return new String[] { CompileBuildStep.ID };
@@ -0,0 +1,292 @@
+package com.mobilesorcery.sdk.molint;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.model.CoreModel;
+import org.eclipse.cdt.core.model.ICContainer;
+import org.eclipse.cdt.core.model.ICElement;
+import org.eclipse.cdt.core.model.ICElementVisitor;
+import org.eclipse.cdt.core.model.ICModelMarker;
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.model.ITranslationUnit;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import com.mobilesorcery.sdk.core.CoreMoSyncPlugin;
+import com.mobilesorcery.sdk.core.IBuildVariant;
+import com.mobilesorcery.sdk.core.IFileTreeDiff;
+import com.mobilesorcery.sdk.core.MoSyncBuilder;
+import com.mobilesorcery.sdk.core.MoSyncProject;
+import com.mobilesorcery.sdk.internal.dependencies.DependencyManager;
+
+/**
+ * <p>Runs a set of {@link CPPASTMolintRule}s in a single pass; the index
+ * is locked once, every translation unit is visited once and its AST is
+ * acquired once and then handed to all rules.</p>
+ * <p>If a set of affected resources is given, only those translation units
+ * are analyzed; markers previously reported by the rules for other
+ * files are returned as well, since they are still valid.</p>
+ * <p>The time spent in each rule is recorded, see {@link #getTimings()}.</p>
+ */
+public class MolintEngine {
+
+	/**
+	 * The marker attribute used to tag markers with the id
+	 * of the rule that created them.
+	 */
+	public static final String RULE_ATTRIBUTE = MolintPlugin.PLUGIN_ID + ".rule";
+
+	private class AnalyzeVisitor implements ICElementVisitor {
+
+		private IProgressMonitor monitor;
+		private IIndex index;
+		private MoSyncProject project;
+		private IBuildVariant variant;
+		private List<CPPASTMolintRule> rules;
+		private List<IMarker> result = new ArrayList<IMarker>();
+
+		public AnalyzeVisitor(IProgressMonitor monitor, IIndex index,
+				MoSyncProject project, IBuildVariant variant,
+				List<CPPASTMolintRule> rules) {
+			this.monitor = monitor;
+			this.index = index;
+			this.project = project;
+			this.variant = variant;
+			this.rules = rules;
+		}
+
+		@Override
+		public boolean visit(ICElement element) throws CoreException {
+			if (element instanceof ICContainer) {
+				return shouldVisit(((ICContainer) element).getResource());
+			}
+			if (element instanceof ITranslationUnit) {
+				ITranslationUnit tu = (ITranslationUnit) element;
+				IResource resource = tu.getResource();
+				boolean shouldVisit = shouldVisit(resource);
+				if (shouldVisit && isAffected(resource)) {
+					IASTTranslationUnit ast = tu.getAST(index,
+							ITranslationUnit.AST_SKIP_ALL_HEADERS);
+					if (ast != null) {
+						if (CoreMoSyncPlugin.getDefault().isDebugging()) {
+							CoreMoSyncPlugin.trace("Parsing translation unit {0}",
+									ast.getFilePath());
+						}
+						analyzedCount++;
+						for (CPPASTMolintRule rule : rules) {
+							long start = System.nanoTime();
+							List<IMarker> partialResult = rule.analyze(project, variant, tu, ast);
+							addTime(rule, System.nanoTime() - start);
+							if (partialResult != null) {
+								for (IMarker marker : partialResult) {
+									marker.setAttribute(RULE_ATTRIBUTE, rule.getId());
+								}
+								result.addAll(partialResult);
+							}
+						}
+					}
+				}
+				return !isCancelled() && shouldVisit;
+			}
+			return !isCancelled();
+		}
+
+		private boolean isCancelled() {
+			return monitor != null && monitor.isCanceled();
+		}
+
+		public List<IMarker> getResult() {
+			return result;
+		}
+	}
+
+	private List<CPPASTMolintRule> rules;
+
+	private Set<IResource> affectedResources;
+
+	private LinkedHashMap<String, Long> timings = new LinkedHashMap<String, Long>();
+
+	private int analyzedCount;
+
+	public MolintEngine(List<CPPASTMolintRule> rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Restricts the analysis to a set of resources.
+	 * @param affectedResources The resources to analyze, or
+	 * <code>null</code> to analyze all translation units.
+	 */
+	public void setAffectedResources(Set<IResource> affectedResources) {
+		this.affectedResources = affectedResources;
+	}
+
+	/**
+	 * Computes the set of resources that are affected by a diff;
+	 * the added and changed resources along with everything that
+	 * depends on an added, changed or removed resource.
+	 * @param project
+	 * @param diff
+	 * @param dependencies
+	 * @return The affected resources, or <code>null</code> if the
+	 * diff is <code>null</code> (ie all resources are affected)
+	 */
+	public static Set<IResource> computeAffectedResources(IProject project,
+			IFileTreeDiff diff, DependencyManager<IResource> dependencies) {
+		if (diff == null) {
+			return null;
+		}
+		HashSet<IResource> result = new HashSet<IResource>();
+		ArrayList<IResource> changeSet = new ArrayList<IResource>();
+		for (IPath path : diff.getAdded()) {
+			addMember(project, path, result, changeSet);
+		}
+		for (IPath path : diff.getChanged()) {
+			addMember(project, path, result, changeSet);
+		}
+		for (IPath path : diff.getRemoved()) {
+			// Handles will do for dependency lookups.
+			changeSet.add(project.getFile(path));
+		}
+		if (dependencies != null) {
+			result.addAll(dependencies.getReverseDependenciesOf(changeSet,
+					DependencyManager.DEPTH_INFINITE));
+		}
+		return result;
+	}
+
+	private static void addMember(IProject project, IPath path,
+			Set<IResource> result, List<IResource> changeSet) {
+		IResource member = project.findMember(path);
+		if (member != null) {
+			result.add(member);
+			changeSet.add(member);
+		}
+	}
+
+	public List<IMarker> analyze(IProgressMonitor monitor,
+			MoSyncProject mosyncProject, IBuildVariant variant)
+			throws CoreException {
+		IProject project = mosyncProject.getWrappedProject();
+		ArrayList<CPPASTMolintRule> applicableRules = new ArrayList<CPPASTMolintRule>();
+		for (CPPASTMolintRule rule : rules) {
+			long start = System.nanoTime();
+			boolean isApplicable = rule.isApplicable(mosyncProject, variant);
+			addTime(rule, System.nanoTime() - start);
+			if (isApplicable) {
+				applicableRules.add(rule);
+			}
+		}
+
+		ArrayList<IMarker> result = new ArrayList<IMarker>();
+		if (applicableRules.isEmpty()) {
+			return result;
+		}
+
+		if (affectedResources == null || !affectedResources.isEmpty()) {
+			result.addAll(analyzeTranslationUnits(monitor, mosyncProject,
+					variant, applicableRules));
+		}
+
+		if (affectedResources != null) {
+			result.addAll(getPreviousMarkers(project, applicableRules));
+		}
+		// Since we only get C/C++ Problem markers, no need to clear
+		// markers (this is done in the compilation step).
+		return result;
+	}
+
+	private List<IMarker> analyzeTranslationUnits(IProgressMonitor monitor,
+			MoSyncProject mosyncProject, IBuildVariant variant,
+			List<CPPASTMolintRule> applicableRules) throws CoreException {
+		IProject project = mosyncProject.getWrappedProject();
+		ICProject cProject = CoreModel.getDefault().create(project);
+		monitor.beginTask(
+				MessageFormat.format("Analyzing {0}", project.getName()), 1);
+		monitor.worked(1);
+		IIndex index = CCorePlugin.getIndexManager().getIndex(cProject);
+		try {
+			index.acquireReadLock();
+		} catch (InterruptedException e) {
+			throw new CoreException(new Status(IStatus.ERROR,
+					CoreMoSyncPlugin.PLUGIN_ID, e.getMessage(), e));
+		}
+
+		try {
+			AnalyzeVisitor visitor = new AnalyzeVisitor(monitor, index,
+					mosyncProject, variant, applicableRules);
+			cProject.accept(visitor);
+			return visitor.getResult();
+		} finally {
+			index.releaseReadLock();
+			monitor.done();
+		}
+	}
+
+	private List<IMarker> getPreviousMarkers(IProject project,
+			List<CPPASTMolintRule> applicableRules) throws CoreException {
+		HashSet<String> ruleIds = new HashSet<String>();
+		for (CPPASTMolintRule rule : applicableRules) {
+			ruleIds.add(rule.getId());
+		}
+		ArrayList<IMarker> result = new ArrayList<IMarker>();
+		IMarker[] markers = project.findMarkers(
+				ICModelMarker.C_MODEL_PROBLEM_MARKER, false,
+				IResource.DEPTH_INFINITE);
+		for (IMarker marker : markers) {
+			Object ruleId = marker.getAttribute(RULE_ATTRIBUTE);
+			if (ruleId != null && ruleIds.contains(ruleId)
+					&& !affectedResources.contains(marker.getResource())) {
+				result.add(marker);
+			}
+		}
+		return result;
+	}
+
+	private boolean shouldVisit(IResource resource) {
+		return resource != null
+				&& !MoSyncBuilder.isInOutput(resource.getProject(), resource);
+	}
+
+	private boolean isAffected(IResource resource) {
+		return affectedResources == null || affectedResources.contains(resource);
+	}
+
+	private void addTime(IMolintRule rule, long nanos) {
+		Long previous = timings.get(rule.getId());
+		timings.put(rule.getId(), (previous == null ? 0 : previous) + nanos);
+	}
+
+	/**
+	 * Returns the time spent in each rule, in nanoseconds.
+	 * @return A map from rule id to time, in the order the rules
+	 * were run.
+	 */
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Returns the number of translation units analyzed.
+	 * @return
+	 */
+	public int getAnalyzedCount() {
+		return analyzedCount;
+	}
+
+}
@@ -15,7 +15,6 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
@@ -36,9 +35,9 @@ public class MAHeaderRule extends CPPASTMolintRule {
 		super(RULE_ID, "MAHeaders.h Location");
 	}
 
-	public List<IMarker> analyze(IProgressMonitor monitor,
-			MoSyncProject mosyncProject, IBuildVariant variant)
-			throws CoreException {
+	@Override
+	protected boolean isApplicable(MoSyncProject mosyncProject,
+			IBuildVariant variant) throws CoreException {
 		// Our analysis only applies to C/C++ project that has resources
 		String templateId = mosyncProject
 				.getProperty(MoSyncProject.TEMPLATE_ID);
@@ -47,10 +46,17 @@ public class MAHeaderRule extends CPPASTMolintRule {
 		boolean isCppTemplate = projectTemplate != null
 				&& ProjectTemplate.DEFAULT_TYPE.equals(projectTemplate
 						.getType());
+		if (!isCppTemplate) {
+			return false;
+		}
 
 		boolean usesResourcesDir = MoSyncBuilder
 				.getResourcesDirectory(mosyncProject.getWrappedProject()) != null;
-		final boolean[] hasResourceFiles = new boolean[] { usesResourcesDir };
+		if (usesResourcesDir) {
+			return true;
+		}
+
+		final boolean[] hasResourceFiles = new boolean[] { false };
 		mosyncProject.getWrappedProject().accept(new IResourceVisitor() {
 			@Override
 			public boolean visit(IResource resource) throws CoreException {
@@ -61,12 +67,7 @@ public class MAHeaderRule extends CPPASTMolintRule {
 				return !hasResourceFiles[0];
 			}
 		});
-
-		if (isCppTemplate && hasResourceFiles[0]) {
-			return super.analyze(monitor, mosyncProject, variant);
-		} else {
-			return null;
-		}
+		return hasResourceFiles[0];
 	}
 
 	@Override
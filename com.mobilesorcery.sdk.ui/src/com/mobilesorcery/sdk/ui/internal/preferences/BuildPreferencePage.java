@@ -2,6 +2,7 @@ package com.mobilesorcery.sdk.ui.internal.preferences;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
@@ -23,8 +24,17 @@ public class BuildPreferencePage extends FieldEditorPreferencePage implements
 	protected void createFieldEditors() {
 		BooleanFieldEditor rebuild = new BooleanFieldEditor(MoSyncBuilder.REBUILD_ON_ERROR, "Always perform full &rebuild on errors", getFieldEditorParent());
 		BooleanFieldEditor nativeVerbose = new BooleanFieldEditor(MoSyncBuilder.VERBOSE_BUILDS, "Run build tools with -verbose flag (not applicable to all tools)", getFieldEditorParent());
+		IntegerFieldEditor compileJobs = new IntegerFieldEditor(MoSyncBuilder.PARALLEL_COMPILE_JOBS, "Number of files to &compile in parallel", getFieldEditorParent());
+		compileJobs.setValidRange(1, 256);
+		IntegerFieldEditor compileCacheSize = new IntegerFieldEditor(MoSyncBuilder.COMPILE_CACHE_SIZE, "Compile cache size in MB (0 to disable)", getFieldEditorParent());
+		compileCacheSize.setValidRange(0, 65536);
+		IntegerFieldEditor concurrentVariantBuilds = new IntegerFieldEditor(MoSyncBuilder.CONCURRENT_VARIANT_BUILDS, "Number of &variants to build in parallel (finalizing)", getFieldEditorParent());
+		concurrentVariantBuilds.setValidRange(1, 64);
 		addField(rebuild);
 		addField(nativeVerbose);
+		addField(compileJobs);
+		addField(compileCacheSize);
+		addField(concurrentVariantBuilds);
 	}
 
 
@@ -134,6 +134,7 @@ public class BuildSettingsPropertyPage extends MoSyncPropertyPage implements Pro
     private Button gccWerror;
     private Button gccWextra;
     private Combo incrementalBuildStrategy;
+    private Button contentHashChangeDetection;
     private Button useDebugRuntimes;
     private ComboViewer buildConfigurations;
     private String currentConfigId;
@@ -229,6 +230,10 @@ public class BuildSettingsPropertyPage extends MoSyncPropertyPage implements Pro
         incrementalBuildStrategy.setItems(INCREMENTAL_BUILD_STRATEGY_OPTIONS);
         incrementalBuildStrategy.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, true, false));
 
+        contentHashChangeDetection = new Button(buildStrategy, SWT.CHECK);
+        contentHashChangeDetection.setText("Only rebuild files whose &contents have changed (slower, but ignores touched files)");
+        contentHashChangeDetection.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, true, false, 2, 1));
+
         boolean hasConfigurations = getProject().areBuildConfigurationsSupported();
         Group configurationsGroup = null;
         if (hasConfigurations) {
@@ -524,6 +529,7 @@ public class BuildSettingsPropertyPage extends MoSyncPropertyPage implements Pro
 
         binaryType.setText(getBinaryTypeLabel(getProject().getProperty(MoSyncBuilder.OUTPUT_TYPE)));
         incrementalBuildStrategy.select(PropertyUtil.getInteger(projectWorkingCopy, addBuildProperty(MoSyncProject.DEPENDENCY_STRATEGY), MoSyncProject.GCC_DEPENDENCY_STRATEGY));
+        contentHashChangeDetection.setSelection(PropertyUtil.getBoolean(projectWorkingCopy, addBuildProperty(MoSyncProject.CONTENT_HASH_CHANGE_DETECTION)));
 
     	IPropertyOwner configProperties = getWorkingCopyOfBuildConfiguration();
 
@@ -833,6 +839,7 @@ public class BuildSettingsPropertyPage extends MoSyncPropertyPage implements Pro
 
         boolean changed = false;
         changed |= PropertyUtil.setInteger(getProject(), MoSyncProject.DEPENDENCY_STRATEGY, incrementalBuildStrategy.getSelectionIndex());
+        changed |= PropertyUtil.setBoolean(getProject(), MoSyncProject.CONTENT_HASH_CHANGE_DETECTION, contentHashChangeDetection.getSelection());
 
         changed |= configProperties.setProperty(MoSyncBuilder.ADDITIONAL_INCLUDE_PATHS, additionalIncludePathsText.getText().replace(';', ','));
         changed |= PropertyUtil.setBoolean(configProperties, MoSyncBuilder.IGNORE_DEFAULT_INCLUDE_PATHS, ignoreDefaultIncludePaths.getSelection());